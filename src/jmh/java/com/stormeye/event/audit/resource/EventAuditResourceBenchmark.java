@@ -0,0 +1,117 @@
+package com.stormeye.event.audit.resource;
+
+import com.stormeye.event.audit.Application;
+import com.stormeye.event.audit.service.BenchmarkEvents;
+import de.bwaldvogel.mongo.MongoServer;
+import de.bwaldvogel.mongo.backend.memory.MemoryBackend;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.boot.web.context.WebServerApplicationContext;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
+
+/**
+ * Measures the throughput of concurrent requests to the servlet stack served on tomcat's pool of platform threads and
+ * on virtual threads. Each operation sends a number of concurrent requests for stored events and waits for all of their
+ * responses, so the requests per second are the operations per second multiplied by the concurrency.
+ * <p>
+ * Virtual threads require Java 21, run with gradle's -PvirtualThreads to compare both modes.
+ *
+ * @author ian@meywood.com
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class EventAuditResourceBenchmark {
+
+    /** The number of events that are requested at random */
+    private static final int EVENTS = 1000;
+
+    @Param({"false"})
+    private boolean virtualThreads;
+
+    /** The number of requests in flight at once, above tomcat's 200 platform threads requests queue for a thread */
+    @Param({"64", "512"})
+    private int concurrency;
+
+    private MongoServer server;
+    private ConfigurableApplicationContext context;
+    private HttpClient httpClient;
+    private URI[] eventUris;
+    private int nextEvent;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException, InterruptedException {
+
+        server = new MongoServer(new MemoryBackend());
+        final InetSocketAddress address = server.bind();
+
+        context = new SpringApplicationBuilder(Application.class)
+                .properties(
+                        "server.port=0",
+                        "spring.data.mongodb.host=" + address.getHostString() + ":" + address.getPort() + "/benchmark",
+                        "event.audit.virtual-threads.enabled=" + virtualThreads,
+                        "event.audit.cache.max-bytes=0",
+                        "logging.level.root=WARN"
+                )
+                .run();
+
+        final int port = ((WebServerApplicationContext) context).getWebServer().getPort();
+        final URI base = URI.create("http://localhost:" + port + "/events/audit");
+
+        httpClient = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+
+        final byte[] json = BenchmarkEvents.json(BenchmarkEvents.Payload.DEPLOY_ACCEPTED);
+        final int idOffset = BenchmarkEvents.idOffset(json);
+
+        eventUris = new URI[EVENTS];
+        for (int i = 0; i < EVENTS; i++) {
+            BenchmarkEvents.setId(json, idOffset, BenchmarkEvents.FIRST_ID + i);
+            final HttpResponse<String> response = httpClient.send(
+                    HttpRequest.newBuilder(base)
+                            .header("Content-Type", "application/json")
+                            .POST(HttpRequest.BodyPublishers.ofByteArray(json))
+                            .build(),
+                    HttpResponse.BodyHandlers.ofString()
+            );
+            eventUris[i] = URI.create(base + "/" + response.body());
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        context.close();
+        server.shutdownNow();
+    }
+
+    @Benchmark
+    public long getEvents() {
+
+        final CompletableFuture<?>[] responses = IntStream.range(0, concurrency)
+                .mapToObj(i -> httpClient.sendAsync(
+                        HttpRequest.newBuilder(nextUri()).GET().build(),
+                        HttpResponse.BodyHandlers.discarding()
+                ))
+                .toArray(CompletableFuture[]::new);
+
+        CompletableFuture.allOf(responses).join();
+        return responses.length;
+    }
+
+    private URI nextUri() {
+        nextEvent = (nextEvent + 7919) % EVENTS;
+        return eventUris[nextEvent];
+    }
+}
@@ -0,0 +1,135 @@
+package com.stormeye.event.audit.service;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+/**
+ * Builds representative event payloads for the benchmarks. The shapes follow the events a casper node emits, with the
+ * hashes and keys filled with random hex so that the payloads do not compress better than real events.
+ * <p>
+ * The event ID of each payload is the last field and is always {@link #ID_DIGITS} digits long so that a benchmark can
+ * give each copy of a payload a unique ID by overwriting the digits in place.
+ *
+ * @author ian@meywood.com
+ */
+public final class BenchmarkEvents {
+
+    /** The event payloads that are benchmarked */
+    public enum Payload {
+        /** A small deploys event of a transfer */
+        DEPLOY_ACCEPTED,
+        /** A main event of a block with many deploys, larger than the inline threshold */
+        BLOCK_ADDED,
+        /** A main event of the transforms of an era's step, the largest events a node emits */
+        STEP
+    }
+
+    static final int ID_DIGITS = 10;
+    /** The event ID of a built payload, the lowest ID with all of its digits */
+    public static final long FIRST_ID = 1_000_000_000L;
+    private static final String SOURCE = "http://65.21.235.219:9999";
+    private static final String ID_FIELD = "\"id\":";
+
+    private BenchmarkEvents() {
+    }
+
+    /**
+     * @param payload the payload to build
+     * @return the JSON of the payload
+     */
+    public static byte[] json(final Payload payload) {
+
+        final Random random = new Random(payload.ordinal());
+
+        final String event = switch (payload) {
+            case DEPLOY_ACCEPTED -> event("deploys", "DeployAccepted", deployAccepted(random));
+            case BLOCK_ADDED -> event("main", "BlockAdded", blockAdded(random, 2000));
+            case STEP -> event("main", "Step", step(random, 3000));
+        };
+
+        return event.getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @param json a payload built by {@link #json(Payload)}
+     * @return the offset of the first digit of the payload's event ID
+     */
+    public static int idOffset(final byte[] json) {
+        return new String(json, StandardCharsets.UTF_8).lastIndexOf(ID_FIELD) + ID_FIELD.length();
+    }
+
+    /**
+     * Overwrites the event ID of a payload.
+     *
+     * @param json     the payload
+     * @param idOffset the offset of the event ID's digits
+     * @param id       the new ID, from {@link #FIRST_ID} up to the largest ID of {@link #ID_DIGITS} digits
+     */
+    public static void setId(final byte[] json, final int idOffset, final long id) {
+        long remaining = id;
+        for (int i = idOffset + ID_DIGITS - 1; i >= idOffset; i--) {
+            json[i] = (byte) ('0' + remaining % 10);
+            remaining /= 10;
+        }
+    }
+
+    private static String event(final String type, final String dataType, final String data) {
+        return "{\"source\":\"" + SOURCE + "\",\"type\":\"" + type + "\",\"dataType\":\"" + dataType + "\"," +
+                "\"data\":{\"" + dataType + "\":" + data + "},\"version\":\"1.0.0\"," + ID_FIELD + FIRST_ID + "}";
+    }
+
+    private static String deployAccepted(final Random random) {
+        return "{\"hash\":\"" + hex(random, 32) + "\"," +
+                "\"header\":{\"account\":\"01" + hex(random, 32) + "\",\"timestamp\":\"2022-08-10T08:22:57.280Z\"," +
+                "\"ttl\":\"30m\",\"gas_price\":1,\"body_hash\":\"" + hex(random, 32) + "\",\"dependencies\":[]," +
+                "\"chain_name\":\"casper\"}," +
+                "\"payment\":{\"ModuleBytes\":{\"module_bytes\":\"\",\"args\":[[\"amount\"," +
+                "{\"cl_type\":\"U512\",\"bytes\":\"0400e1f505\",\"parsed\":\"100000000\"}]]}}," +
+                "\"session\":{\"Transfer\":{\"args\":[[\"amount\",{\"cl_type\":\"U512\",\"bytes\":\"0500743ba40b\"," +
+                "\"parsed\":\"50000000000\"}],[\"target\",{\"cl_type\":{\"ByteArray\":32},\"bytes\":\"" + hex(random, 32) +
+                "\",\"parsed\":\"" + hex(random, 32) + "\"}],[\"id\",{\"cl_type\":{\"Option\":\"U64\"},\"bytes\":\"00\"," +
+                "\"parsed\":null}]]}}," +
+                "\"approvals\":[{\"signer\":\"01" + hex(random, 32) + "\",\"signature\":\"01" + hex(random, 64) + "\"}]}";
+    }
+
+    private static String blockAdded(final Random random, final int deploys) {
+
+        final String blockHash = hex(random, 32);
+        final StringBuilder deployHashes = new StringBuilder();
+
+        for (int i = 0; i < deploys; i++) {
+            deployHashes.append(i > 0 ? "," : "").append('"').append(hex(random, 32)).append('"');
+        }
+
+        return "{\"block_hash\":\"" + blockHash + "\",\"block\":{\"hash\":\"" + blockHash + "\"," +
+                "\"header\":{\"parent_hash\":\"" + hex(random, 32) + "\",\"state_root_hash\":\"" + hex(random, 32) + "\"," +
+                "\"body_hash\":\"" + hex(random, 32) + "\",\"random_bit\":true,\"accumulated_seed\":\"" + hex(random, 32) + "\"," +
+                "\"era_end\":null,\"timestamp\":\"2022-08-10T08:22:57.280Z\",\"era_id\":5849,\"height\":1002230," +
+                "\"protocol_version\":\"1.4.7\"}," +
+                "\"body\":{\"proposer\":\"01" + hex(random, 32) + "\",\"deploy_hashes\":[" + deployHashes + "]," +
+                "\"transfer_hashes\":[]},\"proofs\":[]}}";
+    }
+
+    private static String step(final Random random, final int transforms) {
+
+        final StringBuilder json = new StringBuilder("{\"era_id\":5849,\"execution_effect\":{\"operations\":[],\"transforms\":[");
+
+        for (int i = 0; i < transforms; i++) {
+            json.append(i > 0 ? "," : "")
+                    .append("{\"key\":\"hash-").append(hex(random, 32)).append("\",\"transform\":{\"WriteCLValue\":")
+                    .append("{\"cl_type\":\"Any\",\"bytes\":\"").append(hex(random, 48)).append("\",\"parsed\":null}}}");
+        }
+
+        return json.append("]}}").toString();
+    }
+
+    private static String hex(final Random random, final int bytes) {
+        final byte[] value = new byte[bytes];
+        random.nextBytes(value);
+        final StringBuilder hex = new StringBuilder(bytes * 2);
+        for (byte b : value) {
+            hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return hex.toString();
+    }
+}
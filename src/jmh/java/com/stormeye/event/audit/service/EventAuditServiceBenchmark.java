@@ -0,0 +1,110 @@
+package com.stormeye.event.audit.service;
+
+import com.mongodb.client.MongoClient;
+import com.mongodb.client.MongoClients;
+import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.gridfs.GridFSBuckets;
+import de.bwaldvogel.mongo.MongoServer;
+import de.bwaldvogel.mongo.backend.memory.MemoryBackend;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.data.mongodb.core.SimpleMongoClientDatabaseFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.time.Duration;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures saving and reading events end to end through the {@link EventAuditService} against an in process mongo
+ * server. The in process server does not have the I/O costs of a real deployment, so the results are for comparing
+ * releases rather than predicting the throughput of a deployment.
+ *
+ * @author ian@meywood.com
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class EventAuditServiceBenchmark {
+
+    @Param
+    private BenchmarkEvents.Payload payload;
+
+    @Param({"NONE", "ZSTD"})
+    private EventCodec codec;
+
+    /** The size in bytes of the cache events are read through, 0 reads every event from the store */
+    @Param({"0", "67108864"})
+    private long cacheBytes;
+
+    private final OutputStream out = OutputStream.nullOutputStream();
+    private MongoServer server;
+    private MongoClient client;
+    private EventAuditService eventAuditService;
+    private byte[] json;
+    private int idOffset;
+    private long nextId = BenchmarkEvents.FIRST_ID;
+    private String storedId;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+
+        server = new MongoServer(new MemoryBackend());
+        final InetSocketAddress address = server.bind();
+        client = MongoClients.create("mongodb://" + address.getHostString() + ":" + address.getPort());
+
+        final MongoDatabase database = client.getDatabase("benchmark");
+        final EventStore eventStore = new EventStore(database, GridFSBuckets.create(database), 16384, codec);
+        eventStore.createIndexes();
+
+        final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+        final EventSegmentStore segmentStore = new EventSegmentStore(null, EventCodec.ZSTD, Integer.MAX_VALUE);
+        eventAuditService = new EventAuditService(
+                eventStore,
+                Optional.empty(),
+                new EventDeduplicator(eventStore, segmentStore, meterRegistry, false, false, 0),
+                new EventCache(meterRegistry, cacheBytes, 1024 * 1024),
+                new EventMetrics(meterRegistry),
+                new EventBroadcaster(meterRegistry),
+                segmentStore,
+                EventFields.NONE,
+                new EventStatistics(new SimpleMongoClientDatabaseFactory(client, "benchmark"), Duration.ofSeconds(10), true)
+        );
+
+        json = BenchmarkEvents.json(payload);
+        idOffset = BenchmarkEvents.idOffset(json);
+        storedId = save();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        client.close();
+        server.shutdownNow();
+    }
+
+    @Benchmark
+    public String saveEvent() throws IOException {
+        return save();
+    }
+
+    @Benchmark
+    public long getEventById() throws IOException {
+        try (EventStream eventStream = eventAuditService.getEventById(storedId).decode()) {
+            return eventStream.transferTo(out);
+        }
+    }
+
+    /**
+     * Saves a copy of the payload with a new event ID as the store rejects a second event with the same ID.
+     */
+    private synchronized String save() throws IOException {
+        BenchmarkEvents.setId(json, idOffset, ++nextId);
+        return eventAuditService.saveEvent(new ByteArrayInputStream(json));
+    }
+}
@@ -0,0 +1,105 @@
+package com.stormeye.event.audit.service;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the cost of each side of saving and obtaining an event in each {@link EventFormat}. A forwarder serializes
+ * the event it holds as objects, here a tree, and the service transcodes it to JSON as its metadata is parsed. A stored
+ * event is transcoded from JSON by the service and parsed by the client. The JSON format is the path without
+ * transcoding, where the client serializes and parses JSON text.
+ *
+ * @author ian@meywood.com
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class EventFormatBenchmark {
+
+    /** The size of the buffer an event is read from a request with */
+    private static final int BUFFER_SIZE = 8192;
+
+    @Param
+    private BenchmarkEvents.Payload payload;
+
+    @Param({"JSON", "SMILE", "CBOR"})
+    private EventFormat format;
+
+    private final byte[] buffer = new byte[BUFFER_SIZE];
+    private ObjectMapper objectMapper;
+    private JsonNode event;
+    private byte[] json;
+    /** The event as sent and served in the format */
+    private byte[] encoded;
+
+    @Setup
+    public void setUp() throws IOException {
+
+        final JsonFactory factory = switch (format) {
+            case JSON -> new JsonFactory();
+            case SMILE -> new SmileFactory();
+            case CBOR -> new CBORFactory();
+        };
+        objectMapper = new ObjectMapper(factory);
+
+        json = BenchmarkEvents.json(payload);
+        event = new ObjectMapper().readTree(json);
+        encoded = objectMapper.writeValueAsBytes(event);
+    }
+
+    /**
+     * The forwarder serializes the event in the format.
+     */
+    @Benchmark
+    public byte[] clientSerialize() throws IOException {
+        return objectMapper.writeValueAsBytes(event);
+    }
+
+    /**
+     * The service reads the event in the format as JSON while parsing its metadata, as it does before storing it.
+     */
+    @Benchmark
+    public EventInfo serviceIngest() throws IOException {
+
+        final EventInfoParser parser = new EventInfoParser();
+
+        try (InputStream in = format.toJson(new ByteArrayInputStream(encoded))) {
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                parser.feed(buffer, 0, read);
+            }
+        }
+        return parser.complete();
+    }
+
+    /**
+     * The service writes the stored JSON of the event in the format.
+     */
+    @Benchmark
+    public byte[] serviceServe() throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream(encoded.length);
+        format.fromJson(new ByteArrayInputStream(json), out);
+        return out.toByteArray();
+    }
+
+    /**
+     * The client parses the event served in the format.
+     */
+    @Benchmark
+    public JsonNode clientParse() throws IOException {
+        return objectMapper.readTree(encoded);
+    }
+}
@@ -0,0 +1,53 @@
+package com.stormeye.event.audit.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the extraction of an event's metadata by binding the whole event to an {@link EventInfo} with an
+ * {@link ObjectMapper} against the incremental {@link EventInfoParser} that metadata is extracted with as an event is
+ * streamed to the store.
+ *
+ * @author ian@meywood.com
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class EventInfoBenchmark {
+
+    /** The size of the buffer an event is read from a request with */
+    private static final int BUFFER_SIZE = 8192;
+
+    @Param
+    private BenchmarkEvents.Payload payload;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private byte[] json;
+
+    @Setup
+    public void setUp() {
+        json = BenchmarkEvents.json(payload);
+    }
+
+    @Benchmark
+    public EventInfo objectMapper() throws IOException {
+        return objectMapper.readValue(json, EventInfo.class);
+    }
+
+    @Benchmark
+    public EventInfo eventInfoParser() throws IOException {
+
+        final EventInfoParser parser = new EventInfoParser();
+
+        for (int offset = 0; offset < json.length; offset += BUFFER_SIZE) {
+            parser.feed(json, offset, Math.min(BUFFER_SIZE, json.length - offset));
+        }
+        return parser.complete();
+    }
+}
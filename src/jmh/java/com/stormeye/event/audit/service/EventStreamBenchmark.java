@@ -0,0 +1,65 @@
+package com.stormeye.event.audit.service;
+
+import org.apache.commons.io.IOUtils;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the throughput of writing an {@link EventStream} to a response. The byte at a time stream is the stream
+ * events were read with before bulk reads were forwarded to the delegate stream.
+ *
+ * @author ian@meywood.com
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class EventStreamBenchmark {
+
+    /** The sizes of a small event, an event just above the inline threshold and a large BlockAdded event */
+    @Param({"1024", "65536", "4194304"})
+    private int size;
+
+    private byte[] data;
+    private final OutputStream out = OutputStream.nullOutputStream();
+
+    @Setup
+    public void setUp() {
+        data = new byte[size];
+    }
+
+    @Benchmark
+    public long byteAtATimeCopy() throws IOException {
+        final InputStream byteAtATime = new InputStream() {
+            private final ByteArrayInputStream delegate = new ByteArrayInputStream(data);
+
+            @Override
+            public int read() {
+                return delegate.read();
+            }
+        };
+        return IOUtils.copy(byteAtATime, out);
+    }
+
+    @Benchmark
+    public long eventStreamTransfer() throws IOException {
+        try (EventStream eventStream = new EventStream(new ByteArrayInputStream(data), data.length)) {
+            return eventStream.transferTo(out);
+        }
+    }
+
+    @Benchmark
+    public long cachedEventStreamTransfer() throws IOException {
+        try (EventStream eventStream = new ByteBufferEventStream(ByteBuffer.wrap(data))) {
+            return eventStream.transferTo(out);
+        }
+    }
+}
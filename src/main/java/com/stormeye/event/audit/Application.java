@@ -2,12 +2,16 @@ package com.stormeye.event.audit;
 
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.boot.autoconfigure.data.mongo.MongoReactiveDataAutoConfiguration;
+import org.springframework.boot.autoconfigure.mongo.MongoReactiveAutoConfiguration;
 
 
 /**
- * The event audit service application entry point.
+ * The event audit service application entry point. The reactive mongo client is configured by
+ * {@link com.stormeye.event.audit.config.ReactiveMongoConfig} rather than auto configured, as it is only used when the
+ * service runs on WebFlux.
  */
-@SpringBootApplication
+@SpringBootApplication(exclude = {MongoReactiveAutoConfiguration.class, MongoReactiveDataAutoConfiguration.class})
 public class Application {
 
     public static void main(String[] args) {
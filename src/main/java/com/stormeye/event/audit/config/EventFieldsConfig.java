@@ -0,0 +1,28 @@
+package com.stormeye.event.audit.config;
+
+import com.stormeye.event.audit.service.EventFields;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * Configures the {@link EventFields} extracted from events as they are saved, used by both the servlet and reactive
+ * stacks.
+ *
+ * @author ian@meywood.com
+ */
+@Configuration
+@EnableConfigurationProperties(EventFieldsProperties.class)
+public class EventFieldsConfig {
+
+    private final Logger logger = LoggerFactory.getLogger(EventFieldsConfig.class);
+
+    @Bean
+    public EventFields eventFields(final EventFieldsProperties properties) {
+        final EventFields eventFields = new EventFields(properties.getPaths());
+        logger.info("Extracting event fields {}", eventFields.getPaths());
+        return eventFields;
+    }
+}
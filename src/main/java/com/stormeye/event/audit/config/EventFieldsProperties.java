@@ -0,0 +1,27 @@
+package com.stormeye.event.audit.config;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The typed configuration of the fields extracted from the data of each type of event, bound from
+ * <code>event.audit.fields</code>.
+ *
+ * @author ian@meywood.com
+ */
+@ConfigurationProperties(prefix = "event.audit.fields")
+public class EventFieldsProperties {
+
+    /** The dotted paths from the root of an event of the extracted fields by field name, by data type */
+    private Map<String, Map<String, String>> paths = new LinkedHashMap<>();
+
+    public Map<String, Map<String, String>> getPaths() {
+        return paths;
+    }
+
+    public void setPaths(final Map<String, Map<String, String>> paths) {
+        this.paths = paths;
+    }
+}
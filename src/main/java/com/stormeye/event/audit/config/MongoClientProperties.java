@@ -0,0 +1,325 @@
+package com.stormeye.event.audit.config;
+
+import com.mongodb.MongoCompressor;
+import com.mongodb.ReadPreference;
+import com.mongodb.WriteConcern;
+import com.stormeye.event.audit.service.EventSharding;
+import com.stormeye.event.audit.service.EventStore;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The typed configuration of the mongo client and of the ingest and read paths of the event store, bound from
+ * <code>event.audit.mongo</code>. A setting that is not configured is left at the value of the connection string or
+ * the driver's default.
+ *
+ * @author ian@meywood.com
+ */
+@ConfigurationProperties(prefix = "event.audit.mongo")
+public class MongoClientProperties {
+
+    private final Pool pool = new Pool();
+    private final Socket socket = new Socket();
+    /** The wire compressors offered to the server in order of preference: zstd, snappy or zlib */
+    private List<String> compressors = new ArrayList<>();
+    private final Ingest ingest = new Ingest();
+    private final Read read = new Read();
+    private final Sharding sharding = new Sharding();
+
+    public Pool getPool() {
+        return pool;
+    }
+
+    public Socket getSocket() {
+        return socket;
+    }
+
+    public List<String> getCompressors() {
+        return compressors;
+    }
+
+    public void setCompressors(final List<String> compressors) {
+        this.compressors = compressors;
+    }
+
+    public Ingest getIngest() {
+        return ingest;
+    }
+
+    public Read getRead() {
+        return read;
+    }
+
+    public Sharding getSharding() {
+        return sharding;
+    }
+
+    /**
+     * @return the driver's compressors of the configured compressor names
+     */
+    public List<MongoCompressor> toCompressorList() {
+
+        final List<MongoCompressor> compressorList = new ArrayList<>();
+
+        for (String compressor : compressors) {
+            switch (compressor.toLowerCase(Locale.ROOT)) {
+                case "zstd" -> compressorList.add(MongoCompressor.createZstdCompressor());
+                // snappy requires org.xerial.snappy:snappy-java on the classpath
+                case "snappy" -> compressorList.add(MongoCompressor.createSnappyCompressor());
+                case "zlib" -> compressorList.add(MongoCompressor.createZlibCompressor());
+                default -> throw new IllegalArgumentException("Unknown mongo compressor " + compressor);
+            }
+        }
+        return compressorList;
+    }
+
+    /**
+     * The settings of the connection pool of each server.
+     */
+    public static class Pool {
+
+        private Integer maxSize;
+        private Integer minSize;
+        /** The time a request for a connection waits for a connection to become available */
+        private Duration maxWaitTime;
+        private Duration maxConnectionIdleTime;
+        private Duration maxConnectionLifeTime;
+
+        public Integer getMaxSize() {
+            return maxSize;
+        }
+
+        public void setMaxSize(final Integer maxSize) {
+            this.maxSize = maxSize;
+        }
+
+        public Integer getMinSize() {
+            return minSize;
+        }
+
+        public void setMinSize(final Integer minSize) {
+            this.minSize = minSize;
+        }
+
+        public Duration getMaxWaitTime() {
+            return maxWaitTime;
+        }
+
+        public void setMaxWaitTime(final Duration maxWaitTime) {
+            this.maxWaitTime = maxWaitTime;
+        }
+
+        public Duration getMaxConnectionIdleTime() {
+            return maxConnectionIdleTime;
+        }
+
+        public void setMaxConnectionIdleTime(final Duration maxConnectionIdleTime) {
+            this.maxConnectionIdleTime = maxConnectionIdleTime;
+        }
+
+        public Duration getMaxConnectionLifeTime() {
+            return maxConnectionLifeTime;
+        }
+
+        public void setMaxConnectionLifeTime(final Duration maxConnectionLifeTime) {
+            this.maxConnectionLifeTime = maxConnectionLifeTime;
+        }
+    }
+
+    /**
+     * The timeouts of the connections' sockets.
+     */
+    public static class Socket {
+
+        private Duration connectTimeout;
+        private Duration readTimeout;
+
+        public Duration getConnectTimeout() {
+            return connectTimeout;
+        }
+
+        public void setConnectTimeout(final Duration connectTimeout) {
+            this.connectTimeout = connectTimeout;
+        }
+
+        public Duration getReadTimeout() {
+            return readTimeout;
+        }
+
+        public void setReadTimeout(final Duration readTimeout) {
+            this.readTimeout = readTimeout;
+        }
+    }
+
+    /**
+     * The write concern events are stored with. Note that an unacknowledged write concern (w of 0) does not report
+     * the duplicate events rejected by the unique event ID index.
+     */
+    public static class Ingest {
+
+        /** The number of members or the tag set name to acknowledge a write, e.g. 1 or majority */
+        private String w;
+        /** If true a write is acknowledged once written to the journal */
+        private Boolean journal;
+        private Duration wTimeout;
+
+        public String getW() {
+            return w;
+        }
+
+        public void setW(final String w) {
+            this.w = w;
+        }
+
+        public Boolean getJournal() {
+            return journal;
+        }
+
+        public void setJournal(final Boolean journal) {
+            this.journal = journal;
+        }
+
+        public Duration getWTimeout() {
+            return wTimeout;
+        }
+
+        public void setWTimeout(final Duration wTimeout) {
+            this.wTimeout = wTimeout;
+        }
+
+        /**
+         * @return the configured write concern, null if none of its settings are configured
+         */
+        public WriteConcern toWriteConcern() {
+
+            if (w == null && journal == null && wTimeout == null) {
+                return null;
+            }
+
+            WriteConcern writeConcern = WriteConcern.ACKNOWLEDGED;
+            if (w != null) {
+                writeConcern = w.chars().allMatch(Character::isDigit) ? new WriteConcern(Integer.parseInt(w)) : new WriteConcern(w);
+            }
+            if (journal != null) {
+                writeConcern = writeConcern.withJournal(journal);
+            }
+            if (wTimeout != null) {
+                writeConcern = writeConcern.withWTimeout(wTimeout.toMillis(), TimeUnit.MILLISECONDS);
+            }
+            return writeConcern;
+        }
+    }
+
+    /**
+     * The read preference events and their metadata are read with, e.g. secondaryPreferred to serve replays from the
+     * secondaries of a replica set. Reads from a secondary may not see an event that was only just stored.
+     */
+    public static class Read {
+
+        /** The name of the read preference, e.g. primary, primaryPreferred, secondary or secondaryPreferred */
+        private String readPreference;
+        /** The maximum replication lag of a secondary that is read from */
+        private Duration maxStaleness;
+
+        public String getReadPreference() {
+            return readPreference;
+        }
+
+        public void setReadPreference(final String readPreference) {
+            this.readPreference = readPreference;
+        }
+
+        public Duration getMaxStaleness() {
+            return maxStaleness;
+        }
+
+        public void setMaxStaleness(final Duration maxStaleness) {
+            this.maxStaleness = maxStaleness;
+        }
+
+        /**
+         * @return the configured read preference, null if not configured
+         */
+        public ReadPreference toReadPreference() {
+
+            if (readPreference == null) {
+                return null;
+            }
+
+            if (maxStaleness == null) {
+                return ReadPreference.valueOf(readPreference);
+            }
+            return ReadPreference.valueOf(readPreference, List.of(), maxStaleness.toMillis(), TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * The further clusters events are stored in alongside the cluster of <code>spring.data.mongodb.host</code>, each
+     * configured with the same client settings. As the index of a cluster in the list is encoded in the internal IDs of
+     * its events, clusters may only be added to the end of the list and never removed or reordered.
+     */
+    public static class Sharding {
+
+        /** The name of the cluster of spring.data.mongodb.host on the hash ring */
+        private String primaryName = EventStore.PRIMARY_SHARD;
+        /** The field events are routed to a cluster by, SOURCE or TYPE */
+        private EventSharding routeBy = EventSharding.SOURCE;
+        private List<Shard> shards = new ArrayList<>();
+
+        public String getPrimaryName() {
+            return primaryName;
+        }
+
+        public void setPrimaryName(final String primaryName) {
+            this.primaryName = primaryName;
+        }
+
+        public EventSharding getRouteBy() {
+            return routeBy;
+        }
+
+        public void setRouteBy(final EventSharding routeBy) {
+            this.routeBy = routeBy;
+        }
+
+        public List<Shard> getShards() {
+            return shards;
+        }
+
+        public void setShards(final List<Shard> shards) {
+            this.shards = shards;
+        }
+    }
+
+    /**
+     * A further cluster that events are stored in.
+     */
+    public static class Shard {
+
+        /** The unique name of the cluster that places it on the hash ring */
+        private String name;
+        /** The host, port and database name of the cluster in the form of spring.data.mongodb.host */
+        private String host;
+
+        public String getName() {
+            return name;
+        }
+
+        public void setName(final String name) {
+            this.name = name;
+        }
+
+        public String getHost() {
+            return host;
+        }
+
+        public void setHost(final String host) {
+            this.host = host;
+        }
+    }
+}
@@ -4,18 +4,38 @@ import com.mongodb.ConnectionString;
 import com.mongodb.MongoClientSettings;
 import com.mongodb.client.MongoClient;
 import com.mongodb.client.MongoClients;
+import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.gridfs.GridFSBucket;
+import com.mongodb.client.gridfs.GridFSBuckets;
+import com.stormeye.event.audit.service.EventCodec;
+import com.stormeye.event.audit.service.EventPartitioning;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.mongodb.MongoMetricsCommandListener;
+import io.micrometer.core.instrument.binder.mongodb.MongoMetricsConnectionPoolListener;
+import com.stormeye.event.audit.service.EventStore;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.data.mongodb.MongoDatabaseFactory;
 import org.springframework.data.mongodb.config.AbstractMongoClientConfiguration;
 
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
 /**
  * Mongo database spring configuration
  *
  * @author ian@meywood.com
  */
 @Configuration
+@EnableConfigurationProperties(MongoClientProperties.class)
 public class MongoConfig extends AbstractMongoClientConfiguration {
 
     private final Logger logger = LoggerFactory.getLogger(MongoConfig.class);
@@ -24,24 +44,161 @@ public class MongoConfig extends AbstractMongoClientConfiguration {
      */
     @Value("${spring.data.mongodb.host:localhost:27017/cspr-event-audit}")
     private String host;
+    private final MeterRegistry meterRegistry;
+    private final MongoClientProperties properties;
+    /** The clients of the further clusters of a sharded event store */
+    private final List<MongoClient> shardClients = new ArrayList<>();
+
+    public MongoConfig(final MeterRegistry meterRegistry, final MongoClientProperties properties) {
+        this.meterRegistry = meterRegistry;
+        this.properties = properties;
+    }
 
     @Override
     public String getDatabaseName() {
+        return databaseName(host);
+    }
+
+    private static String databaseName(final String host) {
         var split = host.split("/");
         return split.length > 1 ? split[split.length - 1] : null;
     }
 
+    /**
+     * Creates the mongo client with a command listener that times each command and a connection pool listener that
+     * publishes the size of the connection pool to the meter registry.
+     */
     @Override
     public MongoClient mongoClient() {
+        return MongoClients.create(clientSettings());
+    }
+
+    /**
+     * Creates the settings of the mongo client from the connection string overridden by any configured pool, socket
+     * and compressor properties.
+     *
+     * @return the client settings
+     */
+    MongoClientSettings clientSettings() {
+        return clientSettings(host);
+    }
+
+    private MongoClientSettings clientSettings(final String host) {
 
         var connectionString = new ConnectionString("mongodb://" + host);
 
         logger.info("Connecting to mongo [{}]", connectionString);
 
-        return MongoClients.create(
-                MongoClientSettings.builder()
-                        .applyConnectionString(connectionString)
-                        .build()
+        final MongoClientProperties.Pool pool = properties.getPool();
+        final MongoClientProperties.Socket socket = properties.getSocket();
+
+        final MongoClientSettings.Builder builder = MongoClientSettings.builder()
+                .applyConnectionString(connectionString)
+                .addCommandListener(new MongoMetricsCommandListener(meterRegistry))
+                .applyToConnectionPoolSettings(settings -> {
+                    settings.addConnectionPoolListener(new MongoMetricsConnectionPoolListener(meterRegistry));
+                    if (pool.getMaxSize() != null) {
+                        settings.maxSize(pool.getMaxSize());
+                    }
+                    if (pool.getMinSize() != null) {
+                        settings.minSize(pool.getMinSize());
+                    }
+                    if (pool.getMaxWaitTime() != null) {
+                        settings.maxWaitTime(pool.getMaxWaitTime().toMillis(), TimeUnit.MILLISECONDS);
+                    }
+                    if (pool.getMaxConnectionIdleTime() != null) {
+                        settings.maxConnectionIdleTime(pool.getMaxConnectionIdleTime().toMillis(), TimeUnit.MILLISECONDS);
+                    }
+                    if (pool.getMaxConnectionLifeTime() != null) {
+                        settings.maxConnectionLifeTime(pool.getMaxConnectionLifeTime().toMillis(), TimeUnit.MILLISECONDS);
+                    }
+                })
+                .applyToSocketSettings(settings -> {
+                    if (socket.getConnectTimeout() != null) {
+                        settings.connectTimeout((int) socket.getConnectTimeout().toMillis(), TimeUnit.MILLISECONDS);
+                    }
+                    if (socket.getReadTimeout() != null) {
+                        settings.readTimeout((int) socket.getReadTimeout().toMillis(), TimeUnit.MILLISECONDS);
+                    }
+                });
+
+        if (!properties.getCompressors().isEmpty()) {
+            builder.compressorList(properties.toCompressorList());
+        }
+
+        return builder.build();
+    }
+
+    /**
+     * The GridFS bucket that events too large to be stored inline are streamed to.
+     *
+     * @param mongoDatabaseFactory the factory of the database the bucket belongs to
+     * @return the default GridFS bucket
+     */
+    @Bean
+    public GridFSBucket gridFsBucket(final MongoDatabaseFactory mongoDatabaseFactory) {
+        return GridFSBuckets.create(mongoDatabaseFactory.getMongoDatabase());
+    }
+
+    /**
+     * The store of the events, events smaller than the inline threshold are stored as a single document rather than in
+     * GridFS.
+     *
+     * @param mongoDatabaseFactory the factory of the database the events are stored in
+     * @param gridFsBucket         the GridFS bucket large events are stored in
+     * @param inlineThreshold      the size in bytes from which events are stored in GridFS
+     * @param createIndexes        if true the metadata indexes are created on startup
+     * @param codec                the codec new events are stored with
+     * @param partitioning         the period events are partitioned by
+     * @return the event store that writes with the ingest write concern and reads with the read preference, spanning
+     * the configured shards if any
+     */
+    @Bean
+    public EventStore eventStore(final MongoDatabaseFactory mongoDatabaseFactory,
+                                 final GridFSBucket gridFsBucket,
+                                 @Value("${event.audit.storage.inline-threshold:16384}") final int inlineThreshold,
+                                 @Value("${event.audit.storage.create-indexes:true}") final boolean createIndexes,
+                                 @Value("${event.audit.storage.codec:NONE}") final EventCodec codec,
+                                 @Value("${event.audit.storage.partition:NONE}") final EventPartitioning partitioning) {
+
+        final MongoClientProperties.Sharding sharding = properties.getSharding();
+        final Map<String, MongoDatabase> databases = new LinkedHashMap<>();
+        databases.put(sharding.getPrimaryName(), mongoDatabaseFactory.getMongoDatabase());
+
+        for (MongoClientProperties.Shard shard : sharding.getShards()) {
+            if (shard.getName() == null || shard.getHost() == null || databases.containsKey(shard.getName())) {
+                throw new IllegalArgumentException("Each shard requires a unique name and a host: " + shard.getName());
+            }
+            final MongoClient client = MongoClients.create(clientSettings(shard.getHost()));
+            shardClients.add(client);
+            databases.put(shard.getName(), client.getDatabase(databaseName(shard.getHost())));
+        }
+
+        if (databases.size() > 1) {
+            logger.info("Sharding events across {} by {}", databases.keySet(), sharding.getRouteBy());
+        }
+
+        final EventStore eventStore = new EventStore(
+                databases,
+                gridFsBucket,
+                inlineThreshold,
+                codec,
+                properties.getIngest().toWriteConcern(),
+                properties.getRead().toReadPreference(),
+                partitioning,
+                sharding.getRouteBy()
         );
+
+        if (createIndexes) {
+            logger.info("Creating event metadata indexes");
+            eventStore.createIndexes();
+        }
+
+        return eventStore;
+    }
+
+    @PreDestroy
+    public void closeShardClients() {
+        shardClients.forEach(MongoClient::close);
     }
 }
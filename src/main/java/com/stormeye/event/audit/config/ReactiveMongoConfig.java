@@ -0,0 +1,55 @@
+package com.stormeye.event.audit.config;
+
+import com.mongodb.reactivestreams.client.MongoClient;
+import com.mongodb.reactivestreams.client.MongoClients;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.data.mongodb.ReactiveMongoDatabaseFactory;
+import org.springframework.data.mongodb.core.SimpleReactiveMongoDatabaseFactory;
+import org.springframework.data.mongodb.core.convert.MappingMongoConverter;
+import org.springframework.data.mongodb.gridfs.ReactiveGridFsOperations;
+import org.springframework.data.mongodb.gridfs.ReactiveGridFsTemplate;
+
+/**
+ * Reactive mongo spring configuration, only used when the service runs on WebFlux by setting
+ * <code>spring.main.web-application-type</code> to reactive. The reactive client is created with the same settings as
+ * the blocking client of the {@link MongoConfig}.
+ *
+ * @author ian@meywood.com
+ */
+@Configuration
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.REACTIVE)
+public class ReactiveMongoConfig {
+
+    @Bean
+    public MongoClient reactiveMongoClient(final MongoConfig mongoConfig) {
+        return MongoClients.create(mongoConfig.clientSettings());
+    }
+
+    /**
+     * The factory of the reactive database that events are written to with the ingest write concern.
+     *
+     * @param reactiveMongoClient the reactive mongo client
+     * @param mongoConfig         the configuration that provides the database name
+     * @param properties          the mongo client properties that provide the ingest write concern
+     * @return the reactive database factory
+     */
+    @Bean
+    public ReactiveMongoDatabaseFactory reactiveMongoDatabaseFactory(final MongoClient reactiveMongoClient,
+                                                                     final MongoConfig mongoConfig,
+                                                                     final MongoClientProperties properties) {
+        final SimpleReactiveMongoDatabaseFactory factory = new SimpleReactiveMongoDatabaseFactory(reactiveMongoClient, mongoConfig.getDatabaseName());
+        factory.setWriteConcern(properties.getIngest().toWriteConcern());
+        return factory;
+    }
+
+    /**
+     * The reactive operations of the default GridFS bucket, the same bucket the event store uses.
+     */
+    @Bean
+    public ReactiveGridFsOperations reactiveGridFsOperations(final ReactiveMongoDatabaseFactory reactiveMongoDatabaseFactory,
+                                                             final MappingMongoConverter mappingMongoConverter) {
+        return new ReactiveGridFsTemplate(reactiveMongoDatabaseFactory, mappingMongoConverter);
+    }
+}
@@ -0,0 +1,57 @@
+package com.stormeye.event.audit.config;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.boot.web.embedded.tomcat.TomcatProtocolHandlerCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Runs the requests of the servlet stack on virtual threads rather than tomcat's pool of platform threads, so that a
+ * request blocked on mongo or a slow client does not hold a platform thread. Enabled by setting
+ * <code>event.audit.virtual-threads.enabled</code> to true, which requires the service to run on Java 21 or later.
+ * <p>
+ * The classes are compiled for Java 17 so the virtual thread executor is obtained reflectively.
+ *
+ * @author ian@meywood.com
+ */
+@Configuration
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.SERVLET)
+@ConditionalOnProperty(prefix = "event.audit.virtual-threads", name = "enabled", havingValue = "true")
+public class VirtualThreadsConfig {
+
+    private final Logger logger = LoggerFactory.getLogger(VirtualThreadsConfig.class);
+
+    /**
+     * The executor that starts a virtual thread for each task.
+     *
+     * @return the virtual thread per task executor
+     * @throws IllegalStateException if the JDK does not support virtual threads
+     */
+    @Bean(destroyMethod = "shutdown")
+    public ExecutorService virtualThreadExecutor() {
+        try {
+            final ExecutorService executor = (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+            logger.info("Serving requests on virtual threads");
+            return executor;
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Virtual threads require Java 21 or later, running on Java " + Runtime.version(), e);
+        }
+    }
+
+    /**
+     * Replaces the executor of tomcat's connectors with the virtual thread executor.
+     *
+     * @param virtualThreadExecutor the virtual thread per task executor
+     * @return the customizer of tomcat's protocol handlers
+     */
+    @Bean
+    public TomcatProtocolHandlerCustomizer<?> virtualThreadsProtocolHandlerCustomizer(final ExecutorService virtualThreadExecutor) {
+        return protocolHandler -> protocolHandler.setExecutor(virtualThreadExecutor);
+    }
+}
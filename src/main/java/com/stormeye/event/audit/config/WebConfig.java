@@ -1,16 +1,22 @@
 package com.stormeye.event.audit.config;
 
+import org.apache.tomcat.util.buf.EncodedSolidusHandling;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.boot.web.embedded.tomcat.TomcatServletWebServerFactory;
+import org.springframework.boot.web.server.WebServerFactoryCustomizer;
+import org.springframework.context.annotation.Bean;
 import org.springframework.stereotype.Component;
 import org.springframework.web.servlet.DispatcherServlet;
 
 import javax.annotation.PostConstruct;
 
 /**
- * Spring Web Configuration class.
+ * Spring Web Configuration class of the servlet stack.
  *
  * @author ian@meywood.com
  */
 @Component
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.SERVLET)
 public class WebConfig {
 
     private final DispatcherServlet dispatcherServlet;
@@ -23,4 +29,17 @@ public class WebConfig {
     public void configureDispatcherServlet() {
         this.dispatcherServlet.setThrowExceptionIfNoHandlerFound(true);
     }
+
+    /**
+     * Passes encoded slashes in request paths through to spring rather than rejecting them, so that the URL of a
+     * casper node can be used as a URL encoded path variable.
+     *
+     * @return the customizer of tomcat's connectors
+     */
+    @Bean
+    public WebServerFactoryCustomizer<TomcatServletWebServerFactory> encodedSolidusCustomizer() {
+        return factory -> factory.addConnectorCustomizers(
+                connector -> connector.setEncodedSolidusHandling(EncodedSolidusHandling.PASS_THROUGH.getValue())
+        );
+    }
 }
@@ -0,0 +1,13 @@
+package com.stormeye.event.audit.exception;
+
+/**
+ * Exception that is thrown when an event with the same source, type and event ID as an already stored event is saved.
+ *
+ * @author ian@meywood.com
+ */
+public class DuplicateEventException extends RuntimeException {
+
+    public DuplicateEventException(final String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,13 @@
+package com.stormeye.event.audit.exception;
+
+/**
+ * Exception that is thrown when an event cannot be accepted because the write behind queue is full.
+ *
+ * @author ian@meywood.com
+ */
+public class QueueFullException extends RuntimeException {
+
+    public QueueFullException(final String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,32 @@
+package com.stormeye.event.audit.resource;
+
+import java.util.List;
+
+/**
+ * Matches a content encoding against the Accept-Encoding headers of a request.
+ *
+ * @author ian@meywood.com
+ */
+final class AcceptEncoding {
+
+    private AcceptEncoding() {
+    }
+
+    /**
+     * @param headers         the values of the request's Accept-Encoding headers
+     * @param contentEncoding the content encoding of the response
+     * @return true if the headers accept the content encoding with a non zero quality
+     */
+    static boolean accepts(final List<String> headers, final String contentEncoding) {
+
+        for (String header : headers) {
+            for (String coding : header.split(",")) {
+                final String[] params = coding.split(";");
+                if (params[0].trim().equalsIgnoreCase(contentEncoding)) {
+                    return params.length == 1 || !params[1].trim().matches("q\\s*=\\s*0(\\.0*)?");
+                }
+            }
+        }
+        return false;
+    }
+}
@@ -1,31 +1,60 @@
 package com.stormeye.event.audit.resource;
 
+import com.fasterxml.jackson.core.io.JsonStringEncoder;
+import com.stormeye.event.audit.exception.DuplicateEventException;
+import com.stormeye.event.audit.exception.QueueFullException;
 import com.stormeye.event.audit.service.EventAuditService;
+import com.stormeye.event.audit.service.EventBatchResult;
+import com.stormeye.event.audit.service.EventCursor;
+import com.stormeye.event.audit.service.EventExportService;
+import com.stormeye.event.audit.service.EventFields;
+import com.stormeye.event.audit.service.EventFormat;
+import com.stormeye.event.audit.service.EventQuery;
+import com.stormeye.event.audit.service.EventQueryService;
+import com.stormeye.event.audit.service.EventStatistics;
 import com.stormeye.event.audit.service.EventStream;
+import com.stormeye.event.audit.service.EventSummary;
+import com.stormeye.event.audit.service.EventTailService;
+import com.stormeye.event.audit.service.SingleLineOutputStream;
 import io.swagger.v3.oas.annotations.OpenAPIDefinition;
 import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.info.Contact;
 import io.swagger.v3.oas.annotations.info.Info;
-import org.apache.commons.io.IOUtils;
+import org.bson.types.ObjectId;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
 import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpRange;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
 import javax.servlet.ServletOutputStream;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
 
 /**
- * The REST API for storing an obtaining events as JSON.
+ * The REST API for storing an obtaining events as JSON on the servlet stack.
  *
  * @author ian@meywood.com
  */
 @RestController
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.SERVLET)
 @RequestMapping("/events")
 @OpenAPIDefinition(
         info = @Info(
@@ -40,54 +69,692 @@ import java.io.IOException;
 )
 public class EventAuditResource {
 
+    private static final String GZIP_ENCODING = "gzip";
+    private static final String SMILE_VALUE = "application/x-jackson-smile";
+    /** The number of seconds a client should wait before retrying an event rejected by a full write behind queue */
+    private static final String RETRY_AFTER_SECONDS = "1";
+    private static final String BYTES_UNIT = "bytes";
+    /** The size of the buffer an export is gzip compressed with */
+    private static final int EXPORT_GZIP_BUFFER_SIZE = 64 * 1024;
+    /** The maximum number of events in a page of a metadata query */
+    private static final int MAX_QUERY_LIMIT = 1000;
+    /** The maximum number of events obtained by a multi-get */
+    private static final int MAX_MULTI_GET_IDS = 1000;
+
     private final Logger logger = LoggerFactory.getLogger(EventAuditResource.class);
     private final EventAuditService eventAuditService;
+    private final EventQueryService eventQueryService;
+    private final EventTailService eventTailService;
+    private final EventExportService eventExportService;
+    private final EventStatistics eventStatistics;
 
-    public EventAuditResource(final EventAuditService eventAuditService) {
+    public EventAuditResource(final EventAuditService eventAuditService,
+                              final EventQueryService eventQueryService,
+                              final EventTailService eventTailService,
+                              final EventExportService eventExportService,
+                              final EventStatistics eventStatistics) {
         this.eventAuditService = eventAuditService;
+        this.eventQueryService = eventQueryService;
+        this.eventTailService = eventTailService;
+        this.eventExportService = eventExportService;
+        this.eventStatistics = eventStatistics;
     }
 
     /**
-     * Stores a JSON representation of ra aw {@link com.casper.sdk.model.event.Event}.
+     * Stores a JSON representation of ra aw {@link com.casper.sdk.model.event.Event}. The event may be sent as Smile or
+     * CBOR by setting the Content-Type header, it is transcoded to JSON as it is read and stored as JSON.
      *
      * @param request the request whose input stream the JSON will be read from
      * @return the internal ID of the stored JSON event. Note this is not the event ID, but the ID that is created for
-     * the JSON when persisted
+     * the JSON when persisted. If write behind is enabled and its queue is full a 429 status is returned, if the event
+     * has already been stored a 409 status is returned.
      */
-    @PostMapping(value = "/audit", produces = MediaType.TEXT_PLAIN_VALUE, consumes = MediaType.APPLICATION_JSON_VALUE)
-    @Operation(summary = "Stores a JSON representation of a com.casper.sdk.model.event.Event and returns it's internal storage ID")
+    @PostMapping(value = "/audit",
+            produces = MediaType.TEXT_PLAIN_VALUE,
+            consumes = {MediaType.APPLICATION_JSON_VALUE, SMILE_VALUE, MediaType.APPLICATION_CBOR_VALUE})
+    @Operation(summary = "Stores a JSON, Smile or CBOR representation of a com.casper.sdk.model.event.Event and returns it's internal storage ID")
     public ResponseEntity<String> saveEvent(final HttpServletRequest request) {
         try {
-            final String id = eventAuditService.saveEvent(request.getInputStream());
+            final EventFormat format = EventFormat.fromContentType(request.getContentType());
+            final String id = eventAuditService.saveEvent(format.toJson(request.getInputStream()));
             logger.debug("saved event {}", id);
             return ResponseEntity.ok(id);
         } catch (IOException e) {
             return new ResponseEntity<>(e.getMessage(), HttpStatus.INTERNAL_SERVER_ERROR);
+        } catch (QueueFullException e) {
+            return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS)
+                    .header(HttpHeaders.RETRY_AFTER, RETRY_AFTER_SECONDS)
+                    .body(e.getMessage());
+        } catch (DuplicateEventException e) {
+            return new ResponseEntity<>(e.getMessage(), HttpStatus.CONFLICT);
+        }
+    }
+
+    /**
+     * Stores a batch of newline delimited JSON representations of raw {@link com.casper.sdk.model.event.Event}s. The
+     * request body may be gzip compressed by setting the Content-Encoding header to gzip. The batch may instead be sent
+     * as a sequence of Smile or CBOR events by setting the Content-Type header.
+     *
+     * @param request the request whose input stream the newline delimited JSON will be read from
+     * @return the internal ID or the error of each event in the order the events were provided
+     */
+    @PostMapping(value = "/audit/batch",
+            produces = MediaType.APPLICATION_JSON_VALUE,
+            consumes = {MediaType.APPLICATION_NDJSON_VALUE, SMILE_VALUE, MediaType.APPLICATION_CBOR_VALUE})
+    @Operation(summary = "Stores a batch of newline delimited JSON, or a sequence of Smile or CBOR com.casper.sdk.model.event.Events and returns the internal storage ID or error of each")
+    public ResponseEntity<?> saveEvents(final HttpServletRequest request) {
+        try {
+            InputStream inputStream = request.getInputStream();
+            if (GZIP_ENCODING.equalsIgnoreCase(request.getHeader(HttpHeaders.CONTENT_ENCODING))) {
+                inputStream = new GZIPInputStream(inputStream);
+            }
+            inputStream = EventFormat.fromContentType(request.getContentType()).toJson(inputStream);
+            final List<EventBatchResult> results = eventAuditService.saveEvents(inputStream);
+            logger.debug("saved batch of {} events", results.size());
+            return ResponseEntity.ok(results);
+        } catch (IOException e) {
+            return new ResponseEntity<>(e.getMessage(), HttpStatus.INTERNAL_SERVER_ERROR);
+        }
+    }
+
+    /**
+     * Queries the metadata of the stored events. Events are returned in order of their source and event ID, the next
+     * page is obtained by passing the next cursor of a page as the after parameter.
+     *
+     * @param type     the optional type/topic of the events main, deploys or sigs
+     * @param dataType the optional type of the data in the events e.g. BlockAdded
+     * @param source   the optional URL of the casper node that emitted the events
+     * @param fromId   the optional lowest event ID inclusive
+     * @param toId     the optional highest event ID inclusive
+     * @param after    the optional cursor of the previous page
+     * @param limit    the maximum number of events in the page
+     * @return the page of the metadata of the matching events
+     */
+    @GetMapping(value = "/audit", produces = MediaType.APPLICATION_JSON_VALUE)
+    @Operation(summary = "Queries the metadata of the stored events, returning a page of events ordered by source and event ID")
+    public ResponseEntity<?> queryEvents(@RequestParam(required = false) final String type,
+                                         @RequestParam(required = false) final String dataType,
+                                         @RequestParam(required = false) final String source,
+                                         @RequestParam(required = false) final Long fromId,
+                                         @RequestParam(required = false) final Long toId,
+                                         @RequestParam(required = false) final String after,
+                                         @RequestParam(defaultValue = "100") final int limit) {
+
+        if (limit < 1 || limit > MAX_QUERY_LIMIT) {
+            return ResponseEntity.badRequest().body("limit must be between 1 and " + MAX_QUERY_LIMIT);
+        }
+
+        final EventCursor cursor;
+        try {
+            cursor = after != null ? EventCursor.fromToken(after) : null;
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body("Invalid cursor " + after);
+        }
+
+        return ResponseEntity.ok(eventQueryService.query(new EventQuery(type, dataType, source, fromId, toId, cursor, limit)));
+    }
+
+    /**
+     * Obtains the number and total size of the events saved per type, data type and source in each period of a range
+     * of time, and the highest event ID saved from each source. The statistics are read from documents maintained as
+     * events are saved, so a report costs the same however many events are stored. The counts of the last few seconds
+     * may not be included yet.
+     *
+     * @param from        the optional ISO-8601 start of the range inclusive, defaults to 60 periods before the end
+     * @param to          the optional ISO-8601 end of the range exclusive, defaults to now
+     * @param granularity the length of the periods MINUTE, HOUR or DAY
+     * @return the statistics of the range, a 400 status is returned if the range is invalid or spans too many periods
+     */
+    @GetMapping(value = "/audit/stats", produces = MediaType.APPLICATION_JSON_VALUE)
+    @Operation(summary = "Obtains the number and size of the saved events per type, data type and source per period")
+    public ResponseEntity<?> getStatistics(@RequestParam(required = false) final String from,
+                                           @RequestParam(required = false) final String to,
+                                           @RequestParam(defaultValue = "HOUR") final EventStatistics.Granularity granularity) {
+
+        try {
+            final Instant end = to != null ? Instant.parse(to) : Instant.now();
+            final Instant start = from != null ? Instant.parse(from) : end.minus(granularity.getDuration().multipliedBy(60));
+            return ResponseEntity.ok(eventStatistics.query(start, end, granularity));
+        } catch (DateTimeParseException | IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(e.getMessage());
         }
     }
 
+    /**
+     * Exports the JSON of the stored events as newline delimited JSON, in order of their source and event ID. The
+     * events are streamed with a chunked response that is gzip compressed if the client accepts gzip.
+     *
+     * @param type     the optional type/topic of the events main, deploys or sigs
+     * @param source   the optional URL of the casper node that emitted the events
+     * @param fromId   the optional lowest event ID inclusive
+     * @param toId     the optional highest event ID inclusive
+     * @param request  the request whose Accept-Encoding headers are honoured
+     * @param response the response the events are written to
+     */
+    @GetMapping(value = "/audit/export", produces = MediaType.APPLICATION_NDJSON_VALUE)
+    @Operation(summary = "Exports the JSON of the stored events as newline delimited JSON ordered by source and event ID")
+    public void exportEvents(@RequestParam(required = false) final String type,
+                             @RequestParam(required = false) final String source,
+                             @RequestParam(required = false) final Long fromId,
+                             @RequestParam(required = false) final Long toId,
+                             final HttpServletRequest request,
+                             final HttpServletResponse response) throws IOException {
+
+        logger.debug("exportEvents({}, {}, {}, {})", type, source, fromId, toId);
+
+        final EventQuery query = new EventQuery(type, null, source, fromId, toId, null, Integer.MAX_VALUE);
+        export(out -> eventExportService.export(query, out), request, response);
+    }
+
+    /**
+     * Streams every event of a block as newline delimited JSON in the order they were stored, the events whose
+     * extracted block hash matches e.g. BlockAdded, DeployProcessed and FinalitySignature events. The response is gzip
+     * compressed if the client accepts gzip.
+     *
+     * @param hash     the hash of the block
+     * @param request  the request whose Accept-Encoding headers are honoured
+     * @param response the response the events are written to
+     */
+    @GetMapping(value = "/audit/block/{hash}", produces = MediaType.APPLICATION_NDJSON_VALUE)
+    @Operation(summary = "Obtains the JSON of every event of a block by its hash as newline delimited JSON")
+    public void getBlockEvents(@PathVariable final String hash,
+                               final HttpServletRequest request,
+                               final HttpServletResponse response) throws IOException {
+
+        logger.debug("getBlockEvents({})", hash);
+
+        export(out -> eventExportService.exportByField(EventFields.BLOCK_HASH, hash, out), request, response);
+    }
+
+    /**
+     * Streams every event of a deploy as newline delimited JSON in the order they were stored, the events whose
+     * extracted deploy hash matches e.g. DeployAccepted, DeployProcessed and DeployExpired events. The response is
+     * gzip compressed if the client accepts gzip.
+     *
+     * @param hash     the hash of the deploy
+     * @param request  the request whose Accept-Encoding headers are honoured
+     * @param response the response the events are written to
+     */
+    @GetMapping(value = "/audit/deploy/{hash}", produces = MediaType.APPLICATION_NDJSON_VALUE)
+    @Operation(summary = "Obtains the JSON of every event of a deploy by its hash as newline delimited JSON")
+    public void getDeployEvents(@PathVariable final String hash,
+                                final HttpServletRequest request,
+                                final HttpServletResponse response) throws IOException {
+
+        logger.debug("getDeployEvents({})", hash);
+
+        export(out -> eventExportService.exportByField(EventFields.DEPLOY_HASH, hash, out), request, response);
+    }
+
+    /**
+     * Obtains many JSON events by their internal IDs in a single request. The events are written in the order of the
+     * IDs as newline delimited JSON, or as a JSON array if the client prefers application/json, each entry is a JSON
+     * object of the internal ID and the event. An event that is not found has an entry of its ID and an error rather
+     * than failing the request. The response is gzip compressed if the client accepts gzip.
+     *
+     * @param ids      the internal IDs of the events, at most 1000 otherwise a 400 status is returned
+     * @param request  the request whose Accept and Accept-Encoding headers are honoured
+     * @param response the response the events are written to
+     */
+    @PostMapping(value = "/audit/multi-get",
+            consumes = MediaType.APPLICATION_JSON_VALUE,
+            produces = {MediaType.APPLICATION_NDJSON_VALUE, MediaType.APPLICATION_JSON_VALUE})
+    @Operation(summary = "Obtains the JSON of many events by their internal storage IDs in the order they are requested")
+    public void getEvents(@RequestBody final List<String> ids,
+                          final HttpServletRequest request,
+                          final HttpServletResponse response) throws IOException {
+
+        logger.debug("getEvents({})", ids.size());
+
+        if (ids.size() > MAX_MULTI_GET_IDS) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "At most " + MAX_MULTI_GET_IDS + " IDs can be requested");
+        }
+
+        final boolean array = prefersJsonArray(request.getHeader(HttpHeaders.ACCEPT));
+        final boolean gzip = AcceptEncoding.accepts(Collections.list(request.getHeaders(HttpHeaders.ACCEPT_ENCODING)), GZIP_ENCODING);
+
+        response.setHeader(HttpHeaders.CONTENT_TYPE, array ? MediaType.APPLICATION_JSON_VALUE : MediaType.APPLICATION_NDJSON_VALUE);
+        response.setHeader(HttpHeaders.VARY, HttpHeaders.ACCEPT + ", " + HttpHeaders.ACCEPT_ENCODING);
+        if (gzip) {
+            response.setHeader(HttpHeaders.CONTENT_ENCODING, GZIP_ENCODING);
+        }
+        response.setStatus(HttpStatus.OK.value());
+
+        final ServletOutputStream outputStream = response.getOutputStream();
+
+        if (gzip) {
+            try (GZIPOutputStream out = new GZIPOutputStream(outputStream, EXPORT_GZIP_BUFFER_SIZE)) {
+                writeEvents(ids, array, out);
+            }
+        } else {
+            writeEvents(ids, array, outputStream);
+            outputStream.flush();
+        }
+    }
+
+    /**
+     * Streams the events as they are stored as server-sent events. Each event's data is a JSON object of its internal
+     * ID and the event, its name is the event's type and its ID is the cursor a client resumes from. A client that
+     * falls too far behind is disconnected, on reconnecting with the Last-Event-ID header the events it missed are sent
+     * before it returns to the live events.
+     *
+     * @param type        the optional type/topic of the events main, deploys or sigs
+     * @param source      the optional URL of the casper node that emitted the events
+     * @param resumeFrom  the optional internal ID of the event to resume after
+     * @param lastEventId the cursor of the last event the client received, takes precedence over resumeFrom
+     * @return the stream of events, if the resume ID is not an internal ID a 400 status is returned
+     */
+    @GetMapping(value = "/audit/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    @Operation(summary = "Streams the events as they are stored as server-sent events, optionally resuming after an internal storage ID")
+    public ResponseEntity<SseEmitter> streamEvents(@RequestParam(required = false) final String type,
+                                                   @RequestParam(required = false) final String source,
+                                                   @RequestParam(required = false) final String resumeFrom,
+                                                   @RequestHeader(value = "Last-Event-ID", required = false) final String lastEventId) {
+
+        final String resume = lastEventId != null ? lastEventId : resumeFrom;
+        if (resume != null && !ObjectId.isValid(resume)) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Invalid resume ID " + resume);
+        }
+
+        // The tail ends when the client goes away or falls behind rather than on a timeout
+        final SseEmitter emitter = new SseEmitter(0L);
+
+        final EventTailService.Tail tail = eventTailService.tail(type, source, resume != null ? new ObjectId(resume) : null, new EventTailService.EventSink() {
+
+            @Override
+            public void checkpoint(final String cursor) throws IOException {
+                emitter.send(SseEmitter.event().id(cursor).comment("tail"));
+            }
+
+            @Override
+            public void send(final String cursor, final EventSummary summary, final byte[] json) throws IOException {
+                // Line breaks only occur between the tokens of JSON so the event is sent as a single data line
+                final String event = new String(json, StandardCharsets.UTF_8).replace('\r', ' ').replace('\n', ' ');
+                emitter.send(SseEmitter.event()
+                        .id(cursor)
+                        .name(summary.getType())
+                        .data("{\"id\":\"" + summary.getId() + "\",\"event\":" + event + "}", MediaType.APPLICATION_JSON));
+            }
+
+            @Override
+            public void complete() {
+                emitter.complete();
+            }
+
+            @Override
+            public void completeWithError(final Throwable error) {
+                emitter.completeWithError(error);
+            }
+        });
+
+        emitter.onCompletion(tail::close);
+        emitter.onTimeout(tail::close);
+        emitter.onError(error -> tail.close());
+
+        return ResponseEntity.ok().header(HttpHeaders.CACHE_CONTROL, "no-cache").body(emitter);
+    }
+
     /**
      * Obtains a JSON representation of a raw {@link com.casper.sdk.model.event.Event}. Using the internal ID that was generated
      * when it was stored.
+     * <p>
+     * As stored events never change the response has an ETag of the internal ID, a request with a matching
+     * If-None-Match header receives a 304 status. A single byte range of the event can be requested with the Range
+     * and If-Range headers, a 206 status is returned with the Content-Range of the bytes.
+     * <p>
+     * A client that accepts application/x-jackson-smile or application/cbor in preference to JSON receives the event
+     * in that format, so it does not parse JSON text.
      *
      * @param id the internal ID of the JSON to obtain, not the ID of the event
      */
-    @GetMapping(value = "/audit/{id}", produces = MediaType.APPLICATION_JSON_VALUE)
+    @GetMapping(value = "/audit/{id}", produces = {MediaType.APPLICATION_JSON_VALUE, SMILE_VALUE, MediaType.APPLICATION_CBOR_VALUE})
     @Operation(summary = "Obtains a JSON representation of a com.casper.sdk.model.event.Event using it's internal storage ID")
-    private void getEvent(@PathVariable final String id, final HttpServletResponse response) throws IOException {
+    private void getEvent(@PathVariable final String id,
+                          final HttpServletRequest request,
+                          final HttpServletResponse response) throws IOException {
 
         logger.debug("getEvent({})", id);
 
-        final EventStream inputStream = eventAuditService.getEventById(id);
-        final ServletOutputStream outputStream = response.getOutputStream();
+        writeEvent(eventAuditService.getEventById(id), id, request, response);
+    }
+
+    /**
+     * Obtains a JSON representation of a raw {@link com.casper.sdk.model.event.Event} using the URL of the node that
+     * emitted it and its event ID. As the source is a URL it must be URL encoded.
+     *
+     * @param source  the URL of the casper node that emitted the event
+     * @param eventId the ID of the event
+     */
+    @GetMapping(value = "/audit/source/{source}/id/{eventId}", produces = {MediaType.APPLICATION_JSON_VALUE, SMILE_VALUE, MediaType.APPLICATION_CBOR_VALUE})
+    @Operation(summary = "Obtains a JSON representation of a com.casper.sdk.model.event.Event using the URL encoded source and ID of the event")
+    public void getEventByEventId(@PathVariable final String source,
+                                  @PathVariable final long eventId,
+                                  final HttpServletRequest request,
+                                  final HttpServletResponse response) throws IOException {
+
+        logger.debug("getEventByEventId({}, {})", source, eventId);
+
+        writeEvent(eventAuditService.getEventByEventId(source, null, eventId), null, request, response);
+    }
+
+    /**
+     * Obtains a JSON representation of a raw {@link com.casper.sdk.model.event.Event} using the URL of the node that
+     * emitted it, its type and its event ID. As the source is a URL it must be URL encoded.
+     *
+     * @param source  the URL of the casper node that emitted the event
+     * @param type    the type/topic of the event main, deploys or sigs
+     * @param eventId the ID of the event
+     */
+    @GetMapping(value = "/audit/source/{source}/type/{type}/id/{eventId}", produces = {MediaType.APPLICATION_JSON_VALUE, SMILE_VALUE, MediaType.APPLICATION_CBOR_VALUE})
+    @Operation(summary = "Obtains a JSON representation of a com.casper.sdk.model.event.Event using the URL encoded source, type and ID of the event")
+    public void getEventByTypeAndEventId(@PathVariable final String source,
+                                         @PathVariable final String type,
+                                         @PathVariable final long eventId,
+                                         final HttpServletRequest request,
+                                         final HttpServletResponse response) throws IOException {
+
+        logger.debug("getEventByTypeAndEventId({}, {}, {})", source, type, eventId);
 
-        response.setHeader(HttpHeaders.CONTENT_LENGTH, Long.toString(inputStream.getSize()));
-        response.setHeader(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_JSON_VALUE);
+        writeEvent(eventAuditService.getEventByEventId(source, type, eventId), null, request, response);
+    }
+
+    /**
+     * Writes an event to the response. An encoded event is written as stored with its Content-Encoding if the client
+     * accepts the encoding, otherwise it is decoded as it is written. A client that prefers Smile or CBOR to JSON is
+     * written the event transcoded to that format.
+     * <p>
+     * A requested byte range of an event that is written as stored is written by skipping to the range, ranges of a
+     * decoded event are not supported and the whole event is written.
+     *
+     * @param id the internal ID of the event that its ETag is derived from, null if the response has no ETag
+     */
+    private void writeEvent(final EventStream eventStream,
+                            final String id,
+                            final HttpServletRequest request,
+                            final HttpServletResponse response) throws IOException {
+
+        final EventFormat format = acceptedFormat(request.getHeader(HttpHeaders.ACCEPT));
+        if (format != EventFormat.JSON) {
+            writeEvent(eventStream, id, format, request, response);
+            return;
+        }
+
+        final String contentEncoding = eventStream.getCodec().getContentEncoding();
+        final boolean encoded = contentEncoding != null
+                && AcceptEncoding.accepts(Collections.list(request.getHeaders(HttpHeaders.ACCEPT_ENCODING)), contentEncoding);
+        final boolean decoded = contentEncoding != null && !encoded;
+        // Each encoding of an event is a different representation so has its own ETag
+        final String etag = id != null ? "\"" + id + (encoded ? "-" + contentEncoding : "") + "\"" : null;
+
+        // Closing the stream releases the GridFS cursor of the event even if the client goes away
+        try (EventStream inputStream = decoded ? eventStream.decode() : eventStream) {
+
+            response.setHeader(HttpHeaders.VARY, vary(eventStream));
+            if (encoded) {
+                response.setHeader(HttpHeaders.CONTENT_ENCODING, contentEncoding);
+            }
+            if (etag != null) {
+                response.setHeader(HttpHeaders.ETAG, etag);
+                if (matches(request.getHeader(HttpHeaders.IF_NONE_MATCH), etag)) {
+                    response.setStatus(HttpStatus.NOT_MODIFIED.value());
+                    return;
+                }
+            }
+            if (!decoded) {
+                response.setHeader(HttpHeaders.ACCEPT_RANGES, BYTES_UNIT);
+            }
+
+            response.setHeader(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_JSON_VALUE);
+
+            final long size = inputStream.getSize();
+            final HttpRange range = !decoded ? requestedRange(request, etag) : null;
+
+            if (range == null) {
+                response.setHeader(HttpHeaders.CONTENT_LENGTH, Long.toString(size));
+                response.setStatus(HttpStatus.OK.value());
+
+                final ServletOutputStream outputStream = response.getOutputStream();
+                inputStream.transferTo(outputStream);
+                outputStream.flush();
+                return;
+            }
+
+            final long start = range.getRangeStart(size);
+            final long end = range.getRangeEnd(size);
+
+            if (start >= size || start > end) {
+                response.setHeader(HttpHeaders.CONTENT_RANGE, BYTES_UNIT + " */" + size);
+                response.setStatus(HttpStatus.REQUESTED_RANGE_NOT_SATISFIABLE.value());
+                return;
+            }
+
+            response.setHeader(HttpHeaders.CONTENT_RANGE, BYTES_UNIT + " " + start + "-" + end + "/" + size);
+            response.setHeader(HttpHeaders.CONTENT_LENGTH, Long.toString(end - start + 1));
+            response.setStatus(HttpStatus.PARTIAL_CONTENT.value());
+
+            final ServletOutputStream outputStream = response.getOutputStream();
+            inputStream.transferTo(outputStream, start, end - start + 1);
+            outputStream.flush();
+        }
+    }
+
+    /**
+     * Writes an event to the response transcoded from its JSON to a binary format as it is decoded. The size of the
+     * transcoded event is not known until it has been written, so byte ranges are not supported.
+     *
+     * @param id the internal ID of the event that its ETag is derived from, null if the response has no ETag
+     */
+    private void writeEvent(final EventStream eventStream,
+                            final String id,
+                            final EventFormat format,
+                            final HttpServletRequest request,
+                            final HttpServletResponse response) throws IOException {
+
+        final String etag = id != null ? "\"" + id + "-" + format.name().toLowerCase(Locale.ROOT) + "\"" : null;
+
+        try (EventStream inputStream = eventStream.decode()) {
+
+            response.setHeader(HttpHeaders.VARY, vary(eventStream));
+            if (etag != null) {
+                response.setHeader(HttpHeaders.ETAG, etag);
+                if (matches(request.getHeader(HttpHeaders.IF_NONE_MATCH), etag)) {
+                    response.setStatus(HttpStatus.NOT_MODIFIED.value());
+                    return;
+                }
+            }
+
+            response.setHeader(HttpHeaders.CONTENT_TYPE, format.getMediaType());
+            response.setStatus(HttpStatus.OK.value());
+
+            final ServletOutputStream outputStream = response.getOutputStream();
+            format.fromJson(inputStream, outputStream);
+            outputStream.flush();
+        }
+    }
+
+    /**
+     * @return the request headers that the representation of an event varies by, the Accept-Encoding of an encoded
+     * event as it may be served as stored
+     */
+    private static String vary(final EventStream eventStream) {
+        return eventStream.getCodec().getContentEncoding() != null
+                ? HttpHeaders.ACCEPT + ", " + HttpHeaders.ACCEPT_ENCODING
+                : HttpHeaders.ACCEPT;
+    }
+
+    /**
+     * Obtains the single byte range of a request. A Range header that cannot be parsed or that requests several ranges
+     * is ignored, as is the Range header of a request whose If-Range header does not match the ETag.
+     *
+     * @return the requested range, null if the whole event is to be written
+     */
+    private HttpRange requestedRange(final HttpServletRequest request, final String etag) {
+
+        final String rangeHeader = request.getHeader(HttpHeaders.RANGE);
+        if (rangeHeader == null) {
+            return null;
+        }
+
+        // If-Range requires a strong match, there is no Last-Modified date to match so a date never matches
+        final String ifRange = request.getHeader(HttpHeaders.IF_RANGE);
+        if (ifRange != null && !ifRange.trim().equals(etag)) {
+            return null;
+        }
+
+        try {
+            final List<HttpRange> ranges = HttpRange.parseRanges(rangeHeader);
+            return ranges.size() == 1 ? ranges.get(0) : null;
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Writes the events of an export to the response as newline delimited JSON, gzip compressed if the client accepts
+     * gzip.
+     */
+    private void export(final Exporter exporter,
+                        final HttpServletRequest request,
+                        final HttpServletResponse response) throws IOException {
+
+        final boolean gzip = AcceptEncoding.accepts(Collections.list(request.getHeaders(HttpHeaders.ACCEPT_ENCODING)), GZIP_ENCODING);
+
+        response.setHeader(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_NDJSON_VALUE);
+        response.setHeader(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+        if (gzip) {
+            response.setHeader(HttpHeaders.CONTENT_ENCODING, GZIP_ENCODING);
+        }
         response.setStatus(HttpStatus.OK.value());
 
-        IOUtils.copy(inputStream, outputStream);
-        outputStream.flush();
-        outputStream.close();
-        inputStream.close();
+        final ServletOutputStream outputStream = response.getOutputStream();
+        final long count;
+
+        if (gzip) {
+            try (GZIPOutputStream out = new GZIPOutputStream(outputStream, EXPORT_GZIP_BUFFER_SIZE)) {
+                count = exporter.export(out);
+            }
+        } else {
+            count = exporter.export(outputStream);
+            outputStream.flush();
+        }
+
+        logger.debug("exported {} events", count);
+    }
+
+    /**
+     * Writes the events of an export to a stream.
+     */
+    @FunctionalInterface
+    private interface Exporter {
+        long export(OutputStream out) throws IOException;
+    }
+
+    private void writeEvents(final List<String> ids, final boolean array, final OutputStream out) throws IOException {
+
+        final OutputStream line = new SingleLineOutputStream(out);
+        final int[] count = {0};
+
+        if (array) {
+            out.write('[');
+        }
+
+        eventAuditService.getEventsByIds(ids, new EventAuditService.EventConsumer() {
+
+            @Override
+            public void found(final String id, final EventStream eventStream) throws IOException {
+                writeEntryStart(id);
+                out.write(",\"event\":".getBytes(StandardCharsets.UTF_8));
+                try (InputStream json = eventStream.decode()) {
+                    json.transferTo(line);
+                }
+                out.write('}');
+            }
+
+            @Override
+            public void notFound(final String id) throws IOException {
+                writeEntryStart(id);
+                out.write((",\"error\":\"" + quote("Unable to find event with id " + id) + "\"}").getBytes(StandardCharsets.UTF_8));
+            }
+
+            private void writeEntryStart(final String id) throws IOException {
+                // The entries of an array are separated by commas, those of newline delimited JSON by line breaks
+                if (count[0]++ > 0) {
+                    out.write(array ? ',' : '\n');
+                }
+                out.write(("{\"id\":" + (id != null ? '"' + quote(id) + '"' : "null")).getBytes(StandardCharsets.UTF_8));
+            }
+        });
+
+        if (array) {
+            out.write(']');
+        } else if (count[0] > 0) {
+            out.write('\n');
+        }
+    }
+
+    private static String quote(final String value) {
+        return new String(JsonStringEncoder.getInstance().quoteAsString(value));
+    }
+
+    /**
+     * @return the format of an event that an Accept header prefers, JSON unless it prefers Smile or CBOR
+     */
+    private static EventFormat acceptedFormat(final String accept) {
+        if (accept == null) {
+            return EventFormat.JSON;
+        }
+        try {
+            final List<MediaType> mediaTypes = MediaType.parseMediaTypes(accept);
+            MediaType.sortBySpecificityAndQuality(mediaTypes);
+            for (MediaType mediaType : mediaTypes) {
+                for (EventFormat format : EventFormat.values()) {
+                    if (mediaType.isCompatibleWith(MediaType.parseMediaType(format.getMediaType()))) {
+                        return format;
+                    }
+                }
+            }
+        } catch (IllegalArgumentException e) {
+            // An invalid Accept header receives the default
+        }
+        return EventFormat.JSON;
+    }
+
+    /**
+     * @return true if the most specific media type of the Accept header is JSON rather than newline delimited JSON
+     */
+    private static boolean prefersJsonArray(final String accept) {
+        if (accept == null) {
+            return false;
+        }
+        try {
+            final List<MediaType> mediaTypes = MediaType.parseMediaTypes(accept);
+            MediaType.sortBySpecificityAndQuality(mediaTypes);
+            for (MediaType mediaType : mediaTypes) {
+                if (mediaType.isCompatibleWith(MediaType.APPLICATION_NDJSON)) {
+                    return false;
+                } else if (mediaType.isCompatibleWith(MediaType.APPLICATION_JSON)) {
+                    return true;
+                }
+            }
+        } catch (IllegalArgumentException e) {
+            // An invalid Accept header receives the default
+        }
+        return false;
+    }
+
+    /**
+     * @return true if an If-None-Match header matches an ETag using the weak comparison
+     */
+    private static boolean matches(final String ifNoneMatch, final String etag) {
+        if (ifNoneMatch == null) {
+            return false;
+        }
+        for (String tag : ifNoneMatch.split(",")) {
+            final String trimmed = tag.trim();
+            if (trimmed.equals("*") || (trimmed.startsWith("W/") ? trimmed.substring(2) : trimmed).equals(etag)) {
+                return true;
+            }
+        }
+        return false;
     }
 }
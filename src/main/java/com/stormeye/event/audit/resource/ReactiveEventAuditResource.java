@@ -0,0 +1,148 @@
+package com.stormeye.event.audit.resource;
+
+import com.stormeye.event.audit.exception.DuplicateEventException;
+import com.stormeye.event.audit.exception.NotFoundException;
+import com.stormeye.event.audit.service.ReactiveEventAuditService;
+import com.stormeye.event.audit.service.ReactiveEventStream;
+import io.swagger.v3.oas.annotations.Operation;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.http.server.reactive.ServerHttpRequest;
+import org.springframework.web.bind.annotation.*;
+import org.springframework.web.server.ResponseStatusException;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.io.IOException;
+
+/**
+ * The REST API for storing an obtaining events as JSON on WebFlux. Events are streamed to and from mongo without
+ * blocking a thread per request, so a large number of slow clients can be served by a few threads.
+ * <p>
+ * Stores single events and obtains events by their internal ID or event ID, batches and metadata queries are served by
+ * the {@link EventAuditResource} of the servlet stack.
+ *
+ * @author ian@meywood.com
+ */
+@RestController
+@RequestMapping("/events")
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.REACTIVE)
+public class ReactiveEventAuditResource {
+
+    private final Logger logger = LoggerFactory.getLogger(ReactiveEventAuditResource.class);
+    private final ReactiveEventAuditService eventAuditService;
+
+    public ReactiveEventAuditResource(final ReactiveEventAuditService eventAuditService) {
+        this.eventAuditService = eventAuditService;
+    }
+
+    /**
+     * Stores a JSON representation of a raw {@link com.casper.sdk.model.event.Event}.
+     *
+     * @param content the buffers of the request body the JSON will be read from
+     * @return the internal ID of the stored JSON event, if the event has already been stored a 409 status is returned
+     */
+    @PostMapping(value = "/audit", produces = MediaType.TEXT_PLAIN_VALUE, consumes = MediaType.APPLICATION_JSON_VALUE)
+    @Operation(summary = "Stores a JSON representation of a com.casper.sdk.model.event.Event and returns it's internal storage ID")
+    public Mono<ResponseEntity<String>> saveEvent(@RequestBody final Flux<DataBuffer> content) {
+        return eventAuditService.saveEvent(content)
+                .doOnNext(id -> logger.debug("saved event {}", id))
+                .map(ResponseEntity::ok)
+                .onErrorResume(IOException.class, e -> Mono.just(new ResponseEntity<>(e.getMessage(), HttpStatus.INTERNAL_SERVER_ERROR)))
+                .onErrorResume(DuplicateEventException.class, e -> Mono.just(new ResponseEntity<>(e.getMessage(), HttpStatus.CONFLICT)));
+    }
+
+    /**
+     * Obtains a JSON representation of a raw {@link com.casper.sdk.model.event.Event}. Using the internal ID that was
+     * generated when it was stored.
+     *
+     * @param id      the internal ID of the JSON to obtain, not the ID of the event
+     * @param request the request whose Accept-Encoding headers are honoured
+     * @return the event's JSON
+     */
+    @GetMapping(value = "/audit/{id}", produces = MediaType.APPLICATION_JSON_VALUE)
+    @Operation(summary = "Obtains a JSON representation of a com.casper.sdk.model.event.Event using it's internal storage ID")
+    public Mono<ResponseEntity<Flux<DataBuffer>>> getEvent(@PathVariable final String id, final ServerHttpRequest request) {
+
+        logger.debug("getEvent({})", id);
+
+        return writeEvent(eventAuditService.getEventById(id), request);
+    }
+
+    /**
+     * Obtains a JSON representation of a raw {@link com.casper.sdk.model.event.Event} using the URL of the node that
+     * emitted it and its event ID. As the source is a URL it must be URL encoded.
+     *
+     * @param source  the URL of the casper node that emitted the event
+     * @param eventId the ID of the event
+     * @param request the request whose Accept-Encoding headers are honoured
+     * @return the event's JSON
+     */
+    @GetMapping(value = "/audit/source/{source}/id/{eventId}", produces = MediaType.APPLICATION_JSON_VALUE)
+    @Operation(summary = "Obtains a JSON representation of a com.casper.sdk.model.event.Event using the URL encoded source and ID of the event")
+    public Mono<ResponseEntity<Flux<DataBuffer>>> getEventByEventId(@PathVariable final String source,
+                                                                   @PathVariable final long eventId,
+                                                                   final ServerHttpRequest request) {
+
+        logger.debug("getEventByEventId({}, {})", source, eventId);
+
+        return writeEvent(eventAuditService.getEventByEventId(source, null, eventId), request);
+    }
+
+    /**
+     * Obtains a JSON representation of a raw {@link com.casper.sdk.model.event.Event} using the URL of the node that
+     * emitted it, its type and its event ID. As the source is a URL it must be URL encoded.
+     *
+     * @param source  the URL of the casper node that emitted the event
+     * @param type    the type/topic of the event main, deploys or sigs
+     * @param eventId the ID of the event
+     * @param request the request whose Accept-Encoding headers are honoured
+     * @return the event's JSON
+     */
+    @GetMapping(value = "/audit/source/{source}/type/{type}/id/{eventId}", produces = MediaType.APPLICATION_JSON_VALUE)
+    @Operation(summary = "Obtains a JSON representation of a com.casper.sdk.model.event.Event using the URL encoded source, type and ID of the event")
+    public Mono<ResponseEntity<Flux<DataBuffer>>> getEventByTypeAndEventId(@PathVariable final String source,
+                                                                          @PathVariable final String type,
+                                                                          @PathVariable final long eventId,
+                                                                          final ServerHttpRequest request) {
+
+        logger.debug("getEventByTypeAndEventId({}, {}, {})", source, type, eventId);
+
+        return writeEvent(eventAuditService.getEventByEventId(source, type, eventId), request);
+    }
+
+    /**
+     * Creates the response of an event. An encoded event is written as stored with its Content-Encoding if the client
+     * accepts the encoding, otherwise it is decoded as it is written.
+     */
+    private Mono<ResponseEntity<Flux<DataBuffer>>> writeEvent(final Mono<ReactiveEventStream> event,
+                                                              final ServerHttpRequest request) {
+        return event.map(eventStream -> {
+
+            final String contentEncoding = eventStream.getCodec().getContentEncoding();
+            final boolean encoded = contentEncoding != null
+                    && AcceptEncoding.accepts(request.getHeaders().getOrEmpty(HttpHeaders.ACCEPT_ENCODING), contentEncoding);
+            final ReactiveEventStream body = contentEncoding == null || encoded ? eventStream : eventStream.decode();
+
+            final ResponseEntity.BodyBuilder response = ResponseEntity.ok()
+                    .contentType(MediaType.APPLICATION_JSON)
+                    .contentLength(body.getSize());
+
+            if (contentEncoding != null) {
+                response.header(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+            }
+            if (encoded) {
+                response.header(HttpHeaders.CONTENT_ENCODING, contentEncoding);
+            }
+
+            return response.body(body.getContent());
+
+        }).onErrorMap(NotFoundException.class, e -> new ResponseStatusException(HttpStatus.NOT_FOUND, e.getMessage(), e));
+    }
+}
@@ -0,0 +1,81 @@
+package com.stormeye.event.audit.service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * An {@link EventStream} of an event that is held in a buffer, such as an event read from the {@link EventCache}.
+ *
+ * @author ian@meywood.com
+ */
+public class ByteBufferEventStream extends EventStream {
+
+    private final ByteBuffer buffer;
+
+    public ByteBufferEventStream(final ByteBuffer buffer) {
+        this(buffer, EventCodec.NONE, buffer.remaining());
+    }
+
+    public ByteBufferEventStream(final ByteBuffer buffer, final EventCodec codec, final long decodedSize) {
+        super(InputStream.nullInputStream(), buffer.remaining(), codec, decodedSize);
+        this.buffer = buffer;
+    }
+
+    /**
+     * @return a view of the remaining bytes of the buffer
+     */
+    ByteBuffer getBuffer() {
+        return buffer.slice();
+    }
+
+    @Override
+    public int read() {
+        return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+    }
+
+    @Override
+    public int read(final byte[] bytes, final int offset, final int length) {
+
+        if (length == 0) {
+            return 0;
+        }
+        if (!buffer.hasRemaining()) {
+            return -1;
+        }
+
+        final int read = Math.min(length, buffer.remaining());
+        buffer.get(bytes, offset, read);
+        return read;
+    }
+
+    @Override
+    public long skip(final long n) {
+        final int skipped = (int) Math.max(0, Math.min(n, buffer.remaining()));
+        buffer.position(buffer.position() + skipped);
+        return skipped;
+    }
+
+    @Override
+    public int available() {
+        return buffer.remaining();
+    }
+
+    /**
+     * Writes the remaining bytes of the buffer to an output stream through a channel rather than byte by byte.
+     */
+    @Override
+    public long transferTo(final OutputStream out) throws IOException {
+
+        final int remaining = buffer.remaining();
+        final WritableByteChannel channel = Channels.newChannel(out);
+
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        return remaining;
+    }
+}
@@ -1,110 +1,642 @@
 package com.stormeye.event.audit.service;
 
-import com.fasterxml.jackson.databind.ObjectMapper;
-import com.mongodb.BasicDBObjectBuilder;
-import com.mongodb.DBObject;
-import com.mongodb.client.gridfs.model.GridFSFile;
+import com.stormeye.event.audit.exception.DuplicateEventException;
 import com.stormeye.event.audit.exception.NotFoundException;
-import org.apache.commons.io.IOUtils;
+import com.stormeye.event.audit.exception.QueueFullException;
+import org.bson.Document;
+import org.bson.types.ObjectId;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.springframework.data.mongodb.core.query.Criteria;
-import org.springframework.data.mongodb.core.query.Query;
-import org.springframework.data.mongodb.gridfs.GridFsOperations;
-import org.springframework.data.mongodb.gridfs.GridFsResource;
+import org.springframework.http.MediaType;
 import org.springframework.stereotype.Service;
 
-import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.util.UUID;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.util.*;
 
 
 /**
- * The service for storing and retrieving JSON Events to and from GridFS.
+ * The service for storing and retrieving JSON Events to and from the {@link EventStore}.
  *
  * @author ian@meywood.com
  */
 @Service
 public class EventAuditService {
 
+    /**
+     * Receives the events of a multi-get in the order they were requested.
+     */
+    public interface EventConsumer {
+
+        /**
+         * Receives an event that was found, the stream is closed once the call returns.
+         *
+         * @param id          the requested internal ID
+         * @param eventStream the stream of the event as stored
+         * @throws IOException if the event could not be consumed
+         */
+        void found(String id, EventStream eventStream) throws IOException;
+
+        /**
+         * Receives the ID of an event that was not found.
+         *
+         * @param id the requested internal ID
+         * @throws IOException if the marker could not be consumed
+         */
+        void notFound(String id) throws IOException;
+    }
+
     private static final String NOT_FOUND_MESSAGE = "Unable to find event with id ";
+    /** The maximum number of events and bytes from a batch that are inserted together */
+    private static final int BATCH_GROUP_EVENTS = 1000;
+    private static final long BATCH_GROUP_BYTES = 8 * 1024 * 1024;
+    /** The metadata key spring data uses for the content type of a GridFS file */
+    private static final String CONTENT_TYPE_KEY = "_contentType";
+    private static final int BUFFER_SIZE = 8192;
+    /** The maximum size of a line of a batch, a larger event must be saved on its own */
+    static final int MAX_LINE_BYTES = 16 * 1024 * 1024;
 
-    /** The JSON parser used to obtain the metadata from the events */
-    private final ObjectMapper mapper = new ObjectMapper();
     private final Logger logger = LoggerFactory.getLogger(EventAuditService.class);
-    private final GridFsOperations gridFsOperations;
+    private final EventStore eventStore;
+    /** The queue events are written behind with, null if events are written before they are acknowledged */
+    private final WriteBehindQueue writeBehindQueue;
+    private final EventDeduplicator deduplicator;
+    private final EventCache eventCache;
+    private final EventMetrics eventMetrics;
+    private final EventBroadcaster broadcaster;
+    private final EventSegmentStore segmentStore;
+    private final EventFields eventFields;
+    private final EventStatistics eventStatistics;
 
-    public EventAuditService(GridFsOperations gridFsOperations) {
-        this.gridFsOperations = gridFsOperations;
+    public EventAuditService(final EventStore eventStore,
+                             final Optional<WriteBehindQueue> writeBehindQueue,
+                             final EventDeduplicator deduplicator,
+                             final EventCache eventCache,
+                             final EventMetrics eventMetrics,
+                             final EventBroadcaster broadcaster,
+                             final EventSegmentStore segmentStore,
+                             final EventFields eventFields,
+                             final EventStatistics eventStatistics) {
+        this.eventStore = eventStore;
+        this.writeBehindQueue = writeBehindQueue.orElse(null);
+        this.deduplicator = deduplicator;
+        this.eventCache = eventCache;
+        this.eventMetrics = eventMetrics;
+        this.broadcaster = broadcaster;
+        this.segmentStore = segmentStore;
+        this.eventFields = eventFields;
+        this.eventStatistics = eventStatistics;
     }
 
     /**
-     * Saves an event as JSON in GridFS
+     * Saves an event as JSON. The event is streamed to the {@link EventStore} as it is read while its metadata is
+     * parsed from the same bytes, so an event that is large enough to be stored in GridFS is never held in memory as a
+     * whole. Once the event has been read it is stored with its metadata and filename.
+     * <p>
+     * If write behind is enabled the event is instead read into memory, parsed and queued to be written by the
+     * {@link WriteBehindQueue}, its internal ID is returned as soon as it has been queued.
+     * <p>
+     * If deduplication is enabled an event that is already stored is not written again and the internal ID of the
+     * stored copy is returned. A copy stored in another partition or moved to cold storage is looked for before the
+     * event is written, an event written behind is looked up in the store before it is queued.
+     * <p>
+     * Once written a new event is published to the subscribers of the {@link EventBroadcaster}.
      *
      * @param eventStream the stream to read the event from as JSON
-     * @return the ID of the stored grids file
-     * @throws IOException if an I/O error occurs on reading the evenStream
+     * @return the ID of the stored event
+     * @throws IOException             if an I/O error occurs on reading the evenStream
+     * @throws QueueFullException      if write behind is enabled and the queue is full
+     * @throws DuplicateEventException if an event with the same source, type and event ID is already stored and
+     *                                 deduplication is not enabled or the stored copy's content differs
      */
     public String saveEvent(final InputStream eventStream) throws IOException {
 
-        final byte[] bytes = IOUtils.toByteArray(eventStream);
-        final EventInfo eventInfo = mapper.readValue(bytes, EventInfo.class);
-        final String filename = buildFilename(eventInfo);
+        final long start = System.nanoTime();
+
+        try {
+            return writeBehindQueue != null ? enqueueEvent(eventStream) : streamEvent(eventStream);
+        } finally {
+            eventMetrics.recordSave(System.nanoTime() - start);
+        }
+    }
+
+    private String streamEvent(final InputStream eventStream) throws IOException {
+
+        final EventInfoParser parser = new EventInfoParser(eventFields);
+        // The ID is created once the event is stored so that it is routed by the source and type parsed by then
+        final EventStore.EventWriter writer = eventStore.openWriter(() -> eventStore.newObjectId(parser.getSource(), parser.getEventType()));
+        final MessageDigest digest = deduplicator.newDigest();
+        final byte[] buffer = new byte[BUFFER_SIZE];
+        final Document metadata;
+        Optional<ObjectId> recent = Optional.empty();
+        // The key of the event is looked up once parsed so that a replayed event is not streamed into GridFS
+        boolean keyLookedUp = !deduplicator.isEnabled();
+
+        long readNanos = 0;
+        long parseNanos = 0;
+        long storeNanos = 0;
+
+        try {
+            int read;
+            long time = System.nanoTime();
+            while ((read = eventStream.read(buffer)) != -1) {
+                final long parseStart = System.nanoTime();
+                parser.feed(buffer, 0, read);
+                if (digest != null) {
+                    digest.update(buffer, 0, read);
+                }
+                if (!keyLookedUp && parser.getEventId() != null && parser.getSource() != null && parser.getEventType() != null) {
+                    keyLookedUp = true;
+                    recent = deduplicator.findRecentKey(parser.getSource(), parser.getEventType(), parser.getEventId());
+                    if (recent.isPresent()) {
+                        break;
+                    }
+                }
+                final long storeStart = System.nanoTime();
+                writer.write(buffer, 0, read);
+                final long now = System.nanoTime();
+
+                readNanos += parseStart - time;
+                parseNanos += storeStart - parseStart;
+                storeNanos += now - storeStart;
+                time = now;
+            }
+            readNanos += System.nanoTime() - time;
+
+            if (recent.isPresent()) {
+                logger.debug("Event {} from {} was recently saved as {}", parser.getEventId(), parser.getSource(), recent.get());
+                writer.abort();
+                return recent.get().toHexString();
+            }
+
+            final long metadataStart = System.nanoTime();
+            metadata = buildMetadata(parser.complete(), writer.getLength(), digest);
+            // A copy in another partition or in cold storage is not rejected by the index of the partition written to
+            recent = deduplicator.findRecent(metadata).or(() -> deduplicator.findCopy(metadata, false));
+            eventMetrics.recordPhase(EventMetrics.Phase.METADATA, System.nanoTime() - metadataStart);
+        } catch (IOException | RuntimeException e) {
+            writer.abort();
+            throw e;
+        } finally {
+            eventMetrics.recordPhase(EventMetrics.Phase.READ, readNanos);
+            eventMetrics.recordPhase(EventMetrics.Phase.PARSE, parseNanos);
+        }
+
+        if (recent.isPresent()) {
+            logger.debug("Event {} from {} is already stored as {}", metadata.get("id"), metadata.get("source"), recent.get());
+            writer.abort();
+            return recent.get().toHexString();
+        }
+
+        final String filename = buildFilename(metadata);
 
         logger.debug("Saving event as : {}", filename);
 
-        // Obtain the event ID
-        final DBObject metadata = BasicDBObjectBuilder.start()
-                .append("type", eventInfo.getEventType())
+        final long completeStart = System.nanoTime();
+        ObjectId objectId;
+        try {
+            objectId = writer.complete(filename, metadata);
+            eventMetrics.recordSize(metadata);
+            eventStatistics.record(metadata);
+            broadcaster.publish(objectId, metadata);
+        } catch (DuplicateEventException e) {
+            objectId = deduplicator.findStored(metadata).orElseThrow(() -> e);
+            logger.debug("Event {} from {} is already stored as {}", metadata.get("id"), metadata.get("source"), objectId);
+        } finally {
+            eventMetrics.recordPhase(EventMetrics.Phase.STORE, storeNanos + System.nanoTime() - completeStart);
+        }
+
+        deduplicator.remember(metadata, objectId);
+
+        return objectId.toHexString();
+    }
+
+    private String enqueueEvent(final InputStream eventStream) throws IOException {
+
+        final byte[] bytes = eventStream.readAllBytes();
+        final EventInfoParser parser = new EventInfoParser(eventFields);
+        parser.feed(bytes, 0, bytes.length);
+        final Document metadata = buildMetadata(parser.complete(), bytes.length, digestOf(bytes));
+
+        // A duplicate is resolved to its stored copy before it is acknowledged, the ID it would be queued with is never
+        // stored
+        final Optional<ObjectId> stored = deduplicator.findRecent(metadata).or(() -> deduplicator.findCopy(metadata, true));
+        if (stored.isPresent()) {
+            return stored.get().toHexString();
+        }
+
+        final String filename = buildFilename(metadata);
+
+        logger.debug("Queuing event as : {}", filename);
+
+        final PendingEvent event = new PendingEvent(newObjectId(metadata), filename, metadata, bytes);
+        writeBehindQueue.enqueue(event);
+        deduplicator.remember(metadata, event.getObjectId());
+
+        return event.getObjectId().toHexString();
+    }
+
+    /**
+     * Saves a batch of newline delimited JSON events. The events are grouped and written with unordered
+     * bulk inserts, a failure to parse or store an event is reported against its line and does not prevent the other
+     * events of the batch from being stored. A line longer than {@value #MAX_LINE_BYTES} bytes fails without being
+     * parsed. If deduplication is enabled the result of an event that is already stored is the internal ID of the
+     * stored copy, otherwise the event fails.
+     * <p>
+     * A batch is written before the call returns even if write behind is enabled, its events are not queued as the
+     * result of each event is only known once it has been inserted.
+     *
+     * @param eventsStream the stream to read the newline delimited events from
+     * @return the result of each event in the order the events were read, blank lines are skipped
+     * @throws IOException if an I/O error occurs on reading the eventsStream
+     */
+    public List<EventBatchResult> saveEvents(final InputStream eventsStream) throws IOException {
+
+        final List<EventBatchResult> results = new ArrayList<>();
+        final EventBatchWriter writer = eventStore.openBatchWriter(results, deduplicator::findStored);
+        // The group's events by the index of their results, remembered and published once the group is stored
+        final Map<Integer, PendingEvent> group = new HashMap<>();
+        final LineReader lines = new LineReader(eventsStream);
+        int lineNumber = 0;
+
+        while (lines.next()) {
+
+            lineNumber++;
+
+            if (lines.tooLong) {
+                results.add(EventBatchResult.failed(lineNumber, "Line exceeds the maximum of " + MAX_LINE_BYTES + " bytes"));
+                continue;
+            }
+
+            if (lines.length == 0) {
+                continue;
+            }
+
+            final byte[] content = Arrays.copyOf(lines.line, lines.length);
+
+            try {
+                final EventInfoParser parser = new EventInfoParser(eventFields);
+                parser.feed(content, 0, content.length);
+                final Document metadata = buildMetadata(parser.complete(), content.length, digestOf(content));
+                final Optional<ObjectId> copy = deduplicator.findRecent(metadata).or(() -> deduplicator.findCopy(metadata, false));
+
+                if (copy.isPresent()) {
+                    results.add(EventBatchResult.stored(lineNumber, copy.get().toHexString()));
+                } else {
+                    final PendingEvent event = new PendingEvent(newObjectId(metadata), buildFilename(metadata), metadata, content);
+                    group.put(results.size(), event);
+                    writer.add(lineNumber, event.getObjectId(), event.getFilename(), metadata, content);
+                }
+            } catch (IOException | DuplicateEventException e) {
+                results.add(EventBatchResult.failed(lineNumber, e.getMessage()));
+            }
+
+            if (writer.getPendingEvents() >= BATCH_GROUP_EVENTS || writer.getPendingBytes() >= BATCH_GROUP_BYTES) {
+                flush(writer, results, group);
+            }
+        }
+
+        flush(writer, results, group);
+
+        logger.debug("Saved batch of {} events", results.size());
+
+        return results;
+    }
+
+    /**
+     * Obtains an input stream to a JSON Event whether it is stored inline or in GridFS. Events are read through the
+     * {@link EventCache}, an event small enough to be cached is read into the cache on a miss. An event that has been
+     * moved to cold storage is read from its memory mapped segment in the {@link EventSegmentStore}.
+     *
+     * @param id the internal ID of the event to obtain
+     * @return the input stream to read the event from as stored, {@link EventStream#decode()} obtains its JSON
+     */
+    public EventStream getEventById(final String id) {
+
+        logger.debug("reading event {}", id);
+
+        if (!ObjectId.isValid(id)) {
+            throw new NotFoundException(NOT_FOUND_MESSAGE + id);
+        }
+
+        final ObjectId objectId = new ObjectId(id);
+        final long start = System.nanoTime();
+
+        // An event that is waiting to be written behind is read from the queue
+        if (writeBehindQueue != null) {
+            final Optional<EventStream> pending = writeBehindQueue.find(objectId);
+            if (pending.isPresent()) {
+                eventMetrics.recordRead(EventMetrics.ReadSource.PENDING, System.nanoTime() - start);
+                return pending.get();
+            }
+        }
+
+        final Optional<EventStream> cached = eventCache.get(objectId);
+        if (cached.isPresent()) {
+            eventMetrics.recordRead(EventMetrics.ReadSource.CACHE, System.nanoTime() - start);
+            return cached.get();
+        }
+
+        final Optional<EventStream> stored = eventStore.find(objectId);
+
+        if (stored.isEmpty()) {
+            // A segment is already held in the page cache so its events are not copied into the cache
+            final EventStream segmentStream = segmentStore.find(objectId).orElseThrow(() -> new NotFoundException(NOT_FOUND_MESSAGE + id));
+            eventMetrics.recordRead(EventMetrics.ReadSource.SEGMENT, System.nanoTime() - start);
+            return segmentStream;
+        }
+
+        final EventStream eventStream = stored.get();
+
+        if (!eventCache.isCacheable(eventStream.getSize())) {
+            // A large event is streamed from GridFS so only the time to locate it is recorded
+            eventMetrics.recordRead(EventMetrics.ReadSource.STORE, System.nanoTime() - start);
+            return eventStream;
+        }
+
+        try (eventStream) {
+            final byte[] data = eventStream.readAllBytes();
+            eventCache.put(objectId, data, eventStream.getCodec(), eventStream.getDecodedSize());
+            eventMetrics.recordRead(EventMetrics.ReadSource.STORE, System.nanoTime() - start);
+            return new ByteBufferEventStream(ByteBuffer.wrap(data), eventStream.getCodec(), eventStream.getDecodedSize());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Obtains many events by their internal IDs. Events waiting to be written behind or held in the {@link EventCache}
+     * are read from memory, the others are found with a query per catalog of the {@link EventStore} rather than per
+     * event, then from the {@link EventSegmentStore}. Events read from the store are not added to the cache so that a
+     * large multi-get does not evict the events being read individually.
+     *
+     * @param ids      the internal IDs of the events
+     * @param consumer the consumer that the events, or not found markers, are passed to in the order of the IDs
+     * @throws IOException if the consumer fails
+     */
+    public void getEventsByIds(final List<String> ids, final EventConsumer consumer) throws IOException {
+
+        logger.debug("reading {} events", ids.size());
+
+        final Map<ObjectId, EventStream> found = new HashMap<>();
+        final Set<ObjectId> unresolved = new LinkedHashSet<>();
+        final Set<ObjectId> requested = new HashSet<>();
+
+        for (String id : ids) {
+            if (isValid(id)) {
+                final ObjectId objectId = new ObjectId(id);
+                if (!requested.add(objectId)) {
+                    continue;
+                }
+                final Optional<EventStream> eventStream = writeBehindQueue != null
+                        ? writeBehindQueue.find(objectId).or(() -> eventCache.get(objectId))
+                        : eventCache.get(objectId);
+                if (eventStream.isPresent()) {
+                    found.putIfAbsent(objectId, eventStream.get());
+                } else {
+                    unresolved.add(objectId);
+                }
+            }
+        }
+
+        if (!unresolved.isEmpty()) {
+            found.putAll(eventStore.findAll(unresolved));
+            for (ObjectId objectId : unresolved) {
+                if (!found.containsKey(objectId)) {
+                    segmentStore.find(objectId).ifPresent(eventStream -> found.put(objectId, eventStream));
+                }
+            }
+        }
+
+        // The events whose streams have been read so that an event requested again is read on its own
+        final Set<ObjectId> taken = new HashSet<>();
+
+        try {
+            for (String id : ids) {
+                final EventStream eventStream = isValid(id) ? takeEvent(new ObjectId(id), found, taken) : null;
+                if (eventStream != null) {
+                    try (eventStream) {
+                        consumer.found(id, eventStream);
+                    }
+                } else {
+                    consumer.notFound(id);
+                }
+            }
+        } finally {
+            for (EventStream eventStream : found.values()) {
+                eventStream.close();
+            }
+        }
+    }
+
+    /**
+     * Takes the stream of a requested event from those found by a multi-get. A stream is read once so an ID that is
+     * requested again is read on its own.
+     *
+     * @return the stream of the event or null if it was not found
+     */
+    private EventStream takeEvent(final ObjectId objectId, final Map<ObjectId, EventStream> found, final Set<ObjectId> taken) {
+
+        final EventStream eventStream = found.remove(objectId);
+        if (eventStream != null) {
+            taken.add(objectId);
+            return eventStream;
+        } else if (!taken.contains(objectId)) {
+            return null;
+        }
+
+        try {
+            return getEventById(objectId.toHexString());
+        } catch (NotFoundException e) {
+            return null;
+        }
+    }
+
+    /**
+     * @return true if a requested ID is a valid internal ID, a multi-get may request null or malformed IDs
+     */
+    private static boolean isValid(final String id) {
+        return id != null && ObjectId.isValid(id);
+    }
+
+    /**
+     * Obtains an input stream to a JSON Event using the URL of the node that emitted it and its event ID. An event that
+     * has been moved to cold storage is found by the key index of its segment in the {@link EventSegmentStore}.
+     *
+     * @param source  the URL of the casper node that emitted the event
+     * @param type    the optional type/topic of the event, main, deploys or sigs
+     * @param eventId the ID of the event
+     * @return the input stream to read the event from as stored, {@link EventStream#decode()} obtains its JSON
+     */
+    public EventStream getEventByEventId(final String source, final String type, final long eventId) {
+
+        logger.debug("reading event {} from {} of type {}", eventId, source, type);
+
+        return eventStore.findByEventId(source, type, eventId)
+                .or(() -> segmentStore.findByEventId(source, type, eventId))
+                .orElseThrow(() -> new NotFoundException(
+                NOT_FOUND_MESSAGE + eventId + " from " + source + (type != null ? " of type " + type : "")
+        ));
+    }
+
+    private void flush(final EventBatchWriter writer, final List<EventBatchResult> results, final Map<Integer, PendingEvent> group) {
+
+        writer.flush();
+
+        group.forEach((index, event) -> {
+            final EventBatchResult result = results.get(index);
+            if (result.getId() != null) {
+                deduplicator.remember(event.getMetadata(), new ObjectId(result.getId()));
+                // A duplicate resolved to its stored copy was not written by this batch
+                if (event.getObjectId().toHexString().equals(result.getId())) {
+                    eventMetrics.recordSize(event.getMetadata());
+                    eventStatistics.record(event.getMetadata());
+                    broadcaster.publish(event.getObjectId(), event.getMetadata());
+                }
+            }
+        });
+        group.clear();
+    }
+
+    private MessageDigest digestOf(final byte[] bytes) {
+        final MessageDigest digest = deduplicator.newDigest();
+        if (digest != null) {
+            digest.update(bytes);
+        }
+        return digest;
+    }
+
+    /**
+     * Builds the metadata an event is stored with, also used by the {@link ReactiveEventAuditService}.
+     */
+    static Document buildMetadata(final EventInfo eventInfo, final long bytes, final MessageDigest digest) {
+
+        final Document metadata = new Document("type", eventInfo.getEventType())
                 .append("dataType", eventInfo.getDataType())
                 .append("source", eventInfo.getSource())
                 .append("version", eventInfo.getVersion())
-                .append("bytes", bytes.length)
-                .get();
+                .append("bytes", bytes);
+
+        if (!eventInfo.getFields().isEmpty()) {
+            metadata.put(EventFields.METADATA_KEY, new Document(eventInfo.getFields()));
+        }
 
         // Add the event ID if it exists
         eventInfo.getId().ifPresent(id -> metadata.put("id", id));
 
-        return gridFsOperations.store(
-                new ByteArrayInputStream(bytes),
-                filename,
-                "application/json",
-                metadata
-        ).toHexString();
+        if (digest != null) {
+            metadata.put(EventDeduplicator.CONTENT_HASH, HexFormat.of().formatHex(digest.digest()));
+        }
+
+        metadata.put(CONTENT_TYPE_KEY, MediaType.APPLICATION_JSON_VALUE);
+
+        return metadata;
     }
 
     /**
-     * Obtains an input stream to a JSON Event from GridFS.
-     *
-     * @param id of the GridFs file to obtain
-     * @return the input stream to read the file from
+     * Reads the lines of a batch by scanning the bytes of bulk reads for line feeds, the bytes of a line are copied a
+     * run at a time. A line longer than {@value #MAX_LINE_BYTES} bytes is skipped up to its line feed.
      */
-    public EventStream getEventById(final String id) {
+    private static final class LineReader {
 
-        logger.debug("reading event {}", id);
+        private final InputStream in;
+        private final byte[] buffer = new byte[BUFFER_SIZE];
+        private int position;
+        private int limit;
+        /** The current line without its line terminator */
+        private byte[] line = new byte[BUFFER_SIZE];
+        private int length;
+        private boolean tooLong;
 
-        final GridFSFile gridFsFile = gridFsOperations.findOne(new Query(Criteria.where("_id").is(id)));
+        private LineReader(final InputStream in) {
+            this.in = in;
+        }
 
-        if (gridFsFile == null) {
-            throw new NotFoundException(NOT_FOUND_MESSAGE + id);
+        /**
+         * Reads the next line.
+         *
+         * @return false if the end of the stream was reached before any byte of a line was read
+         */
+        private boolean next() throws IOException {
+
+            length = 0;
+            tooLong = false;
+            boolean read = false;
+
+            while (true) {
+                if (position == limit) {
+                    final int count = in.read(buffer);
+                    position = 0;
+                    limit = Math.max(count, 0);
+                    if (count == -1) {
+                        trimCarriageReturn();
+                        return read;
+                    }
+                }
+
+                read = true;
+                int end = position;
+                while (end < limit && buffer[end] != '\n') {
+                    end++;
+                }
+                append(position, end);
+
+                if (end < limit) {
+                    position = end + 1;
+                    trimCarriageReturn();
+                    return true;
+                }
+                position = limit;
+            }
         }
 
-        final GridFsResource resource = gridFsOperations.getResource(gridFsFile);
+        private void trimCarriageReturn() {
+            if (length > 0 && line[length - 1] == '\r') {
+                length--;
+            }
+        }
 
-        if (!resource.exists()) {
-            throw new NotFoundException(NOT_FOUND_MESSAGE + id);
+        private void append(final int from, final int to) {
+
+            if (tooLong || from == to) {
+                return;
+            }
+
+            final int required = length + to - from;
+            if (required > MAX_LINE_BYTES) {
+                tooLong = true;
+                length = 0;
+                return;
+            }
+
+            if (required > line.length) {
+                line = Arrays.copyOf(line, Math.min(MAX_LINE_BYTES, Math.max(required, line.length * 2)));
+            }
+            System.arraycopy(buffer, from, line, length, to - from);
+            length = required;
         }
-        return new EventStream(resource.getContent(), gridFsFile.getLength());
     }
 
-    private String buildFilename(final EventInfo eventInfo) {
-        return "/events/" + eventInfo.getEventType() + "/" + getUniqueId(eventInfo) + ".json";
+    /**
+     * Creates the internal ID of an event from its metadata, so that it is routed to its cluster.
+     */
+    private ObjectId newObjectId(final Document metadata) {
+        return eventStore.newObjectId(metadata.getString("source"), metadata.getString("type"));
+    }
+
+    /**
+     * Builds the filename an event is stored with from its metadata.
+     */
+    static String buildFilename(final Document metadata) {
+        return "/events/" + metadata.getString("type") + "/" + getUniqueId(metadata) + ".json";
     }
 
-    private String getUniqueId(final EventInfo eventInfo) {
-        if (eventInfo.getId().isPresent()) {
-            return Long.toString(eventInfo.getId().get());
+    private static String getUniqueId(final Document metadata) {
+        if (metadata.get("id") != null) {
+            return metadata.get("id").toString();
         } else {
             // No ID provided on the event so generate one. This will only occur for ApiVersion events
             return UUID.randomUUID().toString();
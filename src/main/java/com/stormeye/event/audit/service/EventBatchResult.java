@@ -0,0 +1,54 @@
+package com.stormeye.event.audit.service;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+/**
+ * The result of storing a single event from a batch of newline delimited JSON events.
+ *
+ * @author ian@meywood.com
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class EventBatchResult {
+
+    /** The one based line number of the event in the batch */
+    private final int line;
+    /** The internal ID of the stored event, null if the event could not be stored */
+    private final String id;
+    /** The reason the event could not be stored, null if the event was stored */
+    private final String error;
+
+    private EventBatchResult(final int line, final String id, final String error) {
+        this.line = line;
+        this.id = id;
+        this.error = error;
+    }
+
+    public static EventBatchResult stored(final int line, final String id) {
+        return new EventBatchResult(line, id, null);
+    }
+
+    public static EventBatchResult failed(final int line, final String error) {
+        return new EventBatchResult(line, null, error);
+    }
+
+    public int getLine() {
+        return line;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public String getError() {
+        return error;
+    }
+
+    @Override
+    public String toString() {
+        return "{" +
+                "line=" + line +
+                ", id='" + id + '\'' +
+                ", error='" + error + '\'' +
+                '}';
+    }
+}
@@ -0,0 +1,252 @@
+package com.stormeye.event.audit.service;
+
+import com.mongodb.ErrorCategory;
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.bulk.BulkWriteError;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.InsertManyOptions;
+import com.mongodb.client.model.Projections;
+import com.stormeye.event.audit.exception.DuplicateEventException;
+import org.bson.Document;
+import org.bson.types.ObjectId;
+
+import java.util.*;
+import java.util.function.Function;
+
+/**
+ * Writes a group of events using unordered bulk inserts rather than one insert or upload per event. Events smaller than
+ * the inline threshold are inserted into the inline collection, larger events as GridFS files and chunks documents. The
+ * chunks of a group are inserted before the files documents so a file is never visible without its content. The
+ * pending events are grouped by the partition of the store they are written to, so the events of a batch that spans
+ * several periods or clusters are still inserted with a bulk insert per partition.
+ * <p>
+ * Events are encoded with the store's codec before they are added to the group.
+ * <p>
+ * A catalog document rejected by a unique index whose _id is found in its collection, or a rejected chunk, was inserted
+ * by an earlier attempt to write the event, such as a flush that failed or an event replayed from the journal. Any
+ * other event rejected by a unique index is a duplicate of a stored event, if the duplicate resolver finds the stored
+ * copy the event's result is the internal ID of the copy.
+ *
+ * @author ian@meywood.com
+ */
+class EventBatchWriter {
+
+    private static final InsertManyOptions UNORDERED = new InsertManyOptions().ordered(false);
+
+    /** Obtains the partition of the store that an event is written to */
+    private final Function<ObjectId, EventStore.Partition> partitions;
+    private final int chunkSize;
+    private final int inlineThreshold;
+    private final EventCodec codec;
+    /** The results of the batch, failures found on flushing replace the stored result of the event */
+    private final List<EventBatchResult> results;
+    private final Function<Document, Optional<ObjectId>> duplicateResolver;
+    /** The pending events by the partition they are written to, in the order the partitions were first written */
+    private final Map<EventStore.Partition, Group> groups = new LinkedHashMap<>();
+    /** Maps the ID of each pending file to the index of its result */
+    private final Map<ObjectId, Integer> resultIndexes = new HashMap<>();
+    private long pendingBytes;
+
+    EventBatchWriter(final Function<ObjectId, EventStore.Partition> partitions,
+                     final int chunkSize,
+                     final int inlineThreshold,
+                     final EventCodec codec,
+                     final List<EventBatchResult> results,
+                     final Function<Document, Optional<ObjectId>> duplicateResolver) {
+        this.partitions = partitions;
+        this.chunkSize = chunkSize;
+        this.inlineThreshold = inlineThreshold;
+        this.codec = codec;
+        this.results = results;
+        this.duplicateResolver = duplicateResolver;
+    }
+
+    /**
+     * Adds an event to the pending group and records it as stored in the results.
+     *
+     * @param line     the line number of the event
+     * @param objectId the internal ID to store the event with
+     * @param filename the GridFS filename of the event
+     * @param metadata the GridFS metadata of the event
+     * @param json     the event's JSON
+     */
+    void add(final int line, final ObjectId objectId, final String filename, final Document metadata, final byte[] json) {
+
+        final Group group = groups.computeIfAbsent(partitions.apply(objectId), partition -> new Group());
+
+        final byte[] content = codec.encode(json);
+        final Document storedMetadata = EventStore.encodedMetadata(metadata, codec);
+        final int length = content.length;
+
+        resultIndexes.put(objectId, results.size());
+        results.add(EventBatchResult.stored(line, objectId.toHexString()));
+        pendingBytes += length;
+
+        if (length < inlineThreshold) {
+            group.inlines.add(EventStore.inlineDocument(objectId, filename, storedMetadata, content));
+            return;
+        }
+
+        for (int offset = 0, n = 0; offset < length; offset += chunkSize, n++) {
+            group.chunks.add(EventStore.chunkDocument(objectId, n, Arrays.copyOfRange(content, offset, Math.min(length, offset + chunkSize))));
+        }
+
+        group.files.add(EventStore.fileDocument(objectId, filename, storedMetadata, length, chunkSize));
+    }
+
+    int getPendingEvents() {
+        return resultIndexes.size();
+    }
+
+    long getPendingBytes() {
+        return pendingBytes;
+    }
+
+    /**
+     * Inserts all pending events, marking the results of any events that could not be inserted as failed. A document
+     * that was inserted by an earlier attempt to write its event is treated as inserted, so a flush that failed with an
+     * exception can be retried and an event replayed from the journal after it was stored is not reported as failed.
+     */
+    void flush() {
+
+        if (resultIndexes.isEmpty()) {
+            return;
+        }
+
+        final Map<ObjectId, String> failures = new HashMap<>();
+        final Map<ObjectId, ObjectId> duplicates = new HashMap<>();
+
+        groups.forEach((partition, group) -> flush(partition, group, failures, duplicates));
+
+        duplicates.forEach((objectId, copy) -> {
+            final int index = resultIndexes.get(objectId);
+            results.set(index, EventBatchResult.stored(results.get(index).getLine(), copy.toHexString()));
+        });
+
+        if (!failures.isEmpty()) {
+
+            failures.forEach((objectId, error) -> {
+                final int index = resultIndexes.get(objectId);
+                results.set(index, EventBatchResult.failed(results.get(index).getLine(), error));
+            });
+        }
+
+        groups.clear();
+        resultIndexes.clear();
+        pendingBytes = 0;
+    }
+
+    private void flush(final EventStore.Partition partition,
+                       final Group group,
+                       final Map<ObjectId, String> failures,
+                       final Map<ObjectId, ObjectId> duplicates) {
+
+        insert(partition.inlineCollection, group.inlines, "_id", failures, duplicates);
+
+        if (!group.chunks.isEmpty()) {
+            // The unique chunk index makes the chunks of a retried flush duplicates rather than second copies
+            partition.ensureGridFsIndexes();
+        }
+        insert(partition.chunksCollection, group.chunks, "files_id", failures, duplicates);
+
+        final List<Document> completeFiles = new ArrayList<>(group.files.size());
+        for (Document file : group.files) {
+            if (!failures.containsKey(file.getObjectId("_id"))) {
+                completeFiles.add(file);
+            }
+        }
+
+        insert(partition.filesCollection, completeFiles, "_id", failures, duplicates);
+
+        if (!group.chunks.isEmpty() && (!failures.isEmpty() || !duplicates.isEmpty())) {
+            // Remove the chunks of the files that were not stored
+            final Set<ObjectId> unstored = new HashSet<>(failures.keySet());
+            unstored.addAll(duplicates.keySet());
+            partition.chunksCollection.deleteMany(Filters.in("files_id", unstored));
+        }
+
+        for (List<Document> catalogDocuments : List.of(group.inlines, completeFiles)) {
+            for (Document document : catalogDocuments) {
+                if (!failures.containsKey(document.getObjectId("_id")) && !duplicates.containsKey(document.getObjectId("_id"))) {
+                    partition.recordStored(document.get("metadata", Document.class));
+                }
+            }
+        }
+    }
+
+    private void insert(final MongoCollection<Document> collection,
+                        final List<Document> documents,
+                        final String fileIdKey,
+                        final Map<ObjectId, String> failures,
+                        final Map<ObjectId, ObjectId> duplicates) {
+
+        if (documents.isEmpty()) {
+            return;
+        }
+
+        try {
+            collection.insertMany(documents, UNORDERED);
+        } catch (MongoBulkWriteException e) {
+            final Set<ObjectId> inserted = findInserted(collection, documents, e.getWriteErrors());
+            for (BulkWriteError error : e.getWriteErrors()) {
+                final Document document = documents.get(error.getIndex());
+                if (inserted.contains(document.getObjectId("_id"))) {
+                    continue;
+                }
+                final ObjectId objectId = document.getObjectId(fileIdKey);
+                if (error.getCategory() == ErrorCategory.DUPLICATE_KEY && document.containsKey("metadata")) {
+                    try {
+                        final Optional<ObjectId> copy = duplicateResolver.apply(document.get("metadata", Document.class));
+                        if (copy.isPresent()) {
+                            duplicates.put(objectId, copy.get());
+                            continue;
+                        }
+                    } catch (DuplicateEventException de) {
+                        failures.putIfAbsent(objectId, de.getMessage());
+                        continue;
+                    }
+                }
+                failures.putIfAbsent(objectId, error.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Finds the documents rejected by a unique index that were inserted by an earlier attempt. A chunk is only ever
+     * inserted for its own file so a rejected chunk was, the catalog documents are found with a single query of their
+     * _ids.
+     *
+     * @return the _ids of the rejected documents that are stored
+     */
+    private Set<ObjectId> findInserted(final MongoCollection<Document> collection,
+                                       final List<Document> documents,
+                                       final List<BulkWriteError> errors) {
+
+        final Set<ObjectId> inserted = new HashSet<>();
+        final List<ObjectId> rejected = new ArrayList<>();
+        for (BulkWriteError error : errors) {
+            final Document document = documents.get(error.getIndex());
+            if (error.getCategory() == ErrorCategory.DUPLICATE_KEY) {
+                (document.containsKey("metadata") ? rejected : inserted).add(document.getObjectId("_id"));
+            }
+        }
+
+        if (!rejected.isEmpty()) {
+            for (Document document : collection.find(Filters.in("_id", rejected)).projection(Projections.include("_id"))) {
+                inserted.add(document.getObjectId("_id"));
+            }
+        }
+        return inserted;
+    }
+
+    /**
+     * The pending events of a partition.
+     */
+    private static final class Group {
+
+        private final List<Document> files = new ArrayList<>();
+        private final List<Document> chunks = new ArrayList<>();
+        private final List<Document> inlines = new ArrayList<>();
+    }
+}
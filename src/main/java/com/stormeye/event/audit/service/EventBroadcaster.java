@@ -0,0 +1,88 @@
+package com.stormeye.event.audit.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Fans the events stored by the {@link EventAuditService} out to the {@link EventSubscription}s of this process.
+ * Publishing only adds an event to the ring buffer of each matching subscription, a subscription whose buffer is full
+ * is dropped rather than holding up the event's writer.
+ *
+ * @author ian@meywood.com
+ */
+@Component
+public class EventBroadcaster {
+
+    private static final String METRIC_PREFIX = "event.audit.stream.";
+
+    private final Logger logger = LoggerFactory.getLogger(EventBroadcaster.class);
+    private final List<EventSubscription> subscriptions = new CopyOnWriteArrayList<>();
+    private final Counter published;
+    private final Counter dropped;
+
+    public EventBroadcaster(final MeterRegistry meterRegistry) {
+        Gauge.builder(METRIC_PREFIX + "subscribers", subscriptions, List::size)
+                .description("The number of subscribers to stored events")
+                .register(meterRegistry);
+        this.published = meterRegistry.counter(METRIC_PREFIX + "published");
+        this.dropped = meterRegistry.counter(METRIC_PREFIX + "dropped");
+    }
+
+    /**
+     * Adds a subscription that is offered each event published from now on that matches it.
+     *
+     * @param subscription the subscription to add
+     */
+    public void subscribe(final EventSubscription subscription) {
+        subscriptions.add(subscription);
+    }
+
+    /**
+     * Removes a subscription.
+     *
+     * @param subscription the subscription to remove
+     */
+    public void unsubscribe(final EventSubscription subscription) {
+        subscriptions.remove(subscription);
+    }
+
+    /**
+     * Offers a stored event to the matching subscriptions. A subscription that lags is removed.
+     *
+     * @param objectId the internal ID of the stored event
+     * @param metadata the metadata the event was stored with
+     */
+    void publish(final ObjectId objectId, final Document metadata) {
+
+        if (subscriptions.isEmpty()) {
+            return;
+        }
+
+        final Document event = new Document("_id", objectId).append("metadata", metadata);
+
+        for (EventSubscription subscription : subscriptions) {
+            if (subscription.matches(metadata) && !subscription.offer(event)) {
+                if (subscription.isLagged()) {
+                    logger.debug("Dropping subscriber that lagged at event {}", objectId);
+                    dropped.increment();
+                }
+                subscriptions.remove(subscription);
+            }
+        }
+
+        published.increment();
+    }
+
+    public int getSubscribers() {
+        return subscriptions.size();
+    }
+}
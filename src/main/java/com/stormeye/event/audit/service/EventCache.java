@@ -0,0 +1,187 @@
+package com.stormeye.event.audit.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.bson.types.ObjectId;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.nio.ByteBuffer;
+import java.time.Instant;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A read through cache of the JSON of recently read events, bounded by the total size of the cached events in bytes.
+ * The least recently read events are evicted once the cache is full. Events are held in direct buffers so that the
+ * cache does not grow the heap. As stored events are never modified an entry is never stale.
+ * <p>
+ * Events larger than the maximum entry size are not cached so that a single large event does not evict many small
+ * ones. Events are cached as stored, so an encoded event is cached in its encoded form. The cache is disabled by
+ * setting <code>event.audit.cache.max-bytes</code> to 0.
+ *
+ * @author ian@meywood.com
+ */
+@Component
+public class EventCache {
+
+    private static final String METRIC_PREFIX = "event.audit.cache.";
+
+    private final long maxBytes;
+    private final long maxEntryBytes;
+    /** The cached events in order of access, guarded by the lock */
+    private final Map<ObjectId, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    /** Guards the entries, a lock rather than a monitor so that a virtual thread waiting for it is not pinned */
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Counter hits;
+    private final Counter misses;
+    private final Counter evictions;
+    private long bytes;
+
+    public EventCache(final MeterRegistry meterRegistry,
+                      @Value("${event.audit.cache.max-bytes:67108864}") final long maxBytes,
+                      @Value("${event.audit.cache.max-entry-bytes:1048576}") final long maxEntryBytes) {
+        this.maxBytes = maxBytes;
+        this.maxEntryBytes = Math.min(maxEntryBytes, maxBytes);
+
+        Gauge.builder(METRIC_PREFIX + "bytes", this, EventCache::getBytes)
+                .description("The total size of the cached events")
+                .baseUnit("bytes")
+                .register(meterRegistry);
+        Gauge.builder(METRIC_PREFIX + "entries", this, EventCache::getEntries)
+                .description("The number of cached events")
+                .register(meterRegistry);
+        this.hits = meterRegistry.counter(METRIC_PREFIX + "hits");
+        this.misses = meterRegistry.counter(METRIC_PREFIX + "misses");
+        this.evictions = meterRegistry.counter(METRIC_PREFIX + "evictions");
+    }
+
+    /**
+     * Obtains a cached event.
+     *
+     * @param objectId the internal ID of the event
+     * @return a stream of the event's stored bytes read from a read only view of the cached buffer if the event is
+     * cached
+     */
+    Optional<EventStream> get(final ObjectId objectId) {
+
+        if (maxBytes <= 0) {
+            return Optional.empty();
+        }
+
+        final Entry entry;
+        lock.lock();
+        try {
+            entry = entries.get(objectId);
+        } finally {
+            lock.unlock();
+        }
+
+        if (entry == null) {
+            misses.increment();
+            return Optional.empty();
+        }
+
+        hits.increment();
+        return Optional.of(new ByteBufferEventStream(entry.buffer.asReadOnlyBuffer(), entry.codec, entry.decodedSize));
+    }
+
+    /**
+     * @param size the size of an event in bytes
+     * @return true if an event of the size is cached once read
+     */
+    boolean isCacheable(final long size) {
+        return size <= maxEntryBytes;
+    }
+
+    /**
+     * Caches an event, evicting the least recently read events until the cache has room for it.
+     *
+     * @param objectId    the internal ID of the event
+     * @param data        the event's stored bytes
+     * @param codec       the codec the stored bytes are encoded with
+     * @param decodedSize the size of the event's JSON
+     */
+    void put(final ObjectId objectId, final byte[] data, final EventCodec codec, final long decodedSize) {
+
+        if (!isCacheable(data.length)) {
+            return;
+        }
+
+        final ByteBuffer buffer = ByteBuffer.allocateDirect(data.length).put(data).flip();
+
+        lock.lock();
+        try {
+            final Entry previous = entries.put(objectId, new Entry(buffer, codec, decodedSize));
+            bytes += data.length - (previous != null ? previous.buffer.capacity() : 0);
+
+            final Iterator<Map.Entry<ObjectId, Entry>> eldest = entries.entrySet().iterator();
+            while (bytes > maxBytes && eldest.hasNext()) {
+                bytes -= eldest.next().getValue().buffer.capacity();
+                eldest.remove();
+                evictions.increment();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Removes the cached events accepted before an instant, such as the events of a dropped partition.
+     *
+     * @param instant the instant before which events are removed
+     */
+    void evictBefore(final Instant instant) {
+        lock.lock();
+        try {
+            final Iterator<Map.Entry<ObjectId, Entry>> iterator = entries.entrySet().iterator();
+            while (iterator.hasNext()) {
+                final Map.Entry<ObjectId, Entry> entry = iterator.next();
+                if (entry.getKey().getDate().toInstant().isBefore(instant)) {
+                    bytes -= entry.getValue().buffer.capacity();
+                    iterator.remove();
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    long getBytes() {
+        lock.lock();
+        try {
+            return bytes;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    int getEntries() {
+        lock.lock();
+        try {
+            return entries.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * A cached event's stored bytes and codec.
+     */
+    private static class Entry {
+
+        private final ByteBuffer buffer;
+        private final EventCodec codec;
+        private final long decodedSize;
+
+        private Entry(final ByteBuffer buffer, final EventCodec codec, final long decodedSize) {
+            this.buffer = buffer;
+            this.codec = codec;
+            this.decodedSize = decodedSize;
+        }
+    }
+}
@@ -0,0 +1,124 @@
+package com.stormeye.event.audit.service;
+
+import com.github.luben.zstd.ZstdInputStream;
+import com.github.luben.zstd.ZstdOutputStream;
+import org.bson.Document;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * The codecs that the JSON of events can be stored with. The name of a codec is the HTTP content coding of the stored
+ * bytes, so an encoded event can be served as is to a client that accepts the codec.
+ *
+ * @author ian@meywood.com
+ */
+public enum EventCodec {
+
+    /** Events are stored as is */
+    NONE(null) {
+        @Override
+        public OutputStream encode(final OutputStream out) {
+            return out;
+        }
+
+        @Override
+        public InputStream decode(final InputStream in) {
+            return in;
+        }
+    },
+    GZIP("gzip") {
+        @Override
+        public OutputStream encode(final OutputStream out) throws IOException {
+            return new GZIPOutputStream(out, BUFFER_SIZE);
+        }
+
+        @Override
+        public InputStream decode(final InputStream in) throws IOException {
+            return new GZIPInputStream(in, BUFFER_SIZE);
+        }
+    },
+    ZSTD("zstd") {
+        @Override
+        public OutputStream encode(final OutputStream out) throws IOException {
+            return new ZstdOutputStream(out);
+        }
+
+        @Override
+        public InputStream decode(final InputStream in) throws IOException {
+            return new ZstdInputStream(in);
+        }
+    };
+
+    /** The metadata key of the codec an event is stored with, absent if stored as is */
+    static final String METADATA_KEY = "codec";
+    private static final int BUFFER_SIZE = 8192;
+
+    private final String contentEncoding;
+
+    EventCodec(final String contentEncoding) {
+        this.contentEncoding = contentEncoding;
+    }
+
+    /**
+     * @return the HTTP content coding of the encoded bytes, null if the bytes are not encoded
+     */
+    public String getContentEncoding() {
+        return contentEncoding;
+    }
+
+    /**
+     * Wraps a stream that encoded bytes are written to, the encoded stream must be closed to complete the encoding.
+     */
+    public abstract OutputStream encode(final OutputStream out) throws IOException;
+
+    /**
+     * Wraps a stream of encoded bytes so that the decoded bytes are read from it.
+     */
+    public abstract InputStream decode(final InputStream in) throws IOException;
+
+    /**
+     * Encodes the whole of an event's JSON.
+     */
+    byte[] encode(final byte[] data) {
+
+        if (this == NONE) {
+            return data;
+        }
+
+        final ByteArrayOutputStream encoded = new ByteArrayOutputStream(data.length / 4);
+        try (OutputStream out = encode(encoded)) {
+            out.write(data);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return encoded.toByteArray();
+    }
+
+    /**
+     * Obtains the codec an event was stored with from its metadata.
+     *
+     * @param metadata the metadata of the event, may be null
+     * @return the codec of the event
+     */
+    static EventCodec fromMetadata(final Document metadata) {
+
+        final String contentEncoding = metadata != null ? metadata.getString(METADATA_KEY) : null;
+
+        if (contentEncoding == null) {
+            return NONE;
+        }
+
+        for (EventCodec codec : values()) {
+            if (contentEncoding.equals(codec.contentEncoding)) {
+                return codec;
+            }
+        }
+        throw new IllegalStateException("Unknown event codec " + contentEncoding);
+    }
+}
@@ -0,0 +1,77 @@
+package com.stormeye.event.audit.service;
+
+import org.bson.types.ObjectId;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+/**
+ * The position of an event in the (source, event ID, internal ID) order of a metadata query. A cursor is passed to
+ * clients as an opaque URL safe token so that the next page can be read with an index seek rather than by skipping.
+ *
+ * @author ian@meywood.com
+ */
+public class EventCursor {
+
+    private static final char SEPARATOR = '\n';
+
+    private final String source;
+    private final long id;
+    private final ObjectId objectId;
+
+    public EventCursor(final String source, final long id, final ObjectId objectId) {
+        this.source = source;
+        this.id = id;
+        this.objectId = objectId;
+    }
+
+    /**
+     * Parses a cursor token.
+     *
+     * @param token the token obtained from {@link #toToken()}
+     * @return the cursor
+     * @throws IllegalArgumentException if the token is not a valid cursor
+     */
+    public static EventCursor fromToken(final String token) {
+
+        final String decoded = new String(Base64.getUrlDecoder().decode(token), StandardCharsets.UTF_8);
+        final int last = decoded.lastIndexOf(SEPARATOR);
+        final int middle = decoded.lastIndexOf(SEPARATOR, last - 1);
+
+        if (middle < 0 || !ObjectId.isValid(decoded.substring(last + 1))) {
+            throw new IllegalArgumentException("Invalid cursor " + token);
+        }
+
+        return new EventCursor(
+                decoded.substring(0, middle),
+                Long.parseLong(decoded.substring(middle + 1, last)),
+                new ObjectId(decoded.substring(last + 1))
+        );
+    }
+
+    public String toToken() {
+        final String value = source + SEPARATOR + id + SEPARATOR + objectId.toHexString();
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(value.getBytes(StandardCharsets.UTF_8));
+    }
+
+    public String getSource() {
+        return source;
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    public ObjectId getObjectId() {
+        return objectId;
+    }
+
+    @Override
+    public String toString() {
+        return "{" +
+                "source='" + source + '\'' +
+                ", id=" + id +
+                ", objectId=" + objectId +
+                '}';
+    }
+}
@@ -0,0 +1,288 @@
+package com.stormeye.event.audit.service;
+
+import com.stormeye.event.audit.exception.DuplicateEventException;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Detects events that are saved again, such as the events a node replays when a listener reconnects with
+ * <code>start_from</code>. Enabled by setting <code>event.audit.dedup.enabled</code> to true.
+ * <p>
+ * An event is keyed by its source, type and event ID. A duplicate is not written again, instead the internal ID of the
+ * stored copy is returned. The unique index of the partition of the {@link EventStore} an event is written to rejects a
+ * copy stored in the same partition, only then is the stored copy looked up. A copy stored in another partition, or
+ * moved to the {@link EventSegmentStore}, is not rejected so it is looked for before the event is written, querying
+ * only the partitions whose event ID ranges hold the event's ID. An event written behind is also looked for in the
+ * partition it is written to, as the internal ID it is acknowledged with must be the stored copy's. The keys of
+ * recently saved events are held in an LRU map so that a replayed event is answered without a round trip to mongo.
+ * Unless content is verified a streamed event's key is looked up as soon as it has been parsed, before a large event is
+ * streamed into GridFS.
+ * <p>
+ * If deduplication is not enabled a copy found before an event is written is rejected, as the unique index would.
+ * <p>
+ * If <code>event.audit.dedup.verify-content</code> is true a SHA-256 hash of each event is stored in its metadata and
+ * an event is only a duplicate if its hash matches the stored copy, a differing event with the same key is rejected.
+ *
+ * @author ian@meywood.com
+ */
+@Component
+public class EventDeduplicator {
+
+    /** The metadata key of the hex SHA-256 hash of the event's bytes */
+    static final String CONTENT_HASH = "sha256";
+    private static final String METRIC_NAME = "event.audit.dedup.duplicates";
+
+    private final EventStore eventStore;
+    private final EventSegmentStore segmentStore;
+    private final boolean enabled;
+    private final boolean verifyContent;
+    /** The keys of the most recently saved events mapped to their stored copies */
+    private final Map<String, Recent> recent;
+    /** Guards the recent keys */
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Counter recentHits;
+    private final Counter storeHits;
+
+    public EventDeduplicator(final EventStore eventStore,
+                             final EventSegmentStore segmentStore,
+                             final MeterRegistry meterRegistry,
+                             @Value("${event.audit.dedup.enabled:false}") final boolean enabled,
+                             @Value("${event.audit.dedup.verify-content:false}") final boolean verifyContent,
+                             @Value("${event.audit.dedup.recent-keys:100000}") final int recentKeys) {
+        this.eventStore = eventStore;
+        this.segmentStore = segmentStore;
+        this.enabled = enabled;
+        this.verifyContent = verifyContent;
+        this.recent = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(final Map.Entry<String, Recent> eldest) {
+                return size() > recentKeys;
+            }
+        };
+        this.recentHits = meterRegistry.counter(METRIC_NAME, "found", "recent");
+        this.storeHits = meterRegistry.counter(METRIC_NAME, "found", "store");
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * @return a digest to hash an event's bytes with if content is verified, otherwise null
+     */
+    MessageDigest newDigest() {
+        if (!enabled || !verifyContent) {
+            return null;
+        }
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Finds a recently saved copy of an event without querying the store.
+     *
+     * @param metadata the metadata of the event being saved
+     * @return the internal ID of the recently saved copy
+     * @throws DuplicateEventException if content is verified and the copy's content differs
+     */
+    Optional<ObjectId> findRecent(final Document metadata) {
+
+        final String key = keyOf(metadata);
+
+        if (key == null) {
+            return Optional.empty();
+        }
+
+        final Recent copy;
+        lock.lock();
+        try {
+            copy = recent.get(key);
+        } finally {
+            lock.unlock();
+        }
+
+        if (copy == null) {
+            return Optional.empty();
+        }
+
+        verify(metadata, copy.hash);
+        recentHits.increment();
+        return Optional.of(copy.objectId);
+    }
+
+    /**
+     * Finds a recently saved copy of an event by its key as soon as the key has been parsed, before the whole event
+     * has been read. A key is only looked up early if content is not verified, as the hash of the event is not known
+     * until it has been read.
+     *
+     * @param source  the URL of the casper node that emitted the event
+     * @param type    the type/topic of the event
+     * @param eventId the ID of the event
+     * @return the internal ID of the recently saved copy
+     */
+    Optional<ObjectId> findRecentKey(final String source, final String type, final Long eventId) {
+
+        if (verifyContent || source == null || type == null) {
+            return Optional.empty();
+        }
+
+        return findRecent(new Document("type", type).append("source", source).append("id", eventId));
+    }
+
+    /**
+     * Finds the stored copy of an event that was rejected by the store as a duplicate.
+     *
+     * @param metadata the metadata of the rejected event
+     * @return the internal ID of the stored copy, empty if deduplication is not enabled
+     * @throws DuplicateEventException if content is verified and the copy's content differs
+     */
+    Optional<ObjectId> findStored(final Document metadata) {
+
+        final Optional<ObjectId> copy = findRecent(metadata);
+
+        if (copy.isPresent() || keyOf(metadata) == null) {
+            return copy;
+        }
+
+        final String source = metadata.getString("source");
+        final String type = metadata.getString("type");
+        final long eventId = metadata.getLong("id");
+
+        // An event moved to cold storage is no longer rejected by the unique index, so a replay is looked up there too
+        return eventStore.findCatalogEntry(source, type, eventId)
+                .or(() -> segmentStore.findCatalogEntry(source, type, eventId))
+                .map(entry -> resolve(metadata, entry));
+    }
+
+    /**
+     * Finds a stored copy of an event before the event is written, in the partitions and segments whose copy the
+     * unique index of the partition it is written to does not reject.
+     *
+     * @param metadata              the metadata of the event being saved
+     * @param includeWritePartition true if the event is acknowledged before it is written, so that a copy in the
+     *                              partition it is written to is looked for too
+     * @return the internal ID of the stored copy
+     * @throws DuplicateEventException if a copy is stored and deduplication is not enabled, or content is verified and
+     *                                 the copy's content differs
+     */
+    Optional<ObjectId> findCopy(final Document metadata, final boolean includeWritePartition) {
+
+        final Number eventId = metadata.get("id", Number.class);
+
+        if (eventId == null) {
+            return Optional.empty();
+        }
+
+        final String source = metadata.getString("source");
+        final String type = metadata.getString("type");
+        final Optional<Document> entry = eventStore.findCopy(source, type, eventId.longValue(), includeWritePartition)
+                .or(() -> segmentStore.findCatalogEntry(source, type, eventId.longValue()));
+
+        if (entry.isPresent() && !enabled) {
+            throw EventStore.duplicateEvent(metadata);
+        }
+        return entry.map(copy -> resolve(metadata, copy));
+    }
+
+    /**
+     * Records the key of a saved event.
+     *
+     * @param metadata the metadata of the saved event
+     * @param objectId the internal ID of the saved event
+     */
+    void remember(final Document metadata, final ObjectId objectId) {
+
+        final String key = keyOf(metadata);
+
+        if (key != null) {
+            lock.lock();
+            try {
+                recent.put(key, new Recent(objectId, metadata.getString(CONTENT_HASH)));
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Forgets the key of an event that was remembered before it was written but could not be stored, unless the key
+     * has since been remembered for another copy.
+     *
+     * @param metadata the metadata of the event
+     * @param objectId the internal ID the event was remembered with
+     */
+    void forget(final Document metadata, final ObjectId objectId) {
+
+        final String key = keyOf(metadata);
+
+        if (key != null) {
+            lock.lock();
+            try {
+                final Recent copy = recent.get(key);
+                if (copy != null && copy.objectId.equals(objectId)) {
+                    recent.remove(key);
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * @return the internal ID of the stored copy of an event once its content has been verified
+     */
+    private ObjectId resolve(final Document metadata, final Document entry) {
+        final Document stored = entry.get("metadata", Document.class);
+        verify(metadata, stored.getString(CONTENT_HASH));
+        remember(stored, entry.getObjectId("_id"));
+        storeHits.increment();
+        return entry.getObjectId("_id");
+    }
+
+    private String keyOf(final Document metadata) {
+        if (!enabled || metadata.get("id") == null) {
+            // Events without an ID, such as ApiVersion events, are never duplicates
+            return null;
+        }
+        return metadata.getString("source") + '\n' + metadata.getString("type") + '\n' + metadata.get("id");
+    }
+
+    private void verify(final Document metadata, final String storedHash) {
+
+        final String hash = metadata.getString(CONTENT_HASH);
+
+        // A copy stored before content was verified has no hash to compare
+        if (hash != null && storedHash != null && !hash.equals(storedHash)) {
+            throw new DuplicateEventException("Event " + metadata.get("id") + " from " + metadata.get("source")
+                    + " of type " + metadata.get("type") + " is already stored with different content");
+        }
+    }
+
+    /**
+     * The stored copy of a recently saved event.
+     */
+    private static class Recent {
+
+        private final ObjectId objectId;
+        private final String hash;
+
+        private Recent(final ObjectId objectId, final String hash) {
+            this.objectId = objectId;
+            this.hash = hash;
+        }
+    }
+}
@@ -0,0 +1,137 @@
+package com.stormeye.event.audit.service;
+
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoCursor;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.Sorts;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * The service for exporting ranges of stored events as newline delimited JSON. Each of the {@link EventStore}'s catalog
+ * collections is read with a single server side cursor in (source, event ID, internal ID) order and the cursors are
+ * merged, so an export costs a round trip per batch of events rather than per event. Inline events are read with
+ * their catalog documents, GridFS events are streamed a batch of chunks at a time, so the memory an export uses does
+ * not depend upon the number or size of the events it exports.
+ *
+ * @author ian@meywood.com
+ */
+@Service
+public class EventExportService {
+
+    /** The number of catalog documents read from a cursor at a time, inline documents include their data */
+    private static final int BATCH_SIZE = 1000;
+    /** The number of GridFS chunks read at a time, 8MB of default sized chunks */
+    private static final int CHUNK_BATCH_SIZE = 32;
+
+    private final Logger logger = LoggerFactory.getLogger(EventExportService.class);
+    private final EventStore eventStore;
+
+    public EventExportService(final EventStore eventStore) {
+        this.eventStore = eventStore;
+    }
+
+    /**
+     * Writes the JSON of each event that matches a query as a line of newline delimited JSON. Only events that have an
+     * event ID are exported, the after cursor and limit of the query are ignored.
+     *
+     * @param query the query criteria
+     * @param out   the stream to write the events to
+     * @return the number of events that were exported
+     * @throws IOException if the events could not be written
+     */
+    public long export(final EventQuery query, final OutputStream out) throws IOException {
+
+        logger.debug("export({})", query);
+
+        return export(EventQueryService.buildFilter(query),
+                Sorts.ascending(EventQueryService.SOURCE, EventQueryService.EVENT_ID, EventQueryService.ID),
+                EventQueryService.ORDER,
+                out);
+    }
+
+    /**
+     * Writes the JSON of each event whose extracted {@link EventFields} field has a value as a line of newline
+     * delimited JSON, in the order the events were stored. Used to obtain every event of a block or deploy by its hash.
+     *
+     * @param field the name of the extracted field e.g. {@link EventFields#BLOCK_HASH}
+     * @param value the value of the field
+     * @param out   the stream to write the events to
+     * @return the number of events that were exported
+     * @throws IOException if the events could not be written
+     */
+    public long exportByField(final String field, final String value, final OutputStream out) throws IOException {
+
+        logger.debug("exportByField({}, {})", field, value);
+
+        return export(Filters.eq(EventStore.FIELDS + "." + field, value),
+                Sorts.ascending(EventQueryService.ID),
+                Comparator.comparing(document -> document.getObjectId(EventQueryService.ID)),
+                out);
+    }
+
+    private long export(final Bson filter, final Bson sort, final Comparator<Document> order, final OutputStream out) throws IOException {
+
+        final List<MongoCollection<Document>> catalogs = eventStore.getCatalogs();
+        final List<MongoCursor<Document>> cursors = new ArrayList<>();
+        final OutputStream line = new SingleLineOutputStream(out);
+        long count = 0;
+
+        try {
+            for (MongoCollection<Document> catalog : catalogs) {
+                cursors.add(catalog.find(filter)
+                        .sort(sort)
+                        .batchSize(BATCH_SIZE)
+                        .cursor());
+            }
+
+            // The next document of each cursor, null once the cursor is exhausted
+            final Document[] heads = new Document[cursors.size()];
+            for (int i = 0; i < heads.length; i++) {
+                heads[i] = next(cursors.get(i));
+            }
+
+            int current;
+            while ((current = first(heads, order)) != -1) {
+                try (EventStream eventStream = eventStore.open(catalogs.get(current), heads[current], CHUNK_BATCH_SIZE).decode()) {
+                    eventStream.transferTo(line);
+                }
+                out.write('\n');
+                count++;
+                heads[current] = next(cursors.get(current));
+            }
+        } finally {
+            cursors.forEach(MongoCursor::close);
+        }
+
+        logger.debug("Exported {} events", count);
+
+        return count;
+    }
+
+    private static Document next(final MongoCursor<Document> cursor) {
+        return cursor.hasNext() ? cursor.next() : null;
+    }
+
+    /**
+     * @return the index of the head document that is first in export order, -1 if all the cursors are exhausted
+     */
+    private static int first(final Document[] heads, final Comparator<Document> order) {
+        int first = -1;
+        for (int i = 0; i < heads.length; i++) {
+            if (heads[i] != null && (first == -1 || order.compare(heads[i], heads[first]) < 0)) {
+                first = i;
+            }
+        }
+        return first;
+    }
+}
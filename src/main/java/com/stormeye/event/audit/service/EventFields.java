@@ -0,0 +1,90 @@
+package com.stormeye.event.audit.service;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The fields extracted from the data of each type of event by the {@link EventInfoParser}, as it parses the event's
+ * metadata. Each field is configured with the dotted path of a scalar value from the root of the event, e.g.
+ * <code>data.BlockAdded.block_hash</code>, and is stored under <code>metadata.fields</code>. Only values of objects
+ * are found, the elements of arrays are not.
+ * <p>
+ * The paths of every data type are merged into a tree that the parser walks alongside the event's tokens, so the
+ * fields are extracted in the same pass whether the event's data type precedes its data or not.
+ *
+ * @author ian@meywood.com
+ */
+public class EventFields {
+
+    /** The metadata document the extracted fields are stored in */
+    public static final String METADATA_KEY = "fields";
+    /** The hash of the block an event belongs to, events are looked up by it */
+    public static final String BLOCK_HASH = "blockHash";
+    /** The hash of the deploy an event belongs to, events are looked up by it */
+    public static final String DEPLOY_HASH = "deployHash";
+    /** Extracts no fields */
+    public static final EventFields NONE = new EventFields(Collections.emptyMap());
+
+    /**
+     * A node of the tree of paths, the fields of a node are the fields extracted from a value at its path.
+     */
+    static final class Node {
+
+        private final Map<String, Node> children = new HashMap<>();
+        /** The names of the fields extracted from the value at this path by data type */
+        private final Map<String, String> fields = new HashMap<>();
+
+        Node child(final String name) {
+            return children.get(name);
+        }
+
+        boolean isLeaf() {
+            return !fields.isEmpty();
+        }
+
+        Map<String, String> getFields() {
+            return fields;
+        }
+    }
+
+    private final Node root = new Node();
+    private final Map<String, Map<String, String>> paths;
+
+    /**
+     * @param paths the dotted paths of the extracted fields by field name, by data type
+     */
+    public EventFields(final Map<String, Map<String, String>> paths) {
+
+        final Map<String, Map<String, String>> copy = new LinkedHashMap<>();
+
+        paths.forEach((dataType, fields) -> fields.forEach((field, path) -> {
+            if (path == null || path.isBlank() || path.startsWith(".") || path.endsWith(".") || path.contains("..")) {
+                throw new IllegalArgumentException("Invalid path " + path + " of " + dataType + " field " + field);
+            }
+            Node node = root;
+            for (String name : path.split("\\.")) {
+                node = node.children.computeIfAbsent(name, key -> new Node());
+            }
+            node.fields.put(dataType, field);
+            copy.computeIfAbsent(dataType, key -> new LinkedHashMap<>()).put(field, path);
+        }));
+
+        this.paths = Collections.unmodifiableMap(copy);
+    }
+
+    /**
+     * @return the node of the root of an event
+     */
+    Node getRoot() {
+        return root;
+    }
+
+    /**
+     * @return the dotted paths of the extracted fields by field name, by data type
+     */
+    public Map<String, Map<String, String>> getPaths() {
+        return paths;
+    }
+}
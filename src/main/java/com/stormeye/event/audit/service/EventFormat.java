@@ -0,0 +1,198 @@
+package com.stormeye.event.audit.service;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.io.SerializedString;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Locale;
+
+/**
+ * The wire formats that events are accepted and served in. Events are always stored as JSON, the canonical form that
+ * metadata is parsed from, queries and exports are served from and duplicates are detected by. An event received in a
+ * binary format is transcoded to JSON token by token as it is read, so only a chunk of its JSON is held in memory, and
+ * a stored event is transcoded from JSON as it is written to a client that prefers a binary format, neither binds the
+ * event to objects.
+ * <p>
+ * A binary request body may hold a sequence of events, each a root level value, that are transcoded to newline
+ * delimited JSON.
+ *
+ * @author ian@meywood.com
+ */
+public enum EventFormat {
+
+    JSON("application/json", new JsonFactory()),
+    /** The binary JSON format of Jackson */
+    SMILE("application/x-jackson-smile", new SmileFactory()),
+    /** The Concise Binary Object Representation of RFC 8949 */
+    CBOR("application/cbor", new CBORFactory());
+
+    /** Separates the JSON events transcoded from a sequence of binary events */
+    private static final SerializedString LINE_SEPARATOR = new SerializedString("\n");
+
+    private final String mediaType;
+    private final JsonFactory factory;
+
+    EventFormat(final String mediaType, final JsonFactory factory) {
+        this.mediaType = mediaType;
+        this.factory = factory;
+    }
+
+    /**
+     * @return the media type of the format
+     */
+    public String getMediaType() {
+        return mediaType;
+    }
+
+    /**
+     * Obtains the format of a Content-Type header.
+     *
+     * @param contentType the Content-Type of a request, may be null
+     * @return the binary format of the content type, JSON for any other content type
+     */
+    public static EventFormat fromContentType(final String contentType) {
+        if (contentType != null) {
+            final int parameters = contentType.indexOf(';');
+            final String type = (parameters != -1 ? contentType.substring(0, parameters) : contentType).trim().toLowerCase(Locale.ROOT);
+            for (EventFormat format : values()) {
+                if (format.mediaType.equals(type)) {
+                    return format;
+                }
+            }
+        }
+        return JSON;
+    }
+
+    /**
+     * Wraps a stream of events in this format in a stream of their JSON. The events are transcoded token by token as
+     * the JSON is read, consecutive events are separated by a newline.
+     *
+     * @param in the stream of events in this format
+     * @return the stream of the events' JSON
+     */
+    public InputStream toJson(final InputStream in) throws IOException {
+        return this == JSON ? in : new JsonInputStream(factory.createParser(in));
+    }
+
+    /**
+     * Transcodes the JSON of a stored event to this format.
+     *
+     * @param json the stream of the event's JSON
+     * @param out  the stream the event is written to in this format, it is not closed
+     */
+    public void fromJson(final InputStream json, final OutputStream out) throws IOException {
+
+        if (this == JSON) {
+            json.transferTo(out);
+            return;
+        }
+
+        try (JsonParser parser = JSON.factory.createParser(json);
+             JsonGenerator generator = factory.createGenerator(out)) {
+            generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+            while (parser.nextToken() != null) {
+                generator.copyCurrentStructure(parser);
+            }
+        }
+    }
+
+    /**
+     * The JSON of a stream of binary events. Tokens are transcoded as the JSON is read until a chunk of JSON is
+     * buffered, so only the chunk and the current token are held in memory whatever the size of an event.
+     */
+    private static final class JsonInputStream extends InputStream {
+
+        /** The number of bytes of JSON transcoded before it is read */
+        private static final int CHUNK_SIZE = 8192;
+
+        private final JsonParser parser;
+        private final Buffer buffer = new Buffer();
+        private final JsonGenerator generator;
+
+        private JsonInputStream(final JsonParser parser) throws IOException {
+            this.parser = parser;
+            this.generator = JSON.factory.createGenerator(buffer);
+            this.generator.setRootValueSeparator(LINE_SEPARATOR);
+        }
+
+        @Override
+        public int read() throws IOException {
+            return fill() ? buffer.drain() : -1;
+        }
+
+        @Override
+        public int read(final byte[] bytes, final int offset, final int length) throws IOException {
+            if (length == 0) {
+                return 0;
+            }
+            return fill() ? buffer.drain(bytes, offset, length) : -1;
+        }
+
+        /**
+         * Transcodes the next chunk of JSON once the previous chunk has been read.
+         *
+         * @return false once all the events have been read
+         */
+        private boolean fill() throws IOException {
+            if (buffer.remaining() > 0) {
+                return true;
+            }
+            buffer.reset();
+            while (buffer.size() < CHUNK_SIZE) {
+                JsonToken token = parser.nextToken();
+                if (token == null && !parser.isClosed()) {
+                    // The header of each Smile document after the first is reported as the end of the previous one
+                    token = parser.nextToken();
+                }
+                if (token == null) {
+                    break;
+                }
+                generator.copyCurrentEvent(parser);
+                generator.flush();
+            }
+            return buffer.remaining() > 0;
+        }
+
+        @Override
+        public void close() throws IOException {
+            parser.close();
+        }
+    }
+
+    /**
+     * The buffer of transcoded JSON that is drained as it is read.
+     */
+    private static final class Buffer extends ByteArrayOutputStream {
+
+        private int position;
+
+        private int remaining() {
+            return count - position;
+        }
+
+        private int drain() {
+            return buf[position++] & 0xff;
+        }
+
+        private int drain(final byte[] bytes, final int offset, final int length) {
+            final int read = Math.min(length, remaining());
+            System.arraycopy(buf, position, bytes, offset, read);
+            position += read;
+            return read;
+        }
+
+        @Override
+        public synchronized void reset() {
+            super.reset();
+            position = 0;
+        }
+    }
+}
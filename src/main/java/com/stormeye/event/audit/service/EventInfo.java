@@ -4,6 +4,8 @@ import com.fasterxml.jackson.annotation.JsonCreator;
 import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
 import com.fasterxml.jackson.annotation.JsonProperty;
 
+import java.util.Collections;
+import java.util.Map;
 import java.util.Optional;
 
 /**
@@ -24,6 +26,8 @@ public class EventInfo {
     private final Long id;
     /** The version of the casper node when the event was emitted */
     private final String version;
+    /** The {@link EventFields} extracted from the event's data by name */
+    private final Map<String, Object> fields;
 
     @JsonCreator
     public EventInfo(@JsonProperty(value = "type", required = true) final String eventType,
@@ -31,11 +35,21 @@ public class EventInfo {
                      @JsonProperty(value = "dataType", required = true) final String dataType,
                      @JsonProperty(value = "id") final Long id,
                      @JsonProperty(value = "version") final String version) {
+        this(eventType, source, dataType, id, version, Collections.emptyMap());
+    }
+
+    public EventInfo(final String eventType,
+                     final String source,
+                     final String dataType,
+                     final Long id,
+                     final String version,
+                     final Map<String, Object> fields) {
         this.eventType = eventType;
         this.source = source;
         this.dataType = dataType;
         this.id = id;
         this.version = version;
+        this.fields = Collections.unmodifiableMap(fields);
     }
 
     public String getSource() {
@@ -58,6 +72,10 @@ public class EventInfo {
         return version;
     }
 
+    public Map<String, Object> getFields() {
+        return fields;
+    }
+
     @Override
     public String toString() {
         return "{" +
@@ -66,6 +84,7 @@ public class EventInfo {
                 ", dataType='" + dataType + '\'' +
                 ", id=" + id +
                 ", version=" +  version +
+                ", fields=" + fields +
                 '}';
     }
 }
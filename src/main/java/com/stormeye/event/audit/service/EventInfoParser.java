@@ -0,0 +1,217 @@
+package com.stormeye.event.audit.service;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.async.ByteArrayFeeder;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Incremental parser that extracts the {@link EventInfo} metadata from a JSON event as its bytes are fed to it. The
+ * bytes are never buffered by this parser so an event of any size can be parsed while it is being streamed elsewhere.
+ * <p>
+ * The {@link EventFields} of the event's data type are extracted from its data in the same pass.
+ * <p>
+ * A parser is used for a single event and is not thread safe.
+ *
+ * @author ian@meywood.com
+ */
+public class EventInfoParser {
+
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+    private final JsonParser parser;
+    private final ByteArrayFeeder feeder;
+    private final EventFields fields;
+    /** The path nodes of the objects enclosing the current token by depth, null if no field is extracted below one */
+    private EventFields.Node[] objects = new EventFields.Node[8];
+    /** The path node of the current field name, null if no field is extracted at or below it */
+    private EventFields.Node field;
+    /** The values found at the paths of the extracted fields */
+    private final Map<EventFields.Node, Object> values = new HashMap<>();
+    /** The nesting depth of the current token, the event's own fields are at depth 1 */
+    private int depth;
+    /** The name of the current top level field */
+    private String fieldName;
+    private String eventType;
+    private String source;
+    private String dataType;
+    private Long id;
+    private String version;
+
+    public EventInfoParser() {
+        this(EventFields.NONE);
+    }
+
+    /**
+     * @param fields the fields to extract from the data of each type of event
+     */
+    public EventInfoParser(final EventFields fields) {
+        this.fields = fields;
+        try {
+            this.parser = JSON_FACTORY.createNonBlockingByteArrayParser();
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        this.feeder = (ByteArrayFeeder) parser.getNonBlockingInputFeeder();
+    }
+
+    /**
+     * Feeds the next bytes of the event to the parser. All tokens in the bytes are consumed before this method returns
+     * so the caller is free to reuse the buffer.
+     *
+     * @param buffer the buffer containing the bytes
+     * @param offset the offset of the first byte to parse
+     * @param length the number of bytes to parse
+     * @throws IOException if the bytes are not valid JSON
+     */
+    public void feed(final byte[] buffer, final int offset, final int length) throws IOException {
+        feeder.feedInput(buffer, offset, offset + length);
+        consumeTokens();
+    }
+
+    /**
+     * Signals the end of the event and obtains the metadata that was parsed from it.
+     *
+     * @return the event's metadata
+     * @throws IOException if the event was incomplete or is missing a required field
+     */
+    public EventInfo complete() throws IOException {
+
+        feeder.endOfInput();
+        consumeTokens();
+
+        if (depth != 0) {
+            throw new JsonParseException(parser, "Unexpected end of JSON event");
+        }
+
+        requireField("type", eventType);
+        requireField("source", source);
+        requireField("dataType", dataType);
+
+        return new EventInfo(eventType, source, dataType, id, version, extractedFields());
+    }
+
+    /**
+     * @return the source of the event parsed so far, null if it has not been parsed yet
+     */
+    String getSource() {
+        return source;
+    }
+
+    /**
+     * @return the type of the event parsed so far, null if it has not been parsed yet
+     */
+    String getEventType() {
+        return eventType;
+    }
+
+    /**
+     * @return the ID of the event parsed so far, null if it has not been parsed yet
+     */
+    Long getEventId() {
+        return id;
+    }
+
+    private void consumeTokens() throws IOException {
+
+        JsonToken token;
+
+        while ((token = parser.nextToken()) != null && token != JsonToken.NOT_AVAILABLE) {
+            if (token.isStructStart()) {
+                if (depth == 0 && token != JsonToken.START_OBJECT) {
+                    throw new JsonParseException(parser, "A JSON event must be an object");
+                }
+                // The elements of arrays are never extracted so an array is not followed
+                pushObject(depth == 0 ? fields.getRoot() : token == JsonToken.START_OBJECT ? field : null);
+            } else if (token.isStructEnd()) {
+                depth--;
+                field = null;
+            } else if (token == JsonToken.FIELD_NAME) {
+                final EventFields.Node object = objects[depth];
+                field = object != null ? object.child(parser.getCurrentName()) : null;
+                if (depth == 1) {
+                    fieldName = parser.getCurrentName();
+                }
+            } else {
+                if (field != null && field.isLeaf() && token != JsonToken.VALUE_NULL) {
+                    values.put(field, value(token));
+                }
+                if (depth == 1) {
+                    setField(token);
+                }
+            }
+        }
+    }
+
+    private void pushObject(final EventFields.Node node) {
+        depth++;
+        if (depth == objects.length) {
+            objects = Arrays.copyOf(objects, depth * 2);
+        }
+        objects[depth] = node;
+        field = null;
+    }
+
+    private Object value(final JsonToken token) throws IOException {
+        if (token == JsonToken.VALUE_NUMBER_INT && parser.getNumberType() != JsonParser.NumberType.BIG_INTEGER) {
+            return parser.getLongValue();
+        } else if (token == JsonToken.VALUE_TRUE || token == JsonToken.VALUE_FALSE) {
+            return parser.getBooleanValue();
+        }
+        return parser.getText();
+    }
+
+    /**
+     * @return the extracted fields of the event's data type by name
+     */
+    private Map<String, Object> extractedFields() {
+        final Map<String, Object> extracted = new LinkedHashMap<>();
+        values.forEach((node, value) -> {
+            final String name = node.getFields().get(dataType);
+            if (name != null) {
+                extracted.put(name, value);
+            }
+        });
+        return extracted;
+    }
+
+    private void setField(final JsonToken token) throws IOException {
+
+        final String value = token == JsonToken.VALUE_NULL ? null : parser.getText();
+
+        switch (fieldName) {
+            case "type" -> eventType = value;
+            case "source" -> source = value;
+            case "dataType" -> dataType = value;
+            case "version" -> version = value;
+            case "id" -> id = parseId(token, value);
+            default -> {
+                // Not part of the metadata
+            }
+        }
+    }
+
+    private Long parseId(final JsonToken token, final String value) throws IOException {
+        if (token == JsonToken.VALUE_NUMBER_INT) {
+            return parser.getLongValue();
+        }
+        try {
+            return value != null ? Long.valueOf(value) : null;
+        } catch (NumberFormatException e) {
+            throw new JsonParseException(parser, "Invalid event id " + value);
+        }
+    }
+
+    private void requireField(final String name, final String value) throws IOException {
+        if (value == null) {
+            throw new JsonParseException(parser, "Missing required event field '" + name + "'");
+        }
+    }
+}
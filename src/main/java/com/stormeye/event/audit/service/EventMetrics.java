@@ -0,0 +1,117 @@
+package com.stormeye.event.audit.service;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.bson.Document;
+import org.springframework.stereotype.Component;
+
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The timers and size distributions of saving and reading events. The time to save an event is broken into the phases
+ * of reading the request, parsing the event's metadata, building the metadata and storing the event so that a slow
+ * down can be attributed to the network, parsing or mongo.
+ *
+ * @author ian@meywood.com
+ */
+@Component
+public class EventMetrics {
+
+    /** The phases of saving an event */
+    enum Phase {
+        /** Reading the event from the request */
+        READ,
+        /** Feeding the event to the metadata parser */
+        PARSE,
+        /** Completing the parse, building the metadata and checking for a duplicate */
+        METADATA,
+        /** Writing the event to the store */
+        STORE
+    }
+
+    /** Where a read event was found */
+    enum ReadSource {
+        /** The write behind queue */
+        PENDING,
+        /** The event cache */
+        CACHE,
+        /** The event store */
+        STORE,
+        /** The segments of events moved to cold storage */
+        SEGMENT
+    }
+
+    private static final String METRIC_PREFIX = "event.audit.";
+
+    private final MeterRegistry meterRegistry;
+    private final Timer saveTimer;
+    private final Map<Phase, Timer> phaseTimers = new EnumMap<>(Phase.class);
+    private final Map<ReadSource, Timer> readTimers = new EnumMap<>(ReadSource.class);
+    private final ConcurrentMap<List<String>, DistributionSummary> sizeSummaries = new ConcurrentHashMap<>();
+
+    public EventMetrics(final MeterRegistry meterRegistry) {
+
+        this.meterRegistry = meterRegistry;
+        this.saveTimer = Timer.builder(METRIC_PREFIX + "save")
+                .description("The time to save an event")
+                .publishPercentileHistogram()
+                .register(meterRegistry);
+
+        for (Phase phase : Phase.values()) {
+            phaseTimers.put(phase, Timer.builder(METRIC_PREFIX + "save.phase")
+                    .description("The time spent in each phase of saving an event")
+                    .tag("phase", phase.name().toLowerCase(Locale.ROOT))
+                    .publishPercentileHistogram()
+                    .register(meterRegistry));
+        }
+
+        for (ReadSource source : ReadSource.values()) {
+            readTimers.put(source, Timer.builder(METRIC_PREFIX + "read")
+                    .description("The time to obtain an event by its internal ID")
+                    .tag("from", source.name().toLowerCase(Locale.ROOT))
+                    .publishPercentileHistogram()
+                    .register(meterRegistry));
+        }
+    }
+
+    void recordSave(final long nanos) {
+        saveTimer.record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    void recordPhase(final Phase phase, final long nanos) {
+        phaseTimers.get(phase).record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    void recordRead(final ReadSource source, final long nanos) {
+        readTimers.get(source).record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Records the size of a saved event tagged by its type, data type and source. The summaries are kept per tag
+     * combination rather than looked up in the registry on each save, and publish no percentile histogram as the
+     * source is a node URL so each bucket series would be repeated for every node.
+     *
+     * @param metadata the metadata of the event
+     */
+    void recordSize(final Document metadata) {
+        final String type = String.valueOf(metadata.get("type"));
+        final String dataType = String.valueOf(metadata.get("dataType"));
+        final String source = String.valueOf(metadata.get("source"));
+        sizeSummaries.computeIfAbsent(List.of(type, dataType, source), key ->
+                        DistributionSummary.builder(METRIC_PREFIX + "event.size")
+                                .description("The size of the JSON of the saved events")
+                                .baseUnit("bytes")
+                                .tag("type", type)
+                                .tag("dataType", dataType)
+                                .tag("source", source)
+                                .register(meterRegistry))
+                .record(metadata.get("bytes", Number.class).doubleValue());
+    }
+}
@@ -0,0 +1,28 @@
+package com.stormeye.event.audit.service;
+
+import java.util.List;
+
+/**
+ * A page of the results of an {@link EventQuery}.
+ *
+ * @author ian@meywood.com
+ */
+public class EventPage {
+
+    private final List<EventSummary> events;
+    /** The cursor token of the next page, null if this is the last page */
+    private final String next;
+
+    public EventPage(final List<EventSummary> events, final String next) {
+        this.events = events;
+        this.next = next;
+    }
+
+    public List<EventSummary> getEvents() {
+        return events;
+    }
+
+    public String getNext() {
+        return next;
+    }
+}
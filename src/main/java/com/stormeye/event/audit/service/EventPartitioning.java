@@ -0,0 +1,66 @@
+package com.stormeye.event.audit.service;
+
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.time.temporal.ChronoUnit;
+
+/**
+ * The periods that stored events are partitioned by. Each partition is a GridFS bucket, with its inline collection,
+ * named after the default bucket and the UTC period, eg <code>fs_2022_10</code> for the events of October 2022 when
+ * partitioned by month. The period of an event is the timestamp of its internal ID, so the partition of an event is
+ * known from its ID alone and an expired period is removed by dropping its collections.
+ *
+ * @author ian@meywood.com
+ */
+public enum EventPartitioning {
+
+    /** All events are stored in the default bucket */
+    NONE(null, null),
+    DAY("uuuu_MM_dd", ChronoUnit.DAYS),
+    MONTH("uuuu_MM", ChronoUnit.MONTHS);
+
+    private final DateTimeFormatter formatter;
+    private final ChronoUnit unit;
+
+    EventPartitioning(final String pattern, final ChronoUnit unit) {
+        this.formatter = pattern != null ? DateTimeFormatter.ofPattern(pattern).withZone(ZoneOffset.UTC) : null;
+        this.unit = unit;
+    }
+
+    /**
+     * @param instant the time an event was accepted
+     * @return the name of the period that holds the instant
+     */
+    String periodOf(final Instant instant) {
+        return formatter.format(instant);
+    }
+
+    /**
+     * @param period the name of a period
+     * @return true if the name is a period of this partitioning
+     */
+    boolean isPeriod(final String period) {
+        try {
+            startOf(period);
+            return true;
+        } catch (DateTimeParseException e) {
+            return false;
+        }
+    }
+
+    /**
+     * @param period the name of a period
+     * @return the instant after the last event of the period
+     */
+    Instant endOf(final String period) {
+        return startOf(period).plus(1, unit).atStartOfDay(ZoneOffset.UTC).toInstant();
+    }
+
+    private LocalDate startOf(final String period) {
+        return this == MONTH ? YearMonth.parse(period, formatter).atDay(1) : LocalDate.parse(period, formatter);
+    }
+}
@@ -0,0 +1,82 @@
+package com.stormeye.event.audit.service;
+
+/**
+ * The criteria of a paged query of the stored events' metadata. All criteria are optional, events are returned in
+ * order of their source, event ID and internal ID.
+ *
+ * @author ian@meywood.com
+ */
+public class EventQuery {
+
+    /** The type/topic of the events main, deploys, sigs */
+    private final String type;
+    /** The type of the data in the events e.g. BlockAdded */
+    private final String dataType;
+    /** The URL of the casper node that emitted the events */
+    private final String source;
+    /** The lowest event ID inclusive */
+    private final Long fromId;
+    /** The highest event ID inclusive */
+    private final Long toId;
+    /** The cursor of the last event of the previous page */
+    private final EventCursor after;
+    /** The maximum number of events in a page */
+    private final int limit;
+
+    public EventQuery(final String type,
+                      final String dataType,
+                      final String source,
+                      final Long fromId,
+                      final Long toId,
+                      final EventCursor after,
+                      final int limit) {
+        this.type = type;
+        this.dataType = dataType;
+        this.source = source;
+        this.fromId = fromId;
+        this.toId = toId;
+        this.after = after;
+        this.limit = limit;
+    }
+
+    public String getType() {
+        return type;
+    }
+
+    public String getDataType() {
+        return dataType;
+    }
+
+    public String getSource() {
+        return source;
+    }
+
+    public Long getFromId() {
+        return fromId;
+    }
+
+    public Long getToId() {
+        return toId;
+    }
+
+    public EventCursor getAfter() {
+        return after;
+    }
+
+    public int getLimit() {
+        return limit;
+    }
+
+    @Override
+    public String toString() {
+        return "{" +
+                "type='" + type + '\'' +
+                ", dataType='" + dataType + '\'' +
+                ", source='" + source + '\'' +
+                ", fromId=" + fromId +
+                ", toId=" + toId +
+                ", after=" + after +
+                ", limit=" + limit +
+                '}';
+    }
+}
@@ -0,0 +1,164 @@
+package com.stormeye.event.audit.service;
+
+import com.mongodb.ReadPreference;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.Projections;
+import com.mongodb.client.model.Sorts;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import org.bson.types.ObjectId;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * The service for querying the metadata of stored events. Each of the {@link EventStore}'s catalog collections is
+ * queried using the metadata indexes and the results are merged in (source, event ID, internal ID) order. Pages are
+ * read using keyset pagination from the cursor of the previous page so that the cost of a page does not depend upon
+ * its depth.
+ *
+ * @author ian@meywood.com
+ */
+@Service
+public class EventQueryService {
+
+    static final String SOURCE = "metadata.source";
+    static final String EVENT_ID = "metadata.id";
+    static final String ID = "_id";
+    /** The order of query results and exports, the order of the (source, event ID, internal ID) index */
+    static final Comparator<Document> ORDER = Comparator
+            .comparing((Document document) -> document.get("metadata", Document.class).getString("source"))
+            .thenComparingLong(document -> document.get("metadata", Document.class).get("id", Number.class).longValue())
+            .thenComparing(document -> document.getObjectId(ID));
+
+    private final Logger logger = LoggerFactory.getLogger(EventQueryService.class);
+    private final EventStore eventStore;
+
+    public EventQueryService(final EventStore eventStore) {
+        this.eventStore = eventStore;
+    }
+
+    /**
+     * Obtains a page of the metadata of the events that match a query. Only events that have an event ID are matched.
+     *
+     * @param query the query criteria
+     * @return the page of matching events
+     */
+    public EventPage query(final EventQuery query) {
+
+        logger.debug("query({})", query);
+
+        final Bson filter = buildFilter(query);
+        final List<Document> documents = new ArrayList<>();
+
+        for (MongoCollection<Document> catalog : eventStore.getCatalogs()) {
+            catalog.find(filter)
+                    .projection(Projections.exclude("data"))
+                    .sort(Sorts.ascending(SOURCE, EVENT_ID, ID))
+                    .limit(query.getLimit())
+                    .into(documents);
+        }
+
+        documents.sort(ORDER);
+
+        final List<EventSummary> events = documents.stream()
+                .limit(query.getLimit())
+                .map(EventSummary::fromDocument)
+                .toList();
+
+        final String next;
+        if (events.size() == query.getLimit()) {
+            final EventSummary last = events.get(events.size() - 1);
+            next = new EventCursor(last.getSource(), last.getEventId(), new ObjectId(last.getId())).toToken();
+        } else {
+            next = null;
+        }
+
+        return new EventPage(events, next);
+    }
+
+    /**
+     * Obtains the metadata of the events stored after an event in order of their internal IDs, the order in which the
+     * events were accepted. The catalogs are read from the primary so that an event that has just been stored is not
+     * missed.
+     *
+     * @param after  the internal ID of the event to start after
+     * @param type   the optional type/topic of the events
+     * @param source the optional URL of the casper node that emitted the events
+     * @param limit  the maximum number of events to obtain
+     * @return the metadata of up to limit events stored after the event
+     */
+    public List<EventSummary> findAfter(final ObjectId after, final String type, final String source, final int limit) {
+
+        final List<Bson> filters = new ArrayList<>();
+        filters.add(Filters.gt(ID, after));
+        // A GridFS file that is still being uploaded has no metadata
+        filters.add(Filters.ne("filename", EventStore.PENDING_FILENAME));
+        if (type != null) {
+            filters.add(Filters.eq("metadata.type", type));
+        }
+        if (source != null) {
+            filters.add(Filters.eq(SOURCE, source));
+        }
+
+        final List<Document> documents = new ArrayList<>();
+
+        for (MongoCollection<Document> catalog : eventStore.getCatalogs()) {
+            catalog.withReadPreference(ReadPreference.primary())
+                    .find(Filters.and(filters))
+                    .projection(Projections.exclude("data"))
+                    .sort(Sorts.ascending(ID))
+                    .limit(limit)
+                    .into(documents);
+        }
+
+        return documents.stream()
+                .sorted(Comparator.comparing(document -> document.getObjectId(ID)))
+                .limit(limit)
+                .map(EventSummary::fromDocument)
+                .toList();
+    }
+
+    /**
+     * Builds the filter of the catalog documents that match a query, also used by the {@link EventExportService}.
+     */
+    static Bson buildFilter(final EventQuery query) {
+
+        final List<Bson> filters = new ArrayList<>();
+
+        filters.add(Filters.exists(EVENT_ID));
+
+        if (query.getType() != null) {
+            filters.add(Filters.eq("metadata.type", query.getType()));
+        }
+        if (query.getDataType() != null) {
+            filters.add(Filters.eq("metadata.dataType", query.getDataType()));
+        }
+        if (query.getSource() != null) {
+            filters.add(Filters.eq(SOURCE, query.getSource()));
+        }
+        if (query.getFromId() != null) {
+            filters.add(Filters.gte(EVENT_ID, query.getFromId()));
+        }
+        if (query.getToId() != null) {
+            filters.add(Filters.lte(EVENT_ID, query.getToId()));
+        }
+
+        final EventCursor after = query.getAfter();
+        if (after != null) {
+            // Seek past the last event of the previous page
+            filters.add(Filters.or(
+                    Filters.gt(SOURCE, after.getSource()),
+                    Filters.and(Filters.eq(SOURCE, after.getSource()), Filters.gt(EVENT_ID, after.getId())),
+                    Filters.and(Filters.eq(SOURCE, after.getSource()), Filters.eq(EVENT_ID, after.getId()), Filters.gt(ID, after.getObjectId()))
+            ));
+        }
+
+        return Filters.and(filters);
+    }
+}
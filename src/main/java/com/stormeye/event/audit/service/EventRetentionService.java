@@ -0,0 +1,167 @@
+package com.stormeye.event.audit.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Removes the events of a partitioned {@link EventStore} that are older than the maximum age or beyond the maximum
+ * size of the store. Events are removed a partition at a time by dropping its collections, so expiring a period costs
+ * the same however many events it holds. Enabled by setting <code>event.audit.retention.max-age</code> or
+ * <code>event.audit.retention.max-bytes</code>, which require <code>event.audit.storage.partition</code>.
+ * <p>
+ * A partition expires once its last possible event is older than the maximum age, oldest partitions are then dropped
+ * until the stored size is within the maximum. The partition currently written to is never dropped. Events stored in
+ * the default bucket before partitioning was enabled are not removed. The segments of partitions moved to cold storage
+ * by the {@link EventTieringService} are deleted once they are older than the maximum age, they do not count towards
+ * the maximum size.
+ *
+ * @author ian@meywood.com
+ */
+@Service
+public class EventRetentionService {
+
+    private final Logger logger = LoggerFactory.getLogger(EventRetentionService.class);
+    private final EventStore eventStore;
+    private final EventCache eventCache;
+    private final EventSegmentStore segmentStore;
+    private final Duration maxAge;
+    private final long maxBytes;
+    private final Duration interval;
+    private final Counter dropped;
+    private ScheduledExecutorService executor;
+
+    public EventRetentionService(final EventStore eventStore,
+                                 final EventCache eventCache,
+                                 final EventSegmentStore segmentStore,
+                                 final MeterRegistry meterRegistry,
+                                 @Value("${event.audit.retention.max-age:0s}") final Duration maxAge,
+                                 @Value("${event.audit.retention.max-bytes:0}") final long maxBytes,
+                                 @Value("${event.audit.retention.interval:1h}") final Duration interval) {
+        this.eventStore = eventStore;
+        this.eventCache = eventCache;
+        this.segmentStore = segmentStore;
+        this.maxAge = maxAge;
+        this.maxBytes = maxBytes;
+        this.interval = interval;
+        this.dropped = meterRegistry.counter("event.audit.retention.dropped");
+
+        if (isEnabled() && eventStore.getPartitioning() == EventPartitioning.NONE) {
+            throw new IllegalArgumentException("event.audit.retention requires event.audit.storage.partition");
+        }
+    }
+
+    @PostConstruct
+    public void start() {
+        if (isEnabled()) {
+            logger.info("Retaining events for {} up to {} bytes", maxAge, maxBytes);
+            executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                final Thread thread = new Thread(runnable, "event-retention");
+                thread.setDaemon(true);
+                return thread;
+            });
+            executor.scheduleWithFixedDelay(this::run, 0, interval.toMillis(), TimeUnit.MILLISECONDS);
+        }
+    }
+
+    @PreDestroy
+    public void stop() {
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Drops the partitions that have expired or are beyond the maximum size and deletes the expired segments.
+     *
+     * @return the periods of the dropped partitions and deleted segments
+     * @throws IOException if a segment could not be deleted
+     */
+    public List<String> enforce() throws IOException {
+
+        eventStore.refreshPartitions();
+
+        final Instant now = Instant.now();
+        final String current = eventStore.getPartitioning().periodOf(now);
+        final List<String> expired = new ArrayList<>();
+        final Map<String, Long> retained = new LinkedHashMap<>();
+        long size = 0;
+
+        for (String period : eventStore.getPeriods()) {
+            if (period.compareTo(current) >= 0) {
+                break;
+            }
+            if (maxAge.toMillis() > 0 && !eventStore.getPartitioning().endOf(period).isAfter(now.minus(maxAge))) {
+                expired.add(period);
+            } else if (maxBytes > 0) {
+                final long partitionSize = eventStore.getPartitionSize(period);
+                retained.put(period, partitionSize);
+                size += partitionSize;
+            }
+        }
+
+        if (maxBytes > 0) {
+            size += eventStore.getPartitionSize(current);
+            for (Map.Entry<String, Long> partition : retained.entrySet()) {
+                if (size <= maxBytes) {
+                    break;
+                }
+                expired.add(partition.getKey());
+                size -= partition.getValue();
+            }
+        }
+
+        for (String period : expired) {
+            logger.info("Dropping the events of {}", period);
+            eventStore.dropPartition(period);
+            dropped.increment();
+        }
+
+        if (segmentStore.isEnabled() && maxAge.toMillis() > 0) {
+            segmentStore.refresh();
+            for (String partitionName : segmentStore.getNames()) {
+                final String period = eventStore.getPeriod(partitionName);
+                if (period != null && !eventStore.getPartitioning().endOf(period).isAfter(now.minus(maxAge))) {
+                    logger.info("Deleting the segments of {}", period);
+                    segmentStore.delete(partitionName);
+                    expired.add(period);
+                }
+            }
+        }
+
+        if (!expired.isEmpty()) {
+            expired.sort(null);
+            eventCache.evictBefore(eventStore.getPartitioning().endOf(expired.get(expired.size() - 1)));
+        }
+
+        return expired;
+    }
+
+    private void run() {
+        try {
+            enforce();
+        } catch (IOException | RuntimeException e) {
+            logger.error("Unable to enforce event retention", e);
+        }
+    }
+
+    private boolean isEnabled() {
+        return maxAge.toMillis() > 0 || maxBytes > 0;
+    }
+}
@@ -0,0 +1,592 @@
+package com.stormeye.event.audit.service;
+
+import org.bson.BsonBinaryWriter;
+import org.bson.Document;
+import org.bson.RawBsonDocument;
+import org.bson.codecs.DecoderContext;
+import org.bson.codecs.DocumentCodec;
+import org.bson.codecs.EncoderContext;
+import org.bson.io.BasicOutputBuffer;
+import org.bson.types.ObjectId;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Stream;
+
+/**
+ * The cold storage of events that have been moved out of the {@link EventStore} by the {@link EventTieringService}.
+ * Enabled by setting <code>event.audit.tiering.directory</code>, which may be a mount shared by the instances of the
+ * service.
+ * <p>
+ * The events of a partition are written in internal ID order to append only segment files named after the partition,
+ * eg <code>fs_2022_10-0000.segment</code>, each no larger than the maximum segment size. Events stored as is are
+ * compressed with the tiering codec. A segment's sparse index, eg <code>fs_2022_10-0000.index</code>, holds the
+ * internal ID and offset of every {@value #INDEX_INTERVAL}th event. A segment's key index, eg
+ * <code>fs_2022_10-0000.keys</code>, holds the hash of the source, the event ID and the offset of every event that
+ * has an event ID, sorted by hash and event ID. Segments are written to temporary files and renamed once complete, a
+ * segment without an index is ignored.
+ * <p>
+ * Segments and their indexes are memory mapped. An event is found by looking up the segment holding its internal ID,
+ * binary searching the segment's index and scanning at most {@value #INDEX_INTERVAL} record headers, then served as a
+ * view of the mapped segment without being copied. An event is found by its event ID by binary searching the key
+ * index of each segment, then comparing the source and type of the records whose keys match.
+ * <p>
+ * The segments are refreshed by the {@link EventTieringService}, and when an event is not found in them, at most once
+ * every {@value #MISS_REFRESH_MILLIS}ms, so that the segments written by another instance are found as soon as it has
+ * dropped their partition from mongo.
+ * <p>
+ * Each record is the event's internal ID, the lengths of its BSON metadata and its stored bytes, then the metadata and
+ * the bytes. The metadata records the codec of the bytes as it does in the store.
+ *
+ * @author ian@meywood.com
+ */
+@Component
+public class EventSegmentStore {
+
+    /** The number of records between the entries of a segment's index */
+    static final int INDEX_INTERVAL = 64;
+    private static final String SEGMENT_SUFFIX = ".segment";
+    private static final String INDEX_SUFFIX = ".index";
+    private static final String KEYS_SUFFIX = ".keys";
+    private static final String TEMP_SUFFIX = ".tmp";
+    /** The first bytes of a segment file, EVSG */
+    private static final int MAGIC = 0x45565347;
+    /** The size of a record's internal ID and the lengths of its metadata and bytes */
+    private static final int RECORD_HEADER_BYTES = 20;
+    /** The size of an index entry, a record's internal ID and offset */
+    private static final int INDEX_ENTRY_BYTES = 16;
+    /** The size of a key index entry, the hash of a record's source, its event ID and its offset */
+    private static final int KEY_ENTRY_BYTES = 16;
+    /** The minimum time between the refreshes of the segments made when an event is not found in them */
+    static final long MISS_REFRESH_MILLIS = 5000;
+    private static final DocumentCodec CODEC = new DocumentCodec();
+
+    private final Logger logger = LoggerFactory.getLogger(EventSegmentStore.class);
+    /** The directory of the segments, null if tiering is not enabled */
+    private final Path directory;
+    private final EventCodec codec;
+    private final long segmentBytes;
+    /** The mapped segments by the internal ID of their first event */
+    private final ConcurrentNavigableMap<ObjectId, Segment> segments = new ConcurrentSkipListMap<>();
+    /** Guards the segment files, a lock rather than a monitor as the files are listed and mapped while it is held */
+    private final ReentrantLock lock = new ReentrantLock();
+    /** The time in millis the segments were last refreshed after a miss */
+    private final AtomicLong missRefreshed = new AtomicLong();
+
+    public EventSegmentStore(@Value("${event.audit.tiering.directory:}") final String directory,
+                             @Value("${event.audit.tiering.codec:ZSTD}") final EventCodec codec,
+                             @Value("${event.audit.tiering.segment-bytes:1073741824}") final long segmentBytes) throws IOException {
+
+        if (segmentBytes < 1 || segmentBytes > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("event.audit.tiering.segment-bytes must be between 1 and " + Integer.MAX_VALUE);
+        }
+
+        this.directory = directory == null || directory.isBlank() ? null : Path.of(directory);
+        this.codec = codec;
+        this.segmentBytes = segmentBytes;
+
+        if (this.directory != null) {
+            Files.createDirectories(this.directory);
+            refresh();
+        }
+    }
+
+    public boolean isEnabled() {
+        return directory != null;
+    }
+
+    /**
+     * Finds an event in the segments.
+     *
+     * @param objectId the internal ID of the event
+     * @return a stream of the event's stored bytes read from the mapped segment if the event is in a segment
+     */
+    public Optional<EventStream> find(final ObjectId objectId) {
+        final Optional<EventStream> eventStream = findMapped(objectId);
+        return eventStream.isPresent() || !refreshAfterMiss() ? eventStream : findMapped(objectId);
+    }
+
+    private Optional<EventStream> findMapped(final ObjectId objectId) {
+        final Map.Entry<ObjectId, Segment> entry = segments.floorEntry(objectId);
+        return entry != null ? entry.getValue().find(objectId) : Optional.empty();
+    }
+
+    /**
+     * Finds an event in the segments by its event ID.
+     *
+     * @param source  the URL of the casper node that emitted the event
+     * @param type    the optional type/topic of the event
+     * @param eventId the ID of the event
+     * @return a stream of the event's stored bytes read from the mapped segment if the event is in a segment
+     */
+    public Optional<EventStream> findByEventId(final String source, final String type, final long eventId) {
+        final Optional<EventStream> eventStream = findMappedByEventId(source, type, eventId);
+        return eventStream.isPresent() || !refreshAfterMiss() ? eventStream : findMappedByEventId(source, type, eventId);
+    }
+
+    private Optional<EventStream> findMappedByEventId(final String source, final String type, final long eventId) {
+        for (Segment segment : segments.values()) {
+            final int offset = segment.offsetOf(source, type, eventId);
+            if (offset != -1) {
+                return Optional.of(segment.eventStream(offset));
+            }
+        }
+        return Optional.empty();
+    }
+
+    /**
+     * Finds the internal ID and metadata of an event in the segments by its event ID, as
+     * {@link EventStore#findCatalogEntry(String, String, long)} does in the store.
+     *
+     * @return the document of the event's internal ID and metadata if the event is in a segment
+     */
+    Optional<Document> findCatalogEntry(final String source, final String type, final long eventId) {
+        final Optional<Document> entry = findMappedCatalogEntry(source, type, eventId);
+        return entry.isPresent() || !refreshAfterMiss() ? entry : findMappedCatalogEntry(source, type, eventId);
+    }
+
+    private Optional<Document> findMappedCatalogEntry(final String source, final String type, final long eventId) {
+        for (Segment segment : segments.values()) {
+            final int offset = segment.offsetOf(source, type, eventId);
+            if (offset != -1) {
+                return Optional.of(new Document("_id", objectIdAt(segment.data, offset)).append("metadata", segment.metadataAt(offset)));
+            }
+        }
+        return Optional.empty();
+    }
+
+    /**
+     * @return the names of the partitions that have segments
+     */
+    Set<String> getNames() {
+        final Set<String> names = new TreeSet<>();
+        segments.values().forEach(segment -> names.add(segment.name));
+        return names;
+    }
+
+    /**
+     * Maps the segments found in the directory, including those written by other instances of the service, and
+     * forgets those that have been deleted.
+     *
+     * @throws IOException if the directory cannot be read
+     */
+    void refresh() throws IOException {
+        lock.lock();
+        try {
+            refreshSegments();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Refreshes the segments after an event was not found in them unless they were refreshed too recently.
+     *
+     * @return true if the segments were refreshed
+     */
+    private boolean refreshAfterMiss() {
+
+        final long now = System.currentTimeMillis();
+        final long last = missRefreshed.get();
+
+        if (directory == null || now - last < MISS_REFRESH_MILLIS || !missRefreshed.compareAndSet(last, now)) {
+            return false;
+        }
+
+        try {
+            refresh();
+            return true;
+        } catch (IOException e) {
+            logger.error("Unable to refresh the event segments", e);
+            return false;
+        }
+    }
+
+    private void refreshSegments() throws IOException {
+
+        final Set<Path> found = new TreeSet<>();
+        try (Stream<Path> paths = Files.list(directory)) {
+            paths.filter(path -> path.getFileName().toString().endsWith(INDEX_SUFFIX)).forEach(found::add);
+        }
+
+        segments.values().removeIf(segment -> !found.remove(segment.indexPath));
+
+        for (Path indexPath : found) {
+            final String fileName = indexPath.getFileName().toString();
+            final Path path = indexPath.resolveSibling(fileName.substring(0, fileName.length() - INDEX_SUFFIX.length()) + SEGMENT_SUFFIX);
+            try {
+                final Segment segment = new Segment(path, indexPath);
+                if (segment.firstId != null) {
+                    segments.put(segment.firstId, segment);
+                }
+            } catch (IOException e) {
+                logger.error("Unable to map event segment {}", path, e);
+            }
+        }
+    }
+
+    /**
+     * Deletes the segments of a partition.
+     *
+     * @param name the name of the partition
+     * @throws IOException if a segment could not be deleted
+     */
+    void delete(final String name) throws IOException {
+        lock.lock();
+        try {
+            segments.values().removeIf(segment -> segment.name.equals(name));
+
+            // The indexes are deleted first so that a partially deleted segment is ignored
+            for (Path path : listFiles(name, INDEX_SUFFIX)) {
+                Files.deleteIfExists(path);
+            }
+            for (Path path : listFiles(name, KEYS_SUFFIX)) {
+                Files.deleteIfExists(path);
+            }
+            for (Path path : listFiles(name, SEGMENT_SUFFIX)) {
+                Files.deleteIfExists(path);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Opens a writer of the segments of a partition, any existing segments of the partition are replaced once the
+     * writer completes.
+     *
+     * @param name the name of the partition
+     * @return the writer
+     */
+    SegmentWriter openWriter(final String name) {
+        return new SegmentWriter(name);
+    }
+
+    private List<Path> listFiles(final String name, final String suffix) throws IOException {
+        try (Stream<Path> paths = Files.list(directory)) {
+            return paths.filter(path -> path.getFileName().toString().startsWith(name + "-")
+                            && path.getFileName().toString().endsWith(suffix))
+                    .toList();
+        }
+    }
+
+    private static ObjectId objectIdAt(final ByteBuffer buffer, final int offset) {
+        final byte[] bytes = new byte[12];
+        buffer.get(offset, bytes);
+        return new ObjectId(bytes);
+    }
+
+    private static MappedByteBuffer map(final Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+    }
+
+    /**
+     * A mapped segment file and its index.
+     */
+    private static class Segment {
+
+        private final String name;
+        private final Path indexPath;
+        private final MappedByteBuffer data;
+        private final MappedByteBuffer index;
+        /** The key index of the segment, null if the segment was written before segments were keyed */
+        private final MappedByteBuffer keys;
+        /** The internal ID of the segment's first event, null if the segment is empty */
+        private final ObjectId firstId;
+
+        private Segment(final Path path, final Path indexPath) throws IOException {
+            final String fileName = path.getFileName().toString();
+            this.name = fileName.substring(0, fileName.lastIndexOf('-'));
+            this.indexPath = indexPath;
+            this.data = map(path);
+            this.index = map(indexPath);
+            final Path keysPath = path.resolveSibling(fileName.substring(0, fileName.length() - SEGMENT_SUFFIX.length()) + KEYS_SUFFIX);
+            this.keys = Files.exists(keysPath) ? map(keysPath) : null;
+            if (data.limit() < 4 || data.getInt(0) != MAGIC) {
+                throw new IOException("Not an event segment " + path);
+            }
+            this.firstId = index.limit() >= INDEX_ENTRY_BYTES ? objectIdAt(index, 0) : null;
+        }
+
+        private Optional<EventStream> find(final ObjectId objectId) {
+
+            // The last index entry at or before the event
+            int low = 0;
+            int high = index.limit() / INDEX_ENTRY_BYTES - 1;
+            while (low < high) {
+                final int mid = (low + high + 1) >>> 1;
+                if (objectIdAt(index, mid * INDEX_ENTRY_BYTES).compareTo(objectId) <= 0) {
+                    low = mid;
+                } else {
+                    high = mid - 1;
+                }
+            }
+
+            int offset = index.getInt(low * INDEX_ENTRY_BYTES + 12);
+            for (int i = 0; i < INDEX_INTERVAL && offset < data.limit(); i++) {
+                final int compared = objectIdAt(data, offset).compareTo(objectId);
+                if (compared == 0) {
+                    return Optional.of(eventStream(offset));
+                } else if (compared > 0) {
+                    break;
+                }
+                offset += RECORD_HEADER_BYTES + data.getInt(offset + 12) + data.getInt(offset + 16);
+            }
+
+            return Optional.empty();
+        }
+
+        /**
+         * @return the offset of the record of an event found by its event ID, -1 if it is not in the segment
+         */
+        private int offsetOf(final String source, final String type, final long eventId) {
+
+            if (keys == null) {
+                return -1;
+            }
+
+            final int hash = source.hashCode();
+            final int entries = keys.limit() / KEY_ENTRY_BYTES;
+
+            // The first key entry at or after the event's key
+            int low = 0;
+            int high = entries;
+            while (low < high) {
+                final int mid = (low + high) >>> 1;
+                if (compareKey(mid, hash, eventId) < 0) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+
+            // The sources of different events may hash alike and events of different types may share an event ID
+            for (int entry = low; entry < entries && compareKey(entry, hash, eventId) == 0; entry++) {
+                final int offset = keys.getInt(entry * KEY_ENTRY_BYTES + 12);
+                final Document metadata = metadataAt(offset);
+                if (source.equals(metadata.getString("source")) && (type == null || type.equals(metadata.getString("type")))) {
+                    return offset;
+                }
+            }
+
+            return -1;
+        }
+
+        private int compareKey(final int entry, final int hash, final long eventId) {
+            final int position = entry * KEY_ENTRY_BYTES;
+            final int compared = Integer.compare(keys.getInt(position), hash);
+            return compared != 0 ? compared : Long.compare(keys.getLong(position + 4), eventId);
+        }
+
+        private Document metadataAt(final int offset) {
+            final byte[] metadataBytes = new byte[data.getInt(offset + 12)];
+            data.get(offset + RECORD_HEADER_BYTES, metadataBytes);
+            return CODEC.decode(new RawBsonDocument(metadataBytes).asBsonReader(), DecoderContext.builder().build());
+        }
+
+        private EventStream eventStream(final int offset) {
+            final int metadataLength = data.getInt(offset + 12);
+            final int length = data.getInt(offset + 16);
+            final Document metadata = metadataAt(offset);
+            final Number bytes = metadata.get("bytes", Number.class);
+            return new ByteBufferEventStream(
+                    data.slice(offset + RECORD_HEADER_BYTES + metadataLength, length),
+                    EventCodec.fromMetadata(metadata),
+                    bytes != null ? bytes.longValue() : length
+            );
+        }
+    }
+
+    /**
+     * Writes the events of a partition in internal ID order, rolling to a new segment when a segment reaches the
+     * maximum segment size.
+     */
+    class SegmentWriter implements Closeable {
+
+        private final String name;
+        private final List<Path> written = new ArrayList<>();
+        private final ByteArrayOutputStream index = new ByteArrayOutputStream();
+        /** The hash of the source, event ID and offset of the keyed records of the current segment */
+        private final List<long[]> keys = new ArrayList<>();
+        private int sequence;
+        private FileChannel channel;
+        private Path path;
+        private long position;
+        private int records;
+        private boolean complete;
+
+        private SegmentWriter(final String name) {
+            this.name = name;
+        }
+
+        /**
+         * Appends an event, compressing it with the tiering codec if it is stored as is.
+         *
+         * @param objectId the internal ID of the event, greater than that of the previous event
+         * @param metadata the metadata of the event as stored, including its codec
+         * @param data     the event's stored bytes
+         * @throws IOException if the event could not be written
+         */
+        void append(final ObjectId objectId, final Document metadata, final byte[] data) throws IOException {
+
+            Document recordMetadata = metadata;
+            byte[] content = data;
+            if (EventCodec.fromMetadata(metadata) == EventCodec.NONE && codec != EventCodec.NONE) {
+                content = codec.encode(data);
+                recordMetadata = EventStore.encodedMetadata(metadata, codec);
+            }
+
+            final BasicOutputBuffer metadataBuffer = new BasicOutputBuffer();
+            CODEC.encode(new BsonBinaryWriter(metadataBuffer), recordMetadata, EncoderContext.builder().build());
+            final byte[] metadataBytes = metadataBuffer.toByteArray();
+            final long recordBytes = RECORD_HEADER_BYTES + metadataBytes.length + (long) content.length;
+
+            if (channel != null && records > 0 && position + recordBytes > segmentBytes) {
+                seal();
+            }
+            if (channel == null) {
+                roll();
+            }
+            if (position + recordBytes > Integer.MAX_VALUE) {
+                throw new IOException("Event " + objectId + " is too large for a segment");
+            }
+
+            if (records % INDEX_INTERVAL == 0) {
+                index.write(objectId.toByteArray());
+                index.write(ByteBuffer.allocate(4).putInt((int) position).array());
+            }
+
+            final String source = metadata.getString("source");
+            final Number eventId = metadata.get("id", Number.class);
+            if (source != null && eventId != null) {
+                keys.add(new long[]{source.hashCode(), eventId.longValue(), position});
+            }
+
+            final ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER_BYTES)
+                    .put(objectId.toByteArray())
+                    .putInt(metadataBytes.length)
+                    .putInt(content.length)
+                    .flip();
+            write(header);
+            write(ByteBuffer.wrap(metadataBytes));
+            write(ByteBuffer.wrap(content));
+
+            position += recordBytes;
+            records++;
+        }
+
+        /**
+         * Seals the last segment and replaces any existing segments of the partition with those written.
+         *
+         * @throws IOException if a segment could not be written
+         */
+        void complete() throws IOException {
+            if (channel != null) {
+                seal();
+            }
+            lock.lock();
+            try {
+                delete(name);
+                // Each segment's index is renamed after its key index so that a segment is only found once complete
+                for (Path temp : written) {
+                    Files.move(temp, stripTemp(temp), StandardCopyOption.ATOMIC_MOVE);
+                }
+                complete = true;
+                refresh();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * Discards the segments of an incomplete writer.
+         */
+        @Override
+        public void close() throws IOException {
+            if (!complete) {
+                if (channel != null) {
+                    channel.close();
+                    written.add(path);
+                }
+                for (Path temp : written) {
+                    Files.deleteIfExists(temp);
+                }
+            }
+        }
+
+        private void roll() throws IOException {
+            path = directory.resolve(String.format("%s-%04d%s%s", name, sequence++, SEGMENT_SUFFIX, TEMP_SUFFIX));
+            channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+            write(ByteBuffer.allocate(4).putInt(MAGIC).flip());
+            position = 4;
+            records = 0;
+            index.reset();
+            keys.clear();
+        }
+
+        private void seal() throws IOException {
+
+            channel.force(true);
+            channel.close();
+            channel = null;
+            written.add(path);
+
+            final String segmentName = path.getFileName().toString();
+            final String baseName = segmentName.substring(0, segmentName.length() - SEGMENT_SUFFIX.length() - TEMP_SUFFIX.length());
+
+            keys.sort((a, b) -> a[0] != b[0] ? Integer.compare((int) a[0], (int) b[0]) : Long.compare(a[1], b[1]));
+            final ByteBuffer keyEntries = ByteBuffer.allocate(keys.size() * KEY_ENTRY_BYTES);
+            for (long[] key : keys) {
+                keyEntries.putInt((int) key[0]).putLong(key[1]).putInt((int) key[2]);
+            }
+            written.add(writeFile(path.resolveSibling(baseName + KEYS_SUFFIX + TEMP_SUFFIX), keyEntries.flip()));
+
+            written.add(writeFile(path.resolveSibling(baseName + INDEX_SUFFIX + TEMP_SUFFIX), ByteBuffer.wrap(index.toByteArray())));
+        }
+
+        private Path writeFile(final Path filePath, final ByteBuffer buffer) throws IOException {
+            try (FileChannel fileChannel = FileChannel.open(filePath, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+                while (buffer.hasRemaining()) {
+                    fileChannel.write(buffer);
+                }
+                fileChannel.force(true);
+            }
+            return filePath;
+        }
+
+        private void write(final ByteBuffer buffer) throws IOException {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        }
+
+        private Path stripTemp(final Path temp) {
+            final String fileName = temp.getFileName().toString();
+            return temp.resolveSibling(fileName.substring(0, fileName.length() - TEMP_SUFFIX.length()));
+        }
+    }
+}
@@ -0,0 +1,57 @@
+package com.stormeye.event.audit.service;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * A consistent hash ring that maps the routing key of an event to the index of the cluster it is stored in. Each
+ * cluster is placed on the ring at {@value #POINTS_PER_SHARD} points derived from its name, a key belongs to the
+ * cluster of the first point at or after the hash of the key. Adding a cluster only moves the keys of the ring's
+ * segments that its points take over, about one share of the keys, from the existing clusters to the new one.
+ * <p>
+ * The points of a cluster depend only on its name, so the ring is the same on every instance that is configured with
+ * the same clusters in any order.
+ *
+ * @author ian@meywood.com
+ */
+final class EventShardRing {
+
+    /** The number of points of each cluster on the ring, more points spread the keys more evenly */
+    static final int POINTS_PER_SHARD = 160;
+
+    private final TreeMap<Long, Integer> ring = new TreeMap<>();
+
+    /**
+     * @param names the names of the clusters by their index
+     */
+    EventShardRing(final List<String> names) {
+        for (int index = 0; index < names.size(); index++) {
+            for (int point = 0; point < POINTS_PER_SHARD; point++) {
+                ring.put(hash(names.get(index) + "#" + point), index);
+            }
+        }
+    }
+
+    /**
+     * @param key the routing key of an event
+     * @return the index of the cluster that the key belongs to
+     */
+    int route(final String key) {
+        final Map.Entry<Long, Integer> entry = ring.ceilingEntry(hash(key));
+        return entry != null ? entry.getValue() : ring.firstEntry().getValue();
+    }
+
+    private static long hash(final String value) {
+        try {
+            final byte[] digest = MessageDigest.getInstance("MD5").digest(value.getBytes(StandardCharsets.UTF_8));
+            return ByteBuffer.wrap(digest).getLong();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
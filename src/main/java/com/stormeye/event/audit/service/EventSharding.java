@@ -0,0 +1,25 @@
+package com.stormeye.event.audit.service;
+
+/**
+ * The field of an event that the cluster it is stored in is chosen by when the {@link EventStore} spans several
+ * clusters. All the events with the same value are stored in the same cluster, so lookups by event ID and duplicate
+ * detection are served by that cluster alone. See {@link EventShardRing}.
+ *
+ * @author ian@meywood.com
+ */
+public enum EventSharding {
+
+    /** Events are routed by the URL of the node that emitted them */
+    SOURCE,
+    /** Events are routed by their type/topic main, deploys or sigs */
+    TYPE;
+
+    /**
+     * @param source the URL of the node that emitted an event, null if not known
+     * @param type   the type of the event, null if not known
+     * @return the value that the event is routed by, null if not known
+     */
+    String routingKey(final String source, final String type) {
+        return this == SOURCE ? source : type;
+    }
+}
@@ -0,0 +1,357 @@
+package com.stormeye.event.audit.service;
+
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.model.BulkWriteOptions;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.IndexOptions;
+import com.mongodb.client.model.Indexes;
+import com.mongodb.client.model.Sorts;
+import com.mongodb.client.model.UpdateOneModel;
+import com.mongodb.client.model.UpdateOptions;
+import com.mongodb.client.model.Updates;
+import com.mongodb.client.model.WriteModel;
+import org.bson.Document;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.mongodb.MongoDatabaseFactory;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Maintains the number and total size of the saved events per type, data type and source per minute, hour and day, and
+ * the highest event ID saved from each source, so that the statistics of any range of time are read from a few
+ * pre-aggregated documents rather than by aggregating the stored events.
+ * <p>
+ * Saved events are counted in memory with striped counters that ingest threads update without contending, the counts
+ * are flushed periodically as <code>$inc</code> upserts of a document per period, so the documents hold the counts of
+ * every instance. Counts that have not been flushed yet are not reported. Enabled by setting
+ * <code>event.audit.stats.flush-interval</code>, a count that could not be flushed is retried by the next flush.
+ *
+ * @author ian@meywood.com
+ */
+@Service
+public class EventStatistics {
+
+    /**
+     * The length of the periods that statistics are reported for.
+     */
+    public enum Granularity {
+
+        MINUTE(ChronoUnit.MINUTES),
+        HOUR(ChronoUnit.HOURS),
+        DAY(ChronoUnit.DAYS);
+
+        private final ChronoUnit unit;
+
+        Granularity(final ChronoUnit unit) {
+            this.unit = unit;
+        }
+
+        /**
+         * @return the start of the period an instant is in
+         */
+        Instant truncate(final Instant instant) {
+            return instant.truncatedTo(unit);
+        }
+
+        public Duration getDuration() {
+            return unit.getDuration();
+        }
+    }
+
+    static final String GRANULARITY = "granularity";
+    static final String TIME = "time";
+    static final String TYPE = "type";
+    static final String DATA_TYPE = "dataType";
+    static final String SOURCE = "source";
+    static final String EVENTS = "events";
+    static final String BYTES = "bytes";
+    static final String LAST_ID = "lastId";
+    /** The collection of the per period documents */
+    static final String STATS_COLLECTION = "event_stats";
+    /** The collection of the highest event ID of each source and type */
+    static final String LAST_IDS_COLLECTION = "event_last_ids";
+    /** The maximum number of periods a report spans */
+    public static final int MAX_PERIODS = 10080;
+
+    /**
+     * The minute, type, data type and source that saved events are counted by.
+     */
+    private static final class Key {
+
+        private final long minute;
+        private final String type;
+        private final String dataType;
+        private final String source;
+
+        private Key(final long minute, final String type, final String dataType, final String source) {
+            this.minute = minute;
+            this.type = type;
+            this.dataType = dataType;
+            this.source = source;
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key key)) {
+                return false;
+            }
+            return minute == key.minute && type.equals(key.type) && dataType.equals(key.dataType) && source.equals(key.source);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(minute, type, dataType, source);
+        }
+    }
+
+    /**
+     * The counters of a key, striped so that concurrent ingest threads do not contend.
+     */
+    private static final class Counts {
+        private final LongAdder events = new LongAdder();
+        private final LongAdder bytes = new LongAdder();
+    }
+
+    private final Logger logger = LoggerFactory.getLogger(EventStatistics.class);
+    private final MongoCollection<Document> statsCollection;
+    private final MongoCollection<Document> lastIdsCollection;
+    private final Duration flushInterval;
+    private final ConcurrentHashMap<Key, Counts> counts = new ConcurrentHashMap<>();
+    /** The highest event ID saved by source and type since the last flush, keyed by the source then type */
+    private final ConcurrentHashMap<List<String>, LongAccumulator> lastIds = new ConcurrentHashMap<>();
+    private ScheduledExecutorService executor;
+
+    public EventStatistics(final MongoDatabaseFactory databaseFactory,
+                           @Value("${event.audit.stats.flush-interval:10s}") final Duration flushInterval,
+                           @Value("${event.audit.storage.create-indexes:true}") final boolean createIndexes) {
+
+        final MongoDatabase database = databaseFactory.getMongoDatabase();
+        this.statsCollection = database.getCollection(STATS_COLLECTION);
+        this.lastIdsCollection = database.getCollection(LAST_IDS_COLLECTION);
+        this.flushInterval = flushInterval;
+
+        if (isEnabled() && createIndexes) {
+            statsCollection.createIndex(Indexes.ascending(GRANULARITY, TIME, TYPE, DATA_TYPE, SOURCE), new IndexOptions().unique(true));
+            lastIdsCollection.createIndex(Indexes.ascending(SOURCE, TYPE), new IndexOptions().unique(true));
+        }
+    }
+
+    @PostConstruct
+    public void start() {
+        if (isEnabled()) {
+            executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                final Thread thread = new Thread(runnable, "event-stats");
+                thread.setDaemon(true);
+                return thread;
+            });
+            executor.scheduleWithFixedDelay(this::run, flushInterval.toMillis(), flushInterval.toMillis(), TimeUnit.MILLISECONDS);
+        }
+    }
+
+    @PreDestroy
+    public void stop() {
+        if (executor != null) {
+            executor.shutdownNow();
+            run();
+        }
+    }
+
+    /**
+     * Counts a saved event.
+     *
+     * @param metadata the metadata of the event
+     */
+    void record(final Document metadata) {
+
+        if (!isEnabled()) {
+            return;
+        }
+
+        final String type = String.valueOf(metadata.get(TYPE));
+        final String source = String.valueOf(metadata.get(SOURCE));
+        final Key key = new Key(
+                Instant.now().getEpochSecond() / 60,
+                type,
+                String.valueOf(metadata.get(DATA_TYPE)),
+                source
+        );
+
+        Counts keyCounts = counts.get(key);
+        if (keyCounts == null) {
+            keyCounts = counts.computeIfAbsent(key, k -> new Counts());
+        }
+        keyCounts.events.increment();
+        keyCounts.bytes.add(metadata.get(BYTES, Number.class).longValue());
+
+        final Number id = metadata.get("id", Number.class);
+        if (id != null) {
+            final List<String> sourceKey = List.of(source, type);
+            LongAccumulator lastId = lastIds.get(sourceKey);
+            if (lastId == null) {
+                lastId = lastIds.computeIfAbsent(sourceKey, k -> new LongAccumulator(Math::max, Long.MIN_VALUE));
+            }
+            lastId.accumulate(id.longValue());
+        }
+    }
+
+    /**
+     * Writes the counts recorded since the last flush to mongo, the counts of each minute are added to the documents of
+     * their minute, hour and day.
+     */
+    public void flush() {
+
+        final long currentMinute = Instant.now().getEpochSecond() / 60;
+        final Map<Key, long[]> drained = new LinkedHashMap<>();
+
+        for (Iterator<Map.Entry<Key, Counts>> iterator = counts.entrySet().iterator(); iterator.hasNext(); ) {
+            final Map.Entry<Key, Counts> entry = iterator.next();
+            // A minute is removed once no event can still be counted in it
+            if (entry.getKey().minute < currentMinute - 1) {
+                iterator.remove();
+            }
+            final long events = entry.getValue().events.sumThenReset();
+            final long bytes = entry.getValue().bytes.sumThenReset();
+            if (events != 0 || bytes != 0) {
+                drained.put(entry.getKey(), new long[]{events, bytes});
+            }
+        }
+
+        final Map<List<String>, Long> drainedIds = new LinkedHashMap<>();
+        lastIds.forEach((sourceKey, lastId) -> {
+            final long id = lastId.getThenReset();
+            if (id != Long.MIN_VALUE) {
+                drainedIds.put(sourceKey, id);
+            }
+        });
+
+        try {
+            writeCounts(drained);
+            writeLastIds(drainedIds);
+        } catch (RuntimeException e) {
+            // The counts are restored so that they are written by the next flush
+            drained.forEach((key, value) -> {
+                final Counts keyCounts = counts.computeIfAbsent(key, k -> new Counts());
+                keyCounts.events.add(value[0]);
+                keyCounts.bytes.add(value[1]);
+            });
+            drainedIds.forEach((sourceKey, id) -> lastIds.computeIfAbsent(sourceKey, k -> new LongAccumulator(Math::max, Long.MIN_VALUE)).accumulate(id));
+            throw e;
+        }
+    }
+
+    /**
+     * Reads the statistics of a range of time from the pre-aggregated documents of a granularity.
+     *
+     * @param from        the start of the range inclusive, truncated to the start of its period
+     * @param to          the end of the range exclusive
+     * @param granularity the length of the periods
+     * @return the statistics of the periods in the range and the last event ID of each source
+     */
+    public EventStatisticsReport query(final Instant from, final Instant to, final Granularity granularity) {
+
+        final Instant start = granularity.truncate(from);
+
+        if (!start.isBefore(to)) {
+            throw new IllegalArgumentException("from must be before to");
+        }
+        if (Duration.between(start, to).compareTo(granularity.getDuration().multipliedBy(MAX_PERIODS)) > 0) {
+            throw new IllegalArgumentException("A report spans at most " + MAX_PERIODS + " periods");
+        }
+
+        final List<EventStatisticsBucket> buckets = new ArrayList<>();
+        for (Document document : statsCollection
+                .find(Filters.and(
+                        Filters.eq(GRANULARITY, granularity.name()),
+                        Filters.gte(TIME, Date.from(start)),
+                        Filters.lt(TIME, Date.from(to))))
+                .sort(Sorts.ascending(TIME, TYPE, DATA_TYPE, SOURCE))) {
+            buckets.add(EventStatisticsBucket.fromDocument(document));
+        }
+
+        final Map<String, Map<String, Long>> sourceLastIds = new TreeMap<>();
+        for (Document document : lastIdsCollection.find()) {
+            sourceLastIds.computeIfAbsent(document.getString(SOURCE), source -> new TreeMap<>())
+                    .put(document.getString(TYPE), document.get(LAST_ID, Number.class).longValue());
+        }
+
+        return new EventStatisticsReport(granularity, Date.from(start), Date.from(to), buckets, sourceLastIds);
+    }
+
+    private void writeCounts(final Map<Key, long[]> drained) {
+
+        // The minutes of an hour or day are added to a single update of its document
+        final Map<Document, long[]> increments = new LinkedHashMap<>();
+        drained.forEach((key, value) -> {
+            final Instant minute = Instant.ofEpochSecond(key.minute * 60);
+            for (Granularity granularity : Granularity.values()) {
+                final Document filter = new Document(GRANULARITY, granularity.name())
+                        .append(TIME, Date.from(granularity.truncate(minute)))
+                        .append(TYPE, key.type)
+                        .append(DATA_TYPE, key.dataType)
+                        .append(SOURCE, key.source);
+                final long[] increment = increments.computeIfAbsent(filter, f -> new long[2]);
+                increment[0] += value[0];
+                increment[1] += value[1];
+            }
+        });
+
+        if (!increments.isEmpty()) {
+            final List<WriteModel<Document>> updates = new ArrayList<>();
+            increments.forEach((filter, increment) -> updates.add(new UpdateOneModel<>(
+                    filter,
+                    Updates.combine(Updates.inc(EVENTS, increment[0]), Updates.inc(BYTES, increment[1])),
+                    new UpdateOptions().upsert(true)
+            )));
+            statsCollection.bulkWrite(updates, new BulkWriteOptions().ordered(false));
+        }
+    }
+
+    private void writeLastIds(final Map<List<String>, Long> drainedIds) {
+        if (!drainedIds.isEmpty()) {
+            final List<WriteModel<Document>> updates = new ArrayList<>();
+            drainedIds.forEach((sourceKey, id) -> updates.add(new UpdateOneModel<>(
+                    new Document(SOURCE, sourceKey.get(0)).append(TYPE, sourceKey.get(1)),
+                    Updates.max(LAST_ID, id),
+                    new UpdateOptions().upsert(true)
+            )));
+            lastIdsCollection.bulkWrite(updates, new BulkWriteOptions().ordered(false));
+        }
+    }
+
+    private void run() {
+        try {
+            flush();
+        } catch (RuntimeException e) {
+            logger.error("Unable to flush the event statistics", e);
+        }
+    }
+
+    private boolean isEnabled() {
+        return flushInterval.toMillis() > 0;
+    }
+}
@@ -0,0 +1,75 @@
+package com.stormeye.event.audit.service;
+
+import org.bson.Document;
+
+import java.util.Date;
+
+/**
+ * The number and total size of the events of a type, data type and source saved during a period of time.
+ *
+ * @author ian@meywood.com
+ */
+public class EventStatisticsBucket {
+
+    /** The start of the period */
+    private final Date time;
+    private final String type;
+    private final String dataType;
+    private final String source;
+    /** The number of events saved */
+    private final long events;
+    /** The total size of the JSON of the saved events in bytes */
+    private final long bytes;
+
+    public EventStatisticsBucket(final Date time,
+                                 final String type,
+                                 final String dataType,
+                                 final String source,
+                                 final long events,
+                                 final long bytes) {
+        this.time = time;
+        this.type = type;
+        this.dataType = dataType;
+        this.source = source;
+        this.events = events;
+        this.bytes = bytes;
+    }
+
+    /**
+     * Creates a bucket from a statistics document.
+     */
+    static EventStatisticsBucket fromDocument(final Document document) {
+        return new EventStatisticsBucket(
+                document.getDate(EventStatistics.TIME),
+                document.getString(EventStatistics.TYPE),
+                document.getString(EventStatistics.DATA_TYPE),
+                document.getString(EventStatistics.SOURCE),
+                document.get(EventStatistics.EVENTS, Number.class).longValue(),
+                document.get(EventStatistics.BYTES, Number.class).longValue()
+        );
+    }
+
+    public Date getTime() {
+        return time;
+    }
+
+    public String getType() {
+        return type;
+    }
+
+    public String getDataType() {
+        return dataType;
+    }
+
+    public String getSource() {
+        return source;
+    }
+
+    public long getEvents() {
+        return events;
+    }
+
+    public long getBytes() {
+        return bytes;
+    }
+}
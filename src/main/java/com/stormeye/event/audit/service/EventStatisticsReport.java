@@ -0,0 +1,55 @@
+package com.stormeye.event.audit.service;
+
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The statistics of the events saved during a range of time, and the highest event ID saved from each source.
+ *
+ * @author ian@meywood.com
+ */
+public class EventStatisticsReport {
+
+    private final EventStatistics.Granularity granularity;
+    /** The start of the first period inclusive */
+    private final Date from;
+    /** The end of the range exclusive */
+    private final Date to;
+    /** The buckets of the periods in the range ordered by time, type, data type and source */
+    private final List<EventStatisticsBucket> buckets;
+    /** The highest event ID saved by source then type, a client detects gaps in the events from it */
+    private final Map<String, Map<String, Long>> lastIds;
+
+    public EventStatisticsReport(final EventStatistics.Granularity granularity,
+                                 final Date from,
+                                 final Date to,
+                                 final List<EventStatisticsBucket> buckets,
+                                 final Map<String, Map<String, Long>> lastIds) {
+        this.granularity = granularity;
+        this.from = from;
+        this.to = to;
+        this.buckets = buckets;
+        this.lastIds = lastIds;
+    }
+
+    public EventStatistics.Granularity getGranularity() {
+        return granularity;
+    }
+
+    public Date getFrom() {
+        return from;
+    }
+
+    public Date getTo() {
+        return to;
+    }
+
+    public List<EventStatisticsBucket> getBuckets() {
+        return buckets;
+    }
+
+    public Map<String, Map<String, Long>> getLastIds() {
+        return lastIds;
+    }
+}
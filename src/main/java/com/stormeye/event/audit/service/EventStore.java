@@ -0,0 +1,1337 @@
+package com.stormeye.event.audit.service;
+
+import com.mongodb.ErrorCategory;
+import com.mongodb.MongoCommandException;
+import com.mongodb.MongoWriteException;
+import com.mongodb.ReadPreference;
+import com.mongodb.WriteConcern;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.gridfs.GridFSBucket;
+import com.mongodb.client.gridfs.GridFSBuckets;
+import com.mongodb.client.gridfs.model.GridFSFile;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.IndexOptions;
+import com.mongodb.client.model.Indexes;
+import com.mongodb.client.model.Projections;
+import com.mongodb.client.model.Sorts;
+import com.stormeye.event.audit.exception.DuplicateEventException;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import org.bson.types.Binary;
+import org.bson.types.ObjectId;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.Optional;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * The storage of events in a GridFS bucket. Events smaller than the inline threshold are stored as a single document
+ * in the bucket's inline collection, larger events are stored as GridFS files. Inline documents have the same layout
+ * as the GridFS files documents with the addition of a data field that holds the event's bytes, so metadata queries
+ * are the same for both.
+ * <p>
+ * Events are stored encoded with the store's {@link EventCodec}, the codec is recorded in the metadata next to the
+ * size of the event's JSON in bytes while the length is the size of the stored bytes.
+ * <p>
+ * Events are written with the ingest write concern and read with the read preference if either is configured. Lookups
+ * of the stored copy of a duplicate event are made against the collections that are written to so that a copy that was
+ * only just stored is found.
+ * <p>
+ * If the store is partitioned each period's events are stored in their own bucket, see {@link EventPartitioning}. An
+ * event is read from the bucket of the period of its internal ID, queries and lookups by event ID are made against the
+ * buckets of all the periods. Events stored in the default bucket before partitioning was enabled are still read. The
+ * unique event ID index only rejects a second copy of an event stored in the same period, so a copy stored in another
+ * partition is looked for with {@link #findCopy} before an event is written. Each partition keeps the range of the
+ * event IDs it holds for each source and type so that only the partitions that may hold a copy are queried.
+ * <p>
+ * The store may span several clusters, each holding its own partitions. An event is stored in the cluster that its
+ * {@link EventSharding} routing key maps to on the {@link EventShardRing}, and the index of the cluster is encoded in
+ * the event's internal ID so that the event is read from its cluster without a lookup. Queries are made against the
+ * catalogs of every cluster, lookups by event ID start with the cluster the event is routed to. Events stored before a
+ * store was sharded are read from the first cluster.
+ *
+ * @author ian@meywood.com
+ */
+public class EventStore {
+
+    private static final String SOURCE = "metadata.source";
+    private static final String EVENT_ID = "metadata.id";
+    private static final String TYPE = "metadata.type";
+    /** The document of the {@link EventFields} extracted from an event */
+    static final String FIELDS = "metadata." + EventFields.METADATA_KEY;
+    /** The total size of the GridFS events whose chunks are read with a single query */
+    private static final int CHUNK_GROUP_BYTES = 8 * 1024 * 1024;
+    /** The name of a GridFS file uploaded by the {@link ReactiveEventAuditService} until its metadata has been set */
+    static final String PENDING_FILENAME = "/events/pending.json";
+    /** The name of the cluster of a store that is not sharded */
+    public static final String PRIMARY_SHARD = "primary";
+    /**
+     * The byte of an internal ID that holds the index of the cluster of an event in a sharded store. An ObjectId is a 4
+     * byte timestamp, a 5 byte random value fixed per process and a 3 byte counter, so the shard replaces the first
+     * byte of the random value. The timestamp the partitions and the cache rely on is left intact, and as the
+     * timestamp and counter never repeat within a process and 4 bytes of the random value still tell processes apart
+     * the ID remains unique.
+     */
+    private static final int SHARD_BYTE = 4;
+    /** The number of clusters whose index fits in the shard byte */
+    private static final int MAX_SHARDS = 256;
+    /** How long after its period ends a partition may still be written with events accepted during the period */
+    private static final Duration CLOSE_DELAY = Duration.ofHours(1);
+    /** How long the event ID ranges of a partition that is still written to are used before they are reloaded */
+    private static final long OPEN_RANGE_MILLIS = 1000;
+
+    /** The name of the default bucket, partitions are named after it */
+    private final String bucketName;
+    private final int chunkSize;
+    /** The clusters events are stored in by their index, a store that is not sharded has a single cluster */
+    private final List<Shard> shards;
+    private final EventShardRing shardRing;
+    private final EventSharding sharding;
+    private final EventPartitioning partitioning;
+    /** Events of this size in bytes or larger are stored in GridFS */
+    private final int inlineThreshold;
+    /** The codec new events are stored with */
+    private final EventCodec codec;
+    /** True once the indexes have been created, the indexes of a new partition are then created as it is written */
+    private volatile boolean indexed;
+
+    public EventStore(final MongoDatabase database,
+                      final GridFSBucket gridFsBucket,
+                      final int inlineThreshold,
+                      final EventCodec codec) {
+        this(database, gridFsBucket, inlineThreshold, codec, null, null, EventPartitioning.NONE);
+    }
+
+    /**
+     * @param database           the database the events are stored in
+     * @param gridFsBucket       the GridFS bucket large events are stored in, partitions are named after it
+     * @param inlineThreshold    the size in bytes from which events are stored in GridFS
+     * @param codec              the codec new events are stored with
+     * @param ingestWriteConcern the write concern events are stored with, null for the database's write concern
+     * @param readPreference     the read preference events are read with, null for the database's read preference
+     * @param partitioning       the period events are partitioned by
+     */
+    public EventStore(final MongoDatabase database,
+                      final GridFSBucket gridFsBucket,
+                      final int inlineThreshold,
+                      final EventCodec codec,
+                      final WriteConcern ingestWriteConcern,
+                      final ReadPreference readPreference,
+                      final EventPartitioning partitioning) {
+        this(Map.of(PRIMARY_SHARD, database), gridFsBucket, inlineThreshold, codec, ingestWriteConcern, readPreference,
+                partitioning, EventSharding.SOURCE);
+    }
+
+    /**
+     * @param databases          the databases of the clusters events are stored in by the cluster's name, in the order
+     *                           of their index, as the index is encoded in the internal IDs clusters may only be added
+     *                           to the end
+     * @param gridFsBucket       the GridFS bucket large events are stored in, partitions are named after it
+     * @param inlineThreshold    the size in bytes from which events are stored in GridFS
+     * @param codec              the codec new events are stored with
+     * @param ingestWriteConcern the write concern events are stored with, null for the database's write concern
+     * @param readPreference     the read preference events are read with, null for the database's read preference
+     * @param partitioning       the period events are partitioned by
+     * @param sharding           the field events are routed to a cluster by
+     */
+    public EventStore(final Map<String, MongoDatabase> databases,
+                      final GridFSBucket gridFsBucket,
+                      final int inlineThreshold,
+                      final EventCodec codec,
+                      final WriteConcern ingestWriteConcern,
+                      final ReadPreference readPreference,
+                      final EventPartitioning partitioning,
+                      final EventSharding sharding) {
+
+        if (databases.isEmpty() || databases.size() > MAX_SHARDS) {
+            throw new IllegalArgumentException("Events can be stored in 1 to " + MAX_SHARDS + " clusters, not " + databases.size());
+        }
+
+        this.bucketName = gridFsBucket.getBucketName();
+        this.chunkSize = gridFsBucket.getChunkSizeBytes();
+        this.partitioning = partitioning;
+        this.sharding = sharding;
+        this.inlineThreshold = inlineThreshold;
+        this.codec = codec;
+
+        final List<Shard> shardList = new ArrayList<>(databases.size());
+        databases.forEach((name, database) -> shardList.add(new Shard(
+                shardList.size(),
+                ingestWriteConcern != null ? database.withWriteConcern(ingestWriteConcern) : database,
+                readPreference != null ? database.withReadPreference(readPreference) : database
+        )));
+        this.shards = List.copyOf(shardList);
+        this.shardRing = new EventShardRing(new ArrayList<>(databases.keySet()));
+
+        if (partitioning != EventPartitioning.NONE) {
+            refreshPartitions();
+        }
+    }
+
+    /**
+     * Opens a writer that an event is streamed to.
+     *
+     * @param objectId the internal ID to store the event with
+     * @return the writer
+     */
+    public EventWriter openWriter(final ObjectId objectId) {
+        return new EventWriter(() -> objectId);
+    }
+
+    /**
+     * Opens a writer that an event is streamed to whose internal ID is obtained once the event must be stored, so that
+     * it can be created from the event's metadata parsed up to then.
+     *
+     * @param objectIds supplies the internal ID to store the event with
+     * @return the writer
+     */
+    public EventWriter openWriter(final Supplier<ObjectId> objectIds) {
+        return new EventWriter(objectIds);
+    }
+
+    /**
+     * Creates the internal ID of a new event. The ID of an event of a sharded store holds the index of the cluster it
+     * is routed to in place of a byte of the ID's random value, see {@link #SHARD_BYTE}. An event whose routing key is
+     * not known is stored in the first cluster, where lookups of an event without a key start, so that a replay of the
+     * event lands in the same cluster and is rejected by its unique index.
+     *
+     * @param source the URL of the casper node that emitted the event, null if not known
+     * @param type   the type/topic of the event, null if not known
+     * @return the internal ID to store the event with
+     */
+    public ObjectId newObjectId(final String source, final String type) {
+
+        final ObjectId objectId = new ObjectId();
+        if (shards.size() == 1) {
+            return objectId;
+        }
+
+        final String key = sharding.routingKey(source, type);
+        final int shard = key != null ? shardRing.route(key) : 0;
+        final byte[] bytes = objectId.toByteArray();
+        bytes[SHARD_BYTE] = (byte) shard;
+        return new ObjectId(bytes);
+    }
+
+    /**
+     * @return true if the store spans more than one cluster
+     */
+    public boolean isSharded() {
+        return shards.size() > 1;
+    }
+
+    /**
+     * Creates a writer for a batch of events.
+     *
+     * @param results           the list the result of each event is added to
+     * @param duplicateResolver finds the internal ID of the stored copy of an event rejected as a duplicate from the
+     *                          event's metadata, an event whose copy is not found is reported as failed
+     * @return the batch writer
+     */
+    EventBatchWriter openBatchWriter(final List<EventBatchResult> results,
+                                     final Function<Document, Optional<ObjectId>> duplicateResolver) {
+        return new EventBatchWriter(
+                this::partition,
+                chunkSize,
+                inlineThreshold,
+                codec,
+                results,
+                duplicateResolver
+        );
+    }
+
+    /**
+     * Finds an event from either the inline collection or GridFS.
+     *
+     * @param objectId the internal ID of the event
+     * @return the event's stream if the event exists
+     */
+    public Optional<EventStream> find(final ObjectId objectId) {
+
+        for (Partition partition : readPartitions(objectId)) {
+            final Optional<EventStream> eventStream = find(partition, objectId);
+            if (eventStream.isPresent()) {
+                return eventStream;
+            }
+        }
+
+        return Optional.empty();
+    }
+
+    private Optional<EventStream> find(final Partition partition, final ObjectId objectId) {
+
+        final Document inline = partition.readInlineCollection.find(Filters.eq("_id", objectId)).first();
+
+        if (inline != null) {
+            return Optional.of(inlineStream(inline));
+        }
+
+        final GridFSFile gridFsFile = partition.readBucket.find(Filters.eq("_id", objectId)).first();
+
+        if (gridFsFile == null) {
+            return Optional.empty();
+        }
+
+        return Optional.of(gridFsStream(partition, objectId, gridFsFile.getLength(), gridFsFile.getMetadata()));
+    }
+
+    /**
+     * Finds many events with a query of each catalog of their partitions rather than queries per event. The chunks of
+     * the GridFS events are read with a query per {@value #CHUNK_GROUP_BYTES} bytes of events, an event larger than
+     * that is streamed from GridFS as it is read.
+     *
+     * @param objectIds the internal IDs of the events
+     * @return the streams of the events that exist by their internal IDs
+     */
+    public Map<ObjectId, EventStream> findAll(final Collection<ObjectId> objectIds) {
+
+        final Map<ObjectId, EventStream> found = new HashMap<>();
+        final Map<ObjectId, List<Partition>> candidates = new LinkedHashMap<>();
+        for (ObjectId objectId : objectIds) {
+            candidates.put(objectId, readPartitions(objectId));
+        }
+
+        // Each round looks for the events not found yet in the next partition they may be stored in
+        for (int round = 0; !candidates.isEmpty(); round++) {
+
+            final Map<Partition, List<ObjectId>> objectIdsByPartition = new LinkedHashMap<>();
+            for (Map.Entry<ObjectId, List<Partition>> entry : candidates.entrySet()) {
+                if (round < entry.getValue().size()) {
+                    objectIdsByPartition.computeIfAbsent(entry.getValue().get(round), partition -> new ArrayList<>()).add(entry.getKey());
+                }
+            }
+            if (objectIdsByPartition.isEmpty()) {
+                break;
+            }
+
+            objectIdsByPartition.forEach((partition, partitionObjectIds) -> findAll(partition, partitionObjectIds, found));
+            candidates.keySet().removeAll(found.keySet());
+        }
+
+        return found;
+    }
+
+    private void findAll(final Partition partition, final List<ObjectId> objectIds, final Map<ObjectId, EventStream> found) {
+
+        for (Document inline : partition.readInlineCollection.find(Filters.in("_id", objectIds))) {
+            found.put(inline.getObjectId("_id"), inlineStream(inline));
+        }
+
+        final List<ObjectId> remaining = new ArrayList<>();
+        for (ObjectId objectId : objectIds) {
+            if (!found.containsKey(objectId)) {
+                remaining.add(objectId);
+            }
+        }
+        if (remaining.isEmpty()) {
+            return;
+        }
+
+        final Map<ObjectId, Document> group = new LinkedHashMap<>();
+        long groupBytes = 0;
+
+        for (Document file : partition.readFilesCollection.find(Filters.in("_id", remaining)).projection(Projections.include("length", "metadata"))) {
+
+            final ObjectId objectId = file.getObjectId("_id");
+            final long length = file.get("length", Number.class).longValue();
+
+            if (length > CHUNK_GROUP_BYTES) {
+                found.put(objectId, gridFsStream(partition, objectId, length, file.get("metadata", Document.class)));
+                continue;
+            }
+            if (groupBytes + length > CHUNK_GROUP_BYTES) {
+                readChunks(partition, group, found);
+                groupBytes = 0;
+            }
+            group.put(objectId, file);
+            groupBytes += length;
+        }
+
+        readChunks(partition, group, found);
+    }
+
+    /**
+     * Reads the chunks of a group of GridFS events with a single query in (file, chunk) order.
+     */
+    private void readChunks(final Partition partition, final Map<ObjectId, Document> files, final Map<ObjectId, EventStream> found) {
+
+        if (files.isEmpty()) {
+            return;
+        }
+
+        final Map<ObjectId, ByteArrayOutputStream> contents = new HashMap<>();
+        for (Document chunk : partition.readChunksCollection.find(Filters.in("files_id", files.keySet())).sort(Sorts.ascending("files_id", "n"))) {
+            final ObjectId objectId = chunk.getObjectId("files_id");
+            final byte[] data = chunk.get("data", Binary.class).getData();
+            contents.computeIfAbsent(objectId, id -> new ByteArrayOutputStream(files.get(id).get("length", Number.class).intValue()))
+                    .write(data, 0, data.length);
+        }
+
+        files.forEach((objectId, file) -> {
+            final long length = file.get("length", Number.class).longValue();
+            final ByteArrayOutputStream content = contents.get(objectId);
+            if (content != null && content.size() == length) {
+                found.put(objectId, eventStream(new ByteArrayInputStream(content.toByteArray()), length, file.get("metadata", Document.class)));
+            } else {
+                // A file whose chunks are still being written is left to the download stream to report
+                found.put(objectId, gridFsStream(partition, objectId, length, file.get("metadata", Document.class)));
+            }
+        });
+
+        files.clear();
+    }
+
+    /**
+     * Opens the stream of an event from its catalog document, as returned by a query of the catalogs that includes the
+     * data of inline events.
+     *
+     * @param catalog         the catalog collection the document was read from
+     * @param catalogDocument the inline or GridFS files document of the event
+     * @param chunkBatchSize  the number of GridFS chunks that are read at a time
+     * @return the event's stream
+     */
+    EventStream open(final MongoCollection<Document> catalog, final Document catalogDocument, final int chunkBatchSize) {
+        if (catalogDocument.containsKey("data")) {
+            return inlineStream(catalogDocument);
+        }
+        final ObjectId objectId = catalogDocument.getObjectId("_id");
+        final Document metadata = catalogDocument.get("metadata", Document.class);
+        return eventStream(
+                partitionOf(catalog).readBucket.openDownloadStream(objectId).batchSize(chunkBatchSize),
+                catalogDocument.get("length", Number.class).longValue(),
+                metadata
+        );
+    }
+
+    /**
+     * Creates the indexes of the metadata fields on the GridFS files and inline collections. The event ID of the
+     * (source, event ID) keyset that metadata queries page by is preceded by the type or data type so that a query
+     * that filters on either is served by an index in sorted order.
+     * <p>
+     * The unique (source, event ID, type) index serves lookups by event ID with or without the type and rejects a
+     * second copy of an event. Events without an event ID are excluded from it.
+     * <p>
+     * The extracted block and deploy hashes that events are looked up by have sparse indexes, as most events have
+     * only one of them.
+     * <p>
+     * The indexes of a partition that is first written after the indexes have been created are created as it is
+     * opened.
+     */
+    public void createIndexes() {
+        indexed = true;
+        for (Shard shard : shards) {
+            createIndexes(shard.defaultPartition);
+            shard.partitions.values().forEach(this::createIndexes);
+        }
+    }
+
+    private void createIndexes(final Partition partition) {
+        for (MongoCollection<Document> catalog : List.of(partition.inlineCollection, partition.filesCollection)) {
+            catalog.createIndex(
+                    Indexes.ascending(SOURCE, EVENT_ID, TYPE),
+                    new IndexOptions().unique(true).partialFilterExpression(Filters.exists(EVENT_ID))
+            );
+            catalog.createIndex(Indexes.ascending(SOURCE, EVENT_ID, "_id"));
+            catalog.createIndex(Indexes.ascending("metadata.type", "metadata.source", "metadata.id", "_id"));
+            catalog.createIndex(Indexes.ascending("metadata.dataType", "metadata.source", "metadata.id", "_id"));
+            catalog.createIndex(Indexes.ascending(FIELDS + "." + EventFields.BLOCK_HASH), new IndexOptions().sparse(true));
+            catalog.createIndex(Indexes.ascending(FIELDS + "." + EventFields.DEPLOY_HASH), new IndexOptions().sparse(true));
+        }
+    }
+
+    /**
+     * @return the collections that hold the filename and metadata documents of the stored events, with the read
+     * preference
+     */
+    public List<MongoCollection<Document>> getCatalogs() {
+        final List<MongoCollection<Document>> catalogs = new ArrayList<>();
+        for (Shard shard : shards) {
+            for (Partition partition : readPartitions(shard)) {
+                catalogs.add(partition.readInlineCollection);
+                catalogs.add(partition.readFilesCollection);
+            }
+        }
+        return catalogs;
+    }
+
+    /**
+     * Finds an event by the node that emitted it and its event ID.
+     *
+     * @param source  the URL of the casper node that emitted the event
+     * @param type    the optional type/topic of the event
+     * @param eventId the ID of the event
+     * @return the event's stream if the event exists
+     */
+    public Optional<EventStream> findByEventId(final String source, final String type, final long eventId) {
+
+        final Bson filter = type != null
+                ? Filters.and(Filters.eq(SOURCE, source), Filters.eq(EVENT_ID, eventId), Filters.eq(TYPE, type))
+                : Filters.and(Filters.eq(SOURCE, source), Filters.eq(EVENT_ID, eventId));
+
+        for (Partition partition : lookupPartitions(source, type)) {
+
+            final Document inline = partition.readInlineCollection.find(filter).first();
+
+            if (inline != null) {
+                return Optional.of(inlineStream(inline));
+            }
+
+            final Document file = partition.readFilesCollection.find(filter).projection(Projections.include("length", "metadata")).first();
+
+            if (file != null) {
+                return Optional.of(gridFsStream(
+                        partition,
+                        file.getObjectId("_id"),
+                        file.get("length", Number.class).longValue(),
+                        file.get("metadata", Document.class)
+                ));
+            }
+        }
+
+        return Optional.empty();
+    }
+
+    /**
+     * Finds the internal ID and metadata of a stored event by the node that emitted it, its type and event ID.
+     *
+     * @param source  the URL of the casper node that emitted the event
+     * @param type    the type/topic of the event
+     * @param eventId the ID of the event
+     * @return the document holding the event's _id and metadata if the event exists
+     */
+    public Optional<Document> findCatalogEntry(final String source, final String type, final long eventId) {
+
+        final Bson filter = Filters.and(Filters.eq(SOURCE, source), Filters.eq(EVENT_ID, eventId), Filters.eq(TYPE, type));
+
+        for (Partition partition : lookupPartitions(source, type)) {
+            for (MongoCollection<Document> catalog : List.of(partition.inlineCollection, partition.filesCollection)) {
+                final Document entry = catalog.find(filter).projection(Projections.include("metadata")).first();
+                if (entry != null) {
+                    return Optional.of(entry);
+                }
+            }
+        }
+        return Optional.empty();
+    }
+
+    /**
+     * Finds the internal ID and metadata of a stored copy of an event before the event is written. Only the partitions
+     * of the cluster the event is routed to and of the first cluster are looked in, and of those only the partitions
+     * whose range of event IDs for the event's source and type holds the event ID are queried, so a new event is
+     * usually not looked up at all. The ranges of a partition that is no longer written to are loaded once, those of a
+     * partition that is still written to are reloaded at most once a second for an event ID they do not hold, so a
+     * copy stored by another instance of the service only just before may not be found.
+     *
+     * @param source                the URL of the casper node that emitted the event
+     * @param type                  the type/topic of the event
+     * @param eventId               the ID of the event
+     * @param includeWritePartition false if the partition the event is now written to is not looked in, as its unique
+     *                              index rejects a copy when the event is written
+     * @return the document holding the copy's _id and metadata if a copy is found
+     */
+    Optional<Document> findCopy(final String source, final String type, final long eventId, final boolean includeWritePartition) {
+
+        final String key = sharding.routingKey(source, type);
+        final Shard routed = shards.get(shards.size() > 1 && key != null ? shardRing.route(key) : 0);
+        final Partition writePartition = readPartition(routed, new ObjectId());
+        final Bson filter = Filters.and(Filters.eq(SOURCE, source), Filters.eq(EVENT_ID, eventId), Filters.eq(TYPE, type));
+
+        // Events stored before the store was sharded, or before their key was known, are in the first cluster
+        for (Shard shard : routed.index == 0 ? List.of(routed) : List.of(routed, shards.get(0))) {
+            for (Partition partition : readPartitions(shard)) {
+                if ((includeWritePartition || !partition.equals(writePartition)) && partition.mayHold(source, type, eventId)) {
+                    for (MongoCollection<Document> catalog : List.of(partition.inlineCollection, partition.filesCollection)) {
+                        final Document entry = catalog.find(filter).projection(Projections.include("metadata")).first();
+                        if (entry != null) {
+                            return Optional.of(entry);
+                        }
+                    }
+                }
+            }
+        }
+        return Optional.empty();
+    }
+
+    /**
+     * @return the GridFS files collection that events are currently written to in the first cluster
+     */
+    public MongoCollection<Document> getFilesCollection() {
+        return partition(shards.get(0), new ObjectId()).filesCollection;
+    }
+
+    /**
+     * @return the inline collection that events are currently written to in the first cluster
+     */
+    public MongoCollection<Document> getInlineCollection() {
+        return partition(shards.get(0), new ObjectId()).inlineCollection;
+    }
+
+    public EventPartitioning getPartitioning() {
+        return partitioning;
+    }
+
+    /**
+     * @return the periods of the partitions of the store in any of its clusters, oldest first
+     */
+    NavigableSet<String> getPeriods() {
+        if (shards.size() == 1) {
+            return shards.get(0).partitions.keySet();
+        }
+        final NavigableSet<String> periods = new TreeSet<>();
+        for (Shard shard : shards) {
+            periods.addAll(shard.partitions.keySet());
+        }
+        return periods;
+    }
+
+    /**
+     * @param period the period of a partition
+     * @return the name of the partition's bucket
+     */
+    String getPartitionName(final String period) {
+        return bucketName + "_" + period;
+    }
+
+    /**
+     * @param partitionName the name of a partition's bucket
+     * @return the period of the partition, null if the name is not that of a partition of the store
+     */
+    String getPeriod(final String partitionName) {
+        final String prefix = bucketName + "_";
+        if (partitioning == EventPartitioning.NONE || !partitionName.startsWith(prefix)) {
+            return null;
+        }
+        final String period = partitionName.substring(prefix.length());
+        return partitioning.isPeriod(period) ? period : null;
+    }
+
+    /**
+     * Obtains the catalogs of a partition to read all of its events.
+     *
+     * @param period the period of the partition
+     * @return the partition's inline and GridFS files collections in each cluster, with the read preference
+     */
+    List<MongoCollection<Document>> getCatalogs(final String period) {
+        final List<MongoCollection<Document>> catalogs = new ArrayList<>();
+        for (Shard shard : shards) {
+            final Partition partition = shard.partitions.get(period);
+            if (partition != null) {
+                catalogs.add(partition.readInlineCollection);
+                catalogs.add(partition.readFilesCollection);
+            }
+        }
+        return catalogs;
+    }
+
+    /**
+     * Finds the partitions stored by any instance of the service, and whether events are stored in the default
+     * bucket, from the names of the collections of each cluster's database.
+     */
+    void refreshPartitions() {
+        shards.forEach(this::refreshPartitions);
+    }
+
+    private void refreshPartitions(final Shard shard) {
+
+        final String prefix = bucketName + "_";
+        final Set<String> periods = new HashSet<>();
+        boolean unpartitioned = false;
+
+        for (String collectionName : shard.writeDatabase.listCollectionNames()) {
+            final int suffix = collectionName.lastIndexOf('.');
+            if (suffix == -1) {
+                continue;
+            }
+            final String name = collectionName.substring(0, suffix);
+            if (name.equals(bucketName)) {
+                unpartitioned = unpartitioned || !collectionName.endsWith(".chunks");
+            } else if (name.startsWith(prefix) && partitioning.isPeriod(name.substring(prefix.length()))) {
+                final String period = name.substring(prefix.length());
+                periods.add(period);
+                shard.partitions.computeIfAbsent(period, p -> newPartition(shard, p));
+            }
+        }
+
+        // Forgets the earlier partitions dropped by other instances, a current partition may not have been written yet
+        final String current = partitioning.periodOf(Instant.now());
+        shard.partitions.keySet().removeIf(period -> period.compareTo(current) < 0 && !periods.contains(period));
+        shard.unpartitionedEvents = unpartitioned;
+    }
+
+    /**
+     * Obtains the size of a partition from the stats of its collections.
+     *
+     * @param period the period of the partition
+     * @return the size in bytes of the partition's documents in all the clusters
+     */
+    long getPartitionSize(final String period) {
+        long size = 0;
+        final String partitionName = getPartitionName(period);
+        for (Shard shard : shards) {
+            for (String collectionName : List.of(partitionName + ".inline", partitionName + ".files", partitionName + ".chunks")) {
+                try {
+                    final Document stats = shard.readDatabase.runCommand(new Document("collStats", collectionName));
+                    final Number collectionSize = stats.get("size", Number.class);
+                    size += collectionSize != null ? collectionSize.longValue() : 0;
+                } catch (MongoCommandException e) {
+                    // A collection that has not been written yet has no stats on some servers
+                }
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Drops the collections of a partition in every cluster, removing all of its events.
+     *
+     * @param period the period of the partition
+     */
+    void dropPartition(final String period) {
+        for (Shard shard : shards) {
+            shard.readViews.remove(period);
+            final Partition partition = shard.partitions.remove(period);
+            if (partition != null) {
+                // The catalogs are dropped before the chunks so that no event is found without its content
+                partition.inlineCollection.drop();
+                partition.filesCollection.drop();
+                partition.chunksCollection.drop();
+            }
+        }
+    }
+
+    public int getInlineThreshold() {
+        return inlineThreshold;
+    }
+
+    public EventCodec getCodec() {
+        return codec;
+    }
+
+    private EventStream inlineStream(final Document inline) {
+        final byte[] data = inline.get("data", Binary.class).getData();
+        return eventStream(new ByteArrayInputStream(data), data.length, inline.get("metadata", Document.class));
+    }
+
+    private EventStream gridFsStream(final Partition partition, final ObjectId objectId, final long length, final Document metadata) {
+        return eventStream(partition.readBucket.openDownloadStream(objectId), length, metadata);
+    }
+
+    /**
+     * Obtains the partition that an event is written to, opening it if it is the first event of its period.
+     *
+     * @param objectId the internal ID of the event
+     * @return the event's partition in the cluster of the event
+     */
+    Partition partition(final ObjectId objectId) {
+        return partition(shardOf(objectId), objectId);
+    }
+
+    private Partition partition(final Shard shard, final ObjectId objectId) {
+
+        if (partitioning == EventPartitioning.NONE) {
+            return shard.defaultPartition;
+        }
+
+        final String period = partitioning.periodOf(objectId.getDate().toInstant());
+        final Partition partition = shard.partitions.get(period);
+        if (partition != null) {
+            return partition;
+        }
+
+        final Partition opened = newPartition(shard, period);
+        if (indexed) {
+            createIndexes(opened);
+        }
+        final Partition previous = shard.partitions.putIfAbsent(period, opened);
+        return previous != null ? previous : opened;
+    }
+
+    /**
+     * Creates the partition of a period that is found or opened, taking over the view of the partition that its events
+     * may have been read with until then.
+     */
+    private Partition newPartition(final Shard shard, final String period) {
+        final Partition view = shard.readViews.remove(period);
+        return view != null ? view : new Partition(shard, getPartitionName(period));
+    }
+
+    /**
+     * Obtains the partition of a cluster that an event is read from without opening it, a partition written by another
+     * instance of the service may not have been found yet.
+     */
+    private Partition readPartition(final Shard shard, final ObjectId objectId) {
+        if (partitioning == EventPartitioning.NONE) {
+            return shard.defaultPartition;
+        }
+        final String period = partitioning.periodOf(objectId.getDate().toInstant());
+        final Partition partition = shard.partitions.get(period);
+        return partition != null ? partition : new Partition(shard, getPartitionName(period));
+    }
+
+    /**
+     * @return the partitions that an event may be stored in, in the order they are read
+     */
+    private List<Partition> readPartitions(final ObjectId objectId) {
+
+        final Shard shard = shardOf(objectId);
+        final List<Partition> readPartitions = new ArrayList<>(4);
+        addReadPartitions(shard, objectId, readPartitions);
+
+        // Events stored before the store was sharded are in the first cluster whatever their ID
+        if (shard.index != 0) {
+            addReadPartitions(shards.get(0), objectId, readPartitions);
+        }
+        return readPartitions;
+    }
+
+    private void addReadPartitions(final Shard shard, final ObjectId objectId, final List<Partition> readPartitions) {
+        readPartitions.add(readPartition(shard, objectId));
+        if (partitioning != EventPartitioning.NONE && shard.unpartitionedEvents) {
+            readPartitions.add(shard.defaultPartition);
+        }
+    }
+
+    /**
+     * @return the partitions of a cluster that queries are made against, newest first
+     */
+    private List<Partition> readPartitions(final Shard shard) {
+
+        if (partitioning == EventPartitioning.NONE) {
+            return List.of(shard.defaultPartition);
+        }
+
+        // The current period is always read so that the events written by other instances of the service are found
+        final String current = partitioning.periodOf(Instant.now());
+        final List<Partition> readPartitions = new ArrayList<>(shard.partitions.size() + 2);
+        if (!shard.partitions.containsKey(current)) {
+            // The same view is returned until the partition is opened so that its catalogs are matched by partitionOf
+            readPartitions.add(shard.readViews.computeIfAbsent(current, period -> new Partition(shard, getPartitionName(period))));
+        }
+        readPartitions.addAll(shard.partitions.descendingMap().values());
+        if (shard.unpartitionedEvents) {
+            readPartitions.add(shard.defaultPartition);
+        }
+        return readPartitions;
+    }
+
+    /**
+     * @return the partitions that lookups by event ID are made against, those of the cluster the event is routed to
+     * first
+     */
+    private List<Partition> lookupPartitions(final String source, final String type) {
+
+        if (shards.size() == 1) {
+            return readPartitions(shards.get(0));
+        }
+
+        final String key = sharding.routingKey(source, type);
+        final int routed = key != null ? shardRing.route(key) : 0;
+        final List<Partition> lookupPartitions = new ArrayList<>(readPartitions(shards.get(routed)));
+        for (Shard shard : shards) {
+            if (shard.index != routed) {
+                lookupPartitions.addAll(readPartitions(shard));
+            }
+        }
+        return lookupPartitions;
+    }
+
+    /**
+     * @return the cluster an event is stored in from the index encoded in its internal ID, the first cluster for the
+     * events of a store that is not sharded
+     */
+    private Shard shardOf(final ObjectId objectId) {
+        if (shards.size() == 1) {
+            return shards.get(0);
+        }
+        final int index = objectId.toByteArray()[SHARD_BYTE] & 0xff;
+        return index < shards.size() ? shards.get(index) : shards.get(0);
+    }
+
+    /**
+     * @return the partition that a catalog collection returned by the store belongs to
+     */
+    private Partition partitionOf(final MongoCollection<Document> catalog) {
+
+        for (Shard shard : shards) {
+            if (shard.defaultPartition.isCatalog(catalog)) {
+                return shard.defaultPartition;
+            }
+            for (Partition partition : shard.partitions.values()) {
+                if (partition.isCatalog(catalog)) {
+                    return partition;
+                }
+            }
+            for (Partition partition : shard.readViews.values()) {
+                if (partition.isCatalog(catalog)) {
+                    return partition;
+                }
+            }
+        }
+
+        // A partition dropped since its catalog was obtained
+        final String collectionName = catalog.getNamespace().getCollectionName();
+        return new Partition(shards.get(0), collectionName.substring(0, collectionName.lastIndexOf('.')));
+    }
+
+    private EventStream eventStream(final InputStream in, final long length, final Document metadata) {
+        final EventCodec eventCodec = EventCodec.fromMetadata(metadata);
+        final Number bytes = metadata != null ? metadata.get("bytes", Number.class) : null;
+        return new EventStream(in, length, eventCodec, bytes != null ? bytes.longValue() : length);
+    }
+
+    /**
+     * Adds the codec of the store to the metadata of an event.
+     */
+    static Document encodedMetadata(final Document metadata, final EventCodec codec) {
+        if (codec == EventCodec.NONE) {
+            return metadata;
+        }
+        return new Document(metadata).append(EventCodec.METADATA_KEY, codec.getContentEncoding());
+    }
+
+    /**
+     * Creates the exception of an event rejected as a duplicate by the unique event ID index.
+     */
+    static DuplicateEventException duplicateEvent(final Document metadata) {
+        return new DuplicateEventException("Event " + metadata.get("id") + " from " + metadata.get("source")
+                + " of type " + metadata.get("type") + " is already stored");
+    }
+
+    /**
+     * Creates the document for an event that is stored inline.
+     */
+    static Document inlineDocument(final ObjectId objectId,
+                                   final String filename,
+                                   final Document metadata,
+                                   final byte[] data) {
+        return new Document("_id", objectId)
+                .append("filename", filename)
+                .append("length", (long) data.length)
+                .append("uploadDate", new Date())
+                .append("metadata", metadata)
+                .append("data", new Binary(data));
+    }
+
+    /**
+     * Creates the GridFS files document of an event, inserted once its chunks have been inserted.
+     */
+    static Document fileDocument(final ObjectId objectId,
+                                 final String filename,
+                                 final Document metadata,
+                                 final long length,
+                                 final int chunkSize) {
+        return new Document("_id", objectId)
+                .append("filename", filename)
+                .append("length", length)
+                .append("chunkSize", chunkSize)
+                .append("uploadDate", new Date())
+                .append("metadata", metadata);
+    }
+
+    /**
+     * Creates the GridFS chunks document of part of an event.
+     */
+    static Document chunkDocument(final ObjectId objectId, final int n, final byte[] data) {
+        return new Document("files_id", objectId)
+                .append("n", n)
+                .append("data", new Binary(data));
+    }
+
+    /**
+     * Writes a single streamed event. The event's bytes are encoded as they are written, the encoded bytes are held in
+     * memory until they reach the inline threshold, at which point they are written to GridFS chunks documents a chunk
+     * at a time. The files document is inserted with the event's filename and metadata once all its chunks have been
+     * inserted, so a file is never visible without its content or metadata. If the event is not stored its chunks are
+     * deleted.
+     */
+    public class EventWriter {
+
+        private final Supplier<ObjectId> objectIds;
+        private ObjectId objectId;
+        private Partition partition;
+        private final ByteArrayOutputStream head = new ByteArrayOutputStream();
+        /** The stream the event's bytes are encoded by, the encoded bytes are written to the store */
+        private final OutputStream encoder;
+        /** The chunk being filled once the event is stored in GridFS, null while the event is held in memory */
+        private byte[] chunk;
+        private int chunkLength;
+        /** The number of chunks inserted */
+        private int chunks;
+        /** The number of encoded bytes written to chunks */
+        private long encodedLength;
+        private long length;
+        private boolean aborted;
+
+        private EventWriter(final Supplier<ObjectId> objectIds) {
+            this.objectIds = objectIds;
+            try {
+                this.encoder = codec.encode(new OutputStream() {
+                    @Override
+                    public void write(final int b) {
+                        write(new byte[]{(byte) b}, 0, 1);
+                    }
+
+                    @Override
+                    public void write(final byte[] buffer, final int offset, final int len) {
+                        if (!aborted) {
+                            writeEncoded(buffer, offset, len);
+                        }
+                    }
+                });
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        public void write(final byte[] buffer, final int offset, final int len) {
+            try {
+                encoder.write(buffer, offset, len);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            length += len;
+        }
+
+        private void writeEncoded(final byte[] buffer, final int offset, final int len) {
+
+            if (chunk == null) {
+                if (head.size() + len < inlineThreshold) {
+                    head.write(buffer, offset, len);
+                    return;
+                }
+                resolve();
+                partition.ensureGridFsIndexes();
+                chunk = new byte[chunkSize];
+                final byte[] bytes = head.toByteArray();
+                head.reset();
+                writeChunks(bytes, 0, bytes.length);
+            }
+
+            writeChunks(buffer, offset, len);
+        }
+
+        private void writeChunks(final byte[] buffer, final int offset, final int len) {
+            for (int written = 0; written < len; ) {
+                final int copy = Math.min(len - written, chunkSize - chunkLength);
+                System.arraycopy(buffer, offset + written, chunk, chunkLength, copy);
+                chunkLength += copy;
+                written += copy;
+                if (chunkLength == chunkSize) {
+                    insertChunk();
+                }
+            }
+            encodedLength += len;
+        }
+
+        private void insertChunk() {
+            partition.chunksCollection.insertOne(chunkDocument(objectId, chunks, Arrays.copyOf(chunk, chunkLength)));
+            chunks++;
+            chunkLength = 0;
+        }
+
+        /**
+         * Obtains the internal ID and partition of the event when it is first stored.
+         */
+        private void resolve() {
+            if (objectId == null) {
+                objectId = objectIds.get();
+                partition = partition(objectId);
+            }
+        }
+
+        /**
+         * @return the number of bytes of the event's JSON written
+         */
+        public long getLength() {
+            return length;
+        }
+
+        /**
+         * Stores the event with its filename and metadata. If the event cannot be stored any bytes written for it are
+         * discarded.
+         *
+         * @return the internal ID of the stored event
+         * @throws DuplicateEventException if an event with the same source, type and event ID is already stored
+         */
+        public ObjectId complete(final String filename, final Document metadata) {
+
+            final Document storedMetadata = encodedMetadata(metadata, codec);
+
+            try {
+                try {
+                    // Closing the encoder writes any encoded bytes it buffers
+                    encoder.close();
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+
+                resolve();
+
+                if (chunk == null) {
+                    partition.inlineCollection.insertOne(inlineDocument(objectId, filename, storedMetadata, head.toByteArray()));
+                } else {
+                    if (chunkLength > 0) {
+                        insertChunk();
+                    }
+                    partition.filesCollection.insertOne(fileDocument(objectId, filename, storedMetadata, encodedLength, chunkSize));
+                }
+                partition.recordStored(metadata);
+            } catch (RuntimeException e) {
+                abort(e);
+                if (e instanceof MongoWriteException && ((MongoWriteException) e).getError().getCategory() == ErrorCategory.DUPLICATE_KEY) {
+                    throw duplicateEvent(metadata);
+                }
+                throw e;
+            }
+            return objectId;
+        }
+
+        /**
+         * Discards any bytes written for the event.
+         */
+        public void abort() {
+            abort(null);
+        }
+
+        /**
+         * Discards any bytes written for the event, a failure to delete its chunks is suppressed by the cause of the
+         * abort if there is one.
+         */
+        private void abort(final RuntimeException cause) {
+
+            if (aborted) {
+                return;
+            }
+            aborted = true;
+
+            try {
+                // Releases the encoder's resources, its remaining bytes are discarded
+                encoder.close();
+            } catch (IOException e) {
+                // The event is discarded so its encoding no longer matters
+            }
+
+            if (chunks > 0) {
+                try {
+                    partition.chunksCollection.deleteMany(Filters.eq("files_id", objectId));
+                } catch (RuntimeException e) {
+                    if (cause == null) {
+                        throw e;
+                    }
+                    cause.addSuppressed(e);
+                }
+            }
+        }
+    }
+
+    /**
+     * The lowest and highest event IDs of a source and type stored in a partition.
+     */
+    private static final class EventIdRange {
+
+        private final long min;
+        private final long max;
+        /** The time in millis from which the range is reloaded, the range of a closed partition never expires */
+        private final long expires;
+
+        private EventIdRange(final long min, final long max, final long expires) {
+            this.min = min;
+            this.max = max;
+            this.expires = expires;
+        }
+
+        private boolean holds(final long eventId) {
+            return eventId >= min && eventId <= max;
+        }
+
+        private boolean isExpired() {
+            return System.currentTimeMillis() >= expires;
+        }
+
+        private EventIdRange including(final long eventId) {
+            return holds(eventId) ? this : new EventIdRange(Math.min(min, eventId), Math.max(max, eventId), expires);
+        }
+    }
+
+    /**
+     * A cluster that events are stored in, with the partitions of its database.
+     */
+    private final class Shard {
+
+        private final int index;
+        private final MongoDatabase writeDatabase;
+        private final MongoDatabase readDatabase;
+        /** The default bucket, unpartitioned events are stored in it */
+        private final Partition defaultPartition;
+        /** The partitions of a partitioned store by period in the order they were stored */
+        private final ConcurrentNavigableMap<String, Partition> partitions = new ConcurrentSkipListMap<>();
+        /** The views of the current partition that queries have been made against before it was found or opened */
+        private final ConcurrentMap<String, Partition> readViews = new ConcurrentHashMap<>();
+        /** True if a partitioned store has events stored in the default bucket */
+        private volatile boolean unpartitionedEvents;
+
+        private Shard(final int index, final MongoDatabase writeDatabase, final MongoDatabase readDatabase) {
+            this.index = index;
+            this.writeDatabase = writeDatabase;
+            this.readDatabase = readDatabase;
+            this.defaultPartition = new Partition(this, bucketName);
+        }
+    }
+
+    /**
+     * The GridFS bucket and inline collection of a period's events, or of all the events if the store is not
+     * partitioned, in a cluster, as views that write with the ingest write concern and read with the read preference.
+     */
+    final class Partition {
+
+        private final Shard shard;
+        private final String name;
+        /** The bucket events are downloaded from with the read preference */
+        private final GridFSBucket readBucket;
+        final MongoCollection<Document> filesCollection;
+        final MongoCollection<Document> chunksCollection;
+        final MongoCollection<Document> inlineCollection;
+        private final MongoCollection<Document> readFilesCollection;
+        private final MongoCollection<Document> readChunksCollection;
+        private final MongoCollection<Document> readInlineCollection;
+        /** True once the GridFS indexes of the partition have been ensured */
+        private volatile boolean gridFsIndexed;
+        /** The ranges of the event IDs stored in the partition by the source and type of the events, loaded as needed */
+        private final ConcurrentMap<String, EventIdRange> eventIdRanges = new ConcurrentHashMap<>();
+
+        private Partition(final Shard shard, final String name) {
+            this.shard = shard;
+            this.name = name;
+            this.readBucket = GridFSBuckets.create(shard.readDatabase, name).withChunkSizeBytes(chunkSize);
+            this.filesCollection = shard.writeDatabase.getCollection(name + ".files");
+            this.chunksCollection = shard.writeDatabase.getCollection(name + ".chunks");
+            this.inlineCollection = shard.writeDatabase.getCollection(name + ".inline");
+            this.readFilesCollection = shard.readDatabase.getCollection(name + ".files");
+            this.readChunksCollection = shard.readDatabase.getCollection(name + ".chunks");
+            this.readInlineCollection = shard.readDatabase.getCollection(name + ".inline");
+        }
+
+        /**
+         * Creates the indexes of the partition's GridFS collections if they have not yet been ensured, as a GridFS
+         * upload stream would before its first upload.
+         */
+        void ensureGridFsIndexes() {
+            if (!gridFsIndexed) {
+                filesCollection.createIndex(Indexes.ascending("filename", "uploadDate"));
+                chunksCollection.createIndex(Indexes.ascending("files_id", "n"), new IndexOptions().unique(true));
+                gridFsIndexed = true;
+            }
+        }
+
+        /**
+         * @return false if the partition does not hold an event with the event ID from the source of the type
+         */
+        boolean mayHold(final String source, final String type, final long eventId) {
+
+            final String key = source + '\n' + type;
+            EventIdRange range = eventIdRanges.get(key);
+
+            if (range == null || !range.holds(eventId) && range.isExpired()) {
+                range = loadEventIdRange(source, type);
+                eventIdRanges.put(key, range);
+            }
+            return range.holds(eventId);
+        }
+
+        /**
+         * Extends the loaded event ID range of a stored event's source and type to its event ID.
+         *
+         * @param metadata the metadata of the stored event
+         */
+        void recordStored(final Document metadata) {
+            final Number eventId = metadata.get("id", Number.class);
+            if (eventId != null) {
+                eventIdRanges.computeIfPresent(metadata.getString("source") + '\n' + metadata.getString("type"),
+                        (key, range) -> range.including(eventId.longValue()));
+            }
+        }
+
+        private EventIdRange loadEventIdRange(final String source, final String type) {
+
+            // Read through the type, source and event ID index
+            final Bson filter = Filters.and(Filters.eq(TYPE, type), Filters.eq(SOURCE, source));
+            long min = Long.MAX_VALUE;
+            long max = Long.MIN_VALUE;
+
+            for (MongoCollection<Document> catalog : List.of(inlineCollection, filesCollection)) {
+                for (Bson sort : List.of(Sorts.ascending(EVENT_ID), Sorts.descending(EVENT_ID))) {
+                    final Document entry = catalog.find(filter).sort(sort).projection(Projections.include(EVENT_ID)).first();
+                    final Number eventId = entry != null ? entry.get("metadata", Document.class).get("id", Number.class) : null;
+                    if (eventId != null) {
+                        min = Math.min(min, eventId.longValue());
+                        max = Math.max(max, eventId.longValue());
+                    }
+                }
+            }
+
+            return new EventIdRange(min, max, isClosed() ? Long.MAX_VALUE : System.currentTimeMillis() + OPEN_RANGE_MILLIS);
+        }
+
+        /**
+         * @return true if the partition is no longer written to, the default bucket of a partitioned store or the
+         * partition of a period that ended long enough ago for the events accepted during it to have been written
+         */
+        private boolean isClosed() {
+            if (partitioning == EventPartitioning.NONE) {
+                return false;
+            }
+            final String period = getPeriod(name);
+            return period == null || partitioning.endOf(period).plus(CLOSE_DELAY).isBefore(Instant.now());
+        }
+
+        /**
+         * @return true if a catalog collection is one of the partition's
+         */
+        private boolean isCatalog(final MongoCollection<Document> catalog) {
+            return catalog == readInlineCollection || catalog == readFilesCollection
+                    || catalog == inlineCollection || catalog == filesCollection;
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Partition)) {
+                return false;
+            }
+            final Partition partition = (Partition) o;
+            return shard == partition.shard && name.equals(partition.name);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * shard.index + name.hashCode();
+        }
+    }
+}
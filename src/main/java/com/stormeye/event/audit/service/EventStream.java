@@ -1,23 +1,42 @@
 package com.stormeye.event.audit.service;
 
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 
 /**
- * An input stream for a JSON event that also contains the size of the event in bytes
+ * An input stream for a JSON event that also contains the size of the event in bytes. If the event was stored encoded
+ * the stream is of the encoded bytes, {@link #decode()} obtains a stream of the JSON.
+ * <p>
+ * Bulk reads, transfers and closing are forwarded to the delegate stream so that a GridFS download stream is read a
+ * chunk at a time and its cursor is released once the event has been read.
  *
  * @author ian@meywood.com
  */
 public class EventStream extends InputStream {
 
+    /** The largest buffer an event is transferred with, the size of a default GridFS chunk */
+    private static final int MAX_TRANSFER_BUFFER = 255 * 1024;
+
     /** The steam being delegated to */
     private final InputStream inputStream;
     /** The size of the data being read from the stream */
     private final long size;
+    /** The codec the data being read from the stream is encoded with */
+    private final EventCodec codec;
+    /** The size of the event's JSON once decoded */
+    private final long decodedSize;
 
     public EventStream(final InputStream inputStream, final long size) {
+        this(inputStream, size, EventCodec.NONE, size);
+    }
+
+    public EventStream(final InputStream inputStream, final long size, final EventCodec codec, final long decodedSize) {
         this.inputStream = inputStream;
         this.size = size;
+        this.codec = codec;
+        this.decodedSize = decodedSize;
     }
 
     @Override
@@ -25,7 +44,95 @@ public class EventStream extends InputStream {
         return inputStream.read();
     }
 
+    @Override
+    public int read(final byte[] bytes, final int offset, final int length) throws IOException {
+        return inputStream.read(bytes, offset, length);
+    }
+
+    @Override
+    public long skip(final long n) throws IOException {
+        return inputStream.skip(n);
+    }
+
+    @Override
+    public int available() throws IOException {
+        return inputStream.available();
+    }
+
+    /**
+     * Writes the remainder of the stream to an output stream with a buffer sized to the event up to the size of a
+     * GridFS chunk, so each chunk of a large event is written with a single write.
+     */
+    @Override
+    public long transferTo(final OutputStream out) throws IOException {
+
+        final byte[] buffer = new byte[(int) Math.max(1, Math.min(size, MAX_TRANSFER_BUFFER))];
+        long transferred = 0;
+        int read;
+
+        while ((read = inputStream.read(buffer, 0, buffer.length)) != -1) {
+            out.write(buffer, 0, read);
+            transferred += read;
+        }
+        return transferred;
+    }
+
+    /**
+     * Writes a range of the stream's bytes to an output stream. The bytes before the range are skipped rather than
+     * read, so a GridFS download starts from the chunk that holds the first byte of the range.
+     *
+     * @param out    the stream to write the range to
+     * @param offset the offset of the range's first byte from the current position of the stream
+     * @param length the number of bytes in the range
+     * @return the number of bytes written
+     * @throws EOFException if the stream ends before the range
+     */
+    public long transferTo(final OutputStream out, final long offset, final long length) throws IOException {
+
+        skipNBytes(offset);
+
+        final byte[] buffer = new byte[(int) Math.max(1, Math.min(length, MAX_TRANSFER_BUFFER))];
+        long remaining = length;
+
+        while (remaining > 0) {
+            final int read = read(buffer, 0, (int) Math.min(buffer.length, remaining));
+            if (read == -1) {
+                throw new EOFException("Event ended " + remaining + " bytes before the end of the range");
+            }
+            out.write(buffer, 0, read);
+            remaining -= read;
+        }
+        return length;
+    }
+
+    @Override
+    public void close() throws IOException {
+        inputStream.close();
+    }
+
     public long getSize() {
         return size;
     }
+
+    /**
+     * @return the size of the event's JSON once decoded
+     */
+    public long getDecodedSize() {
+        return decodedSize;
+    }
+
+    public EventCodec getCodec() {
+        return codec;
+    }
+
+    /**
+     * @return a stream of the event's JSON, this stream if the event is not encoded
+     * @throws IOException if the decoder cannot read the stream
+     */
+    public EventStream decode() throws IOException {
+        if (codec == EventCodec.NONE) {
+            return this;
+        }
+        return new EventStream(codec.decode(this), decodedSize);
+    }
 }
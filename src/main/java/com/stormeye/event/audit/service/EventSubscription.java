@@ -0,0 +1,151 @@
+package com.stormeye.event.audit.service;
+
+import org.bson.Document;
+
+import java.util.Arrays;
+
+/**
+ * A subscription to the events published by the {@link EventBroadcaster} that match its type and source. Published
+ * events are held in a bounded ring buffer until they are polled, so a subscriber that reads slower than events are
+ * published never blocks the publisher. Once the buffer is full the subscription lags, it accepts no further events and
+ * its subscriber is expected to resume from the last event it polled.
+ * <p>
+ * The subscription calls its listener from the publishing thread when it has events or has lagged and the previous
+ * call has been followed by {@link #poll()} returning null.
+ *
+ * @author ian@meywood.com
+ */
+public class EventSubscription {
+
+    private final String type;
+    private final String source;
+    /** The ring buffer of the catalog documents, _id and metadata, of the published events */
+    private final Document[] buffer;
+    private final Runnable listener;
+    private int head;
+    private int size;
+    private boolean started;
+    private boolean signalled;
+    private boolean lagged;
+    private boolean closed;
+
+    /**
+     * @param type     the type of the events to receive, null for all types
+     * @param source   the source of the events to receive, null for all sources
+     * @param capacity the number of events that can be buffered before the subscription lags
+     * @param listener called when there are events to poll or the subscription has lagged
+     */
+    public EventSubscription(final String type, final String source, final int capacity, final Runnable listener) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("The capacity must be at least 1 but was " + capacity);
+        }
+        this.type = type;
+        this.source = source;
+        this.buffer = new Document[capacity];
+        this.listener = listener;
+    }
+
+    /**
+     * @param metadata the metadata of an event
+     * @return true if the event is of the subscription's type and source
+     */
+    boolean matches(final Document metadata) {
+        return (type == null || type.equals(metadata.getString("type")))
+                && (source == null || source.equals(metadata.getString("source")));
+    }
+
+    /**
+     * Adds an event to the buffer.
+     *
+     * @param event the catalog document of the event
+     * @return false if the subscription has been closed or has lagged as its buffer is full
+     */
+    boolean offer(final Document event) {
+
+        final boolean accepted;
+        final boolean signal;
+
+        synchronized (this) {
+            if (closed || lagged) {
+                return false;
+            }
+            accepted = size < buffer.length;
+            if (accepted) {
+                buffer[(head + size) % buffer.length] = event;
+                size++;
+            } else {
+                lagged = true;
+            }
+            signal = signal();
+        }
+
+        if (signal) {
+            listener.run();
+        }
+        return accepted;
+    }
+
+    /**
+     * Starts calling the listener. Events are buffered from creation so that none are missed while the subscriber
+     * catches up with the events published before it subscribed.
+     */
+    public void start() {
+
+        final boolean signal;
+
+        synchronized (this) {
+            started = true;
+            signal = signal();
+        }
+
+        if (signal) {
+            listener.run();
+        }
+    }
+
+    /**
+     * @return the next buffered event, or null if the buffer is empty in which case the listener is called again once
+     * there are events
+     */
+    public synchronized Document poll() {
+
+        if (size == 0) {
+            signalled = false;
+            return null;
+        }
+
+        final Document event = buffer[head];
+        buffer[head] = null;
+        head = (head + 1) % buffer.length;
+        size--;
+        return event;
+    }
+
+    /**
+     * @return true if an event was not buffered as the buffer was full
+     */
+    public synchronized boolean isLagged() {
+        return lagged;
+    }
+
+    /**
+     * Discards the buffered events, no further events are accepted.
+     */
+    public synchronized void close() {
+        closed = true;
+        size = 0;
+        Arrays.fill(buffer, null);
+    }
+
+    public synchronized boolean isClosed() {
+        return closed;
+    }
+
+    private boolean signal() {
+        if (started && !signalled && !closed && (size > 0 || lagged)) {
+            signalled = true;
+            return true;
+        }
+        return false;
+    }
+}
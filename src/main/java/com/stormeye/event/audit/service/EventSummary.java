@@ -0,0 +1,92 @@
+package com.stormeye.event.audit.service;
+
+import org.bson.Document;
+
+import java.util.Date;
+
+/**
+ * The metadata of a stored event as returned by a metadata query.
+ *
+ * @author ian@meywood.com
+ */
+public class EventSummary {
+
+    /** The internal ID of the stored event */
+    private final String id;
+    private final String type;
+    private final String dataType;
+    private final String source;
+    /** The ID of the event */
+    private final Long eventId;
+    private final String version;
+    /** The size of the event's JSON in bytes */
+    private final long bytes;
+    private final Date uploadDate;
+
+    public EventSummary(final String id,
+                        final String type,
+                        final String dataType,
+                        final String source,
+                        final Long eventId,
+                        final String version,
+                        final long bytes,
+                        final Date uploadDate) {
+        this.id = id;
+        this.type = type;
+        this.dataType = dataType;
+        this.source = source;
+        this.eventId = eventId;
+        this.version = version;
+        this.bytes = bytes;
+        this.uploadDate = uploadDate;
+    }
+
+    /**
+     * Creates a summary from a GridFS files or inline document.
+     */
+    static EventSummary fromDocument(final Document document) {
+        final Document metadata = document.get("metadata", Document.class);
+        return new EventSummary(
+                document.getObjectId("_id").toHexString(),
+                metadata.getString("type"),
+                metadata.getString("dataType"),
+                metadata.getString("source"),
+                metadata.get("id", Number.class) != null ? metadata.get("id", Number.class).longValue() : null,
+                metadata.getString("version"),
+                metadata.get("bytes", Number.class).longValue(),
+                document.getDate("uploadDate")
+        );
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public String getType() {
+        return type;
+    }
+
+    public String getDataType() {
+        return dataType;
+    }
+
+    public String getSource() {
+        return source;
+    }
+
+    public Long getEventId() {
+        return eventId;
+    }
+
+    public String getVersion() {
+        return version;
+    }
+
+    public long getBytes() {
+        return bytes;
+    }
+
+    public Date getUploadDate() {
+        return uploadDate;
+    }
+}
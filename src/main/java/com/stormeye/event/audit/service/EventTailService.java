@@ -0,0 +1,273 @@
+package com.stormeye.event.audit.service;
+
+import com.stormeye.event.audit.exception.NotFoundException;
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The service for tailing the events as they are stored. A tail subscribes to the {@link EventBroadcaster} and sends
+ * each matching event to its {@link EventSink} from a pool of sender threads, so a slow client never holds up ingest.
+ * <p>
+ * A tail that resumes after an event first sends the events stored since from the catalogs, then the events published
+ * while it was catching up, skipping those it has already sent. Each event is sent with a cursor, the highest internal
+ * ID sent so far, that a client resumes from after a disconnect. A tail that lags behind the events being published is
+ * ended, as is a tail that would resume from further back than the maximum backfill, the client resumes from its last
+ * cursor.
+ * <p>
+ * Events are ordered by their internal IDs, which are allocated when an event is accepted, so an event whose upload
+ * is still in progress when a client disconnects may be stored before the client's cursor and not be resumed.
+ *
+ * @author ian@meywood.com
+ */
+@Service
+public class EventTailService {
+
+    /**
+     * Receives the events of a tail, calls are made from one sender thread at a time.
+     */
+    public interface EventSink {
+
+        /**
+         * Sends the cursor of a tail that has started without sending an event.
+         *
+         * @param cursor the internal ID to resume the tail after
+         * @throws IOException if the cursor could not be sent
+         */
+        void checkpoint(String cursor) throws IOException;
+
+        /**
+         * Sends an event.
+         *
+         * @param cursor  the internal ID to resume the tail after
+         * @param summary the metadata of the event
+         * @param json    the event's JSON
+         * @throws IOException if the event could not be sent
+         */
+        void send(String cursor, EventSummary summary, byte[] json) throws IOException;
+
+        /**
+         * Ends a tail that the client should resume from its last cursor.
+         */
+        void complete();
+
+        /**
+         * Ends a tail that failed.
+         *
+         * @param error the cause of the failure
+         */
+        void completeWithError(Throwable error);
+    }
+
+    /** The number of events that are read from the catalogs at a time when resuming */
+    private static final int BACKFILL_PAGE = 100;
+
+    private final Logger logger = LoggerFactory.getLogger(EventTailService.class);
+    private final EventBroadcaster broadcaster;
+    private final EventQueryService eventQueryService;
+    private final EventAuditService eventAuditService;
+    private final int bufferSize;
+    private final int maxBackfill;
+    private final ExecutorService executor;
+
+    public EventTailService(final EventBroadcaster broadcaster,
+                            final EventQueryService eventQueryService,
+                            final EventAuditService eventAuditService,
+                            @Value("${event.audit.stream.buffer-size:1024}") final int bufferSize,
+                            @Value("${event.audit.stream.max-backfill:10000}") final int maxBackfill) {
+        if (maxBackfill < 1) {
+            throw new IllegalArgumentException("event.audit.stream.max-backfill must be at least 1");
+        }
+        this.broadcaster = broadcaster;
+        this.eventQueryService = eventQueryService;
+        this.eventAuditService = eventAuditService;
+        this.bufferSize = bufferSize;
+        this.maxBackfill = maxBackfill;
+        this.executor = Executors.newCachedThreadPool(new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            @Override
+            public Thread newThread(final Runnable runnable) {
+                final Thread thread = new Thread(runnable, "event-tail-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * Starts a tail of the events that are stored.
+     *
+     * @param type       the optional type/topic of the events
+     * @param source     the optional URL of the casper node that emitted the events
+     * @param resumeFrom the optional internal ID of the event to resume after, the events stored since are sent first
+     * @param sink       the sink to send the events to
+     * @return the tail, closed once its client has gone away
+     */
+    public Tail tail(final String type, final String source, final ObjectId resumeFrom, final EventSink sink) {
+
+        logger.debug("tail({}, {}, {})", type, source, resumeFrom);
+
+        final Tail tail = new Tail(type, source, resumeFrom, sink);
+
+        // Subscribe before the backfill so that no event stored while catching up is missed
+        broadcaster.subscribe(tail.subscription);
+        executor.execute(tail::backfill);
+
+        return tail;
+    }
+
+    @PreDestroy
+    public void stop() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * A tail of the events sent to a single client.
+     */
+    public final class Tail {
+
+        private final String type;
+        private final String source;
+        private final EventSink sink;
+        private final EventSubscription subscription;
+        /** The events sent while catching up that may also have been published since the tail subscribed */
+        private final Set<ObjectId> backfilled = new HashSet<>();
+        private final AtomicBoolean closed = new AtomicBoolean();
+        /** The highest internal ID that has been sent */
+        private ObjectId cursor;
+
+        private Tail(final String type, final String source, final ObjectId resumeFrom, final EventSink sink) {
+            this.type = type;
+            this.source = source;
+            this.sink = sink;
+            this.cursor = resumeFrom;
+            this.subscription = new EventSubscription(type, source, bufferSize, () -> executor.execute(this::deliver));
+        }
+
+        /**
+         * Stops the tail, the events it has buffered are discarded.
+         */
+        public void close() {
+            unsubscribe();
+        }
+
+        public boolean isClosed() {
+            return closed.get();
+        }
+
+        /**
+         * Sends the events stored after the cursor and then starts sending the published events.
+         */
+        private void backfill() {
+            try {
+                if (cursor == null) {
+                    // Nothing was stored after an event that has not been accepted yet
+                    cursor = new ObjectId();
+                    sink.checkpoint(cursor.toHexString());
+                } else {
+                    int count = 0;
+                    while (!closed.get()) {
+                        final int limit = Math.min(BACKFILL_PAGE, maxBackfill - count);
+                        final List<EventSummary> page = eventQueryService.findAfter(cursor, type, source, limit);
+                        for (EventSummary summary : page) {
+                            if (send(summary)) {
+                                backfilled.add(new ObjectId(summary.getId()));
+                            }
+                        }
+                        count += page.size();
+                        if (page.size() < limit) {
+                            break;
+                        } else if (count >= maxBackfill) {
+                            logger.debug("Ending tail after backfilling {} events", count);
+                            end();
+                            return;
+                        }
+                    }
+                }
+                subscription.start();
+            } catch (IOException | RuntimeException e) {
+                fail(e);
+            }
+        }
+
+        /**
+         * Sends the events that have been published, ending the tail once it has sent all of them if it has lagged.
+         */
+        private void deliver() {
+            try {
+                Document event;
+                while (!closed.get() && (event = subscription.poll()) != null) {
+                    final EventSummary summary = EventSummary.fromDocument(event);
+                    if (!backfilled.remove(event.getObjectId("_id"))) {
+                        send(summary);
+                    }
+                }
+                if (subscription.isLagged()) {
+                    logger.debug("Ending tail that lagged at {}", cursor);
+                    end();
+                }
+            } catch (IOException | RuntimeException e) {
+                fail(e);
+            }
+        }
+
+        private boolean send(final EventSummary summary) throws IOException {
+
+            final byte[] json;
+            try (EventStream eventStream = eventAuditService.getEventById(summary.getId()).decode()) {
+                json = eventStream.readAllBytes();
+            } catch (NotFoundException e) {
+                logger.warn("Unable to tail event {}, it was not found", summary.getId());
+                return false;
+            }
+
+            final ObjectId objectId = new ObjectId(summary.getId());
+            if (objectId.compareTo(cursor) > 0) {
+                cursor = objectId;
+            }
+
+            sink.send(cursor.toHexString(), summary, json);
+            return true;
+        }
+
+        private void end() {
+            if (unsubscribe()) {
+                sink.complete();
+            }
+        }
+
+        private void fail(final Exception e) {
+            if (unsubscribe()) {
+                logger.debug("Tail failed at {}", cursor, e);
+                sink.completeWithError(e);
+            }
+        }
+
+        /**
+         * @return true if the tail was stopped by this call
+         */
+        private boolean unsubscribe() {
+            if (closed.compareAndSet(false, true)) {
+                broadcaster.unsubscribe(subscription);
+                subscription.close();
+                return true;
+            }
+            return false;
+        }
+    }
+}
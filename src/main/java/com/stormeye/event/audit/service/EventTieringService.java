@@ -0,0 +1,203 @@
+package com.stormeye.event.audit.service;
+
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoCursor;
+import com.mongodb.client.model.Sorts;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.bson.Document;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Moves the partitions of the {@link EventStore} whose events are older than the tiering age to the
+ * {@link EventSegmentStore}, so that only recent events are held in mongo. A partition is written to its segments in
+ * internal ID order and then dropped, the events of a partition are read from mongo until its segments are complete
+ * and from the segments after. Enabled by setting <code>event.audit.tiering.directory</code> and
+ * <code>event.audit.tiering.after</code>, which require <code>event.audit.storage.partition</code>. An instance that
+ * only sets the directory reads the segments written by other instances.
+ * <p>
+ * Events moved to segments are still read by their internal ID and found by their event ID, replays of them are
+ * still detected as duplicates. They are no longer found by queries, exports or by their block and deploy hashes.
+ * Another instance sharing the directory finds the new segments when it next misses an event in its segments, see
+ * {@link EventSegmentStore}, so it does not wait for its own tiering interval to read the events of a dropped
+ * partition.
+ *
+ * @author ian@meywood.com
+ */
+@Service
+public class EventTieringService {
+
+    /** The number of catalog documents read from a cursor at a time, inline documents include their data */
+    private static final int BATCH_SIZE = 1000;
+    /** The number of GridFS chunks read at a time */
+    private static final int CHUNK_BATCH_SIZE = 32;
+
+    private final Logger logger = LoggerFactory.getLogger(EventTieringService.class);
+    private final EventStore eventStore;
+    private final EventSegmentStore segmentStore;
+    private final Duration after;
+    private final Duration interval;
+    private final Counter tieredEvents;
+    private final Counter tieredPartitions;
+    private ScheduledExecutorService executor;
+
+    public EventTieringService(final EventStore eventStore,
+                               final EventSegmentStore segmentStore,
+                               final MeterRegistry meterRegistry,
+                               @Value("${event.audit.tiering.after:0s}") final Duration after,
+                               @Value("${event.audit.tiering.interval:1h}") final Duration interval) {
+        this.eventStore = eventStore;
+        this.segmentStore = segmentStore;
+        this.after = after;
+        this.interval = interval;
+        this.tieredEvents = meterRegistry.counter("event.audit.tiering.events");
+        this.tieredPartitions = meterRegistry.counter("event.audit.tiering.partitions");
+
+        if (isTiering() && (!segmentStore.isEnabled() || eventStore.getPartitioning() == EventPartitioning.NONE)) {
+            throw new IllegalArgumentException("event.audit.tiering.after requires event.audit.tiering.directory and event.audit.storage.partition");
+        }
+    }
+
+    @PostConstruct
+    public void start() {
+        if (segmentStore.isEnabled()) {
+            if (isTiering()) {
+                logger.info("Moving events older than {} to segments", after);
+            }
+            executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                final Thread thread = new Thread(runnable, "event-tiering");
+                thread.setDaemon(true);
+                return thread;
+            });
+            executor.scheduleWithFixedDelay(this::run, interval.toMillis(), interval.toMillis(), TimeUnit.MILLISECONDS);
+        }
+    }
+
+    @PreDestroy
+    public void stop() {
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Maps the segments written by other instances and moves the partitions older than the tiering age to segments.
+     *
+     * @return the periods of the partitions that were moved
+     * @throws IOException if a segment could not be written
+     */
+    public List<String> enforce() throws IOException {
+
+        segmentStore.refresh();
+
+        final List<String> tiered = new ArrayList<>();
+        if (!isTiering()) {
+            return tiered;
+        }
+
+        eventStore.refreshPartitions();
+
+        final Instant now = Instant.now();
+        final String current = eventStore.getPartitioning().periodOf(now);
+
+        for (String period : new ArrayList<>(eventStore.getPeriods())) {
+            if (period.compareTo(current) >= 0 || eventStore.getPartitioning().endOf(period).isAfter(now.minus(after))) {
+                break;
+            }
+            final long count = moveToSegments(period);
+            logger.info("Moved {} events of {} to segments", count, period);
+            eventStore.dropPartition(period);
+            tieredEvents.increment(count);
+            tieredPartitions.increment();
+            tiered.add(period);
+        }
+
+        return tiered;
+    }
+
+    /**
+     * Writes the events of a partition to its segments by merging its catalogs in internal ID order.
+     *
+     * @return the number of events written
+     */
+    private long moveToSegments(final String period) throws IOException {
+
+        final List<MongoCollection<Document>> catalogs = eventStore.getCatalogs(period);
+        final List<MongoCursor<Document>> cursors = new ArrayList<>();
+        long count = 0;
+
+        try (EventSegmentStore.SegmentWriter writer = segmentStore.openWriter(eventStore.getPartitionName(period))) {
+
+            for (MongoCollection<Document> catalog : catalogs) {
+                cursors.add(catalog.find().sort(Sorts.ascending("_id")).batchSize(BATCH_SIZE).cursor());
+            }
+
+            final Document[] heads = new Document[cursors.size()];
+            for (int i = 0; i < heads.length; i++) {
+                heads[i] = next(cursors.get(i));
+            }
+
+            int current;
+            while ((current = first(heads)) != -1) {
+                final Document head = heads[current];
+                // Only the filename of an event whose metadata was never parsed is pending, it is not moved
+                if (!EventStore.PENDING_FILENAME.equals(head.getString("filename"))) {
+                    try (EventStream eventStream = eventStore.open(catalogs.get(current), head, CHUNK_BATCH_SIZE)) {
+                        writer.append(head.getObjectId("_id"), head.get("metadata", Document.class), eventStream.readAllBytes());
+                    }
+                    count++;
+                }
+                heads[current] = next(cursors.get(current));
+            }
+
+            writer.complete();
+        } finally {
+            cursors.forEach(MongoCursor::close);
+        }
+
+        return count;
+    }
+
+    private static Document next(final MongoCursor<Document> cursor) {
+        return cursor.hasNext() ? cursor.next() : null;
+    }
+
+    /**
+     * @return the index of the head document with the lowest internal ID, -1 if all the cursors are exhausted
+     */
+    private static int first(final Document[] heads) {
+        int first = -1;
+        for (int i = 0; i < heads.length; i++) {
+            if (heads[i] != null && (first == -1 || heads[i].getObjectId("_id").compareTo(heads[first].getObjectId("_id")) < 0)) {
+                first = i;
+            }
+        }
+        return first;
+    }
+
+    private void run() {
+        try {
+            enforce();
+        } catch (IOException | RuntimeException e) {
+            logger.error("Unable to move events to segments", e);
+        }
+    }
+
+    private boolean isTiering() {
+        return after.toMillis() > 0;
+    }
+}
@@ -0,0 +1,52 @@
+package com.stormeye.event.audit.service;
+
+import org.bson.Document;
+import org.bson.types.ObjectId;
+
+/**
+ * An event that has been accepted and parsed but not yet written to the {@link EventStore}.
+ *
+ * @author ian@meywood.com
+ */
+class PendingEvent {
+
+    /** The internal ID that was allocated to the event when it was accepted */
+    private final ObjectId objectId;
+    private final String filename;
+    private final Document metadata;
+    /** The event's JSON */
+    private final byte[] data;
+    /** The journal segment the event was written to, null if not journaled */
+    private WriteBehindJournal.Segment segment;
+
+    PendingEvent(final ObjectId objectId, final String filename, final Document metadata, final byte[] data) {
+        this.objectId = objectId;
+        this.filename = filename;
+        this.metadata = metadata;
+        this.data = data;
+    }
+
+    ObjectId getObjectId() {
+        return objectId;
+    }
+
+    String getFilename() {
+        return filename;
+    }
+
+    Document getMetadata() {
+        return metadata;
+    }
+
+    byte[] getData() {
+        return data;
+    }
+
+    WriteBehindJournal.Segment getSegment() {
+        return segment;
+    }
+
+    void setSegment(final WriteBehindJournal.Segment segment) {
+        this.segment = segment;
+    }
+}
@@ -0,0 +1,383 @@
+package com.stormeye.event.audit.service;
+
+import com.mongodb.ErrorCategory;
+import com.mongodb.MongoWriteException;
+import com.mongodb.client.gridfs.model.GridFSFile;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.Updates;
+import com.mongodb.reactivestreams.client.MongoCollection;
+import com.stormeye.event.audit.exception.NotFoundException;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import org.bson.types.Binary;
+import org.bson.types.ObjectId;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+import org.springframework.data.mongodb.ReactiveMongoDatabaseFactory;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.gridfs.ReactiveGridFsOperations;
+import org.springframework.data.mongodb.gridfs.ReactiveGridFsUpload;
+import org.springframework.stereotype.Service;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.SynchronousSink;
+import reactor.core.scheduler.Schedulers;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.util.List;
+import java.util.Optional;
+import java.util.function.Function;
+
+/**
+ * The non-blocking counterpart of the {@link EventAuditService} used when the service runs on WebFlux. Events are
+ * stored with the same layout, codec and metadata as the {@link EventStore} so that either service can read the events
+ * stored by the other.
+ * <p>
+ * An event is encoded and its metadata parsed as its buffers arrive. An event smaller than the inline threshold is
+ * collected and inserted into the inline collection, a larger event is streamed to GridFS through the
+ * {@link ReactiveGridFsOperations} as it is read. Events are always written as they are saved, write behind only
+ * applies to the blocking service, as does partitioning the store.
+ *
+ * @author ian@meywood.com
+ */
+@Service
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.REACTIVE)
+public class ReactiveEventAuditService {
+
+    private static final String NOT_FOUND_MESSAGE = "Unable to find event with id ";
+    private static final String SOURCE = "metadata.source";
+    private static final String EVENT_ID = "metadata.id";
+    private static final String TYPE = "metadata.type";
+
+    private final Logger logger = LoggerFactory.getLogger(ReactiveEventAuditService.class);
+    private final EventStore eventStore;
+    private final ReactiveMongoDatabaseFactory databaseFactory;
+    private final ReactiveGridFsOperations gridFsOperations;
+    private final EventDeduplicator deduplicator;
+    private final EventCache eventCache;
+    private final EventMetrics eventMetrics;
+    private final EventFields eventFields;
+    private final EventStatistics eventStatistics;
+
+    public ReactiveEventAuditService(final EventStore eventStore,
+                                     final ReactiveMongoDatabaseFactory databaseFactory,
+                                     final ReactiveGridFsOperations gridFsOperations,
+                                     final EventDeduplicator deduplicator,
+                                     final EventCache eventCache,
+                                     final EventMetrics eventMetrics,
+                                     final EventFields eventFields,
+                                     final EventStatistics eventStatistics) {
+        if (eventStore.getPartitioning() != EventPartitioning.NONE) {
+            throw new IllegalStateException("event.audit.storage.partition is not supported by the reactive service");
+        }
+        if (eventStore.isSharded()) {
+            throw new IllegalStateException("event.audit.mongo.sharding is not supported by the reactive service");
+        }
+        this.eventStore = eventStore;
+        this.databaseFactory = databaseFactory;
+        this.gridFsOperations = gridFsOperations;
+        this.deduplicator = deduplicator;
+        this.eventCache = eventCache;
+        this.eventMetrics = eventMetrics;
+        this.eventFields = eventFields;
+        this.eventStatistics = eventStatistics;
+    }
+
+    /**
+     * Saves an event as JSON from the buffers of a request body, each buffer is released once it has been encoded and
+     * parsed.
+     *
+     * @param content the buffers of the event's JSON
+     * @return the ID of the stored event, or the ID of the stored copy if deduplication is enabled and the event is
+     * already stored. Errors with a {@link com.stormeye.event.audit.exception.DuplicateEventException} if the event is
+     * already stored and is not deduplicated, or an {@link IOException} if the event is not valid.
+     */
+    public Mono<String> saveEvent(final Flux<DataBuffer> content) {
+
+        return Mono.defer(() -> {
+
+            final long start = System.nanoTime();
+            final ObjectId objectId = new ObjectId();
+            final EventEncoder encoder = new EventEncoder(eventStore.getCodec(), deduplicator.newDigest(), eventStore.getInlineThreshold(), eventFields);
+
+            return content.<byte[]>handle(encoder::encode)
+                    .concatWith(Mono.fromCallable(encoder::finish).filter(bytes -> bytes.length > 0))
+                    .bufferUntil(encoder::reachedInlineThreshold)
+                    .switchOnFirst((first, groups) -> {
+                        final Flux<byte[]> encoded = groups.concatMapIterable(Function.identity());
+                        if (first.hasValue() && sizeOf(first.get()) >= eventStore.getInlineThreshold()) {
+                            return upload(objectId, encoded).thenReturn(Optional.<byte[]>empty());
+                        }
+                        return encoded.collect(ByteArrayOutputStream::new, ByteArrayOutputStream::writeBytes)
+                                .map(out -> Optional.of(out.toByteArray()));
+                    })
+                    .next()
+                    .flatMap(inline -> complete(objectId, encoder, inline))
+                    .map(ObjectId::toHexString)
+                    .doFinally(signal -> eventMetrics.recordSave(System.nanoTime() - start));
+        });
+    }
+
+    /**
+     * Obtains an event whether it is stored inline or in GridFS. Events are read from the {@link EventCache} and inline
+     * events are cached once read.
+     *
+     * @param id the internal ID of the event to obtain
+     * @return the event as stored, {@link ReactiveEventStream#decode()} obtains its JSON. Errors with a
+     * {@link NotFoundException} if the event does not exist.
+     */
+    public Mono<ReactiveEventStream> getEventById(final String id) {
+
+        logger.debug("reading event {}", id);
+
+        if (!ObjectId.isValid(id)) {
+            return Mono.error(new NotFoundException(NOT_FOUND_MESSAGE + id));
+        }
+
+        final ObjectId objectId = new ObjectId(id);
+        final long start = System.nanoTime();
+
+        final Optional<EventStream> cached = eventCache.get(objectId);
+        if (cached.isPresent()) {
+            eventMetrics.recordRead(EventMetrics.ReadSource.CACHE, System.nanoTime() - start);
+            final ByteBufferEventStream eventStream = (ByteBufferEventStream) cached.get();
+            return Mono.just(new ReactiveEventStream(
+                    Flux.just(DefaultDataBufferFactory.sharedInstance.wrap(eventStream.getBuffer())),
+                    eventStream.getSize(),
+                    eventStream.getCodec(),
+                    eventStream.getDecodedSize()
+            ));
+        }
+
+        final Bson filter = Filters.eq("_id", objectId);
+
+        return collection(eventStore.getInlineCollection())
+                .flatMap(inlineCollection -> Mono.from(inlineCollection.find(filter).first()))
+                .map(inline -> {
+                    final byte[] data = inline.get("data", Binary.class).getData();
+                    final ReactiveEventStream eventStream = inlineStream(inline);
+                    eventCache.put(objectId, data, eventStream.getCodec(), eventStream.getDecodedSize());
+                    return eventStream;
+                })
+                .switchIfEmpty(Mono.defer(() -> gridFsOperations.findFirst(Query.query(Criteria.where("_id").is(objectId)))
+                        .map(this::gridFsStream)))
+                .switchIfEmpty(Mono.error(() -> new NotFoundException(NOT_FOUND_MESSAGE + id)))
+                .doOnNext(eventStream -> eventMetrics.recordRead(EventMetrics.ReadSource.STORE, System.nanoTime() - start));
+    }
+
+    /**
+     * Obtains an event using the URL of the node that emitted it and its event ID.
+     *
+     * @param source  the URL of the casper node that emitted the event
+     * @param type    the optional type/topic of the event, main, deploys or sigs
+     * @param eventId the ID of the event
+     * @return the event as stored, errors with a {@link NotFoundException} if the event does not exist
+     */
+    public Mono<ReactiveEventStream> getEventByEventId(final String source, final String type, final long eventId) {
+
+        logger.debug("reading event {} from {} of type {}", eventId, source, type);
+
+        final Bson filter = type != null
+                ? Filters.and(Filters.eq(SOURCE, source), Filters.eq(EVENT_ID, eventId), Filters.eq(TYPE, type))
+                : Filters.and(Filters.eq(SOURCE, source), Filters.eq(EVENT_ID, eventId));
+
+        final Criteria criteria = Criteria.where(SOURCE).is(source).and(EVENT_ID).is(eventId);
+        if (type != null) {
+            criteria.and(TYPE).is(type);
+        }
+
+        return collection(eventStore.getInlineCollection())
+                .flatMap(inlineCollection -> Mono.from(inlineCollection.find(filter).first()))
+                .map(this::inlineStream)
+                .switchIfEmpty(Mono.defer(() -> gridFsOperations.findFirst(Query.query(criteria)).map(this::gridFsStream)))
+                .switchIfEmpty(Mono.error(() -> new NotFoundException(
+                        NOT_FOUND_MESSAGE + eventId + " from " + source + (type != null ? " of type " + type : "")
+                )));
+    }
+
+    /**
+     * Stores an event once all of its bytes have been read, either by inserting its inline document or by setting the
+     * filename and metadata of its GridFS file.
+     */
+    private Mono<ObjectId> complete(final ObjectId objectId, final EventEncoder encoder, final Optional<byte[]> inline) {
+
+        final Document metadata;
+        try {
+            metadata = EventAuditService.buildMetadata(encoder.complete(), encoder.getLength(), encoder.getDigest());
+        } catch (IOException e) {
+            return discard(objectId, inline).then(Mono.error(e));
+        }
+
+        final Optional<ObjectId> recent = deduplicator.findRecent(metadata);
+        if (recent.isPresent()) {
+            logger.debug("Event {} from {} was recently saved as {}", metadata.get("id"), metadata.get("source"), recent.get());
+            return discard(objectId, inline).thenReturn(recent.get());
+        }
+
+        final String filename = EventAuditService.buildFilename(metadata);
+        final Document storedMetadata = EventStore.encodedMetadata(metadata, eventStore.getCodec());
+
+        logger.debug("Saving event as : {}", filename);
+
+        // A GridFS file whose metadata could not be set for any reason is deleted rather than left pending
+        final Mono<?> write = inline.isPresent()
+                ? collection(eventStore.getInlineCollection()).flatMap(inlineCollection -> Mono.from(inlineCollection.insertOne(
+                        EventStore.inlineDocument(objectId, filename, storedMetadata, inline.get())
+                )))
+                : collection(eventStore.getFilesCollection()).flatMap(filesCollection -> Mono.from(filesCollection.updateOne(
+                        Filters.eq("_id", objectId),
+                        Updates.combine(Updates.set("filename", filename), Updates.set("metadata", storedMetadata))
+                ))).onErrorResume(e -> discard(objectId, inline).onErrorResume(d -> Mono.empty()).then(Mono.error(e)));
+
+        return write.thenReturn(objectId)
+                .doOnNext(stored -> {
+                    eventMetrics.recordSize(metadata);
+                    eventStatistics.record(metadata);
+                })
+                .onErrorResume(ReactiveEventAuditService::isDuplicate, e -> Mono.fromCallable(() -> deduplicator.findStored(metadata))
+                        // The stored copy is looked up with the blocking event store
+                        .subscribeOn(Schedulers.boundedElastic())
+                        .flatMap(Mono::justOrEmpty)
+                        .switchIfEmpty(Mono.error(() -> EventStore.duplicateEvent(metadata))))
+                .doOnNext(stored -> deduplicator.remember(metadata, stored));
+    }
+
+    private Mono<Void> upload(final ObjectId objectId, final Flux<byte[]> encoded) {
+        return gridFsOperations.store(ReactiveGridFsUpload.fromPublisher(encoded.map(DefaultDataBufferFactory.sharedInstance::wrap))
+                .id(objectId)
+                .filename(EventStore.PENDING_FILENAME)
+                .build()
+        ).then();
+    }
+
+    /**
+     * Deletes the GridFS file of an event that is not stored, an inline event has not been written.
+     */
+    private Mono<Void> discard(final ObjectId objectId, final Optional<byte[]> inline) {
+        return inline.isPresent() ? Mono.empty() : gridFsOperations.delete(Query.query(Criteria.where("_id").is(objectId)));
+    }
+
+    private Mono<MongoCollection<Document>> collection(final com.mongodb.client.MongoCollection<Document> collection) {
+        return databaseFactory.getMongoDatabase().map(database -> database.getCollection(collection.getNamespace().getCollectionName()));
+    }
+
+    private ReactiveEventStream inlineStream(final Document inline) {
+        final byte[] data = inline.get("data", Binary.class).getData();
+        return eventStream(Flux.just(DefaultDataBufferFactory.sharedInstance.wrap(data)), data.length, inline.get("metadata", Document.class));
+    }
+
+    private ReactiveEventStream gridFsStream(final GridFSFile gridFsFile) {
+        final Flux<DataBuffer> content = gridFsOperations.getResource(gridFsFile).flatMapMany(resource -> resource.getDownloadStream());
+        return eventStream(content, gridFsFile.getLength(), gridFsFile.getMetadata());
+    }
+
+    private ReactiveEventStream eventStream(final Flux<DataBuffer> content, final long length, final Document metadata) {
+        final EventCodec codec = EventCodec.fromMetadata(metadata);
+        final Number bytes = metadata != null ? metadata.get("bytes", Number.class) : null;
+        return new ReactiveEventStream(content, length, codec, bytes != null ? bytes.longValue() : length);
+    }
+
+    private static boolean isDuplicate(final Throwable e) {
+        return e instanceof MongoWriteException && ((MongoWriteException) e).getError().getCategory() == ErrorCategory.DUPLICATE_KEY;
+    }
+
+    private static int sizeOf(final List<byte[]> group) {
+        int size = 0;
+        for (byte[] bytes : group) {
+            size += bytes.length;
+        }
+        return size;
+    }
+
+    /**
+     * Parses, digests and encodes the buffers of a single event as they arrive.
+     */
+    private static class EventEncoder {
+
+        private final EventInfoParser parser;
+        private final EventCodec codec;
+        private final ByteArrayOutputStream encoded = new ByteArrayOutputStream();
+        private final OutputStream encoder;
+        private final MessageDigest digest;
+        private final int inlineThreshold;
+        /** The number of bytes of the event's JSON */
+        private long length;
+        /** The number of encoded bytes seen by the inline threshold test */
+        private long encodedLength;
+
+        private EventEncoder(final EventCodec codec, final MessageDigest digest, final int inlineThreshold, final EventFields fields) {
+            this.parser = new EventInfoParser(fields);
+            this.codec = codec;
+            try {
+                this.encoder = codec.encode(encoded);
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+            this.digest = digest;
+            this.inlineThreshold = inlineThreshold;
+        }
+
+        /**
+         * Consumes a buffer of the request body, emitting any encoded bytes and releasing the buffer.
+         */
+        private void encode(final DataBuffer buffer, final SynchronousSink<byte[]> sink) {
+            try {
+                final byte[] bytes = new byte[buffer.readableByteCount()];
+                buffer.read(bytes);
+                parser.feed(bytes, 0, bytes.length);
+                if (digest != null) {
+                    digest.update(bytes);
+                }
+                length += bytes.length;
+                if (codec == EventCodec.NONE) {
+                    sink.next(bytes);
+                    return;
+                }
+                encoder.write(bytes);
+                if (encoded.size() > 0) {
+                    sink.next(encoded.toByteArray());
+                    encoded.reset();
+                }
+            } catch (IOException e) {
+                sink.error(e);
+            } finally {
+                DataBufferUtils.release(buffer);
+            }
+        }
+
+        /**
+         * Completes the encoding.
+         *
+         * @return the remaining encoded bytes
+         */
+        private byte[] finish() throws IOException {
+            encoder.close();
+            return encoded.toByteArray();
+        }
+
+        private boolean reachedInlineThreshold(final byte[] bytes) {
+            encodedLength += bytes.length;
+            return encodedLength >= inlineThreshold;
+        }
+
+        private EventInfo complete() throws IOException {
+            return parser.complete();
+        }
+
+        private long getLength() {
+            return length;
+        }
+
+        private MessageDigest getDigest() {
+            return digest;
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package com.stormeye.event.audit.service;
+
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+import reactor.core.publisher.Flux;
+
+/**
+ * The reactive counterpart of an {@link EventStream}, the stored bytes of an event published as data buffers along with
+ * their size and codec.
+ *
+ * @author ian@meywood.com
+ */
+public class ReactiveEventStream {
+
+    private static final int BUFFER_SIZE = 8192;
+
+    /** The stored bytes of the event, the buffers must be released by the subscriber */
+    private final Flux<DataBuffer> content;
+    /** The number of stored bytes */
+    private final long size;
+    private final EventCodec codec;
+    /** The size of the event's JSON in bytes */
+    private final long decodedSize;
+
+    public ReactiveEventStream(final Flux<DataBuffer> content, final long size, final EventCodec codec, final long decodedSize) {
+        this.content = content;
+        this.size = size;
+        this.codec = codec;
+        this.decodedSize = decodedSize;
+    }
+
+    public Flux<DataBuffer> getContent() {
+        return content;
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    public EventCodec getCodec() {
+        return codec;
+    }
+
+    public long getDecodedSize() {
+        return decodedSize;
+    }
+
+    /**
+     * Obtains the event's JSON. The stored bytes of an encoded event are joined before they are decoded, so only the
+     * encoded form of the event is held in memory while its JSON is published.
+     *
+     * @return this if the event is not encoded, otherwise a stream of the decoded bytes
+     */
+    public ReactiveEventStream decode() {
+
+        if (codec == EventCodec.NONE) {
+            return this;
+        }
+
+        final Flux<DataBuffer> decoded = DataBufferUtils.join(content).flatMapMany(joined -> DataBufferUtils.readInputStream(
+                () -> codec.decode(joined.asInputStream(true)),
+                DefaultDataBufferFactory.sharedInstance,
+                BUFFER_SIZE
+        ));
+
+        return new ReactiveEventStream(decoded, decodedSize, EventCodec.NONE, decodedSize);
+    }
+}
@@ -0,0 +1,37 @@
+package com.stormeye.event.audit.service;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Writes an event's JSON as a single line, as in newline delimited JSON. Line breaks can only occur between the tokens
+ * of JSON, so they are replaced with spaces.
+ *
+ * @author ian@meywood.com
+ */
+public class SingleLineOutputStream extends FilterOutputStream {
+
+    public SingleLineOutputStream(final OutputStream out) {
+        super(out);
+    }
+
+    @Override
+    public void write(final int b) throws IOException {
+        out.write(b == '\n' || b == '\r' ? ' ' : b);
+    }
+
+    @Override
+    public void write(final byte[] bytes, final int offset, final int length) throws IOException {
+        int start = offset;
+        final int end = offset + length;
+        for (int i = offset; i < end; i++) {
+            if (bytes[i] == '\n' || bytes[i] == '\r') {
+                out.write(bytes, start, i - start);
+                out.write(' ');
+                start = i + 1;
+            }
+        }
+        out.write(bytes, start, end - start);
+    }
+}
@@ -0,0 +1,353 @@
+package com.stormeye.event.audit.service;
+
+import org.bson.BsonBinaryWriter;
+import org.bson.Document;
+import org.bson.RawBsonDocument;
+import org.bson.codecs.DecoderContext;
+import org.bson.codecs.DocumentCodec;
+import org.bson.codecs.EncoderContext;
+import org.bson.io.BasicOutputBuffer;
+import org.bson.types.Binary;
+import org.bson.types.ObjectId;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ * An append only journal of the events accepted by the {@link WriteBehindQueue} so that events that have not been
+ * written to the {@link EventStore} when the service stops are not lost.
+ * <p>
+ * The journal is split into segment files. A segment is deleted once it has been rotated out and all of its events
+ * have been written to the store. On startup the events of any remaining segments are replayed, as each event keeps
+ * the internal ID it was accepted with an event that was already written is not stored twice.
+ * <p>
+ * Each record is the length of the event's BSON document, a CRC32 of the document and the document itself. A record
+ * that is incomplete or fails its checksum ends the replay of its segment.
+ * <p>
+ * If records are synced they are forced to the storage device with a group commit. Records are appended under the
+ * journal's lock but forced outside of it, one appender forces all the records appended up to then while the others
+ * append and wait for the force that covers their own record, so concurrent appends share a force rather than each
+ * waiting for its own.
+ *
+ * @author ian@meywood.com
+ */
+class WriteBehindJournal implements Closeable {
+
+    private static final String SEGMENT_PREFIX = "segment-";
+    private static final String SEGMENT_SUFFIX = ".journal";
+    private static final DocumentCodec CODEC = new DocumentCodec();
+
+    private final Logger logger = LoggerFactory.getLogger(WriteBehindJournal.class);
+    private final Path directory;
+    private final long segmentBytes;
+    /** If true each record is forced to the storage device before it is acknowledged */
+    private final boolean sync;
+    /** Guards the segments, held while records are appended but not while they are forced */
+    private final ReentrantLock lock = new ReentrantLock();
+    /** Signalled when a force completes */
+    private final Condition forceCompleted = lock.newCondition();
+    private long nextSequence;
+    private Segment active;
+    /** The number of records appended */
+    private long appended;
+    /** The number of the records appended that have been forced to the storage device */
+    private long forced;
+    /** True while an appender is forcing the active segment */
+    private boolean forcing;
+
+    WriteBehindJournal(final Path directory, final long segmentBytes, final boolean sync) throws IOException {
+        this.directory = directory;
+        this.segmentBytes = segmentBytes;
+        this.sync = sync;
+        Files.createDirectories(directory);
+    }
+
+    /**
+     * Reads the events of all existing segments, each returned event holds a reference to its segment which is
+     * deleted once all of its events have been released.
+     *
+     * @return the journaled events in the order they were accepted
+     * @throws IOException if a segment cannot be read
+     */
+    List<PendingEvent> replay() throws IOException {
+        lock.lock();
+        try {
+            return replaySegments();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private List<PendingEvent> replaySegments() throws IOException {
+
+        final List<PendingEvent> events = new ArrayList<>();
+
+        for (Path path : listSegments()) {
+
+            final Segment segment = new Segment(path, null);
+            segment.sealed = true;
+
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+                PendingEvent event;
+                while ((event = readRecord(in)) != null) {
+                    event.setSegment(segment);
+                    segment.outstanding++;
+                    events.add(event);
+                }
+            }
+
+            nextSequence = Math.max(nextSequence, sequenceOf(path) + 1);
+            logger.info("Replaying {} events from journal segment {}", segment.outstanding, path);
+            segment.deleteIfComplete();
+        }
+
+        return events;
+    }
+
+    /**
+     * Appends an event to the active segment, rotating the segment if it has reached its maximum size. If records are
+     * synced the call returns once the event's record has been forced to the storage device.
+     *
+     * @param event the event to append
+     * @throws IOException if the event could not be written
+     */
+    void append(final PendingEvent event) throws IOException {
+
+        final byte[] bytes = encode(event);
+        final CRC32 crc = new CRC32();
+        crc.update(bytes);
+
+        final ByteBuffer buffer = ByteBuffer.allocate(8 + bytes.length)
+                .putInt(bytes.length)
+                .putInt((int) crc.getValue())
+                .put(bytes)
+                .flip();
+
+        lock.lock();
+        try {
+            if (active == null || active.channel.size() >= segmentBytes) {
+                rotate();
+            }
+
+            while (buffer.hasRemaining()) {
+                active.channel.write(buffer);
+            }
+
+            active.outstanding++;
+            event.setSegment(active);
+            final long record = ++appended;
+
+            if (sync) {
+                awaitForced(record);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Waits until a record has been forced, forcing all the records appended up to then if no other appender is.
+     */
+    private void awaitForced(final long record) throws IOException {
+
+        while (forced < record) {
+
+            if (forcing) {
+                forceCompleted.awaitUninterruptibly();
+                continue;
+            }
+
+            forcing = true;
+            final long target = appended;
+            final FileChannel channel = active.channel;
+            boolean completed = false;
+
+            // Other appenders write their records while this one is forced, to be covered by the next force
+            lock.unlock();
+            try {
+                force(channel);
+                completed = true;
+            } finally {
+                lock.lock();
+                forcing = false;
+                if (completed) {
+                    forced = Math.max(forced, target);
+                }
+                forceCompleted.signalAll();
+            }
+        }
+    }
+
+    /**
+     * Forces the records written to a segment's channel to the storage device.
+     */
+    void force(final FileChannel channel) throws IOException {
+        channel.force(false);
+    }
+
+    /**
+     * Releases an event once it has been written to the store.
+     */
+    void release(final PendingEvent event) {
+        lock.lock();
+        try {
+            if (event.getSegment() != null) {
+                event.getSegment().outstanding--;
+                event.getSegment().deleteIfComplete();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        lock.lock();
+        try {
+            if (active != null) {
+                sealActive();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void rotate() throws IOException {
+
+        if (active != null) {
+            sealActive();
+        }
+
+        final Path path = directory.resolve(String.format("%s%016d%s", SEGMENT_PREFIX, nextSequence++, SEGMENT_SUFFIX));
+        active = new Segment(path, FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE, StandardOpenOption.APPEND));
+    }
+
+    /**
+     * Seals the active segment once no appender is forcing it, forcing its remaining records if records are synced.
+     */
+    private void sealActive() throws IOException {
+
+        while (forcing) {
+            forceCompleted.awaitUninterruptibly();
+        }
+
+        if (sync) {
+            force(active.channel);
+            forced = appended;
+        }
+
+        active.seal();
+        active = null;
+    }
+
+    private List<Path> listSegments() throws IOException {
+        try (Stream<Path> paths = Files.list(directory)) {
+            return paths.filter(path -> path.getFileName().toString().startsWith(SEGMENT_PREFIX)
+                            && path.getFileName().toString().endsWith(SEGMENT_SUFFIX))
+                    .sorted()
+                    .toList();
+        }
+    }
+
+    private long sequenceOf(final Path path) {
+        final String name = path.getFileName().toString();
+        return Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+    }
+
+    private byte[] encode(final PendingEvent event) {
+
+        final Document document = new Document("_id", event.getObjectId())
+                .append("filename", event.getFilename())
+                .append("metadata", event.getMetadata())
+                .append("data", new Binary(event.getData()));
+
+        final BasicOutputBuffer buffer = new BasicOutputBuffer();
+        CODEC.encode(new BsonBinaryWriter(buffer), document, EncoderContext.builder().build());
+        return buffer.toByteArray();
+    }
+
+    private PendingEvent readRecord(final DataInputStream in) throws IOException {
+
+        final byte[] bytes;
+        final int checksum;
+
+        try {
+            final int length = in.readInt();
+            checksum = in.readInt();
+            if (length <= 0) {
+                return null;
+            }
+            bytes = in.readNBytes(length);
+            if (bytes.length != length) {
+                return null;
+            }
+        } catch (EOFException e) {
+            return null;
+        }
+
+        final CRC32 crc = new CRC32();
+        crc.update(bytes);
+
+        if ((int) crc.getValue() != checksum) {
+            logger.warn("Ignoring corrupt journal record");
+            return null;
+        }
+
+        final Document document = CODEC.decode(new RawBsonDocument(bytes).asBsonReader(), DecoderContext.builder().build());
+
+        return new PendingEvent(
+                document.getObjectId("_id"),
+                document.getString("filename"),
+                document.get("metadata", Document.class),
+                document.get("data", Binary.class).getData()
+        );
+    }
+
+    /**
+     * A journal segment file and the number of its events that have not yet been written to the store.
+     */
+    class Segment {
+
+        private final Path path;
+        private final FileChannel channel;
+        private int outstanding;
+        private boolean sealed;
+
+        private Segment(final Path path, final FileChannel channel) {
+            this.path = path;
+            this.channel = channel;
+        }
+
+        private void seal() throws IOException {
+            sealed = true;
+            channel.close();
+            deleteIfComplete();
+        }
+
+        private void deleteIfComplete() {
+            if (sealed && outstanding == 0) {
+                try {
+                    Files.deleteIfExists(path);
+                } catch (IOException e) {
+                    logger.error("Unable to delete journal segment {}", path, e);
+                }
+            }
+        }
+    }
+}
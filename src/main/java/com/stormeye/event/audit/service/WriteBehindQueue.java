@@ -0,0 +1,298 @@
+package com.stormeye.event.audit.service;
+
+import com.stormeye.event.audit.exception.QueueFullException;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.bson.types.ObjectId;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A bounded in memory queue of accepted events that a pool of writer threads drains in batches into the
+ * {@link EventStore}. Enabled by setting <code>event.audit.write-behind.enabled</code> to true.
+ * <p>
+ * When the queue is full an event is either rejected immediately or the caller blocks until there is room or the
+ * block timeout expires, depending upon the configured backpressure. If a journal directory is configured each event is
+ * appended to the {@link WriteBehindJournal} before it is queued so that it survives a crash.
+ *
+ * @author ian@meywood.com
+ */
+@Component
+@ConditionalOnProperty(prefix = "event.audit.write-behind", name = "enabled", havingValue = "true")
+public class WriteBehindQueue {
+
+    /** The behaviour when an event is offered to a full queue */
+    public enum Backpressure {
+        /** Reject the event */
+        REJECT,
+        /** Block until there is room in the queue or the block timeout expires */
+        BLOCK
+    }
+
+    private static final String METRIC_PREFIX = "event.audit.write.behind.";
+    private static final long RETRY_DELAY_MILLIS = 1000;
+
+    private final Logger logger = LoggerFactory.getLogger(WriteBehindQueue.class);
+    private final EventStore eventStore;
+    private final EventDeduplicator deduplicator;
+    private final EventBroadcaster broadcaster;
+    private final EventMetrics eventMetrics;
+    private final EventStatistics eventStatistics;
+    private final BlockingQueue<PendingEvent> queue = new LinkedBlockingQueue<>();
+    /** The permits of the events that can be accepted, a permit is released once its event has been written */
+    private final Semaphore capacity;
+    /** The accepted events that have not yet been written so that they can be read before they are stored */
+    private final Map<ObjectId, PendingEvent> pending = new ConcurrentHashMap<>();
+    private final int writers;
+    private final int batchSize;
+    private final Backpressure backpressure;
+    private final long blockTimeoutMillis;
+    private final WriteBehindJournal journal;
+    private final ExecutorService executor;
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final Counter accepted;
+    private final Counter rejected;
+    private final Counter written;
+    private final Counter failed;
+    private volatile boolean running = true;
+
+    public WriteBehindQueue(final EventStore eventStore,
+                            final EventDeduplicator deduplicator,
+                            final EventBroadcaster broadcaster,
+                            final EventMetrics eventMetrics,
+                            final EventStatistics eventStatistics,
+                            final MeterRegistry meterRegistry,
+                            @Value("${event.audit.write-behind.capacity:10000}") final int capacity,
+                            @Value("${event.audit.write-behind.writers:2}") final int writers,
+                            @Value("${event.audit.write-behind.batch-size:500}") final int batchSize,
+                            @Value("${event.audit.write-behind.backpressure:REJECT}") final Backpressure backpressure,
+                            @Value("${event.audit.write-behind.block-timeout-millis:5000}") final long blockTimeoutMillis,
+                            @Value("${event.audit.write-behind.journal.directory:}") final String journalDirectory,
+                            @Value("${event.audit.write-behind.journal.segment-bytes:67108864}") final long segmentBytes,
+                            @Value("${event.audit.write-behind.journal.sync:true}") final boolean sync) throws IOException {
+
+        this.eventStore = eventStore;
+        this.deduplicator = deduplicator;
+        this.broadcaster = broadcaster;
+        this.eventMetrics = eventMetrics;
+        this.eventStatistics = eventStatistics;
+        this.capacity = new Semaphore(capacity);
+        this.writers = writers;
+        this.batchSize = batchSize;
+        this.backpressure = backpressure;
+        this.blockTimeoutMillis = blockTimeoutMillis;
+        this.journal = journalDirectory == null || journalDirectory.isBlank() ? null : new WriteBehindJournal(Path.of(journalDirectory), segmentBytes, sync);
+        this.executor = Executors.newFixedThreadPool(writers, new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            @Override
+            public Thread newThread(final Runnable runnable) {
+                return new Thread(runnable, "write-behind-" + count.incrementAndGet());
+            }
+        });
+
+        Gauge.builder(METRIC_PREFIX + "queue.depth", queue, BlockingQueue::size)
+                .description("The number of accepted events waiting to be written")
+                .register(meterRegistry);
+        Gauge.builder(METRIC_PREFIX + "queue.remaining", this.capacity, Semaphore::availablePermits)
+                .description("The number of events that can be accepted before the queue is full")
+                .register(meterRegistry);
+        Gauge.builder(METRIC_PREFIX + "in.flight", inFlight, AtomicInteger::get)
+                .description("The number of events being written by the writers")
+                .register(meterRegistry);
+        this.accepted = meterRegistry.counter(METRIC_PREFIX + "accepted");
+        this.rejected = meterRegistry.counter(METRIC_PREFIX + "rejected");
+        this.written = meterRegistry.counter(METRIC_PREFIX + "written");
+        this.failed = meterRegistry.counter(METRIC_PREFIX + "failed");
+    }
+
+    @PostConstruct
+    public void start() throws IOException, InterruptedException {
+
+        for (int i = 0; i < writers; i++) {
+            executor.execute(this::drain);
+        }
+
+        if (journal != null) {
+            for (PendingEvent event : journal.replay()) {
+                capacity.acquire();
+                pending.put(event.getObjectId(), event);
+                queue.put(event);
+            }
+        }
+    }
+
+    /**
+     * Accepts an event to be written by the writers.
+     *
+     * @param event the parsed event with its preallocated internal ID
+     * @throws QueueFullException if the queue is full
+     * @throws IOException        if the event could not be journaled
+     */
+    void enqueue(final PendingEvent event) throws IOException {
+
+        if (!running) {
+            throw new QueueFullException("The write behind queue has been stopped");
+        }
+
+        // Reserve room for the event before it is journaled so that a rejected event is never replayed
+        if (!acquire()) {
+            rejected.increment();
+            throw new QueueFullException("The write behind queue is full");
+        }
+
+        try {
+            // Journal the event before it is visible to the writers so that it cannot be released before it is appended
+            if (journal != null) {
+                journal.append(event);
+            }
+        } catch (IOException | RuntimeException e) {
+            capacity.release();
+            throw e;
+        }
+
+        pending.put(event.getObjectId(), event);
+        queue.add(event);
+        accepted.increment();
+    }
+
+    /**
+     * Finds an event that has been accepted but not yet written.
+     *
+     * @param objectId the internal ID of the event
+     * @return the pending event's stream if the event has not yet been written
+     */
+    Optional<EventStream> find(final ObjectId objectId) {
+        return Optional.ofNullable(pending.get(objectId))
+                .map(event -> new EventStream(new ByteArrayInputStream(event.getData()), event.getData().length));
+    }
+
+    public int getQueueDepth() {
+        return queue.size();
+    }
+
+    @PreDestroy
+    public void stop() throws InterruptedException, IOException {
+
+        running = false;
+        executor.shutdown();
+
+        if (!executor.awaitTermination(1, TimeUnit.MINUTES)) {
+            logger.warn("Write behind writers did not drain {} events before stopping", queue.size());
+            executor.shutdownNow();
+        }
+
+        if (journal != null) {
+            journal.close();
+        }
+    }
+
+    private boolean acquire() {
+        if (backpressure == Backpressure.BLOCK) {
+            try {
+                return capacity.tryAcquire(blockTimeoutMillis, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        } else {
+            return capacity.tryAcquire();
+        }
+    }
+
+    /**
+     * The loop of a writer thread, writes batches of events until the queue has been stopped and drained.
+     */
+    private void drain() {
+
+        final List<PendingEvent> batch = new ArrayList<>(batchSize);
+
+        while (running || !queue.isEmpty()) {
+            try {
+                final PendingEvent first = queue.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                queue.drainTo(batch, batchSize - 1);
+                inFlight.addAndGet(batch.size());
+                write(batch);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } finally {
+                inFlight.addAndGet(-batch.size());
+                batch.clear();
+            }
+        }
+    }
+
+    /**
+     * Writes a batch of events, retrying until the batch has been written if the store is unavailable. As the events
+     * keep their internal IDs a retry does not store an event twice.
+     */
+    private void write(final List<PendingEvent> batch) throws InterruptedException {
+
+        final List<EventBatchResult> results = new ArrayList<>(batch.size());
+        final EventBatchWriter writer = eventStore.openBatchWriter(results, deduplicator::findStored);
+
+        // The index of each event in the batch is used as its line so that results can be matched to events
+        for (int i = 0; i < batch.size(); i++) {
+            final PendingEvent event = batch.get(i);
+            writer.add(i, event.getObjectId(), event.getFilename(), event.getMetadata(), event.getData());
+        }
+
+        while (true) {
+            try {
+                writer.flush();
+                break;
+            } catch (RuntimeException e) {
+                logger.error("Unable to write batch of {} events, retrying", batch.size(), e);
+                //noinspection BusyWait
+                Thread.sleep(RETRY_DELAY_MILLIS);
+            }
+        }
+
+        for (EventBatchResult result : results) {
+            final PendingEvent event = batch.get(result.getLine());
+            if (result.getError() != null) {
+                logger.error("Unable to write event {}: {}", event.getObjectId(), result.getError());
+                failed.increment();
+                // The event was remembered when it was queued, a replay must not be answered with an ID never stored
+                deduplicator.forget(event.getMetadata(), event.getObjectId());
+            } else if (event.getObjectId().toHexString().equals(result.getId())) {
+                written.increment();
+                // An event is counted once written so that a replay resolved to its stored copy is not counted again
+                eventMetrics.recordSize(event.getMetadata());
+                eventStatistics.record(event.getMetadata());
+                // An event is published once written so that a subscriber that resumes from the store sees it
+                broadcaster.publish(event.getObjectId(), event.getMetadata());
+            } else {
+                // A duplicate queued before its copy was stored is resolved to the copy, later replays receive its ID
+                written.increment();
+                deduplicator.remember(event.getMetadata(), new ObjectId(result.getId()));
+            }
+            pending.remove(event.getObjectId());
+            if (journal != null) {
+                journal.release(event);
+            }
+            capacity.release();
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package com.stormeye.event.audit.config;
+
+import com.mongodb.MongoClientSettings;
+import com.mongodb.MongoCompressor;
+import com.mongodb.ReadPreference;
+import com.mongodb.WriteConcern;
+import com.mongodb.client.MongoCollection;
+import com.stormeye.event.audit.service.EventStore;
+import org.bson.Document;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.TestPropertySource;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.core.Is.is;
+
+/**
+ * Tests that the mongo client, ingest and read properties are applied to the client settings and the event store.
+ *
+ * @author ian@meywood.com
+ */
+@SpringBootTest
+@TestPropertySource(locations = "classpath:application-test.properties", properties = {
+        "event.audit.mongo.pool.max-size=20",
+        "event.audit.mongo.pool.min-size=2",
+        "event.audit.mongo.pool.max-wait-time=3s",
+        "event.audit.mongo.socket.connect-timeout=4s",
+        "event.audit.mongo.compressors=zlib",
+        "event.audit.mongo.ingest.w=majority",
+        "event.audit.mongo.ingest.journal=true",
+        "event.audit.mongo.ingest.w-timeout=5s",
+        "event.audit.mongo.read.read-preference=secondaryPreferred",
+        "event.audit.mongo.read.max-staleness=90s"
+})
+class MongoClientPropertiesTest {
+
+    @Autowired
+    private MongoConfig mongoConfig;
+    @Autowired
+    private EventStore eventStore;
+
+    @Test
+    void clientSettings() {
+
+        final MongoClientSettings settings = mongoConfig.clientSettings();
+
+        assertThat(settings.getConnectionPoolSettings().getMaxSize(), is(20));
+        assertThat(settings.getConnectionPoolSettings().getMinSize(), is(2));
+        assertThat(settings.getConnectionPoolSettings().getMaxWaitTime(TimeUnit.MILLISECONDS), is(3000L));
+        assertThat(settings.getSocketSettings().getConnectTimeout(TimeUnit.MILLISECONDS), is(4000));
+        assertThat(settings.getCompressorList().size(), is(1));
+        assertThat(settings.getCompressorList().get(0).getName(), is(MongoCompressor.createZlibCompressor().getName()));
+    }
+
+    @Test
+    void eventStoreWriteConcernAndReadPreference() {
+
+        final WriteConcern writeConcern = WriteConcern.MAJORITY.withJournal(true).withWTimeout(5, TimeUnit.SECONDS);
+        final ReadPreference readPreference = ReadPreference.secondaryPreferred(90, TimeUnit.SECONDS);
+
+        assertThat(eventStore.getInlineCollection().getWriteConcern(), is(writeConcern));
+        assertThat(eventStore.getFilesCollection().getWriteConcern(), is(writeConcern));
+
+        for (MongoCollection<Document> catalog : eventStore.getCatalogs()) {
+            assertThat(catalog.getReadPreference(), is(readPreference));
+        }
+    }
+
+    @Test
+    void numericWriteConcern() {
+
+        final MongoClientProperties.Ingest ingest = new MongoClientProperties.Ingest();
+        assertThat(ingest.toWriteConcern() == null, is(true));
+
+        ingest.setW("2");
+        assertThat(ingest.toWriteConcern(), is(WriteConcern.W2));
+    }
+}
@@ -2,6 +2,7 @@ package com.stormeye.event.audit.config;
 
 
 import com.mongodb.client.MongoClient;
+import io.micrometer.core.instrument.MeterRegistry;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
@@ -31,6 +32,8 @@ class MongoConfigTest {
     private MongoConfig mongoConfig;
     @Autowired
     private GridFsOperations gridFsOperations;
+    @Autowired
+    private MeterRegistry meterRegistry;
 
     @Test
     void mongoClientInjects() {
@@ -50,4 +53,14 @@ class MongoConfigTest {
         MongoClient mongoClient = mongoConfig.mongoClient();
         assertThat(mongoClient, is(notNullValue()));
     }
+
+    @Test
+    void mongoMetrics() {
+
+        mongoOperations.getCollection("fs.inline").countDocuments();
+
+        // Assert the commands and connection pool are published to the meter registry
+        assertThat(meterRegistry.get("mongodb.driver.commands").tag("command", "aggregate").timer().count() > 0, is(true));
+        assertThat(meterRegistry.get("mongodb.driver.pool.size").gauges().isEmpty(), is(false));
+    }
 }
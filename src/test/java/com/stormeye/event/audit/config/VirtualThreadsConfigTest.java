@@ -0,0 +1,130 @@
+package com.stormeye.event.audit.config;
+
+import com.stormeye.event.audit.service.EventStore;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordedFrame;
+import jdk.jfr.consumer.RecordingFile;
+import org.bson.Document;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIf;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.client.TestRestTemplate;
+import org.springframework.boot.web.embedded.tomcat.TomcatWebServer;
+import org.springframework.boot.web.servlet.context.ServletWebServerApplicationContext;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.gridfs.GridFsOperations;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.test.context.TestPropertySource;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.stream.IntStream;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.core.Is.is;
+
+/**
+ * Tests that the servlet stack serves requests on virtual threads and that neither a request's mongo I/O nor the locks
+ * of the audit service pin its virtual thread to a carrier thread. Only runs on a JDK with virtual threads, e.g. with
+ * gradle's -PvirtualThreads.
+ *
+ * @author ian@meywood.com
+ */
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT, properties = "event.audit.virtual-threads.enabled=true")
+@TestPropertySource(locations = "classpath:application-test.properties")
+@EnabledIf("virtualThreadsSupported")
+class VirtualThreadsConfigTest {
+
+    private static final String JSON = "/kafka-events-main.json";
+    private static final String PINNED_EVENT = "jdk.VirtualThreadPinned";
+
+    @Autowired
+    private TestRestTemplate restTemplate;
+
+    @Autowired
+    private ServletWebServerApplicationContext context;
+
+    @Autowired
+    private ExecutorService virtualThreadExecutor;
+
+    @Autowired
+    private GridFsOperations gridFsOperations;
+
+    @Autowired
+    private EventStore eventStore;
+
+    static boolean virtualThreadsSupported() {
+        return Runtime.version().feature() >= 21;
+    }
+
+    @BeforeEach
+    void setUp() {
+        gridFsOperations.delete(new Query());
+        eventStore.getInlineCollection().deleteMany(new Document());
+    }
+
+    @Test
+    void tomcatUsesVirtualThreadExecutor() {
+        final TomcatWebServer webServer = (TomcatWebServer) context.getWebServer();
+        assertThat(webServer.getTomcat().getConnector().getProtocolHandler().getExecutor() == virtualThreadExecutor, is(true));
+    }
+
+    @Test
+    void requestsDoNotPinCarrierThreads() throws IOException {
+
+        //noinspection ConstantConditions
+        final String json = new String(VirtualThreadsConfigTest.class.getResourceAsStream(JSON).readAllBytes(), StandardCharsets.UTF_8);
+        final HttpHeaders headers = new HttpHeaders();
+        headers.setContentType(MediaType.APPLICATION_JSON);
+
+        final Path file = Files.createTempFile("pinned", ".jfr");
+
+        try (Recording recording = new Recording()) {
+            recording.enable(PINNED_EVENT).withThreshold(Duration.ZERO).withStackTrace();
+            recording.start();
+
+            // Save and read events concurrently so that requests contend for mongo connections
+            CompletableFuture.allOf(IntStream.range(0, 32).mapToObj(i -> CompletableFuture.runAsync(() -> {
+                final String event = json.replace("65027303", Long.toString(65027303L + i));
+                final String id = restTemplate.postForObject("/events/audit", new HttpEntity<>(event, headers), String.class);
+                assertThat(restTemplate.getForEntity("/events/audit/{id}", String.class, id).getStatusCode(), is(HttpStatus.OK));
+            })).toArray(CompletableFuture[]::new)).join();
+
+            recording.stop();
+            recording.dump(file);
+        }
+
+        try {
+            final List<String> pinned = RecordingFile.readAllEvents(file).stream()
+                    .filter(event -> event.getEventType().getName().equals(PINNED_EVENT))
+                    .filter(VirtualThreadsConfigTest::inMongoDriverOrService)
+                    .map(event -> Objects.toString(event.getStackTrace()))
+                    .toList();
+
+            assertThat(pinned, is(empty()));
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    private static boolean inMongoDriverOrService(final RecordedEvent event) {
+        return event.getStackTrace() != null && event.getStackTrace().getFrames().stream()
+                .map(RecordedFrame::getMethod)
+                .map(method -> method.getType().getName())
+                .anyMatch(type -> type.startsWith("com.mongodb.") || type.startsWith("com.stormeye."));
+    }
+}
@@ -0,0 +1,64 @@
+package com.stormeye.event.audit.config;
+
+import com.stormeye.event.audit.service.EventAuditService;
+import com.stormeye.event.audit.service.EventStore;
+import org.bson.Document;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.client.TestRestTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.gridfs.GridFsOperations;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.test.context.TestPropertySource;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.core.Is.is;
+
+/**
+ * Tests for the Spring Web Configuration against the embedded tomcat server.
+ *
+ * @author ian@meywood.com
+ */
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT)
+@TestPropertySource(locations = "classpath:application-test.properties")
+class WebConfigTest {
+
+    private static final String JSON = "/kafka-events-main.json";
+
+    @Autowired
+    private TestRestTemplate restTemplate;
+
+    @Autowired
+    private EventAuditService eventAuditService;
+
+    @Autowired
+    private GridFsOperations gridFsOperations;
+
+    @Autowired
+    private EventStore eventStore;
+
+    @Test
+    void encodedSourcePathVariable() throws IOException {
+
+        gridFsOperations.delete(new Query());
+        eventStore.getInlineCollection().deleteMany(new Document());
+        eventAuditService.saveEvent(WebConfigTest.class.getResourceAsStream(JSON));
+
+        final String source = URLEncoder.encode("http://65.21.235.219:9999", StandardCharsets.UTF_8);
+        final ResponseEntity<String> response = restTemplate.getForEntity(
+                URI.create(restTemplate.getRootUri() + "/events/audit/source/" + source + "/id/65027303"),
+                String.class
+        );
+
+        assertThat(response.getStatusCode(), is(HttpStatus.OK));
+        //noinspection ConstantConditions
+        assertThat(response.getBody(), is(new String(WebConfigTest.class.getResourceAsStream(JSON).readAllBytes(), StandardCharsets.UTF_8)));
+    }
+}
@@ -0,0 +1,121 @@
+package com.stormeye.event.audit.resource;
+
+import com.stormeye.event.audit.service.EventAuditService;
+import com.stormeye.event.audit.service.EventStore;
+import org.bson.Document;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.gridfs.GridFsOperations;
+import org.springframework.http.HttpHeaders;
+import org.springframework.test.context.TestPropertySource;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+import org.springframework.web.context.WebApplicationContext;
+
+import java.io.ByteArrayInputStream;
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.zip.GZIPInputStream;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.core.Is.is;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
+
+/**
+ * Tests for the {@link EventAuditResource} REST API serving events stored gzip encoded.
+ *
+ * @author ian@meywood.com
+ */
+@SpringBootTest(properties = "event.audit.storage.codec=GZIP")
+@TestPropertySource(locations = "classpath:application-test.properties")
+class EventAuditResourceEncodingTest {
+
+    private static final String JSON = "/kafka-events-main.json";
+
+    @Autowired
+    private WebApplicationContext context;
+
+    @Autowired
+    private GridFsOperations gridFsOperations;
+
+    @Autowired
+    private EventAuditService eventAuditService;
+
+    @Autowired
+    private EventStore eventStore;
+
+    private MockMvc mockMvc;
+
+    @BeforeEach
+    void setUp() {
+        this.gridFsOperations.delete(new Query());
+        this.eventStore.getInlineCollection().deleteMany(new Document());
+        this.mockMvc = MockMvcBuilders.webAppContextSetup(this.context).build();
+    }
+
+    @Test
+    void testGetEncodedEvent() throws Exception {
+
+        final byte[] json = Objects.requireNonNull(EventAuditResourceEncodingTest.class.getResourceAsStream(JSON)).readAllBytes();
+        final String id = eventAuditService.saveEvent(new ByteArrayInputStream(json));
+
+        final MvcResult result = mockMvc.perform(get("/events/audit/" + id).header(HttpHeaders.ACCEPT_ENCODING, "br, gzip;q=0.8"))
+                .andExpect(status().isOk())
+                .andExpect(header().string(HttpHeaders.CONTENT_ENCODING, "gzip"))
+                .andExpect(header().string(HttpHeaders.VARY, HttpHeaders.ACCEPT + ", " + HttpHeaders.ACCEPT_ENCODING))
+                .andReturn();
+
+        final byte[] encoded = result.getResponse().getContentAsByteArray();
+        assertThat(result.getResponse().getHeader(HttpHeaders.CONTENT_LENGTH), is(Integer.toString(encoded.length)));
+        assertThat(new GZIPInputStream(new ByteArrayInputStream(encoded)).readAllBytes(), is(json));
+    }
+
+    @Test
+    void testGetEncodedEventRange() throws Exception {
+
+        final byte[] json = Objects.requireNonNull(EventAuditResourceEncodingTest.class.getResourceAsStream(JSON)).readAllBytes();
+        final String id = eventAuditService.saveEvent(new ByteArrayInputStream(json));
+
+        final byte[] encoded = mockMvc.perform(get("/events/audit/" + id).header(HttpHeaders.ACCEPT_ENCODING, "gzip"))
+                .andExpect(status().isOk())
+                .andExpect(header().string(HttpHeaders.ETAG, "\"" + id + "-gzip\""))
+                .andReturn().getResponse().getContentAsByteArray();
+
+        // A range of the stored encoding is served as stored
+        mockMvc.perform(get("/events/audit/" + id).header(HttpHeaders.ACCEPT_ENCODING, "gzip").header(HttpHeaders.RANGE, "bytes=10-19"))
+                .andExpect(status().isPartialContent())
+                .andExpect(header().string(HttpHeaders.CONTENT_ENCODING, "gzip"))
+                .andExpect(header().string(HttpHeaders.CONTENT_RANGE, "bytes 10-19/" + encoded.length))
+                .andExpect(content().bytes(Arrays.copyOfRange(encoded, 10, 20)));
+
+        // Ranges of a decoded event are not supported so the whole event is served
+        mockMvc.perform(get("/events/audit/" + id).header(HttpHeaders.RANGE, "bytes=10-19"))
+                .andExpect(status().isOk())
+                .andExpect(header().string(HttpHeaders.ETAG, "\"" + id + "\""))
+                .andExpect(header().doesNotExist(HttpHeaders.ACCEPT_RANGES))
+                .andExpect(content().bytes(json));
+    }
+
+    @Test
+    void testGetDecodedEvent() throws Exception {
+
+        final byte[] json = Objects.requireNonNull(EventAuditResourceEncodingTest.class.getResourceAsStream(JSON)).readAllBytes();
+        final String id = eventAuditService.saveEvent(new ByteArrayInputStream(json));
+
+        mockMvc.perform(get("/events/audit/" + id))
+                .andExpect(status().isOk())
+                .andExpect(header().doesNotExist(HttpHeaders.CONTENT_ENCODING))
+                .andExpect(header().string(HttpHeaders.CONTENT_LENGTH, Integer.toString(json.length)))
+                .andExpect(content().bytes(json));
+
+        mockMvc.perform(get("/events/audit/" + id).header(HttpHeaders.ACCEPT_ENCODING, "gzip;q=0, identity"))
+                .andExpect(status().isOk())
+                .andExpect(header().doesNotExist(HttpHeaders.CONTENT_ENCODING))
+                .andExpect(content().bytes(json));
+    }
+}
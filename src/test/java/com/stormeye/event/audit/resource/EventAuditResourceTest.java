@@ -1,29 +1,52 @@
 package com.stormeye.event.audit.resource;
 
+import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
-import com.mongodb.client.gridfs.model.GridFSFile;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import com.mongodb.client.model.Filters;
 import com.stormeye.event.audit.service.EventAuditService;
+import com.stormeye.event.audit.service.EventFormat;
 import com.stormeye.event.audit.service.EventInfo;
+import com.stormeye.event.audit.service.EventStore;
+import org.bson.Document;
 import org.bson.types.ObjectId;
 import org.hamcrest.core.IsNull;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.actuate.metrics.AutoConfigureMetrics;
 import org.springframework.boot.test.context.SpringBootTest;
-import org.springframework.data.mongodb.core.query.Criteria;
 import org.springframework.data.mongodb.core.query.Query;
 import org.springframework.data.mongodb.gridfs.GridFsOperations;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.MediaType;
+import org.springframework.mock.web.MockHttpServletResponse;
 import org.springframework.test.context.TestPropertySource;
 import org.springframework.test.web.servlet.MockMvc;
 import org.springframework.test.web.servlet.setup.MockMvcBuilders;
 import org.springframework.web.context.WebApplicationContext;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.List;
 import java.util.Objects;
+import java.util.Random;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
 
 import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.not;
 import static org.hamcrest.Matchers.notNullValue;
+import static org.hamcrest.Matchers.startsWith;
 import static org.hamcrest.core.Is.is;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
@@ -35,6 +58,7 @@ import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.
  * @author ian@meywood.com
  */
 @SpringBootTest
+@AutoConfigureMetrics
 @TestPropertySource(locations = "classpath:application-test.properties")
 class EventAuditResourceTest {
 
@@ -49,11 +73,15 @@ class EventAuditResourceTest {
     @Autowired
     private EventAuditService eventAuditService;
 
+    @Autowired
+    private EventStore eventStore;
+
     private MockMvc mockMvc;
 
     @BeforeEach
     void setUp() {
         this.gridFsOperations.delete(new Query());
+        this.eventStore.getInlineCollection().deleteMany(new Document());
         this.mockMvc = MockMvcBuilders.webAppContextSetup(this.context).build();
         this.mockMvc.getDispatcherServlet().setThrowExceptionIfNoHandlerFound(true);
     }
@@ -72,16 +100,101 @@ class EventAuditResourceTest {
 
         assertThat(id, is(notNullValue()));
 
-        final GridFSFile gridFSFile = gridFsOperations.findOne(new Query(Criteria.where("_id").is(id)));
+        final Document inline = eventStore.getInlineCollection().find(Filters.eq("_id", new ObjectId(id))).first();
 
         // Assert the metadata was correctly populated
-        assertThat(gridFSFile, is(IsNull.notNullValue()));
-        assertThat(gridFSFile.getMetadata(), is(IsNull.notNullValue()));
-        assertThat(gridFSFile.getMetadata().getString("source"), is("http://65.21.235.219:9999"));
-        assertThat(gridFSFile.getMetadata().getString("type"), is("main"));
-        assertThat(gridFSFile.getMetadata().getString("dataType"), is("BlockAdded"));
-        assertThat(gridFSFile.getMetadata().getLong("id"), is(65027303L));
-        assertThat(gridFSFile.getMetadata().getString("version"), is("1.0.0"));
+        assertThat(inline, is(IsNull.notNullValue()));
+        final Document metadata = inline.get("metadata", Document.class);
+        assertThat(metadata, is(IsNull.notNullValue()));
+        assertThat(metadata.getString("source"), is("http://65.21.235.219:9999"));
+        assertThat(metadata.getString("type"), is("main"));
+        assertThat(metadata.getString("dataType"), is("BlockAdded"));
+        assertThat(metadata.getLong("id"), is(65027303L));
+        assertThat(metadata.getString("version"), is("1.0.0"));
+    }
+
+    @Test
+    void testSaveEvents() throws Exception {
+
+        //noinspection ConstantConditions
+        final String json = new String(EventAuditResourceTest.class.getResourceAsStream(JSON).readAllBytes(), StandardCharsets.UTF_8)
+                .replaceAll("\\s*\\n\\s*", "");
+
+        final ByteArrayOutputStream content = new ByteArrayOutputStream();
+        try (GZIPOutputStream gzip = new GZIPOutputStream(content)) {
+            gzip.write((json + "\nnot json\n" + json.replace("65027303", "65027304")).getBytes(StandardCharsets.UTF_8));
+        }
+
+        mockMvc.perform(post("/events/audit/batch")
+                        .content(content.toByteArray())
+                        .contentType(MediaType.APPLICATION_NDJSON)
+                        .header(HttpHeaders.CONTENT_ENCODING, "gzip")
+                        .accept(MediaType.APPLICATION_JSON))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.length()").value(3))
+                .andExpect(jsonPath("$[0].line").value(1))
+                .andExpect(jsonPath("$[0].id").isNotEmpty())
+                .andExpect(jsonPath("$[1].line").value(2))
+                .andExpect(jsonPath("$[1].error").isNotEmpty())
+                .andExpect(jsonPath("$[2].line").value(3))
+                .andExpect(jsonPath("$[2].id").isNotEmpty());
+
+        assertThat(eventStore.getInlineCollection().countDocuments(), is(2L));
+    }
+
+    @Test
+    void testSaveAndGetBinaryEvents() throws Exception {
+
+        //noinspection ConstantConditions
+        final JsonNode event = new ObjectMapper().readTree(EventAuditResourceTest.class.getResourceAsStream(JSON));
+
+        for (ObjectMapper binaryMapper : List.of(new ObjectMapper(new SmileFactory()), new ObjectMapper(new CBORFactory()))) {
+
+            final EventFormat format = binaryMapper.getFactory() instanceof SmileFactory ? EventFormat.SMILE : EventFormat.CBOR;
+            eventStore.getInlineCollection().deleteMany(new Document());
+
+            final String id = mockMvc.perform(post("/events/audit")
+                            .content(binaryMapper.writeValueAsBytes(event))
+                            .contentType(format.getMediaType())
+                            .accept(MediaType.TEXT_PLAIN))
+                    .andExpect(status().isOk())
+                    .andReturn().getResponse().getContentAsString();
+
+            // The event is stored as JSON
+            mockMvc.perform(get("/events/audit/{id}", id))
+                    .andExpect(status().isOk())
+                    .andExpect(header().string(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_JSON_VALUE))
+                    .andExpect(header().string(HttpHeaders.VARY, HttpHeaders.ACCEPT))
+                    .andExpect(jsonPath("$.id").value(65027303L))
+                    .andExpect(jsonPath("$.data.BlockAdded.block_hash").value(event.at("/data/BlockAdded/block_hash").asText()));
+
+            // and served in the binary format a client prefers
+            final MockHttpServletResponse response = mockMvc.perform(get("/events/audit/{id}", id)
+                            .header(HttpHeaders.ACCEPT, "application/json;q=0.5, " + format.getMediaType()))
+                    .andExpect(status().isOk())
+                    .andExpect(header().string(HttpHeaders.CONTENT_TYPE, format.getMediaType()))
+                    .andExpect(header().string(HttpHeaders.ETAG, "\"" + id + "-" + format.name().toLowerCase() + "\""))
+                    .andReturn().getResponse();
+
+            assertThat(binaryMapper.readTree(response.getContentAsByteArray()), is(event));
+
+            // A batch is a sequence of binary events
+            final ByteArrayOutputStream batch = new ByteArrayOutputStream();
+            batch.write(binaryMapper.writeValueAsBytes(((ObjectNode) event.deepCopy()).put("id", 65027304L)));
+            batch.write(binaryMapper.writeValueAsBytes(((ObjectNode) event.deepCopy()).put("id", 65027305L)));
+
+            mockMvc.perform(post("/events/audit/batch")
+                            .content(batch.toByteArray())
+                            .contentType(format.getMediaType())
+                            .accept(MediaType.APPLICATION_JSON))
+                    .andExpect(status().isOk())
+                    .andExpect(jsonPath("$.length()").value(2))
+                    .andExpect(jsonPath("$[0].id").isNotEmpty())
+                    .andExpect(jsonPath("$[1].line").value(2))
+                    .andExpect(jsonPath("$[1].id").isNotEmpty());
+
+            assertThat(eventStore.getInlineCollection().countDocuments(), is(3L));
+        }
     }
 
     @Test
@@ -115,6 +228,226 @@ class EventAuditResourceTest {
 
     }
 
+    @Test
+    void testExportEvents() throws Exception {
+
+        //noinspection ConstantConditions
+        final String json = new String(EventAuditResourceTest.class.getResourceAsStream(JSON).readAllBytes(), StandardCharsets.UTF_8);
+        eventAuditService.saveEvent(new ByteArrayInputStream(json.replace("65027303", "65027304").getBytes(StandardCharsets.UTF_8)));
+        eventAuditService.saveEvent(new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8)));
+
+        final byte[] content = mockMvc.perform(get("/events/audit/export")
+                        .param("type", "main")
+                        .param("fromId", "65027303")
+                        .header(HttpHeaders.ACCEPT_ENCODING, "gzip"))
+                .andExpect(status().isOk())
+                .andExpect(header().string(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_NDJSON_VALUE))
+                .andExpect(header().string(HttpHeaders.CONTENT_ENCODING, "gzip"))
+                .andReturn().getResponse().getContentAsByteArray();
+
+        final String[] lines = new String(new GZIPInputStream(new ByteArrayInputStream(content)).readAllBytes(), StandardCharsets.UTF_8).split("\n");
+
+        assertThat(lines.length, is(2));
+        assertThat(new ObjectMapper().readTree(lines[0]).get("id").asLong(), is(65027303L));
+        assertThat(new ObjectMapper().readTree(lines[1]).get("id").asLong(), is(65027304L));
+    }
+
+    @Test
+    void testGetEvents() throws Exception {
+
+        //noinspection ConstantConditions
+        final String json = new String(EventAuditResourceTest.class.getResourceAsStream(JSON).readAllBytes(), StandardCharsets.UTF_8);
+        final String inline = eventAuditService.saveEvent(new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8)));
+        // An event stored in GridFS
+        final String large = eventAuditService.saveEvent(new ByteArrayInputStream(json.replace("65027303", "65027304")
+                .replaceFirst("\\{", "{\"padding\": \"" + "0".repeat(eventStore.getInlineThreshold()) + "\",")
+                .getBytes(StandardCharsets.UTF_8)));
+        assertThat(eventStore.getFilesCollection().countDocuments(), is(1L));
+        final String missing = new ObjectId().toHexString();
+
+        final String body = new ObjectMapper().writeValueAsString(Arrays.asList(large, missing, inline, "invalid", null));
+
+        final String[] lines = mockMvc.perform(post("/events/audit/multi-get")
+                        .content(body)
+                        .contentType(MediaType.APPLICATION_JSON))
+                .andExpect(status().isOk())
+                .andExpect(header().string(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_NDJSON_VALUE))
+                .andReturn().getResponse().getContentAsString().split("\n");
+
+        // The events are in the order they were requested, with a marker for each event that was not found
+        assertThat(lines.length, is(5));
+        assertThat(new ObjectMapper().readTree(lines[0]).get("id").asText(), is(large));
+        assertThat(new ObjectMapper().readTree(lines[0]).get("event").get("id").asLong(), is(65027304L));
+        assertThat(new ObjectMapper().readTree(lines[1]).get("id").asText(), is(missing));
+        assertThat(new ObjectMapper().readTree(lines[1]).get("error").asText(), is("Unable to find event with id " + missing));
+        assertThat(new ObjectMapper().readTree(lines[2]).get("event").get("id").asLong(), is(65027303L));
+        assertThat(new ObjectMapper().readTree(lines[3]).get("error").asText(), is("Unable to find event with id invalid"));
+        assertThat(new ObjectMapper().readTree(lines[4]).get("id").isNull(), is(true));
+        assertThat(new ObjectMapper().readTree(lines[4]).get("error").asText(), is("Unable to find event with id null"));
+
+        // A client that prefers JSON receives an array
+        final byte[] content = mockMvc.perform(post("/events/audit/multi-get")
+                        .content(new ObjectMapper().writeValueAsString(Arrays.asList(inline, inline)))
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .header(HttpHeaders.ACCEPT, MediaType.APPLICATION_JSON_VALUE)
+                        .header(HttpHeaders.ACCEPT_ENCODING, "gzip"))
+                .andExpect(status().isOk())
+                .andExpect(header().string(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_JSON_VALUE))
+                .andExpect(header().string(HttpHeaders.CONTENT_ENCODING, "gzip"))
+                .andReturn().getResponse().getContentAsByteArray();
+
+        final JsonNode events = new ObjectMapper().readTree(new GZIPInputStream(new ByteArrayInputStream(content)));
+        assertThat(events.size(), is(2));
+        assertThat(events.get(1).get("event").get("id").asLong(), is(65027303L));
+
+        mockMvc.perform(post("/events/audit/multi-get")
+                        .content(new ObjectMapper().writeValueAsString(Collections.nCopies(1001, inline)))
+                        .contentType(MediaType.APPLICATION_JSON))
+                .andExpect(status().isBadRequest());
+    }
+
+    @Test
+    void testGetBlockAndDeployEvents() throws Exception {
+
+        final String blockHash = "5a91486c973deea304e26138206723278d9d269f4fe03bfc9e5fdb93e927236e";
+        final String deployHash = "0f9ee0f4d1b4d22de4d1fa8f9e4fd2e2d1f0a4a3a1c7d8ec8d2fa7e4a0c53d3f";
+        final String source = "http://65.21.235.219:9999";
+
+        eventAuditService.saveEvent(EventAuditResourceTest.class.getResourceAsStream(JSON));
+        eventAuditService.saveEvent(new ByteArrayInputStream(("{\"source\":\"" + source + "\",\"type\":\"deploys\"," +
+                "\"dataType\":\"DeployAccepted\",\"data\":{\"DeployAccepted\":{\"hash\":\"" + deployHash + "\"}},\"id\":1}")
+                .getBytes(StandardCharsets.UTF_8)));
+        eventAuditService.saveEvent(new ByteArrayInputStream(("{\"source\":\"" + source + "\",\"type\":\"main\"," +
+                "\"dataType\":\"DeployProcessed\",\"data\":{\"DeployProcessed\":{\"deploy_hash\":\"" + deployHash + "\"," +
+                "\"block_hash\":\"" + blockHash + "\"}},\"id\":65027304}").getBytes(StandardCharsets.UTF_8)));
+
+        // The extracted hashes are stored with the event's metadata
+        final Document metadata = eventStore.getInlineCollection().find(new Document("metadata.dataType", "BlockAdded")).first()
+                .get("metadata", Document.class);
+        assertThat(metadata.get("fields", Document.class).getString("blockHash"), is(blockHash));
+        assertThat(metadata.get("fields", Document.class).getLong("height"), is(1002230L));
+
+        final String[] blockEvents = mockMvc.perform(get("/events/audit/block/{hash}", blockHash))
+                .andExpect(status().isOk())
+                .andExpect(header().string(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_NDJSON_VALUE))
+                .andReturn().getResponse().getContentAsString().split("\n");
+
+        assertThat(blockEvents.length, is(2));
+        assertThat(new ObjectMapper().readTree(blockEvents[0]).get("dataType").asText(), is("BlockAdded"));
+        assertThat(new ObjectMapper().readTree(blockEvents[1]).get("dataType").asText(), is("DeployProcessed"));
+
+        final String[] deployEvents = mockMvc.perform(get("/events/audit/deploy/{hash}", deployHash))
+                .andExpect(status().isOk())
+                .andReturn().getResponse().getContentAsString().split("\n");
+
+        assertThat(deployEvents.length, is(2));
+        assertThat(new ObjectMapper().readTree(deployEvents[0]).get("dataType").asText(), is("DeployAccepted"));
+        assertThat(new ObjectMapper().readTree(deployEvents[1]).get("dataType").asText(), is("DeployProcessed"));
+
+        mockMvc.perform(get("/events/audit/deploy/{hash}", "unknown"))
+                .andExpect(status().isOk())
+                .andExpect(content().string(""));
+    }
+
+    @Test
+    void testGetStatistics() throws Exception {
+
+        mockMvc.perform(get("/events/audit/stats").param("granularity", "MINUTE"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.granularity").value("MINUTE"))
+                .andExpect(jsonPath("$.buckets").isArray());
+
+        mockMvc.perform(get("/events/audit/stats").param("from", "yesterday"))
+                .andExpect(status().isBadRequest());
+
+        mockMvc.perform(get("/events/audit/stats").param("from", "2022-01-01T00:00:00Z").param("granularity", "MINUTE"))
+                .andExpect(status().isBadRequest());
+    }
+
+    @Test
+    void testStreamEvents() throws Exception {
+
+        final String first = eventAuditService.saveEvent(EventAuditResourceTest.class.getResourceAsStream(JSON));
+        //noinspection ConstantConditions
+        final String json = new String(EventAuditResourceTest.class.getResourceAsStream(JSON).readAllBytes(), StandardCharsets.UTF_8);
+        final String second = eventAuditService.saveEvent(new ByteArrayInputStream(json.replace("65027303", "65027304").getBytes(StandardCharsets.UTF_8)));
+
+        final MockHttpServletResponse response = mockMvc.perform(get("/events/audit/stream")
+                        .param("type", "main")
+                        .header("Last-Event-ID", first))
+                .andExpect(request().asyncStarted())
+                .andReturn().getResponse();
+
+        // The event stored after the last event the client received is sent as a single line
+        final String expected = "id:" + second + "\nevent:main\ndata:{\"id\":\"" + second + "\",\"event\":{";
+        final long deadline = System.currentTimeMillis() + 5000;
+        while (!response.getContentAsString().contains("65027304") && System.currentTimeMillis() < deadline) {
+            //noinspection BusyWait
+            Thread.sleep(10);
+        }
+
+        assertThat(response.getContentType(), is(MediaType.TEXT_EVENT_STREAM_VALUE));
+        assertThat(response.getContentAsString(), startsWith(expected));
+        assertThat(response.getContentAsString(), containsString("\"id\": 65027304 }}\n\n"));
+
+        mockMvc.perform(get("/events/audit/stream").param("resumeFrom", "invalid"))
+                .andExpect(status().isBadRequest());
+    }
+
+    @Test
+    void testGetEventRange() throws Exception {
+
+        //noinspection ConstantConditions
+        final byte[] json = EventAuditResourceTest.class.getResourceAsStream(JSON).readAllBytes();
+        final String id = eventAuditService.saveEvent(new ByteArrayInputStream(json));
+        final String etag = "\"" + id + "\"";
+
+        mockMvc.perform(get("/events/audit/{id}", id).header(HttpHeaders.RANGE, "bytes=0-99"))
+                .andExpect(status().isPartialContent())
+                .andExpect(header().string(HttpHeaders.ETAG, etag))
+                .andExpect(header().string(HttpHeaders.CONTENT_RANGE, "bytes 0-99/1185"))
+                .andExpect(header().string(HttpHeaders.CONTENT_LENGTH, "100"))
+                .andExpect(content().bytes(Arrays.copyOfRange(json, 0, 100)));
+
+        mockMvc.perform(get("/events/audit/{id}", id).header(HttpHeaders.RANGE, "bytes=-10").header(HttpHeaders.IF_RANGE, etag))
+                .andExpect(status().isPartialContent())
+                .andExpect(header().string(HttpHeaders.CONTENT_RANGE, "bytes 1175-1184/1185"))
+                .andExpect(content().bytes(Arrays.copyOfRange(json, 1175, 1185)));
+
+        // A range of a changed representation is ignored
+        mockMvc.perform(get("/events/audit/{id}", id).header(HttpHeaders.RANGE, "bytes=0-99").header(HttpHeaders.IF_RANGE, "\"other\""))
+                .andExpect(status().isOk())
+                .andExpect(content().bytes(json));
+
+        mockMvc.perform(get("/events/audit/{id}", id).header(HttpHeaders.RANGE, "bytes=1185-"))
+                .andExpect(status().isRequestedRangeNotSatisfiable())
+                .andExpect(header().string(HttpHeaders.CONTENT_RANGE, "bytes */1185"));
+
+        mockMvc.perform(get("/events/audit/{id}", id).header(HttpHeaders.IF_NONE_MATCH, "W/" + etag))
+                .andExpect(status().isNotModified())
+                .andExpect(content().bytes(new byte[0]));
+    }
+
+    @Test
+    void testGetGridFsEventRange() throws Exception {
+
+        // An event of several GridFS chunks
+        final byte[] padding = new byte[600 * 1024];
+        new Random(1).nextBytes(padding);
+        //noinspection ConstantConditions
+        final byte[] json = new String(EventAuditResourceTest.class.getResourceAsStream(JSON).readAllBytes(), StandardCharsets.UTF_8)
+                .replaceFirst("\\{", "{\"padding\": \"" + Base64.getEncoder().encodeToString(padding) + "\",")
+                .getBytes(StandardCharsets.UTF_8);
+        final String id = eventAuditService.saveEvent(new ByteArrayInputStream(json));
+        assertThat(eventStore.getFilesCollection().countDocuments(), is(1L));
+
+        final int start = 600 * 1024;
+        mockMvc.perform(get("/events/audit/{id}", id).header(HttpHeaders.RANGE, "bytes=" + start + "-"))
+                .andExpect(status().isPartialContent())
+                .andExpect(header().string(HttpHeaders.CONTENT_RANGE, "bytes " + start + "-" + (json.length - 1) + "/" + json.length))
+                .andExpect(content().bytes(Arrays.copyOfRange(json, start, json.length)));
+    }
+
     @Test
     void testGetEventNotFound() throws Exception {
 
@@ -124,4 +457,73 @@ class EventAuditResourceTest {
                 .andExpect(status().isNotFound())
                 .andExpect(content().string("Unable to find event with id " + invalidId));
     }
-}
\ No newline at end of file
+
+    @Test
+    void testQueryEvents() throws Exception {
+
+        final String id = eventAuditService.saveEvent(EventAuditResourceTest.class.getResourceAsStream(JSON));
+
+        mockMvc.perform(get("/events/audit")
+                        .param("type", "main")
+                        .param("source", "http://65.21.235.219:9999")
+                        .param("fromId", "65027303")
+                        .param("limit", "1"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.events.length()").value(1))
+                .andExpect(jsonPath("$.events[0].id").value(id))
+                .andExpect(jsonPath("$.events[0].eventId").value(65027303L))
+                .andExpect(jsonPath("$.events[0].dataType").value("BlockAdded"))
+                .andExpect(jsonPath("$.events[0].bytes").value(1185))
+                .andExpect(jsonPath("$.next").isNotEmpty());
+
+        mockMvc.perform(get("/events/audit").param("after", "invalid"))
+                .andExpect(status().isBadRequest());
+    }
+
+    @Test
+    void testGetEventByEventId() throws Exception {
+
+        eventAuditService.saveEvent(EventAuditResourceTest.class.getResourceAsStream(JSON));
+
+        final String source = URLEncoder.encode("http://65.21.235.219:9999", StandardCharsets.UTF_8);
+        //noinspection ConstantConditions
+        final String expected = new String(EventAuditResourceTest.class.getResourceAsStream(JSON).readAllBytes(), StandardCharsets.UTF_8);
+
+        mockMvc.perform(get(URI.create("/events/audit/source/" + source + "/id/65027303")))
+                .andExpect(status().isOk())
+                .andExpect(header().string(HttpHeaders.CONTENT_LENGTH, "1185"))
+                .andExpect(content().string(expected));
+
+        mockMvc.perform(get(URI.create("/events/audit/source/" + source + "/type/main/id/65027303")))
+                .andExpect(status().isOk())
+                .andExpect(content().string(expected));
+
+        mockMvc.perform(get(URI.create("/events/audit/source/" + source + "/type/deploys/id/65027303")))
+                .andExpect(status().isNotFound());
+    }
+
+    @Test
+    void testSaveDuplicateEvent() throws Exception {
+
+        byte[] content = Objects.requireNonNull(EventAuditResourceTest.class.getResourceAsStream(JSON)).readAllBytes();
+
+        mockMvc.perform(post("/events/audit").content(content).contentType(MediaType.APPLICATION_JSON))
+                .andExpect(status().isOk());
+
+        mockMvc.perform(post("/events/audit").content(content).contentType(MediaType.APPLICATION_JSON))
+                .andExpect(status().isConflict());
+    }
+
+    @Test
+    void testPrometheusMetrics() throws Exception {
+
+        eventAuditService.saveEvent(EventAuditResourceTest.class.getResourceAsStream(JSON));
+
+        mockMvc.perform(get("/actuator/prometheus"))
+                .andExpect(status().isOk())
+                .andExpect(content().string(containsString("event_audit_save_phase_seconds_bucket{phase=\"parse\"")))
+                .andExpect(content().string(containsString("event_audit_event_size_bytes_count{dataType=\"BlockAdded\"")))
+                .andExpect(content().string(not(containsString("event_audit_event_size_bytes_bucket"))))
+                .andExpect(content().string(containsString("mongodb_driver_commands_seconds_count")));
+    }
+}
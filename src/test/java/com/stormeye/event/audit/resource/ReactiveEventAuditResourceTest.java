@@ -0,0 +1,208 @@
+package com.stormeye.event.audit.resource;
+
+import com.mongodb.client.model.Filters;
+import com.stormeye.event.audit.service.EventStore;
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.reactive.AutoConfigureWebTestClient;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.gridfs.GridFsOperations;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.test.context.TestPropertySource;
+import org.springframework.test.web.reactive.server.WebTestClient;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.Objects;
+import java.util.Random;
+import java.util.zip.GZIPInputStream;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.core.Is.is;
+import static org.hamcrest.core.IsNull.notNullValue;
+
+/**
+ * Tests for the {@link ReactiveEventAuditResource} REST API against the embedded netty server with events stored gzip
+ * encoded.
+ *
+ * @author ian@meywood.com
+ */
+@SpringBootTest(
+        webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT,
+        properties = {"spring.main.web-application-type=reactive", "event.audit.storage.codec=GZIP"}
+)
+@AutoConfigureWebTestClient
+@TestPropertySource(locations = "classpath:application-test.properties")
+class ReactiveEventAuditResourceTest {
+
+    private static final String JSON = "/kafka-events-main.json";
+
+    @Autowired
+    private WebTestClient webTestClient;
+
+    @Autowired
+    private GridFsOperations gridFsOperations;
+
+    @Autowired
+    private EventStore eventStore;
+
+    @BeforeEach
+    void setUp() {
+        this.gridFsOperations.delete(new Query());
+        this.eventStore.getInlineCollection().deleteMany(new Document());
+    }
+
+    @Test
+    void saveAndGetInlineEvent() throws IOException {
+
+        final byte[] content = Objects.requireNonNull(ReactiveEventAuditResourceTest.class.getResourceAsStream(JSON)).readAllBytes();
+
+        final String id = saveEvent(content);
+
+        final Document inline = eventStore.getInlineCollection().find(Filters.eq("_id", new ObjectId(id))).first();
+        assertThat(inline, is(notNullValue()));
+        final Document metadata = inline.get("metadata", Document.class);
+        assertThat(metadata.getString("source"), is("http://65.21.235.219:9999"));
+        assertThat(metadata.getString("type"), is("main"));
+        assertThat(metadata.getString("dataType"), is("BlockAdded"));
+        assertThat(metadata.getLong("id"), is(65027303L));
+        assertThat(metadata.getString("version"), is("1.0.0"));
+        assertThat(metadata.getLong("bytes"), is(1185L));
+        assertThat(metadata.getString("codec"), is("gzip"));
+        assertThat(inline.getString("filename"), is("/events/main/65027303.json"));
+
+        // Without an Accept-Encoding header the event is decoded
+        webTestClient.get().uri("/events/audit/{id}", id)
+                .exchange()
+                .expectStatus().isOk()
+                .expectHeader().contentType(MediaType.APPLICATION_JSON)
+                .expectHeader().contentLength(1185)
+                .expectBody(byte[].class).isEqualTo(content);
+
+        // The event is served as stored to a client that accepts gzip
+        final byte[] encoded = webTestClient.get().uri("/events/audit/{id}", id)
+                .header(HttpHeaders.ACCEPT_ENCODING, "gzip")
+                .exchange()
+                .expectStatus().isOk()
+                .expectHeader().valueEquals(HttpHeaders.CONTENT_ENCODING, "gzip")
+                .expectBody(byte[].class).returnResult().getResponseBody();
+
+        assertThat(new GZIPInputStream(new ByteArrayInputStream(Objects.requireNonNull(encoded))).readAllBytes(), is(content));
+    }
+
+    @Test
+    void saveAndGetGridFsEvent() {
+
+        final byte[] content = largeEvent();
+
+        final String id = saveEvent(content);
+
+        assertThat(eventStore.getInlineCollection().countDocuments(), is(0L));
+        final Document file = eventStore.getFilesCollection().find(Filters.eq("_id", new ObjectId(id))).first();
+        assertThat(file, is(notNullValue()));
+        assertThat(file.getString("filename"), is("/events/main/65027303.json"));
+        assertThat(file.get("metadata", Document.class).getLong("bytes"), is((long) content.length));
+
+        webTestClient.get().uri("/events/audit/{id}", id)
+                .exchange()
+                .expectStatus().isOk()
+                .expectHeader().contentLength(content.length)
+                .expectBody(byte[].class).isEqualTo(content);
+
+        final String source = URLEncoder.encode("http://65.21.235.219:9999", StandardCharsets.UTF_8);
+
+        webTestClient.get().uri(URI.create("/events/audit/source/" + source + "/type/main/id/65027303"))
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody(byte[].class).isEqualTo(content);
+
+        webTestClient.get().uri(URI.create("/events/audit/source/" + source + "/type/deploys/id/65027303"))
+                .exchange()
+                .expectStatus().isNotFound();
+    }
+
+    @Test
+    void saveDuplicateEvent() throws IOException {
+
+        final byte[] content = Objects.requireNonNull(ReactiveEventAuditResourceTest.class.getResourceAsStream(JSON)).readAllBytes();
+
+        saveEvent(content);
+
+        webTestClient.post().uri("/events/audit")
+                .contentType(MediaType.APPLICATION_JSON)
+                .bodyValue(content)
+                .exchange()
+                .expectStatus().isEqualTo(409);
+
+        // The GridFS file of a large duplicate is removed
+        final byte[] largeEvent = largeEvent();
+        final String largeId = saveEvent(largeEvent);
+
+        webTestClient.post().uri("/events/audit")
+                .contentType(MediaType.APPLICATION_JSON)
+                .bodyValue(largeEvent)
+                .exchange()
+                .expectStatus().isEqualTo(409);
+
+        assertThat(eventStore.getFilesCollection().countDocuments(), is(1L));
+        assertThat(eventStore.getFilesCollection().find().first().getObjectId("_id").toHexString(), is(largeId));
+    }
+
+    @Test
+    void saveInvalidEvent() {
+
+        webTestClient.post().uri("/events/audit")
+                .contentType(MediaType.APPLICATION_JSON)
+                .bodyValue("{\"type\": \"main\"}".getBytes(StandardCharsets.UTF_8))
+                .exchange()
+                .expectStatus().is5xxServerError();
+
+        assertThat(eventStore.getInlineCollection().countDocuments(), is(0L));
+    }
+
+    @Test
+    void getEventNotFound() {
+        webTestClient.get().uri("/events/audit/{id}", new ObjectId().toHexString())
+                .exchange()
+                .expectStatus().isNotFound();
+    }
+
+    private String saveEvent(final byte[] content) {
+
+        final String id = webTestClient.post().uri("/events/audit")
+                .contentType(MediaType.APPLICATION_JSON)
+                .bodyValue(content)
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody(String.class).returnResult().getResponseBody();
+
+        assertThat(ObjectId.isValid(id), is(true));
+        return id;
+    }
+
+    /**
+     * @return the test event with a field of random characters that is too large to be stored inline once compressed
+     */
+    private byte[] largeEvent() {
+
+        final byte[] padding = new byte[64 * 1024];
+        new Random(1).nextBytes(padding);
+
+        try {
+            final String json = new String(Objects.requireNonNull(ReactiveEventAuditResourceTest.class.getResourceAsStream(JSON)).readAllBytes(), StandardCharsets.UTF_8);
+            return json.replaceFirst("\\{", "{\"padding\": \"" + Base64.getEncoder().encodeToString(padding) + "\",")
+                    .getBytes(StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
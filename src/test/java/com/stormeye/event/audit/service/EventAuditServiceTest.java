@@ -2,22 +2,38 @@ package com.stormeye.event.audit.service;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.mongodb.client.gridfs.model.GridFSFile;
+import com.mongodb.client.model.Filters;
+import com.stormeye.event.audit.exception.DuplicateEventException;
+import com.stormeye.event.audit.exception.NotFoundException;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.bson.Document;
+import org.bson.types.ObjectId;
 import org.apache.commons.io.IOUtils;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.mongodb.core.MongoOperations;
 import org.springframework.data.mongodb.core.query.Criteria;
 import org.springframework.data.mongodb.core.query.Query;
 import org.springframework.data.mongodb.gridfs.GridFsOperations;
 import org.springframework.test.context.TestPropertySource;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
 
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.core.Is.is;
+import static org.hamcrest.core.IsInstanceOf.instanceOf;
 import static org.hamcrest.core.IsNull.notNullValue;
+import static org.hamcrest.core.IsNull.nullValue;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 
 /**
  * Tests for the the {@link EventAuditService}
@@ -34,12 +50,22 @@ class EventAuditServiceTest {
     @Autowired
     private GridFsOperations gridFsOperations;
 
+    @Autowired
+    private MongoOperations mongoOperations;
+
+    @Autowired
+    private EventStore eventStore;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
     private static final String JSON = "/kafka-events-main.json";
 
     @BeforeEach
     void setUp() {
         // Delete all files
         gridFsOperations.delete(new Query());
+        eventStore.getInlineCollection().deleteMany(new Document());
     }
 
     @Test
@@ -50,7 +76,32 @@ class EventAuditServiceTest {
 
         assertThat(id, is(notNullValue()));
 
-        // Assert the file was stored
+        // Assert the event was stored inline as it is smaller than the inline threshold
+        final Document inline = eventStore.getInlineCollection().find(Filters.eq("_id", new ObjectId(id))).first();
+        assertThat(inline, is(notNullValue()));
+        assertThat(inline.getString("filename"), is("/events/main/65027303.json"));
+        assertThat(inline.getLong("length"), is(1185L));
+
+        // Assert the metadata was correctly populated
+        final Document metadata = inline.get("metadata", Document.class);
+        assertThat(metadata.getString("source"), is("http://65.21.235.219:9999"));
+        assertThat(metadata.getString("type"), is("main"));
+        assertThat(metadata.getString("dataType"), is("BlockAdded"));
+        assertThat(metadata.getLong("id"), is(65027303L));
+        assertThat(metadata.getString("version"), is("1.0.0"));
+
+        assertThat(gridFsOperations.findOne(new Query()), is(nullValue()));
+    }
+
+    @Test
+    void saveLargeEvent() throws IOException {
+
+        final byte[] json = largeJson();
+        final String id = eventAuditService.saveEvent(new ByteArrayInputStream(json));
+
+        assertThat(id, is(notNullValue()));
+
+        // Assert the file was stored in GridFS as it exceeds the inline threshold
         GridFSFile gridFSFile = gridFsOperations.findOne(new Query(Criteria.where("_id").is(id)));
 
         // Assert the metadata was correctly populated
@@ -62,6 +113,11 @@ class EventAuditServiceTest {
         assertThat(gridFSFile.getMetadata().getLong("id"), is(65027303L));
         assertThat(gridFSFile.getFilename(), is("/events/main/65027303.json"));
         assertThat(gridFSFile.getMetadata().getString("version"), is("1.0.0"));
+        assertThat(gridFSFile.getLength(), is((long) json.length));
+        assertThat(eventStore.getInlineCollection().countDocuments(), is(0L));
+
+        // Assert the event is read back from GridFS
+        assertThat(IOUtils.toByteArray(eventAuditService.getEventById(id)), is(json));
     }
 
     @Test
@@ -88,4 +144,204 @@ class EventAuditServiceTest {
         assertThat(eventInfo.getEventType(), is("main"));
         assertThat(eventInfo.getDataType(), is("BlockAdded"));
     }
+
+    @Test
+    void readCachedEvent() throws IOException {
+
+        final String id = eventAuditService.saveEvent(EventAuditServiceTest.class.getResourceAsStream(JSON));
+        final double hits = meterRegistry.counter("event.audit.cache.hits").count();
+
+        final byte[] readBytes = IOUtils.toByteArray(eventAuditService.getEventById(id));
+
+        // Assert the second read is served from the cache
+        final EventStream cached = eventAuditService.getEventById(id);
+        assertThat(cached, is(instanceOf(ByteBufferEventStream.class)));
+        assertThat(cached.getSize(), is((long) readBytes.length));
+        assertThat(IOUtils.toByteArray(cached), is(readBytes));
+        assertThat(meterRegistry.counter("event.audit.cache.hits").count(), is(hits + 1));
+    }
+
+    @Test
+    void saveEventMetrics() throws IOException {
+
+        final long saves = meterRegistry.get("event.audit.save").timer().count();
+        final long stores = meterRegistry.get("event.audit.save.phase").tag("phase", "store").timer().count();
+        final long sizes = sizeSummaryCount();
+
+        eventAuditService.saveEvent(EventAuditServiceTest.class.getResourceAsStream(JSON));
+
+        assertThat(meterRegistry.get("event.audit.save").timer().count(), is(saves + 1));
+        assertThat(meterRegistry.get("event.audit.save.phase").tag("phase", "store").timer().count(), is(stores + 1));
+        assertThat(sizeSummaryCount(), is(sizes + 1));
+    }
+
+    private long sizeSummaryCount() {
+        final DistributionSummary summary = meterRegistry.find("event.audit.event.size")
+                .tags("type", "main", "dataType", "BlockAdded", "source", "http://65.21.235.219:9999")
+                .summary();
+        return summary != null ? summary.count() : 0;
+    }
+
+    @Test
+    void saveInvalidEvent() {
+
+        final InputStream in = new ByteArrayInputStream("{\"type\":\"main\"}".getBytes(StandardCharsets.UTF_8));
+
+        assertThrows(IOException.class, () -> eventAuditService.saveEvent(in));
+
+        // Assert the partially uploaded file was removed
+        assertThat(gridFsOperations.findOne(new Query()), is(nullValue()));
+    }
+
+    @Test
+    void saveInvalidLargeEvent() {
+
+        final String json = "{\"type\":\"main\",\"padding\":\"" + "0".repeat(1024 * 1024) + "\"}";
+        final InputStream in = new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8));
+
+        assertThrows(IOException.class, () -> eventAuditService.saveEvent(in));
+
+        // Assert the chunks written before the event was found to be invalid were removed
+        assertThat(gridFsOperations.findOne(new Query()), is(nullValue()));
+        assertThat(mongoOperations.getCollection("fs.chunks").countDocuments(), is(0L));
+    }
+
+    @Test
+    void saveEvents() throws IOException {
+
+        //noinspection ConstantConditions
+        final String json = new String(EventAuditServiceTest.class.getResourceAsStream(JSON).readAllBytes(), StandardCharsets.UTF_8)
+                .replaceAll("\\s*\\n\\s*", "");
+        final String batch = json + "\n\n{\"type\":\"main\"}\n" + json.replace("65027303", "65027304") + "\n";
+
+        final List<EventBatchResult> results = eventAuditService.saveEvents(new ByteArrayInputStream(batch.getBytes(StandardCharsets.UTF_8)));
+
+        assertThat(results.size(), is(3));
+        assertThat(results.get(0).getLine(), is(1));
+        assertThat(results.get(0).getId(), is(notNullValue()));
+        assertThat(results.get(1).getLine(), is(3));
+        assertThat(results.get(1).getId(), is(nullValue()));
+        assertThat(results.get(1).getError(), is(notNullValue()));
+        assertThat(results.get(2).getLine(), is(4));
+
+        // Assert the stored events can be read back
+        final Document inline = eventStore.getInlineCollection().find(Filters.eq("_id", new ObjectId(results.get(2).getId()))).first();
+        assertThat(inline.getString("filename"), is("/events/main/65027304.json"));
+        assertThat(inline.get("metadata", Document.class).getString("dataType"), is("BlockAdded"));
+        assertThat(inline.get("metadata", Document.class).getLong("id"), is(65027304L));
+
+        final byte[] readBytes = IOUtils.toByteArray(eventAuditService.getEventById(results.get(0).getId()));
+        assertThat(new String(readBytes, StandardCharsets.UTF_8), is(json));
+    }
+
+    @Test
+    void saveLargeEvents() throws IOException {
+
+        final String json = new String(largeJson(), StandardCharsets.UTF_8).replaceAll("\\s*\\n\\s*", "");
+        final String batch = json + "\n" + json.replace("65027303", "65027304") + "\n";
+
+        final List<EventBatchResult> results = eventAuditService.saveEvents(new ByteArrayInputStream(batch.getBytes(StandardCharsets.UTF_8)));
+
+        assertThat(results.size(), is(2));
+
+        final GridFSFile gridFSFile = gridFsOperations.findOne(new Query(Criteria.where("_id").is(results.get(1).getId())));
+        assertThat(gridFSFile.getFilename(), is("/events/main/65027304.json"));
+        assertThat(gridFSFile.getMetadata().getLong("id"), is(65027304L));
+
+        final byte[] readBytes = IOUtils.toByteArray(eventAuditService.getEventById(results.get(0).getId()));
+        assertThat(new String(readBytes, StandardCharsets.UTF_8), is(json));
+    }
+
+    @Test
+    void saveEventsWithOverlongLine() throws IOException {
+
+        //noinspection ConstantConditions
+        final String json = new String(EventAuditServiceTest.class.getResourceAsStream(JSON).readAllBytes(), StandardCharsets.UTF_8)
+                .replaceAll("\\s*\\n\\s*", "");
+        final String batch = json + "\r\n" + "0".repeat(EventAuditService.MAX_LINE_BYTES + 1) + "\n" + json.replace("65027303", "65027305");
+
+        final List<EventBatchResult> results = eventAuditService.saveEvents(new ByteArrayInputStream(batch.getBytes(StandardCharsets.UTF_8)));
+
+        // The overlong line fails without preventing the line after it from being read
+        assertThat(results.size(), is(3));
+        assertThat(results.get(0).getId(), is(notNullValue()));
+        assertThat(results.get(1).getLine(), is(2));
+        assertThat(results.get(1).getError(), is("Line exceeds the maximum of " + EventAuditService.MAX_LINE_BYTES + " bytes"));
+        assertThat(results.get(2).getId(), is(notNullValue()));
+        assertThat(IOUtils.toByteArray(eventAuditService.getEventById(results.get(2).getId())).length, is(json.length()));
+    }
+
+    @Test
+    void getEventByEventId() throws IOException {
+
+        //noinspection ConstantConditions
+        final byte[] json = EventAuditServiceTest.class.getResourceAsStream(JSON).readAllBytes();
+        final byte[] large = largeJson();
+        eventAuditService.saveEvent(new ByteArrayInputStream(json));
+        eventAuditService.saveEvent(new ByteArrayInputStream(new String(large, StandardCharsets.UTF_8)
+                .replace("65027303", "65027304").getBytes(StandardCharsets.UTF_8)));
+
+        final String source = "http://65.21.235.219:9999";
+
+        assertThat(IOUtils.toByteArray(eventAuditService.getEventByEventId(source, null, 65027303L)), is(json));
+        assertThat(IOUtils.toByteArray(eventAuditService.getEventByEventId(source, "main", 65027303L)), is(json));
+
+        final EventStream largeStream = eventAuditService.getEventByEventId(source, "main", 65027304L);
+        assertThat(largeStream.getSize(), is((long) large.length));
+        assertThat(new String(IOUtils.toByteArray(largeStream), StandardCharsets.UTF_8),
+                is(new String(large, StandardCharsets.UTF_8).replace("65027303", "65027304")));
+
+        assertThrows(NotFoundException.class, () -> eventAuditService.getEventByEventId(source, "deploys", 65027303L));
+        assertThrows(NotFoundException.class, () -> eventAuditService.getEventByEventId("http://localhost:9999", null, 65027303L));
+    }
+
+    @Test
+    void saveDuplicateEvent() throws IOException {
+
+        final byte[] large = largeJson();
+        final String id = eventAuditService.saveEvent(new ByteArrayInputStream(large));
+
+        assertThrows(DuplicateEventException.class, () -> eventAuditService.saveEvent(new ByteArrayInputStream(large)));
+
+        // Assert the content of the rejected copy was removed
+        assertThat(eventStore.getFilesCollection().countDocuments(), is(1L));
+        assertThat(eventStore.getInlineCollection().countDocuments(), is(0L));
+        assertThat(mongoOperations.getCollection("fs.chunks").countDocuments(Filters.ne("files_id", new ObjectId(id))), is(0L));
+    }
+
+    @Test
+    void writeBatchAgain() throws IOException {
+
+        //noinspection ConstantConditions
+        final byte[] json = EventAuditServiceTest.class.getResourceAsStream(JSON).readAllBytes();
+        final byte[] large = largeJson();
+        final ObjectId objectId = new ObjectId();
+        final ObjectId largeId = new ObjectId();
+        final List<EventBatchResult> results = new ArrayList<>();
+
+        // As when the events of a journal are replayed after they were written, the documents are created again
+        for (int attempt = 0; attempt < 2; attempt++) {
+            results.clear();
+            final EventBatchWriter writer = eventStore.openBatchWriter(results, metadata -> Optional.empty());
+            writer.add(1, objectId, "/events/main/1.json", new Document("source", "http://localhost:9999").append("type", "main").append("id", 1L), json);
+            writer.add(2, largeId, "/events/main/2.json", new Document("source", "http://localhost:9999").append("type", "main").append("id", 2L), large);
+            writer.flush();
+        }
+
+        assertThat(results.get(0).getId(), is(objectId.toHexString()));
+        assertThat(results.get(1).getId(), is(largeId.toHexString()));
+        assertThat(eventStore.getInlineCollection().countDocuments(), is(1L));
+        assertThat(eventStore.getFilesCollection().countDocuments(), is(1L));
+        assertThat(IOUtils.toByteArray(eventAuditService.getEventById(largeId.toHexString())), is(large));
+    }
+
+    /**
+     * Creates an event that is larger than the inline threshold by adding a padding field to the test event.
+     */
+    private byte[] largeJson() throws IOException {
+        //noinspection ConstantConditions
+        final String json = new String(EventAuditServiceTest.class.getResourceAsStream(JSON).readAllBytes(), StandardCharsets.UTF_8);
+        return json.replaceFirst("\\{", "{\n  \"padding\": \"" + "0".repeat(eventStore.getInlineThreshold()) + "\",")
+                .getBytes(StandardCharsets.UTF_8);
+    }
 }
\ No newline at end of file
@@ -0,0 +1,108 @@
+package com.stormeye.event.audit.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.bson.types.ObjectId;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Optional;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.core.Is.is;
+
+/**
+ * Unit tests for the {@link EventCache}.
+ *
+ * @author ian@meywood.com
+ */
+class EventCacheTest {
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    @Test
+    void readThrough() throws IOException {
+
+        final EventCache eventCache = new EventCache(meterRegistry, 100, 50);
+        final ObjectId objectId = new ObjectId();
+
+        assertThat(eventCache.get(objectId), is(Optional.empty()));
+
+        eventCache.put(objectId, "{\"id\":1}".getBytes(StandardCharsets.UTF_8), EventCodec.NONE, 8);
+
+        final EventStream eventStream = eventCache.get(objectId).orElseThrow();
+        assertThat(eventStream.getSize(), is(8L));
+        assertThat(new String(eventStream.readAllBytes(), StandardCharsets.UTF_8), is("{\"id\":1}"));
+
+        // Assert reading a stream does not consume the cached copy
+        assertThat(eventCache.get(objectId).orElseThrow().available(), is(8));
+
+        assertThat(meterRegistry.counter("event.audit.cache.hits").count(), is(2.0));
+        assertThat(meterRegistry.counter("event.audit.cache.misses").count(), is(1.0));
+        assertThat(meterRegistry.get("event.audit.cache.bytes").gauge().value(), is(8.0));
+    }
+
+    @Test
+    void cacheEncodedEvent() throws IOException {
+
+        final EventCache eventCache = new EventCache(meterRegistry, 100, 50);
+        final ObjectId objectId = new ObjectId();
+        final byte[] json = "{\"id\":1,\"data\":\"0000000000\"}".getBytes(StandardCharsets.UTF_8);
+        final byte[] encoded = EventCodec.GZIP.encode(json);
+
+        eventCache.put(objectId, encoded, EventCodec.GZIP, json.length);
+
+        final EventStream eventStream = eventCache.get(objectId).orElseThrow();
+        assertThat(eventStream.getCodec(), is(EventCodec.GZIP));
+        assertThat(eventStream.getSize(), is((long) encoded.length));
+
+        final EventStream decoded = eventStream.decode();
+        assertThat(decoded.getSize(), is((long) json.length));
+        assertThat(decoded.readAllBytes(), is(json));
+    }
+
+    @Test
+    void evictLeastRecentlyRead() {
+
+        final EventCache eventCache = new EventCache(meterRegistry, 100, 50);
+        final ObjectId first = new ObjectId();
+        final ObjectId second = new ObjectId();
+        final ObjectId third = new ObjectId();
+
+        eventCache.put(first, new byte[40], EventCodec.NONE, 40);
+        eventCache.put(second, new byte[40], EventCodec.NONE, 40);
+        eventCache.get(first);
+        eventCache.put(third, new byte[40], EventCodec.NONE, 40);
+
+        assertThat(eventCache.get(second).isPresent(), is(false));
+        assertThat(eventCache.get(first).isPresent(), is(true));
+        assertThat(eventCache.get(third).isPresent(), is(true));
+        assertThat(eventCache.getBytes(), is(80L));
+        assertThat(meterRegistry.counter("event.audit.cache.evictions").count(), is(1.0));
+    }
+
+    @Test
+    void largeEventsNotCached() {
+
+        final EventCache eventCache = new EventCache(meterRegistry, 100, 50);
+        final ObjectId objectId = new ObjectId();
+
+        eventCache.put(objectId, new byte[51], EventCodec.NONE, 51);
+
+        assertThat(eventCache.isCacheable(51), is(false));
+        assertThat(eventCache.get(objectId).isPresent(), is(false));
+        assertThat(eventCache.getEntries(), is(0));
+    }
+
+    @Test
+    void disabled() {
+
+        final EventCache eventCache = new EventCache(meterRegistry, 0, 50);
+        final ObjectId objectId = new ObjectId();
+
+        eventCache.put(objectId, new byte[10], EventCodec.NONE, 10);
+
+        assertThat(eventCache.get(objectId).isPresent(), is(false));
+        assertThat(meterRegistry.counter("event.audit.cache.misses").count(), is(0.0));
+    }
+}
@@ -0,0 +1,120 @@
+package com.stormeye.event.audit.service;
+
+import com.mongodb.client.gridfs.model.GridFSFile;
+import org.apache.commons.io.IOUtils;
+import org.bson.Document;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.gridfs.GridFsOperations;
+import org.springframework.test.context.TestPropertySource;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Random;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.lessThan;
+import static org.hamcrest.core.Is.is;
+
+/**
+ * Tests for storing events encoded with an {@link EventCodec}.
+ *
+ * @author ian@meywood.com
+ */
+@SpringBootTest(properties = "event.audit.storage.codec=ZSTD")
+@TestPropertySource(locations = "classpath:application-test.properties")
+class EventCodecTest {
+
+    private static final String JSON = "/kafka-events-main.json";
+
+    @Autowired
+    private EventAuditService eventAuditService;
+
+    @Autowired
+    private GridFsOperations gridFsOperations;
+
+    @Autowired
+    private EventStore eventStore;
+
+    private byte[] json;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        gridFsOperations.delete(new Query());
+        eventStore.getInlineCollection().deleteMany(new Document());
+        //noinspection ConstantConditions
+        json = EventCodecTest.class.getResourceAsStream(JSON).readAllBytes();
+    }
+
+    @Test
+    void encodeAndDecode() throws IOException {
+        for (EventCodec codec : EventCodec.values()) {
+            final byte[] encoded = codec.encode(json);
+            assertThat(codec.decode(new ByteArrayInputStream(encoded)).readAllBytes(), is(json));
+            assertThat(EventCodec.fromMetadata(EventStore.encodedMetadata(new Document(), codec)), is(codec));
+        }
+    }
+
+    @Test
+    void saveEncodedEvent() throws IOException {
+
+        final String id = eventAuditService.saveEvent(new ByteArrayInputStream(json));
+
+        final Document inline = eventStore.getInlineCollection().find().first();
+        //noinspection ConstantConditions
+        final Document metadata = inline.get("metadata", Document.class);
+        assertThat(metadata.getString("codec"), is("zstd"));
+        assertThat(metadata.getLong("bytes"), is((long) json.length));
+        assertThat(inline.getLong("length"), is(lessThan((long) json.length)));
+
+        final EventStream eventStream = eventAuditService.getEventById(id);
+        assertThat(eventStream.getCodec(), is(EventCodec.ZSTD));
+        assertThat(eventStream.getSize(), is(inline.getLong("length")));
+        assertThat(eventStream.decode().getSize(), is((long) json.length));
+        assertThat(IOUtils.toByteArray(eventStream.decode()), is(json));
+    }
+
+    @Test
+    void saveLargeEncodedEvent() throws IOException {
+
+        // Random content that does not compress below the inline threshold
+        final StringBuilder padding = new StringBuilder();
+        final Random random = new Random(7);
+        while (padding.length() < eventStore.getInlineThreshold() * 2) {
+            padding.append(Long.toHexString(random.nextLong()));
+        }
+        final byte[] large = new String(json, StandardCharsets.UTF_8)
+                .replaceFirst("\\{", "{\"padding\": \"" + padding + "\",")
+                .getBytes(StandardCharsets.UTF_8);
+
+        final String id = eventAuditService.saveEvent(new ByteArrayInputStream(large));
+
+        final GridFSFile gridFSFile = gridFsOperations.findOne(new Query(Criteria.where("_id").is(id)));
+        //noinspection ConstantConditions
+        assertThat(gridFSFile.getMetadata().getString("codec"), is("zstd"));
+        assertThat(gridFSFile.getMetadata().getLong("bytes"), is((long) large.length));
+        assertThat(gridFSFile.getLength(), is(lessThan((long) large.length)));
+
+        assertThat(IOUtils.toByteArray(eventAuditService.getEventById(id).decode()), is(large));
+    }
+
+    @Test
+    void saveEncodedEvents() throws IOException {
+
+        final String event = new String(json, StandardCharsets.UTF_8).replaceAll("\\s*\\n\\s*", "");
+        final String batch = event + "\n" + event.replace("65027303", "65027304") + "\n";
+
+        final List<EventBatchResult> results = eventAuditService.saveEvents(new ByteArrayInputStream(batch.getBytes(StandardCharsets.UTF_8)));
+
+        final EventStream eventStream = eventAuditService.getEventById(results.get(1).getId());
+        assertThat(eventStream.getCodec(), is(EventCodec.ZSTD));
+        assertThat(new String(IOUtils.toByteArray(eventStream.decode()), StandardCharsets.UTF_8),
+                is(event.replace("65027303", "65027304")));
+    }
+}
@@ -0,0 +1,33 @@
+package com.stormeye.event.audit.service;
+
+import org.bson.types.ObjectId;
+import org.junit.jupiter.api.Test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.core.Is.is;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Unit tests for the {@link EventCursor}.
+ *
+ * @author ian@meywood.com
+ */
+class EventCursorTest {
+
+    @Test
+    void tokenRoundTrip() {
+
+        final ObjectId objectId = new ObjectId();
+        final EventCursor cursor = EventCursor.fromToken(new EventCursor("http://65.21.235.219:9999", 65027303L, objectId).toToken());
+
+        assertThat(cursor.getSource(), is("http://65.21.235.219:9999"));
+        assertThat(cursor.getId(), is(65027303L));
+        assertThat(cursor.getObjectId(), is(objectId));
+    }
+
+    @Test
+    void invalidToken() {
+        assertThrows(IllegalArgumentException.class, () -> EventCursor.fromToken("not a cursor"));
+        assertThrows(IllegalArgumentException.class, () -> EventCursor.fromToken("c291cmNl"));
+    }
+}
@@ -0,0 +1,167 @@
+package com.stormeye.event.audit.service;
+
+import com.stormeye.event.audit.exception.DuplicateEventException;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.gridfs.GridFsOperations;
+import org.springframework.test.context.TestPropertySource;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Optional;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.core.Is.is;
+import static org.hamcrest.core.IsNull.notNullValue;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Tests for saving events with the {@link EventDeduplicator} enabled.
+ *
+ * @author ian@meywood.com
+ */
+@SpringBootTest(properties = {"event.audit.dedup.enabled=true", "event.audit.dedup.verify-content=true"})
+@TestPropertySource(locations = "classpath:application-test.properties")
+class EventDeduplicatorTest {
+
+    private static final String JSON = "/kafka-events-main.json";
+
+    @Autowired
+    private EventAuditService eventAuditService;
+
+    @Autowired
+    private GridFsOperations gridFsOperations;
+
+    @Autowired
+    private EventStore eventStore;
+
+    @Autowired
+    private EventSegmentStore segmentStore;
+
+    private String json;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        gridFsOperations.delete(new Query());
+        eventStore.getInlineCollection().deleteMany(new Document());
+        //noinspection ConstantConditions
+        json = new String(EventDeduplicatorTest.class.getResourceAsStream(JSON).readAllBytes(), StandardCharsets.UTF_8);
+    }
+
+    @Test
+    void saveDuplicateEvent() throws IOException {
+
+        final String id = save(json.replace("65027303", "65027310"));
+
+        assertThat(save(json.replace("65027303", "65027310")), is(id));
+        assertThat(eventStore.getInlineCollection().countDocuments(), is(1L));
+
+        // Assert the content hash was stored with the metadata
+        final Document metadata = eventStore.getInlineCollection().find().first().get("metadata", Document.class);
+        assertThat(metadata.getString(EventDeduplicator.CONTENT_HASH).length(), is(64));
+    }
+
+    @Test
+    void saveDuplicateLargeEvent() throws IOException {
+
+        final String large = json.replace("65027303", "65027311")
+                .replaceFirst("\\{", "{\"padding\": \"" + "0".repeat(eventStore.getInlineThreshold()) + "\",");
+
+        final String id = save(large);
+
+        assertThat(save(large), is(id));
+        assertThat(eventStore.getFilesCollection().countDocuments(), is(1L));
+    }
+
+    @Test
+    void findStoredCopy() throws IOException {
+
+        final String id = save(json.replace("65027303", "65027312"));
+
+        // A deduplicator without any recent keys finds the copy in the store
+        final EventDeduplicator deduplicator = new EventDeduplicator(eventStore, segmentStore, new SimpleMeterRegistry(), true, true, 10);
+        final Document metadata = eventStore.getInlineCollection().find().first().get("metadata", Document.class);
+
+        assertThat(deduplicator.findStored(metadata), is(Optional.of(new ObjectId(id))));
+        assertThat(deduplicator.findRecent(metadata), is(Optional.of(new ObjectId(id))));
+
+        metadata.put(EventDeduplicator.CONTENT_HASH, "0".repeat(64));
+        assertThrows(DuplicateEventException.class, () -> deduplicator.findRecent(metadata));
+    }
+
+    @Test
+    void findRecentKeyBeforeEventIsRead() {
+
+        final Document metadata = new Document("type", "main").append("source", "http://65.21.235.219:9999").append("id", 65027316L);
+        final ObjectId objectId = new ObjectId();
+
+        final EventDeduplicator deduplicator = new EventDeduplicator(eventStore, segmentStore, new SimpleMeterRegistry(), true, false, 10);
+        deduplicator.remember(metadata, objectId);
+        assertThat(deduplicator.findRecentKey("http://65.21.235.219:9999", "main", 65027316L), is(Optional.of(objectId)));
+
+        // The key of an event whose content is verified is only looked up once its hash is known
+        final EventDeduplicator verifying = new EventDeduplicator(eventStore, segmentStore, new SimpleMeterRegistry(), true, true, 10);
+        verifying.remember(metadata, objectId);
+        assertThat(verifying.findRecentKey("http://65.21.235.219:9999", "main", 65027316L), is(Optional.empty()));
+    }
+
+    @Test
+    void forgetEventThatWasNotStored() {
+
+        final Document metadata = new Document("type", "main").append("source", "http://65.21.235.219:9999").append("id", 65027317L);
+        final ObjectId objectId = new ObjectId();
+        final ObjectId copy = new ObjectId();
+
+        final EventDeduplicator deduplicator = new EventDeduplicator(eventStore, segmentStore, new SimpleMeterRegistry(), true, false, 10);
+        deduplicator.remember(metadata, objectId);
+        deduplicator.forget(metadata, objectId);
+        assertThat(deduplicator.findRecent(metadata), is(Optional.empty()));
+
+        // A key remembered since for another copy is kept
+        deduplicator.remember(metadata, copy);
+        deduplicator.forget(metadata, objectId);
+        assertThat(deduplicator.findRecent(metadata), is(Optional.of(copy)));
+    }
+
+    @Test
+    void saveDifferentEventWithSameKey() throws IOException {
+
+        save(json.replace("65027303", "65027313"));
+
+        assertThrows(DuplicateEventException.class, () -> save(json.replace("65027303", "65027313").replace("BlockAdded", "Changed")));
+        assertThat(eventStore.getInlineCollection().countDocuments(), is(1L));
+    }
+
+    @Test
+    void saveDuplicateEvents() throws IOException {
+
+        final String event = json.replaceAll("\\s*\\n\\s*", "").replace("65027303", "65027314");
+        final String other = event.replace("65027314", "65027315");
+        final String batch = event + "\n" + other + "\n" + other + "\n";
+
+        final List<EventBatchResult> results = eventAuditService.saveEvents(new ByteArrayInputStream(batch.getBytes(StandardCharsets.UTF_8)));
+
+        assertThat(results.size(), is(3));
+        assertThat(results.get(1).getId(), is(notNullValue()));
+        assertThat(results.get(2).getId(), is(results.get(1).getId()));
+
+        // Replaying the batch returns the same IDs without storing the events again
+        final List<EventBatchResult> replayed = eventAuditService.saveEvents(new ByteArrayInputStream(batch.getBytes(StandardCharsets.UTF_8)));
+
+        assertThat(replayed.get(0).getId(), is(results.get(0).getId()));
+        assertThat(replayed.get(1).getId(), is(results.get(1).getId()));
+        assertThat(eventStore.getInlineCollection().countDocuments(), is(2L));
+    }
+
+    private String save(final String event) throws IOException {
+        return eventAuditService.saveEvent(new ByteArrayInputStream(event.getBytes(StandardCharsets.UTF_8)));
+    }
+}
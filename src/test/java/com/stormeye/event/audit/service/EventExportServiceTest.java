@@ -0,0 +1,119 @@
+package com.stormeye.event.audit.service;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.bson.Document;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.gridfs.GridFsOperations;
+import org.springframework.test.context.TestPropertySource;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.Random;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.core.Is.is;
+
+/**
+ * Tests for the {@link EventExportService}.
+ *
+ * @author ian@meywood.com
+ */
+@SpringBootTest
+@TestPropertySource(locations = "classpath:application-test.properties")
+class EventExportServiceTest {
+
+    private static final String JSON = "/kafka-events-main.json";
+
+    @Autowired
+    private EventExportService eventExportService;
+
+    @Autowired
+    private EventAuditService eventAuditService;
+
+    @Autowired
+    private GridFsOperations gridFsOperations;
+
+    @Autowired
+    private EventStore eventStore;
+
+    private String json;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        gridFsOperations.delete(new Query());
+        eventStore.getInlineCollection().deleteMany(new Document());
+        //noinspection ConstantConditions
+        json = new String(EventExportServiceTest.class.getResourceAsStream(JSON).readAllBytes(), StandardCharsets.UTF_8);
+    }
+
+    @Test
+    void exportInlineAndGridFsEventsInOrder() throws IOException {
+
+        final byte[] padding = new byte[64 * 1024];
+        new Random(1).nextBytes(padding);
+        final String largeEvent = json.replaceFirst("\\{", "{\"padding\": \"" + Base64.getEncoder().encodeToString(padding) + "\",");
+
+        saveEvent(json, 3);
+        saveEvent(largeEvent, 2);
+        saveEvent(json, 4);
+        saveEvent(json, 1);
+
+        assertThat(eventStore.getFilesCollection().countDocuments(), is(1L));
+
+        final String[] lines = export(new EventQuery(null, null, null, null, null, null, Integer.MAX_VALUE));
+
+        assertThat(lines.length, is(4));
+        for (int i = 0; i < lines.length; i++) {
+            final JsonNode event = new ObjectMapper().readTree(lines[i]);
+            assertThat(event.get("id").asLong(), is(65027301L + i));
+            assertThat(event.get("type").asText(), is("main"));
+        }
+        assertThat(new ObjectMapper().readTree(lines[1]).has("padding"), is(true));
+    }
+
+    @Test
+    void exportRange() throws IOException {
+
+        for (long id = 1; id <= 5; id++) {
+            saveEvent(json, id);
+        }
+
+        final String[] lines = export(new EventQuery("main", null, "http://65.21.235.219:9999", 65027302L, 65027304L, null, Integer.MAX_VALUE));
+
+        assertThat(lines.length, is(3));
+        assertThat(new ObjectMapper().readTree(lines[0]).get("id").asLong(), is(65027302L));
+        assertThat(new ObjectMapper().readTree(lines[2]).get("id").asLong(), is(65027304L));
+
+        assertThat(export(new EventQuery("deploys", null, null, null, null, null, Integer.MAX_VALUE)).length, is(0));
+    }
+
+    private String[] export(final EventQuery query) throws IOException {
+
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final long count = eventExportService.export(query, out);
+
+        final String ndjson = out.toString(StandardCharsets.UTF_8);
+        if (ndjson.isEmpty()) {
+            assertThat(count, is(0L));
+            return new String[0];
+        }
+
+        assertThat(ndjson.endsWith("\n"), is(true));
+        final String[] lines = ndjson.substring(0, ndjson.length() - 1).split("\n");
+        assertThat((long) lines.length, is(count));
+        return lines;
+    }
+
+    private void saveEvent(final String event, final long id) throws IOException {
+        final String content = event.replace("65027303", Long.toString(65027300L + id));
+        eventAuditService.saveEvent(new ByteArrayInputStream(content.getBytes(StandardCharsets.UTF_8)));
+    }
+}
@@ -0,0 +1,101 @@
+package com.stormeye.event.audit.service;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.Map;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.core.Is.is;
+
+/**
+ * Unit tests for the {@link EventFormat}.
+ *
+ * @author ian@meywood.com
+ */
+class EventFormatTest {
+
+    private static final String JSON = "/kafka-events-main.json";
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    @Test
+    void transcodeToAndFromJson() throws IOException {
+
+        //noinspection ConstantConditions
+        final JsonNode event = objectMapper.readTree(EventFormatTest.class.getResourceAsStream(JSON));
+
+        for (Map.Entry<EventFormat, ObjectMapper> entry : Map.of(
+                EventFormat.SMILE, new ObjectMapper(new SmileFactory()),
+                EventFormat.CBOR, new ObjectMapper(new CBORFactory())).entrySet()) {
+
+            final EventFormat format = entry.getKey();
+            final byte[] binary = entry.getValue().writeValueAsBytes(event);
+
+            final byte[] json = format.toJson(new ByteArrayInputStream(binary)).readAllBytes();
+            assertThat(objectMapper.readTree(json), is(event));
+            // The JSON is compact so that a sequence of events is newline delimited
+            assertThat(new String(json, StandardCharsets.UTF_8).contains("\n"), is(false));
+
+            final ByteArrayOutputStream out = new ByteArrayOutputStream();
+            format.fromJson(new ByteArrayInputStream(json), out);
+            assertThat(entry.getValue().readTree(out.toByteArray()), is(event));
+        }
+    }
+
+    @Test
+    void sequenceIsTranscodedToNewlineDelimitedJson() throws IOException {
+
+        for (Map.Entry<EventFormat, ObjectMapper> entry : Map.of(
+                EventFormat.SMILE, new ObjectMapper(new SmileFactory()),
+                EventFormat.CBOR, new ObjectMapper(new CBORFactory())).entrySet()) {
+
+            // Each event is written as a document of its own, so a Smile sequence repeats the header
+            final ByteArrayOutputStream sequence = new ByteArrayOutputStream();
+            for (int i = 1; i <= 3; i++) {
+                sequence.write(entry.getValue().writeValueAsBytes(Map.of("id", i)));
+            }
+
+            final InputStream json = entry.getKey().toJson(new ByteArrayInputStream(sequence.toByteArray()));
+
+            assertThat(new String(json.readAllBytes(), StandardCharsets.UTF_8), is("{\"id\":1}\n{\"id\":2}\n{\"id\":3}"));
+        }
+    }
+
+    @Test
+    void largeEventIsTranscodedAsItIsRead() throws IOException {
+
+        final Map<String, Object> event = Map.of("id", 1, "data", Collections.nCopies(1024, "x".repeat(1024)));
+        final byte[] smile = new ObjectMapper(new SmileFactory()).writeValueAsBytes(event);
+
+        final InputStream json = EventFormat.SMILE.toJson(new ByteArrayInputStream(smile));
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final byte[] bytes = new byte[256 * 1024];
+        int read;
+        while ((read = json.read(bytes)) != -1) {
+            // Only a chunk of the event's JSON is buffered, never the whole event
+            assertThat(read < bytes.length, is(true));
+            out.write(bytes, 0, read);
+        }
+
+        final JsonNode expected = objectMapper.valueToTree(event);
+        assertThat(objectMapper.readTree(out.toByteArray()), is(expected));
+    }
+
+    @Test
+    void formatOfContentType() {
+        assertThat(EventFormat.fromContentType(null), is(EventFormat.JSON));
+        assertThat(EventFormat.fromContentType("application/x-ndjson"), is(EventFormat.JSON));
+        assertThat(EventFormat.fromContentType("application/x-jackson-smile"), is(EventFormat.SMILE));
+        assertThat(EventFormat.fromContentType("Application/CBOR; charset=binary"), is(EventFormat.CBOR));
+    }
+}
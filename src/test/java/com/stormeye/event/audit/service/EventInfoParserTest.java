@@ -0,0 +1,129 @@
+package com.stormeye.event.audit.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.Objects;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.core.Is.is;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Unit tests for the {@link EventInfoParser}.
+ *
+ * @author ian@meywood.com
+ */
+class EventInfoParserTest {
+
+    private static final String JSON = "/kafka-events-main.json";
+
+    @Test
+    void parseInSmallChunks() throws IOException {
+
+        final byte[] json = readJson();
+        final EventInfoParser parser = new EventInfoParser();
+
+        // Feed the event a few bytes at a time to split tokens across feeds
+        for (int offset = 0; offset < json.length; offset += 7) {
+            parser.feed(json, offset, Math.min(7, json.length - offset));
+        }
+
+        final EventInfo eventInfo = parser.complete();
+
+        assertThat(eventInfo.getSource(), is("http://65.21.235.219:9999"));
+        assertThat(eventInfo.getEventType(), is("main"));
+        assertThat(eventInfo.getDataType(), is("BlockAdded"));
+        assertThat(eventInfo.getId().isPresent(), is(true));
+        assertThat(eventInfo.getId().get(), is(65027303L));
+        assertThat(eventInfo.getVersion(), is("1.0.0"));
+    }
+
+    @Test
+    void nestedFieldsAreIgnored() throws IOException {
+
+        final EventInfo eventInfo = parse("{\"data\":{\"type\":\"nested\",\"id\":1},\"type\":\"deploys\"," +
+                "\"source\":\"http://localhost:9999\",\"dataType\":\"DeployAccepted\"}");
+
+        assertThat(eventInfo.getEventType(), is("deploys"));
+        assertThat(eventInfo.getId().isPresent(), is(false));
+    }
+
+    @Test
+    void extractFieldsOfDataType() throws IOException {
+
+        final EventFields fields = new EventFields(Map.of(
+                "BlockAdded", Map.of("blockHash", "data.BlockAdded.block_hash", "height", "data.BlockAdded.block.header.height"),
+                "DeployProcessed", Map.of("blockHash", "data.DeployProcessed.block_hash")
+        ));
+
+        final byte[] json = readJson();
+        final EventInfoParser parser = new EventInfoParser(fields);
+        for (int offset = 0; offset < json.length; offset += 7) {
+            parser.feed(json, offset, Math.min(7, json.length - offset));
+        }
+
+        final EventInfo eventInfo = parser.complete();
+
+        assertThat(eventInfo.getFields().size(), is(2));
+        assertThat(eventInfo.getFields().get("blockHash"), is("5a91486c973deea304e26138206723278d9d269f4fe03bfc9e5fdb93e927236e"));
+        assertThat(eventInfo.getFields().get("height"), is(1002230L));
+    }
+
+    @Test
+    void extractFieldsBeforeDataType() throws IOException {
+
+        final EventFields fields = new EventFields(Map.of(
+                "DeployProcessed", Map.of("deployHash", "data.DeployProcessed.deploy_hash", "blockHash", "data.DeployProcessed.block_hash")
+        ));
+
+        // The data type follows the data, values of arrays, nested objects and other data types are not extracted
+        final byte[] bytes = ("{\"data\":{\"DeployProcessed\":{\"deploy_hash\":\"d1\",\"block_hash\":{\"nested\":\"b1\"}," +
+                "\"execution_result\":[{\"deploy_hash\":\"d2\"}]}},\"type\":\"deploys\"," +
+                "\"source\":\"http://localhost:9999\",\"dataType\":\"DeployProcessed\"}").getBytes(StandardCharsets.UTF_8);
+        final EventInfoParser parser = new EventInfoParser(fields);
+        parser.feed(bytes, 0, bytes.length);
+
+        final EventInfo eventInfo = parser.complete();
+
+        assertThat(eventInfo.getFields(), is(Map.of("deployHash", "d1")));
+        assertThat(parse("{\"data\":{\"DeployProcessed\":{\"deploy_hash\":\"d1\"}},\"type\":\"deploys\"," +
+                "\"source\":\"http://localhost:9999\",\"dataType\":\"DeployProcessed\"}").getFields().isEmpty(), is(true));
+    }
+
+    @Test
+    void invalidFieldPath() {
+        assertThrows(IllegalArgumentException.class, () -> new EventFields(Map.of("BlockAdded", Map.of("height", "data..height"))));
+    }
+
+    @Test
+    void missingRequiredField() {
+        assertThrows(IOException.class, () -> parse("{\"type\":\"main\",\"source\":\"http://localhost:9999\"}"));
+    }
+
+    @Test
+    void incompleteEvent() {
+        assertThrows(IOException.class, () -> parse("{\"type\":\"main\",\"source\":\"http://localhost:9999\","));
+    }
+
+    @Test
+    void notAnObject() {
+        assertThrows(IOException.class, () -> parse("[\"main\"]"));
+    }
+
+    private EventInfo parse(final String json) throws IOException {
+        final byte[] bytes = json.getBytes(StandardCharsets.UTF_8);
+        final EventInfoParser parser = new EventInfoParser();
+        parser.feed(bytes, 0, bytes.length);
+        return parser.complete();
+    }
+
+    private byte[] readJson() throws IOException {
+        try (InputStream in = Objects.requireNonNull(EventInfoParserTest.class.getResourceAsStream(JSON))) {
+            return in.readAllBytes();
+        }
+    }
+}
@@ -0,0 +1,117 @@
+package com.stormeye.event.audit.service;
+
+import org.bson.Document;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.gridfs.GridFsOperations;
+import org.springframework.test.context.TestPropertySource;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.core.Is.is;
+import static org.hamcrest.core.IsNull.notNullValue;
+import static org.hamcrest.core.IsNull.nullValue;
+
+/**
+ * Tests for the {@link EventQueryService}.
+ *
+ * @author ian@meywood.com
+ */
+@SpringBootTest
+@TestPropertySource(locations = "classpath:application-test.properties")
+class EventQueryServiceTest {
+
+    private static final String NODE_1 = "http://65.21.235.219:9999";
+    private static final String NODE_2 = "http://65.21.235.220:9999";
+
+    @Autowired
+    private EventAuditService eventAuditService;
+
+    @Autowired
+    private EventQueryService eventQueryService;
+
+    @Autowired
+    private GridFsOperations gridFsOperations;
+
+    @Autowired
+    private EventStore eventStore;
+
+    @BeforeEach
+    void setUp() throws IOException {
+
+        gridFsOperations.delete(new Query());
+        eventStore.getInlineCollection().deleteMany(new Document());
+
+        saveEvent(NODE_2, "main", "BlockAdded", 3, 0);
+        saveEvent(NODE_1, "main", "BlockAdded", 2, 0);
+        saveEvent(NODE_1, "deploys", "DeployAccepted", 1, 0);
+        // A large event that is stored in GridFS rather than inline
+        saveEvent(NODE_1, "main", "BlockAdded", 4, eventStore.getInlineThreshold());
+        saveEvent(NODE_2, "main", "Step", 5, 0);
+    }
+
+    @Test
+    void queryAll() {
+
+        final EventPage page = eventQueryService.query(new EventQuery(null, null, null, null, null, null, 10));
+
+        assertThat(eventIds(page), contains(1L, 2L, 4L, 3L, 5L));
+        assertThat(page.getNext(), is(nullValue()));
+        assertThat(page.getEvents().get(0).getSource(), is(NODE_1));
+        assertThat(page.getEvents().get(0).getType(), is("deploys"));
+        assertThat(page.getEvents().get(0).getDataType(), is("DeployAccepted"));
+    }
+
+    @Test
+    void queryByMetadata() {
+
+        assertThat(eventIds(eventQueryService.query(new EventQuery("main", null, NODE_1, null, null, null, 10))), contains(2L, 4L));
+        assertThat(eventIds(eventQueryService.query(new EventQuery(null, "BlockAdded", null, 3L, 4L, null, 10))), contains(4L, 3L));
+        assertThat(eventIds(eventQueryService.query(new EventQuery(null, "Step", NODE_1, null, null, null, 10))).size(), is(0));
+    }
+
+    @Test
+    void queryPages() {
+
+        final List<Long> eventIds = new ArrayList<>();
+        EventCursor after = null;
+        int pages = 0;
+
+        do {
+            final EventPage page = eventQueryService.query(new EventQuery(null, null, null, null, null, after, 2));
+            eventIds.addAll(eventIds(page));
+            after = page.getNext() != null ? EventCursor.fromToken(page.getNext()) : null;
+            pages++;
+        } while (after != null);
+
+        assertThat(eventIds, contains(1L, 2L, 4L, 3L, 5L));
+        assertThat(pages, is(3));
+    }
+
+    @Test
+    void indexesCreated() {
+        final List<Document> indexes = eventStore.getInlineCollection().listIndexes().into(new ArrayList<>());
+        assertThat(indexes.stream().filter(index -> index.get("key", Document.class).containsKey("metadata.dataType")).findFirst().orElse(null),
+                is(notNullValue()));
+    }
+
+    private List<Long> eventIds(final EventPage page) {
+        return page.getEvents().stream().map(EventSummary::getEventId).toList();
+    }
+
+    private void saveEvent(final String source, final String type, final String dataType, final long id, final int padding)
+            throws IOException {
+        final String json = "{\"source\":\"" + source + "\",\"type\":\"" + type + "\",\"dataType\":\"" + dataType
+                + "\",\"padding\":\"" + "0".repeat(padding) + "\",\"id\":" + id + "}";
+        eventAuditService.saveEvent(new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8)));
+    }
+}
@@ -0,0 +1,191 @@
+package com.stormeye.event.audit.service;
+
+import com.mongodb.client.MongoDatabase;
+import com.stormeye.event.audit.exception.DuplicateEventException;
+import com.stormeye.event.audit.exception.NotFoundException;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.mongodb.MongoDatabaseFactory;
+import org.springframework.test.context.TestPropertySource;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Optional;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.core.Is.is;
+import static org.hamcrest.core.IsNull.nullValue;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Tests for the {@link EventRetentionService} and the partitioning of the {@link EventStore}.
+ *
+ * @author ian@meywood.com
+ */
+@SpringBootTest(properties = "event.audit.storage.partition=DAY")
+@TestPropertySource(locations = "classpath:application-test.properties")
+class EventRetentionServiceTest {
+
+    private static final String JSON = "/kafka-events-main.json";
+    private static final String NODE = "http://65.21.235.219:9999";
+
+    @Autowired
+    private EventAuditService eventAuditService;
+
+    @Autowired
+    private EventQueryService eventQueryService;
+
+    @Autowired
+    private EventStore eventStore;
+
+    @Autowired
+    private EventCache eventCache;
+
+    @Autowired
+    private EventSegmentStore segmentStore;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Autowired
+    private MongoDatabaseFactory mongoDatabaseFactory;
+
+    private String json;
+
+    @BeforeEach
+    void setUp() throws IOException {
+
+        final MongoDatabase database = mongoDatabaseFactory.getMongoDatabase();
+        for (String collectionName : database.listCollectionNames().into(new ArrayList<>())) {
+            if (collectionName.startsWith("fs_")) {
+                database.getCollection(collectionName).drop();
+            } else if (collectionName.startsWith("fs.")) {
+                database.getCollection(collectionName).deleteMany(new Document());
+            }
+        }
+        eventStore.refreshPartitions();
+
+        //noinspection ConstantConditions
+        json = new String(EventRetentionServiceTest.class.getResourceAsStream(JSON).readAllBytes(), StandardCharsets.UTF_8);
+    }
+
+    @Test
+    void eventsAreStoredInTheirPeriodsPartition() throws IOException {
+
+        final Instant now = Instant.now();
+        final String id = eventAuditService.saveEvent(new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8)));
+        final ObjectId old = storeEvent(now.minus(10, ChronoUnit.DAYS), 1, eventStore.getInlineThreshold());
+
+        final MongoDatabase database = mongoDatabaseFactory.getMongoDatabase();
+        final String period = EventPartitioning.DAY.periodOf(new ObjectId(id).getDate().toInstant());
+        assertThat(database.getCollection("fs_" + period + ".inline").countDocuments(), is(1L));
+        final String oldPeriod = EventPartitioning.DAY.periodOf(old.getDate().toInstant());
+        assertThat(database.getCollection("fs_" + oldPeriod + ".files").countDocuments(), is(1L));
+        assertThat(database.getCollection("fs.inline").countDocuments(), is(0L));
+
+        // Events are read from the partition of their internal ID and queried across all the partitions
+        assertThat(eventAuditService.getEventById(id).decode().readAllBytes().length, is(json.getBytes(StandardCharsets.UTF_8).length));
+        assertThat(eventAuditService.getEventById(old.toHexString()).getSize() >= eventStore.getInlineThreshold(), is(true));
+        assertThat(eventAuditService.getEventByEventId(NODE, "main", 1).getSize() >= eventStore.getInlineThreshold(), is(true));
+
+        final List<Long> eventIds = new ArrayList<>();
+        eventQueryService.query(new EventQuery(null, null, NODE, null, null, null, 10)).getEvents()
+                .forEach(summary -> eventIds.add(summary.getEventId()));
+        assertThat(eventIds, contains(1L, 65027303L));
+    }
+
+    @Test
+    void replayOfAnEarlierPeriodsEventIsRejected() throws IOException {
+
+        final ObjectId old = storeEvent(Instant.now().minus(10, ChronoUnit.DAYS), 65027303, 0);
+        final byte[] replay = json.getBytes(StandardCharsets.UTF_8);
+
+        // The unique index of the current partition does not hold the copy stored in the earlier period
+        assertThrows(DuplicateEventException.class, () -> eventAuditService.saveEvent(new ByteArrayInputStream(replay)));
+        final List<EventBatchResult> results = eventAuditService.saveEvents(new ByteArrayInputStream(json.replaceAll("\\s*\\n\\s*", "").getBytes(StandardCharsets.UTF_8)));
+        assertThat(results.get(0).getId(), is(nullValue()));
+        assertThat(eventStore.getInlineCollection().countDocuments(), is(0L));
+
+        // With deduplication enabled the replay is resolved to the earlier copy
+        final EventDeduplicator deduplicator = new EventDeduplicator(eventStore, segmentStore, meterRegistry, true, false, 10);
+        final Document metadata = new Document("source", NODE).append("type", "main").append("id", 65027303L);
+        assertThat(deduplicator.findCopy(metadata, false), is(Optional.of(old)));
+        assertThat(deduplicator.findCopy(metadata.append("id", 65027304L), true), is(Optional.empty()));
+    }
+
+    @Test
+    void dropsExpiredPartitions() throws IOException {
+
+        final Instant now = Instant.now();
+        final ObjectId expired = storeEvent(now.minus(10, ChronoUnit.DAYS), 1, 0);
+        final ObjectId retained = storeEvent(now.minus(5, ChronoUnit.DAYS), 2, 0);
+        final ObjectId current = storeEvent(now, 3, 0);
+
+        final EventRetentionService retentionService = retentionService(Duration.ofDays(7), 0);
+
+        assertThat(retentionService.enforce(), contains(EventPartitioning.DAY.periodOf(expired.getDate().toInstant())));
+        assertThat(mongoDatabaseFactory.getMongoDatabase().listCollectionNames().into(new ArrayList<>())
+                .contains("fs_" + EventPartitioning.DAY.periodOf(expired.getDate().toInstant()) + ".inline"), is(false));
+
+        assertThrows(NotFoundException.class, () -> eventAuditService.getEventById(expired.toHexString()));
+        assertThat(eventAuditService.getEventById(retained.toHexString()).getSize() > 0, is(true));
+        assertThat(eventAuditService.getEventById(current.toHexString()).getSize() > 0, is(true));
+
+        assertThat(retentionService.enforce().isEmpty(), is(true));
+    }
+
+    @Test
+    void dropsOldestPartitionsBeyondMaxBytes() throws IOException {
+
+        final Instant now = Instant.now();
+        final ObjectId oldest = storeEvent(now.minus(3, ChronoUnit.DAYS), 1, 0);
+        final ObjectId older = storeEvent(now.minus(2, ChronoUnit.DAYS), 2, 0);
+        final ObjectId current = storeEvent(now, 3, 0);
+
+        final long currentSize = eventStore.getPartitionSize(EventPartitioning.DAY.periodOf(now));
+        final long olderSize = eventStore.getPartitionSize(EventPartitioning.DAY.periodOf(older.getDate().toInstant()));
+
+        assertThat(retentionService(Duration.ZERO, currentSize + olderSize).enforce(),
+                contains(EventPartitioning.DAY.periodOf(oldest.getDate().toInstant())));
+        assertThat(eventAuditService.getEventById(older.toHexString()).getSize() > 0, is(true));
+
+        // The current partition is never dropped
+        assertThat(retentionService(Duration.ZERO, 1).enforce(),
+                contains(EventPartitioning.DAY.periodOf(older.getDate().toInstant())));
+        assertThat(eventAuditService.getEventById(current.toHexString()).getSize() > 0, is(true));
+    }
+
+    private EventRetentionService retentionService(final Duration maxAge, final long maxBytes) {
+        return new EventRetentionService(eventStore, eventCache, segmentStore, meterRegistry, maxAge, maxBytes, Duration.ofHours(1));
+    }
+
+    /**
+     * Stores an event as if it had been accepted at an instant.
+     */
+    private ObjectId storeEvent(final Instant accepted, final long eventId, final int padding) {
+
+        final byte[] event = json.replace("65027303", Long.toString(eventId))
+                .replaceFirst("\\{", "{\"padding\": \"" + "0".repeat(padding) + "\",")
+                .getBytes(StandardCharsets.UTF_8);
+
+        final EventStore.EventWriter writer = eventStore.openWriter(new ObjectId(Date.from(accepted)));
+        writer.write(event, 0, event.length);
+        return writer.complete("/events/main/" + eventId + ".json", new Document("source", NODE)
+                .append("type", "main")
+                .append("id", eventId)
+                .append("bytes", (long) event.length));
+    }
+}
@@ -0,0 +1,150 @@
+package com.stormeye.event.audit.service;
+
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.core.Is.is;
+
+/**
+ * Unit tests for the {@link EventSegmentStore}.
+ *
+ * @author ian@meywood.com
+ */
+class EventSegmentStoreTest {
+
+    private static final String NAME = "fs_2022_10";
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void findEventsAcrossSegments() throws IOException {
+
+        // Small segments so that the events are rolled over several segments, each with several index entries
+        final EventSegmentStore segmentStore = new EventSegmentStore(directory.toString(), EventCodec.ZSTD, 32 * 1024);
+        final List<ObjectId> objectIds = write(segmentStore, NAME, 1000);
+
+        assertThat(countFiles(".segment") > 1, is(true));
+        assertThat(countFiles(".tmp"), is(0L));
+
+        for (int i = 0; i < objectIds.size(); i++) {
+            try (EventStream eventStream = segmentStore.find(objectIds.get(i)).orElseThrow()) {
+                // Events stored as is are compressed in the segments
+                assertThat(eventStream.getCodec(), is(EventCodec.ZSTD));
+                assertThat(new String(eventStream.decode().readAllBytes(), StandardCharsets.UTF_8), is(json(i)));
+            }
+        }
+
+        assertThat(segmentStore.find(new ObjectId()).isPresent(), is(false));
+        assertThat(segmentStore.find(new ObjectId(objectIds.get(0).getDate(), 0)).isPresent(), is(false));
+
+        // The segments are mapped by another instance
+        final EventSegmentStore reopened = new EventSegmentStore(directory.toString(), EventCodec.ZSTD, 32 * 1024);
+        assertThat(reopened.getNames().contains(NAME), is(true));
+        assertThat(reopened.find(objectIds.get(500)).isPresent(), is(true));
+    }
+
+    @Test
+    void segmentsOfAnotherInstanceAreFoundOnMiss() throws IOException {
+
+        final EventSegmentStore other = new EventSegmentStore(directory.toString(), EventCodec.ZSTD, 1024 * 1024);
+        final EventSegmentStore segmentStore = new EventSegmentStore(directory.toString(), EventCodec.ZSTD, 1024 * 1024);
+        final List<ObjectId> objectIds = write(segmentStore, NAME, 10);
+
+        // The other instance refreshes its segments when it misses an event rather than waiting for its tiering interval
+        assertThat(other.find(objectIds.get(1)).isPresent(), is(true));
+        assertThat(other.findByEventId("http://65.21.235.219:9999", "main", 2).isPresent(), is(true));
+
+        // The refreshes made on a miss are rate limited
+        final List<ObjectId> later = write(segmentStore, "fs_2022_11", 10);
+        assertThat(other.find(later.get(1)).isPresent(), is(false));
+        other.refresh();
+        assertThat(other.find(later.get(1)).isPresent(), is(true));
+    }
+
+    @Test
+    void encodedEventsAreNotCompressedAgain() throws IOException {
+
+        final EventSegmentStore segmentStore = new EventSegmentStore(directory.toString(), EventCodec.ZSTD, 1024 * 1024);
+        final ObjectId objectId = new ObjectId();
+        final byte[] json = json(1).getBytes(StandardCharsets.UTF_8);
+
+        try (EventSegmentStore.SegmentWriter writer = segmentStore.openWriter(NAME)) {
+            writer.append(objectId, EventStore.encodedMetadata(metadata(1, json.length), EventCodec.GZIP), EventCodec.GZIP.encode(json));
+            writer.complete();
+        }
+
+        try (EventStream eventStream = segmentStore.find(objectId).orElseThrow()) {
+            assertThat(eventStream.getCodec(), is(EventCodec.GZIP));
+            assertThat(eventStream.getDecodedSize(), is((long) json.length));
+            assertThat(eventStream.decode().readAllBytes(), is(json));
+        }
+    }
+
+    @Test
+    void completeReplacesAndCloseDiscards() throws IOException {
+
+        final EventSegmentStore segmentStore = new EventSegmentStore(directory.toString(), EventCodec.NONE, 1024 * 1024);
+        final List<ObjectId> first = write(segmentStore, NAME, 10);
+        final List<ObjectId> second = write(segmentStore, NAME, 10);
+
+        assertThat(segmentStore.find(first.get(0)).isPresent(), is(false));
+        assertThat(segmentStore.find(second.get(0)).isPresent(), is(true));
+
+        // An incomplete writer leaves no files behind
+        try (EventSegmentStore.SegmentWriter writer = segmentStore.openWriter("fs_2022_11")) {
+            writer.append(new ObjectId(), metadata(1, 10), json(1).getBytes(StandardCharsets.UTF_8));
+        }
+        assertThat(countFiles(".tmp"), is(0L));
+        assertThat(segmentStore.getNames().size(), is(1));
+
+        segmentStore.delete(NAME);
+        assertThat(segmentStore.find(second.get(0)).isPresent(), is(false));
+        assertThat(countFiles(""), is(0L));
+    }
+
+    private List<ObjectId> write(final EventSegmentStore segmentStore, final String name, final int count) throws IOException {
+
+        final List<ObjectId> objectIds = new ArrayList<>();
+
+        try (EventSegmentStore.SegmentWriter writer = segmentStore.openWriter(name)) {
+            for (int i = 0; i < count; i++) {
+                final ObjectId objectId = new ObjectId();
+                final byte[] json = json(i).getBytes(StandardCharsets.UTF_8);
+                writer.append(objectId, metadata(i, json.length), json);
+                objectIds.add(objectId);
+            }
+            writer.complete();
+        }
+
+        return objectIds;
+    }
+
+    private long countFiles(final String suffix) throws IOException {
+        try (Stream<Path> paths = Files.list(directory)) {
+            return paths.filter(path -> path.getFileName().toString().endsWith(suffix)).count();
+        }
+    }
+
+    private static Document metadata(final long id, final long bytes) {
+        return new Document("source", "http://65.21.235.219:9999")
+                .append("type", "main")
+                .append("id", id)
+                .append("bytes", bytes);
+    }
+
+    private static String json(final int id) {
+        return "{\"id\":" + id + ",\"padding\":\"" + "x".repeat(100 + id % 200) + "\"}";
+    }
+}
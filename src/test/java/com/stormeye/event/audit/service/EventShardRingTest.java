@@ -0,0 +1,74 @@
+package com.stormeye.event.audit.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.lessThan;
+import static org.hamcrest.core.Is.is;
+
+/**
+ * Unit tests for the {@link EventShardRing}.
+ *
+ * @author ian@meywood.com
+ */
+class EventShardRingTest {
+
+    private static final int KEYS = 10000;
+
+    @Test
+    void keysAreSpreadAcrossClusters() {
+
+        final EventShardRing ring = new EventShardRing(List.of("a", "b", "c"));
+        final int[] counts = new int[3];
+
+        for (int i = 0; i < KEYS; i++) {
+            counts[ring.route(key(i))]++;
+        }
+
+        for (int count : counts) {
+            assertThat(count, is(greaterThan(KEYS / 5)));
+            assertThat(count, is(lessThan(KEYS / 2)));
+        }
+    }
+
+    @Test
+    void routingDependsOnlyOnTheClusterNames() {
+
+        final EventShardRing ring = new EventShardRing(List.of("a", "b", "c"));
+        final EventShardRing reordered = new EventShardRing(List.of("c", "a", "b"));
+        final List<String> names = List.of("a", "b", "c");
+        final List<String> reorderedNames = List.of("c", "a", "b");
+
+        for (int i = 0; i < KEYS; i++) {
+            assertThat(reorderedNames.get(reordered.route(key(i))), is(names.get(ring.route(key(i)))));
+        }
+    }
+
+    @Test
+    void addingAClusterOnlyMovesKeysToIt() {
+
+        final EventShardRing ring = new EventShardRing(List.of("a", "b", "c"));
+        final EventShardRing grown = new EventShardRing(List.of("a", "b", "c", "d"));
+        int moved = 0;
+
+        for (int i = 0; i < KEYS; i++) {
+            final int before = ring.route(key(i));
+            final int after = grown.route(key(i));
+            if (before != after) {
+                assertThat(after, is(3));
+                moved++;
+            }
+        }
+
+        // About a quarter of the keys move to the new cluster
+        assertThat(moved, is(greaterThan(KEYS / 8)));
+        assertThat(moved, is(lessThan(KEYS * 3 / 8)));
+    }
+
+    private static String key(final int i) {
+        return "http://10.0." + i / 256 + "." + i % 256 + ":9999";
+    }
+}
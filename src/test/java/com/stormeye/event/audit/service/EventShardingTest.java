@@ -0,0 +1,153 @@
+package com.stormeye.event.audit.service;
+
+import com.mongodb.client.MongoClient;
+import com.mongodb.client.MongoClients;
+import com.mongodb.client.MongoDatabase;
+import com.stormeye.event.audit.exception.DuplicateEventException;
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.mongodb.MongoDatabaseFactory;
+import org.springframework.test.context.TestPropertySource;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
+import static org.hamcrest.core.Is.is;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Tests for an {@link EventStore} that spans two clusters, the second cluster is another database of the test server.
+ *
+ * @author ian@meywood.com
+ */
+@SpringBootTest(properties = {
+        "event.audit.mongo.sharding.shards[0].name=b",
+        "event.audit.mongo.sharding.shards[0].host=" + EventShardingTest.SHARD_HOST
+})
+@TestPropertySource(locations = "classpath:application-test.properties")
+class EventShardingTest {
+
+    static final String SHARD_HOST = "localhost:27017/test-cspr-event-audit-b";
+    private static final String JSON = "/kafka-events-main.json";
+    private static final int SOURCES = 10;
+
+    private static final MongoClient shardClient = MongoClients.create("mongodb://" + SHARD_HOST);
+
+    @Autowired
+    private EventAuditService eventAuditService;
+
+    @Autowired
+    private EventExportService eventExportService;
+
+    @Autowired
+    private EventStore eventStore;
+
+    @Autowired
+    private MongoDatabaseFactory mongoDatabaseFactory;
+
+    private String json;
+
+    @AfterAll
+    static void closeClient() {
+        shardClient.close();
+    }
+
+    @BeforeEach
+    void setUp() throws IOException {
+
+        for (MongoDatabase database : databases()) {
+            for (String collectionName : List.of("fs.files", "fs.chunks", "fs.inline")) {
+                database.getCollection(collectionName).deleteMany(new Document());
+            }
+        }
+
+        //noinspection ConstantConditions
+        json = new String(EventShardingTest.class.getResourceAsStream(JSON).readAllBytes(), StandardCharsets.UTF_8);
+    }
+
+    @Test
+    void eventsAreRoutedToTheClusterOfTheirSource() throws IOException {
+
+        final Map<String, String> idsBySource = new HashMap<>();
+        for (int i = 0; i < SOURCES; i++) {
+            idsBySource.put(source(i), saveEvent(source(i)));
+        }
+
+        assertThat(eventStore.isSharded(), is(true));
+
+        // The events are spread over both clusters, each stored in the cluster encoded in its ID
+        final List<MongoDatabase> databases = databases();
+        for (int index = 0; index < databases.size(); index++) {
+            final List<Document> stored = databases.get(index).getCollection("fs.inline").find().into(new ArrayList<>());
+            assertThat(stored.size(), is(greaterThan(0)));
+            for (Document document : stored) {
+                assertThat(document.getObjectId("_id").toByteArray()[4] & 0xff, is(index));
+            }
+        }
+
+        for (int i = 0; i < SOURCES; i++) {
+            final String id = idsBySource.get(source(i));
+            assertThat(readSource(eventAuditService.getEventById(id)), is(source(i)));
+            assertThat(readSource(eventAuditService.getEventByEventId(source(i), "main", 65027303L)), is(source(i)));
+            // Events of the same source are stored in the same cluster
+            assertThat(eventStore.newObjectId(source(i), "main").toByteArray()[4], is(new ObjectId(id).toByteArray()[4]));
+        }
+
+        // An event whose routing key is not known is always stored in the first cluster
+        for (int i = 0; i < SOURCES; i++) {
+            assertThat(eventStore.newObjectId(null, null).toByteArray()[4], is((byte) 0));
+        }
+
+        // The cluster replaces a byte of the random value only, so the IDs keep their timestamp and remain unique
+        final int timestamp = new ObjectId().getTimestamp();
+        final Set<ObjectId> objectIds = new HashSet<>();
+        for (int i = 0; i < 1000; i++) {
+            final ObjectId objectId = eventStore.newObjectId(source(i % SOURCES), "main");
+            assertThat(objectId.getTimestamp(), is(greaterThanOrEqualTo(timestamp)));
+            assertThat(objectIds.add(objectId), is(true));
+        }
+
+        // A second copy of an event is rejected by the unique index of its cluster
+        assertThrows(DuplicateEventException.class, () -> saveEvent(source(0)));
+
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        assertThat(eventExportService.export(new EventQuery(null, null, null, null, null, null, Integer.MAX_VALUE), out),
+                is((long) SOURCES));
+    }
+
+    private List<MongoDatabase> databases() {
+        return List.of(mongoDatabaseFactory.getMongoDatabase(), shardClient.getDatabase("test-cspr-event-audit-b"));
+    }
+
+    private String saveEvent(final String source) throws IOException {
+        final String content = json.replace("http://65.21.235.219:9999", source);
+        return eventAuditService.saveEvent(new ByteArrayInputStream(content.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    private static String readSource(final EventStream eventStream) throws IOException {
+        try (eventStream) {
+            final String event = new String(eventStream.decode().readAllBytes(), StandardCharsets.UTF_8);
+            return event.substring(event.indexOf("http://"), event.indexOf(":9999") + 5);
+        }
+    }
+
+    private static String source(final int i) {
+        return "http://10.0.0." + i + ":9999";
+    }
+}
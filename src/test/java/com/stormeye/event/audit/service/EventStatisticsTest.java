@@ -0,0 +1,110 @@
+package com.stormeye.event.audit.service;
+
+import org.bson.Document;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.mongodb.MongoDatabaseFactory;
+import org.springframework.test.context.TestPropertySource;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.Map;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.core.Is.is;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Tests for the {@link EventStatistics}.
+ *
+ * @author ian@meywood.com
+ */
+@SpringBootTest(properties = "event.audit.stats.flush-interval=1h")
+@TestPropertySource(locations = "classpath:application-test.properties")
+class EventStatisticsTest {
+
+    private static final String JSON = "/kafka-events-main.json";
+    private static final String SOURCE = "http://65.21.235.219:9999";
+
+    @Autowired
+    private EventAuditService eventAuditService;
+
+    @Autowired
+    private EventStore eventStore;
+
+    @Autowired
+    private EventStatistics eventStatistics;
+
+    @Autowired
+    private MongoDatabaseFactory mongoDatabaseFactory;
+
+    private String json;
+
+    @BeforeEach
+    void setUp() throws IOException {
+
+        eventStore.getInlineCollection().deleteMany(new Document());
+        eventStore.getFilesCollection().deleteMany(new Document());
+        eventStatistics.flush();
+        mongoDatabaseFactory.getMongoDatabase().getCollection(EventStatistics.STATS_COLLECTION).deleteMany(new Document());
+        mongoDatabaseFactory.getMongoDatabase().getCollection(EventStatistics.LAST_IDS_COLLECTION).deleteMany(new Document());
+
+        //noinspection ConstantConditions
+        json = new String(EventStatisticsTest.class.getResourceAsStream(JSON).readAllBytes(), StandardCharsets.UTF_8);
+    }
+
+    @Test
+    void countSavedEvents() throws IOException {
+
+        final Instant from = Instant.now().truncatedTo(ChronoUnit.DAYS);
+        final long bytes = saveEvent(65027303) + saveEvent(65027305) + saveEvent(65027304);
+
+        // Nothing is reported until the counts are flushed
+        assertThat(eventStatistics.query(from, Instant.now().plusSeconds(60), EventStatistics.Granularity.MINUTE).getBuckets().isEmpty(), is(true));
+
+        eventStatistics.flush();
+        // A flush with nothing recorded adds nothing
+        eventStatistics.flush();
+
+        for (EventStatistics.Granularity granularity : EventStatistics.Granularity.values()) {
+            final EventStatisticsReport report = eventStatistics.query(from, Instant.now().plusSeconds(60), granularity);
+            final long events = report.getBuckets().stream().mapToLong(EventStatisticsBucket::getEvents).sum();
+            assertThat(events, is(3L));
+            assertThat(report.getBuckets().stream().mapToLong(EventStatisticsBucket::getBytes).sum(), is(bytes));
+            assertThat(report.getBuckets().get(0).getType(), is("main"));
+            assertThat(report.getBuckets().get(0).getDataType(), is("BlockAdded"));
+            assertThat(report.getBuckets().get(0).getSource(), is(SOURCE));
+            assertThat(report.getLastIds(), is(Map.of(SOURCE, Map.of("main", 65027305L))));
+        }
+
+        // The counts of a later flush are added to the same documents
+        saveEvent(65027306);
+        eventStatistics.flush();
+
+        final EventStatisticsReport report = eventStatistics.query(from, Instant.now().plusSeconds(60), EventStatistics.Granularity.DAY);
+        assertThat(report.getBuckets().size(), is(1));
+        assertThat(report.getBuckets().get(0).getEvents(), is(4L));
+        assertThat(report.getBuckets().get(0).getTime().toInstant(), is(from));
+        assertThat(report.getLastIds().get(SOURCE).get("main"), is(65027306L));
+    }
+
+    @Test
+    void invalidRange() {
+
+        final Instant now = Instant.now();
+
+        assertThrows(IllegalArgumentException.class, () -> eventStatistics.query(now, now.minusSeconds(60), EventStatistics.Granularity.MINUTE));
+        assertThrows(IllegalArgumentException.class, () -> eventStatistics.query(now.minus(30, ChronoUnit.DAYS), now, EventStatistics.Granularity.MINUTE));
+    }
+
+    private long saveEvent(final long eventId) throws IOException {
+        final byte[] event = json.replace("65027303", Long.toString(eventId)).getBytes(StandardCharsets.UTF_8);
+        eventAuditService.saveEvent(new ByteArrayInputStream(event));
+        return event.length;
+    }
+}
@@ -0,0 +1,65 @@
+package com.stormeye.event.audit.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.core.Is.is;
+
+/**
+ * Unit tests for the {@link EventStream}.
+ *
+ * @author ian@meywood.com
+ */
+class EventStreamTest {
+
+    @Test
+    void bulkReadsAreForwarded() throws IOException {
+
+        final byte[] data = new byte[1024 * 1024];
+        final AtomicInteger singleByteReads = new AtomicInteger();
+        final AtomicBoolean closed = new AtomicBoolean();
+
+        final InputStream delegate = new ByteArrayInputStream(data) {
+            @Override
+            public synchronized int read() {
+                singleByteReads.incrementAndGet();
+                return super.read();
+            }
+
+            @Override
+            public void close() {
+                closed.set(true);
+            }
+        };
+
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        try (EventStream eventStream = new EventStream(delegate, data.length)) {
+            assertThat(eventStream.available(), is(data.length));
+            assertThat(eventStream.transferTo(out), is((long) data.length));
+        }
+
+        assertThat(out.size(), is(data.length));
+        assertThat(singleByteReads.get(), is(0));
+        assertThat(closed.get(), is(true));
+    }
+
+    @Test
+    void readIntoArray() throws IOException {
+
+        final EventStream eventStream = new EventStream(new ByteArrayInputStream(new byte[]{1, 2, 3, 4}), 4);
+        final byte[] buffer = new byte[8];
+
+        assertThat(eventStream.skip(1), is(1L));
+        assertThat(eventStream.read(buffer, 2, 6), is(3));
+        assertThat(buffer[2], is((byte) 2));
+        assertThat(eventStream.read(buffer, 0, 8), is(-1));
+    }
+}
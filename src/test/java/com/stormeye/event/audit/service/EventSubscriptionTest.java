@@ -0,0 +1,82 @@
+package com.stormeye.event.audit.service;
+
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.core.Is.is;
+import static org.hamcrest.core.IsNull.nullValue;
+
+/**
+ * Unit tests for the {@link EventSubscription}.
+ *
+ * @author ian@meywood.com
+ */
+class EventSubscriptionTest {
+
+    @Test
+    void bufferedUntilStarted() {
+
+        final AtomicInteger signals = new AtomicInteger();
+        final EventSubscription subscription = new EventSubscription("main", null, 4, signals::incrementAndGet);
+
+        final Document first = event();
+        assertThat(subscription.offer(first), is(true));
+        assertThat(subscription.offer(event()), is(true));
+        assertThat(signals.get(), is(0));
+
+        subscription.start();
+        assertThat(signals.get(), is(1));
+
+        // The listener is not called again until the buffer has been drained
+        subscription.offer(event());
+        assertThat(signals.get(), is(1));
+
+        assertThat(subscription.poll(), is(first));
+        subscription.poll();
+        subscription.poll();
+        assertThat(subscription.poll(), is(nullValue()));
+
+        subscription.offer(event());
+        assertThat(signals.get(), is(2));
+    }
+
+    @Test
+    void lagsWhenBufferFull() {
+
+        final AtomicInteger signals = new AtomicInteger();
+        final EventSubscription subscription = new EventSubscription(null, null, 2, signals::incrementAndGet);
+
+        assertThat(subscription.offer(event()), is(true));
+        assertThat(subscription.offer(event()), is(true));
+        assertThat(subscription.offer(event()), is(false));
+        assertThat(subscription.isLagged(), is(true));
+
+        // The buffered events can still be polled but no further events are accepted
+        subscription.poll();
+        assertThat(subscription.offer(event()), is(false));
+
+        subscription.start();
+        assertThat(signals.get(), is(1));
+        subscription.poll();
+        assertThat(subscription.poll(), is(nullValue()));
+    }
+
+    @Test
+    void matches() {
+
+        final EventSubscription subscription = new EventSubscription("main", "http://65.21.235.219:9999", 1, () -> {
+        });
+
+        assertThat(subscription.matches(new Document("type", "main").append("source", "http://65.21.235.219:9999")), is(true));
+        assertThat(subscription.matches(new Document("type", "sigs").append("source", "http://65.21.235.219:9999")), is(false));
+        assertThat(subscription.matches(new Document("type", "main").append("source", "http://127.0.0.1:9999")), is(false));
+    }
+
+    private static Document event() {
+        return new Document("_id", new ObjectId()).append("metadata", new Document("type", "main"));
+    }
+}
@@ -0,0 +1,176 @@
+package com.stormeye.event.audit.service;
+
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.gridfs.GridFsOperations;
+import org.springframework.test.context.TestPropertySource;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.core.Is.is;
+import static org.hamcrest.core.IsNull.notNullValue;
+import static org.hamcrest.core.IsNull.nullValue;
+
+/**
+ * Tests for the {@link EventTailService}.
+ *
+ * @author ian@meywood.com
+ */
+@SpringBootTest(properties = {"event.audit.stream.max-backfill=3", "event.audit.stream.buffer-size=2"})
+@TestPropertySource(locations = "classpath:application-test.properties")
+class EventTailServiceTest {
+
+    private static final String JSON = "/kafka-events-main.json";
+    private static final String END = "end";
+
+    @Autowired
+    private EventTailService eventTailService;
+
+    @Autowired
+    private EventAuditService eventAuditService;
+
+    @Autowired
+    private GridFsOperations gridFsOperations;
+
+    @Autowired
+    private EventStore eventStore;
+
+    private String json;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        gridFsOperations.delete(new Query());
+        eventStore.getInlineCollection().deleteMany(new Document());
+        //noinspection ConstantConditions
+        json = new String(EventTailServiceTest.class.getResourceAsStream(JSON).readAllBytes(), StandardCharsets.UTF_8);
+    }
+
+    @Test
+    void tailLiveEvents() throws Exception {
+
+        final QueueSink sink = new QueueSink();
+        final EventTailService.Tail tail = eventTailService.tail("main", null, null, sink);
+
+        // The tail starts with a checkpoint so that a client can resume even if no event is sent
+        final String checkpoint = sink.take();
+        assertThat(ObjectId.isValid(checkpoint), is(true));
+
+        final String first = saveEvent(1);
+        final String second = saveEvent(2);
+
+        assertThat(sink.take(), is(first + " " + first));
+        assertThat(sink.take(), is(second + " " + second));
+
+        // A tail of another type is not sent the events
+        final QueueSink deploys = new QueueSink();
+        final EventTailService.Tail deploysTail = eventTailService.tail("deploys", null, null, deploys);
+        deploys.take();
+        final String third = saveEvent(3);
+
+        assertThat(sink.take(), is(third + " " + third));
+        assertThat(deploys.events.poll(100, TimeUnit.MILLISECONDS), is(nullValue()));
+
+        tail.close();
+        deploysTail.close();
+        saveEvent(4);
+        assertThat(sink.events.poll(100, TimeUnit.MILLISECONDS), is(nullValue()));
+    }
+
+    @Test
+    void resumeSendsStoredEventsBeforeLiveEvents() throws Exception {
+
+        final String first = saveEvent(1);
+        final String second = saveEvent(2);
+        final String third = saveEvent(3);
+
+        final QueueSink sink = new QueueSink();
+        final EventTailService.Tail tail = eventTailService.tail(null, null, new ObjectId(first), sink);
+
+        assertThat(sink.take(), is(second + " " + second));
+        assertThat(sink.take(), is(third + " " + third));
+
+        final String fourth = saveEvent(4);
+        assertThat(sink.take(), is(fourth + " " + fourth));
+        assertThat(sink.events.poll(100, TimeUnit.MILLISECONDS), is(nullValue()));
+
+        tail.close();
+    }
+
+    @Test
+    void resumeBeyondMaxBackfillEnds() throws Exception {
+
+        final String first = saveEvent(1);
+        saveEvent(2);
+        saveEvent(3);
+        final String fourth = saveEvent(4);
+        final String fifth = saveEvent(5);
+
+        final QueueSink sink = new QueueSink();
+        final EventTailService.Tail tail = eventTailService.tail(null, null, new ObjectId(first), sink);
+
+        sink.take();
+        sink.take();
+        assertThat(sink.take(), is(fourth + " " + fourth));
+        assertThat(sink.take(), is(END));
+        assertThat(tail.isClosed(), is(true));
+
+        // The client resumes from the cursor of the last event it received
+        final QueueSink resumed = new QueueSink();
+        final EventTailService.Tail resumedTail = eventTailService.tail(null, null, new ObjectId(fourth), resumed);
+        assertThat(resumed.take(), is(fifth + " " + fifth));
+        resumedTail.close();
+    }
+
+    private String saveEvent(final long id) throws IOException {
+        final String event = json.replace("65027303", Long.toString(65027300L + id));
+        final String objectId = eventAuditService.saveEvent(new ByteArrayInputStream(event.getBytes(StandardCharsets.UTF_8)));
+        assertThat(objectId, is(notNullValue()));
+        return objectId;
+    }
+
+    /**
+     * Records each event as its cursor and internal ID.
+     */
+    private static class QueueSink implements EventTailService.EventSink {
+
+        private final BlockingQueue<String> events = new LinkedBlockingQueue<>();
+
+        @Override
+        public void checkpoint(final String cursor) {
+            events.add(cursor);
+        }
+
+        @Override
+        public void send(final String cursor, final EventSummary summary, final byte[] json) {
+            assertThat(new String(json, StandardCharsets.UTF_8).contains("\"id\": " + summary.getEventId()), is(true));
+            events.add(cursor + " " + summary.getId());
+        }
+
+        @Override
+        public void complete() {
+            events.add(END);
+        }
+
+        @Override
+        public void completeWithError(final Throwable error) {
+            events.add(error.toString());
+        }
+
+        private String take() throws InterruptedException {
+            final String event = events.poll(5, TimeUnit.SECONDS);
+            assertThat(event, is(notNullValue()));
+            return event;
+        }
+    }
+}
@@ -0,0 +1,143 @@
+package com.stormeye.event.audit.service;
+
+import com.mongodb.client.MongoDatabase;
+import com.stormeye.event.audit.exception.DuplicateEventException;
+import com.stormeye.event.audit.exception.NotFoundException;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.mongodb.MongoDatabaseFactory;
+import org.springframework.test.context.TestPropertySource;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.Optional;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.core.Is.is;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Tests for the {@link EventTieringService}.
+ *
+ * @author ian@meywood.com
+ */
+@SpringBootTest(properties = {
+        "event.audit.storage.partition=DAY",
+        "event.audit.tiering.directory=${java.io.tmpdir}/cspr-event-audit-segments-test"
+})
+@TestPropertySource(locations = "classpath:application-test.properties")
+class EventTieringServiceTest {
+
+    private static final String JSON = "/kafka-events-main.json";
+    private static final String NODE = "http://65.21.235.219:9999";
+
+    @Autowired
+    private EventAuditService eventAuditService;
+
+    @Autowired
+    private EventStore eventStore;
+
+    @Autowired
+    private EventSegmentStore segmentStore;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Autowired
+    private MongoDatabaseFactory mongoDatabaseFactory;
+
+    private String json;
+
+    @BeforeEach
+    void setUp() throws IOException {
+
+        final MongoDatabase database = mongoDatabaseFactory.getMongoDatabase();
+        for (String collectionName : database.listCollectionNames().into(new ArrayList<>())) {
+            if (collectionName.startsWith("fs_")) {
+                database.getCollection(collectionName).drop();
+            }
+        }
+        eventStore.refreshPartitions();
+
+        segmentStore.refresh();
+        for (String name : segmentStore.getNames()) {
+            segmentStore.delete(name);
+        }
+
+        //noinspection ConstantConditions
+        json = new String(EventTieringServiceTest.class.getResourceAsStream(JSON).readAllBytes(), StandardCharsets.UTF_8);
+    }
+
+    @Test
+    void moveOldPartitionsToSegments() throws IOException {
+
+        final Instant now = Instant.now();
+        final ObjectId old = storeEvent(now.minus(10, ChronoUnit.DAYS), 1, 0);
+        // A large event stored in GridFS
+        final ObjectId oldLarge = storeEvent(now.minus(10, ChronoUnit.DAYS), 2, eventStore.getInlineThreshold());
+        final ObjectId recent = storeEvent(now.minus(1, ChronoUnit.DAYS), 3, 0);
+
+        final EventTieringService tieringService = new EventTieringService(eventStore, segmentStore, meterRegistry, Duration.ofDays(7), Duration.ofHours(1));
+        final String period = EventPartitioning.DAY.periodOf(old.getDate().toInstant());
+
+        assertThat(tieringService.enforce(), contains(period));
+        assertThat(eventStore.getPeriods().contains(period), is(false));
+        assertThat(segmentStore.getNames(), contains("fs_" + period));
+
+        // The moved events are read from the segments, the recent event from mongo
+        assertThat(new String(eventAuditService.getEventById(old.toHexString()).decode().readAllBytes(), StandardCharsets.UTF_8),
+                is(event(1, 0)));
+        assertThat(new String(eventAuditService.getEventById(oldLarge.toHexString()).decode().readAllBytes(), StandardCharsets.UTF_8),
+                is(event(2, eventStore.getInlineThreshold())));
+        assertThat(eventStore.find(recent).isPresent(), is(true));
+
+        // Moved events are found by their event ID through the key indexes of the segments
+        assertThat(new String(eventAuditService.getEventByEventId(NODE, "main", 2).decode().readAllBytes(), StandardCharsets.UTF_8),
+                is(event(2, eventStore.getInlineThreshold())));
+        assertThat(new String(eventAuditService.getEventByEventId(NODE, null, 1).decode().readAllBytes(), StandardCharsets.UTF_8),
+                is(event(1, 0)));
+        assertThat(segmentStore.findCatalogEntry(NODE, "main", 1).map(entry -> entry.getObjectId("_id")), is(Optional.of(old)));
+        assertThrows(NotFoundException.class, () -> eventAuditService.getEventByEventId(NODE, "deploys", 1));
+        assertThrows(NotFoundException.class, () -> eventAuditService.getEventByEventId("http://10.0.0.1:9999", "main", 1));
+
+        // A replay of a moved event is rejected, or resolved to the moved copy if deduplication is enabled
+        assertThrows(DuplicateEventException.class, () -> eventAuditService.saveEvent(new ByteArrayInputStream(event(1, 0).getBytes(StandardCharsets.UTF_8))));
+        assertThat(eventStore.getInlineCollection().countDocuments(), is(0L));
+        final EventDeduplicator deduplicator = new EventDeduplicator(eventStore, segmentStore, meterRegistry, true, false, 10);
+        assertThat(deduplicator.findCopy(new Document("source", NODE).append("type", "main").append("id", 2L), false), is(Optional.of(oldLarge)));
+
+        assertThat(tieringService.enforce().isEmpty(), is(true));
+    }
+
+    private String event(final long eventId, final int padding) {
+        return json.replace("65027303", Long.toString(eventId))
+                .replaceFirst("\\{", "{\"padding\": \"" + "0".repeat(padding) + "\",");
+    }
+
+    /**
+     * Stores an event as if it had been accepted at an instant.
+     */
+    private ObjectId storeEvent(final Instant accepted, final long eventId, final int padding) {
+
+        final byte[] event = event(eventId, padding).getBytes(StandardCharsets.UTF_8);
+
+        final EventStore.EventWriter writer = eventStore.openWriter(new ObjectId(Date.from(accepted)));
+        writer.write(event, 0, event.length);
+        return writer.complete("/events/main/" + eventId + ".json", new Document("source", NODE)
+                .append("type", "main")
+                .append("id", eventId)
+                .append("bytes", (long) event.length));
+    }
+}
@@ -0,0 +1,55 @@
+package com.stormeye.event.audit.service;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+import reactor.core.publisher.Flux;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.core.Is.is;
+
+/**
+ * Unit tests for the {@link ReactiveEventStream}.
+ *
+ * @author ian@meywood.com
+ */
+class ReactiveEventStreamTest {
+
+    @Test
+    void decodeSplitBuffers() {
+
+        final byte[] json = "{\"type\": \"main\", \"data\": \"decoded\"}".repeat(100).getBytes(StandardCharsets.UTF_8);
+        final byte[] encoded = EventCodec.ZSTD.encode(json);
+        final int half = encoded.length / 2;
+
+        final ReactiveEventStream eventStream = new ReactiveEventStream(
+                Flux.just(
+                        DefaultDataBufferFactory.sharedInstance.wrap(Arrays.copyOfRange(encoded, 0, half)),
+                        DefaultDataBufferFactory.sharedInstance.wrap(Arrays.copyOfRange(encoded, half, encoded.length))
+                ),
+                encoded.length,
+                EventCodec.ZSTD,
+                json.length
+        );
+
+        final ReactiveEventStream decoded = eventStream.decode();
+        assertThat(decoded.getCodec(), is(EventCodec.NONE));
+        assertThat(decoded.getSize(), is((long) json.length));
+
+        final DataBuffer joined = DataBufferUtils.join(decoded.getContent()).block();
+        final byte[] bytes = new byte[joined.readableByteCount()];
+        joined.read(bytes);
+
+        assertThat(bytes, is(json));
+    }
+
+    @Test
+    void decodeNone() {
+        final ReactiveEventStream eventStream = new ReactiveEventStream(Flux.empty(), 0, EventCodec.NONE, 0);
+        assertThat(eventStream.decode() == eventStream, is(true));
+    }
+}
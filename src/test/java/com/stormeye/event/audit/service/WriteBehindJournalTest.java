@@ -0,0 +1,147 @@
+package com.stormeye.event.audit.service;
+
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.core.Is.is;
+
+/**
+ * Unit tests for the {@link WriteBehindJournal}.
+ *
+ * @author ian@meywood.com
+ */
+class WriteBehindJournalTest {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void replayUnreleasedEvents() throws IOException {
+
+        final PendingEvent first = event(1L);
+        final PendingEvent second = event(2L);
+
+        try (WriteBehindJournal journal = new WriteBehindJournal(directory, 1024 * 1024, true)) {
+            journal.append(first);
+            journal.append(second);
+            journal.release(first);
+        }
+
+        final List<PendingEvent> replayed = new WriteBehindJournal(directory, 1024 * 1024, true).replay();
+
+        // Both events are replayed as the segment is only deleted once all of its events are released
+        assertThat(replayed.size(), is(2));
+        assertThat(replayed.get(1).getObjectId(), is(second.getObjectId()));
+        assertThat(replayed.get(1).getFilename(), is("/events/main/2.json"));
+        assertThat(replayed.get(1).getMetadata().getLong("id"), is(2L));
+        assertThat(new String(replayed.get(1).getData(), StandardCharsets.UTF_8), is("{\"id\":2}"));
+    }
+
+    @Test
+    void segmentDeletedWhenReleased() throws IOException {
+
+        try (WriteBehindJournal journal = new WriteBehindJournal(directory, 1, true)) {
+            final PendingEvent first = event(1L);
+            final PendingEvent second = event(2L);
+            journal.append(first);
+            // The first segment is full so the second event rotates to a new segment
+            journal.append(second);
+            assertThat(countSegments(), is(2L));
+
+            journal.release(first);
+            assertThat(countSegments(), is(1L));
+
+            journal.release(second);
+        }
+
+        assertThat(countSegments(), is(0L));
+    }
+
+    @Test
+    void replayStopsAtTornRecord() throws IOException {
+
+        try (WriteBehindJournal journal = new WriteBehindJournal(directory, 1024 * 1024, true)) {
+            journal.append(event(1L));
+        }
+
+        // Simulate a crash part way through writing a record
+        try (Stream<Path> paths = Files.list(directory)) {
+            Files.write(paths.findFirst().orElseThrow(), new byte[]{0, 0, 1, 0, 1, 2}, StandardOpenOption.APPEND);
+        }
+
+        assertThat(new WriteBehindJournal(directory, 1024 * 1024, true).replay().size(), is(1));
+    }
+
+    @Test
+    void concurrentAppendsShareForces() throws Exception {
+
+        final AtomicInteger forces = new AtomicInteger();
+        final int threads = 8;
+        final int appends = 10;
+
+        // A slow storage device, appends made while a force is in progress wait for the next force together
+        try (WriteBehindJournal journal = new WriteBehindJournal(directory, 1024 * 1024, true) {
+            @Override
+            void force(final FileChannel channel) throws IOException {
+                forces.incrementAndGet();
+                try {
+                    Thread.sleep(20);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                super.force(channel);
+            }
+        }) {
+            final ExecutorService executor = Executors.newFixedThreadPool(threads);
+            final List<Future<?>> futures = new ArrayList<>();
+            for (int i = 0; i < threads; i++) {
+                final long thread = i;
+                futures.add(executor.submit(() -> {
+                    for (int j = 0; j < appends; j++) {
+                        journal.append(event(thread * appends + j));
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+            executor.shutdown();
+        }
+
+        assertThat(new WriteBehindJournal(directory, 1024 * 1024, true).replay().size(), is(threads * appends));
+        assertThat(forces.get() < threads * appends / 2, is(true));
+    }
+
+    private PendingEvent event(final long id) {
+        return new PendingEvent(
+                new ObjectId(),
+                "/events/main/" + id + ".json",
+                new Document("type", "main").append("id", id),
+                ("{\"id\":" + id + "}").getBytes(StandardCharsets.UTF_8)
+        );
+    }
+
+    private long countSegments() throws IOException {
+        try (Stream<Path> paths = Files.list(directory)) {
+            return paths.count();
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package com.stormeye.event.audit.service;
+
+import com.mongodb.client.model.Filters;
+import org.apache.commons.io.IOUtils;
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.gridfs.GridFsOperations;
+import org.springframework.test.context.TestPropertySource;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.core.Is.is;
+import static org.hamcrest.core.IsNull.notNullValue;
+
+/**
+ * Tests for saving events with the {@link WriteBehindQueue} enabled.
+ *
+ * @author ian@meywood.com
+ */
+@SpringBootTest(properties = {"event.audit.write-behind.enabled=true", "event.audit.dedup.enabled=true"})
+@TestPropertySource(locations = "classpath:application-test.properties")
+class WriteBehindQueueTest {
+
+    private static final String JSON = "/kafka-events-main.json";
+
+    @Autowired
+    private EventAuditService eventAuditService;
+
+    @Autowired
+    private WriteBehindQueue writeBehindQueue;
+
+    @Autowired
+    private GridFsOperations gridFsOperations;
+
+    @Autowired
+    private EventStore eventStore;
+
+    @BeforeEach
+    void setUp() {
+        gridFsOperations.delete(new Query());
+        eventStore.getInlineCollection().deleteMany(new Document());
+    }
+
+    @Test
+    void saveEventWriteBehind() throws IOException, InterruptedException {
+
+        final InputStream in = WriteBehindQueueTest.class.getResourceAsStream(JSON);
+        final String id = eventAuditService.saveEvent(in);
+
+        assertThat(id, is(notNullValue()));
+
+        // Assert the event can be read whether or not it has been written yet
+        //noinspection ConstantConditions
+        assertThat(IOUtils.toByteArray(eventAuditService.getEventById(id)),
+                is(WriteBehindQueueTest.class.getResourceAsStream(JSON).readAllBytes()));
+
+        // Wait for the writers to store the event
+        for (int i = 0; i < 50 && eventStore.getInlineCollection().countDocuments() == 0; i++) {
+            //noinspection BusyWait
+            Thread.sleep(100);
+        }
+
+        final Document inline = eventStore.getInlineCollection().find(Filters.eq("_id", new ObjectId(id))).first();
+        assertThat(inline, is(notNullValue()));
+        assertThat(inline.getString("filename"), is("/events/main/65027303.json"));
+        assertThat(inline.get("metadata", Document.class).getLong("id"), is(65027303L));
+        assertThat(writeBehindQueue.getQueueDepth(), is(0));
+    }
+
+    @Test
+    void saveStoredEventWriteBehind() throws IOException {
+
+        //noinspection ConstantConditions
+        final byte[] json = new String(WriteBehindQueueTest.class.getResourceAsStream(JSON).readAllBytes(), StandardCharsets.UTF_8)
+                .replace("65027303", "65027320").getBytes(StandardCharsets.UTF_8);
+
+        // A copy stored before the recent keys were remembered, such as by another instance
+        final ObjectId storedId = new ObjectId();
+        final EventStore.EventWriter writer = eventStore.openWriter(storedId);
+        writer.write(json, 0, json.length);
+        writer.complete("/events/main/65027320.json", new Document("type", "main")
+                .append("source", "http://65.21.235.219:9999")
+                .append("dataType", "BlockAdded")
+                .append("id", 65027320L));
+
+        // The duplicate is acknowledged with the ID of the stored copy rather than an ID that is never stored
+        assertThat(eventAuditService.saveEvent(new ByteArrayInputStream(json)), is(storedId.toHexString()));
+        assertThat(writeBehindQueue.getQueueDepth(), is(0));
+    }
+}